@@ -0,0 +1,54 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+
+/**
+ * Benchmarks BFS leaning (see {@link LeaningBenchmark}), which keeps all
+ * partial solutions and so is run on smaller graphs: random graphs with
+ * 64 blank nodes take seconds and with 256 run out of memory.
+ *
+ * @author ahogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BFSLeaningBenchmark {
+	@Param({"cycle", "grid", "star", "random"})
+	public String family;
+
+	@Param({"8", "16", "32"})
+	public int size;
+
+	private List<Node[]> graph;
+
+	@Setup
+	public void setup(){
+		graph = Graphs.generate(family, size);
+	}
+
+	@Benchmark
+	public GraphLeaningResult bfs() throws Exception{
+		return new BFSGraphLeaning(graph).call();
+	}
+}
@@ -0,0 +1,80 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.yars.nx.Resource;
+
+import cl.uchile.dcc.blabel.lean.GraphLeaning;
+import cl.uchile.dcc.blabel.lean.util.Edge;
+import cl.uchile.dcc.blabel.lean.util.EdgeIndex;
+
+/**
+ * Benchmarks {@link EdgeIndex#subset(int[], int[])}, as used to check
+ * that a candidate has all the edges of a blank node in leaning, against
+ * the same check by {@link GraphLeaning#diff(TreeSet, TreeSet)} over
+ * sets of edges (as leaning did before). The blank node has every other
+ * edge of the candidate, so the whole of both is compared.
+ *
+ * @author ahogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EdgeSubsetBenchmark {
+	@Param({"4", "64", "1024"})
+	public int size;
+
+	private TreeSet<Edge> a;
+	private TreeSet<Edge> b;
+
+	private EdgeIndex index;
+	private int[] aEdges;
+	private int[] bEdges;
+
+	@Setup
+	public void setup(){
+		Resource na = new Resource("http://example.org/a");
+		Resource nb = new Resource("http://example.org/b");
+		a = new TreeSet<Edge>();
+		b = new TreeSet<Edge>();
+		index = new EdgeIndex();
+		for(int i=0; i<2*size; i++){
+			Edge e = new Edge(Graphs.P, new Resource("http://example.org/v"+i), i%3==0);
+			b.add(e);
+			index.add(nb, e);
+			if(i%2==0){
+				a.add(e);
+				index.add(na, e);
+			}
+		}
+		index.build();
+		aEdges = index.getEdges(index.nodeId(na));
+		bEdges = index.getEdges(index.nodeId(nb));
+	}
+
+	@Benchmark
+	public boolean subset(){
+		return index.subset(aEdges, bEdges)!=EdgeIndex.NOT_SUBSET;
+	}
+
+	@Benchmark
+	public boolean diff(){
+		return GraphLeaning.diff(a, b).get(0).isEmpty();
+	}
+}
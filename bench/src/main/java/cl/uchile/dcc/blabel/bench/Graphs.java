@@ -0,0 +1,128 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.test.SyntheticGraphs;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs.Family;
+
+/**
+ * Generates families of blank node graphs for benchmarks. Each family
+ * stresses a different phase:
+ * <ul>
+ * <li>chain: a directed path; asymmetric, so colouring alone
+ *   distinguishes all blank nodes (after ~n/2 rounds)</li>
+ * <li>cycle: a directed cycle; colouring does not distinguish any
+ *   blank nodes, so labelling must traverse; lean</li>
+ * <li>grid: a directed square grid; symmetric on the diagonal and not
+ *   lean (folds onto a path)</li>
+ * <li>star: blank nodes linking the same IRI to the same literal; all
+ *   but one are redundant for leaning</li>
+ * <li>random: a seeded random directed graph with two predicates</li>
+ * </ul>
+ * Other names are taken as a {@link SyntheticGraphs.Family} (e.g., clique,
+ * miyazaki, cfi, list, reification), generated with the size as k.
+ *
+ * @author ahogan
+ *
+ */
+public class Graphs {
+	public static final Resource P = new Resource("http://example.org/p");
+	public static final Resource Q = new Resource("http://example.org/q");
+	public static final Resource S = new Resource("http://example.org/s");
+	public static final Literal L = new Literal("x");
+
+	public static final long SEED = 0;
+
+	/**
+	 * @param family One of chain, cycle, grid, star, random, or a {@link SyntheticGraphs.Family}
+	 * @param n Approximate number of blank nodes
+	 * @return The graph
+	 */
+	public static List<Node[]> generate(String family, int n){
+		if(family.equals("chain")){
+			return chain(n);
+		} else if(family.equals("cycle")){
+			return cycle(n);
+		} else if(family.equals("grid")){
+			return grid((int)Math.ceil(Math.sqrt(n)));
+		} else if(family.equals("star")){
+			return star(n);
+		} else if(family.equals("random")){
+			return random(n, 2*n, SEED);
+		}
+		return SyntheticGraphs.generate(Family.valueOf(family.toUpperCase()), n, SEED);
+	}
+
+	public static List<Node[]> chain(int n){
+		List<Node[]> g = new ArrayList<Node[]>();
+		for(int i=0; i<n-1; i++){
+			g.add(new Node[]{ b(i), P, b(i+1) });
+		}
+		return g;
+	}
+
+	public static List<Node[]> cycle(int n){
+		List<Node[]> g = new ArrayList<Node[]>();
+		for(int i=0; i<n; i++){
+			g.add(new Node[]{ b(i), P, b((i+1)%n) });
+		}
+		return g;
+	}
+
+	public static List<Node[]> grid(int k){
+		List<Node[]> g = new ArrayList<Node[]>();
+		for(int i=0; i<k; i++){
+			for(int j=0; j<k; j++){
+				if(i+1<k)
+					g.add(new Node[]{ b(i*k+j), P, b((i+1)*k+j) });
+				if(j+1<k)
+					g.add(new Node[]{ b(i*k+j), P, b(i*k+j+1) });
+			}
+		}
+		return g;
+	}
+
+	public static List<Node[]> star(int n){
+		List<Node[]> g = new ArrayList<Node[]>();
+		for(int i=0; i<n; i++){
+			g.add(new Node[]{ S, P, b(i) });
+			g.add(new Node[]{ b(i), Q, L });
+		}
+		return g;
+	}
+
+	public static List<Node[]> random(int n, int edges, long seed){
+		Random r = new Random(seed);
+		List<Node[]> g = new ArrayList<Node[]>();
+		for(int i=0; i<edges; i++){
+			g.add(new Node[]{ b(r.nextInt(n)), r.nextBoolean() ? P : Q, b(r.nextInt(n)) });
+		}
+		return g;
+	}
+
+	/**
+	 * @return The graph serialised as N-Triples
+	 */
+	public static byte[] toNTriples(List<Node[]> g) throws IOException{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for(Node[] t:g){
+			baos.write((t[0].toN3()+" "+t[1].toN3()+" "+t[2].toN3()+" .\n").getBytes(Charsets.UTF_8));
+		}
+		return baos.toByteArray();
+	}
+
+	private static BNode b(int i){
+		return new BNode("b"+i);
+	}
+}
@@ -0,0 +1,93 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.label.GraphColouring;
+import cl.uchile.dcc.blabel.label.GraphLabelling;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
+import cl.uchile.dcc.blabel.label.util.HashGraph;
+
+/**
+ * Benchmarks the phases of labelling: building the {@link HashGraph},
+ * splitting it into blank node partitions, colouring and the full
+ * labelling.
+ *
+ * The colouring benchmark runs {@link GraphColouring#execute()}, i.e.,
+ * colour refinement followed by traversal of the search tree if the
+ * colouring does not distinguish all blank nodes: on chains only the
+ * refinement runs; on cycles and grids the traversal dominates. Other
+ * families of {@link cl.uchile.dcc.blabel.test.SyntheticGraphs} can be
+ * given with -p family=...; cliques, Miyazaki and CFI graphs are not
+ * run by default as they take seconds at small sizes (e.g., cliques
+ * with 16 blank nodes).
+ *
+ * @author ahogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LabellingBenchmark {
+	@Param({"chain", "cycle", "grid", "random", "list", "reification"})
+	public String family;
+
+	@Param({"16", "64", "256"})
+	public int size;
+
+	private List<Node[]> graph;
+	private HashGraph hashGraph;
+	private GraphLabellingArgs args;
+
+	@Setup
+	public void setup(){
+		graph = Graphs.generate(family, size);
+		args = new GraphLabellingArgs();
+		hashGraph = hashGraph();
+	}
+
+	@Benchmark
+	public HashGraph hashGraph(){
+		HashGraph hg = new HashGraph(args.getHashFunction());
+		for(Node[] t:graph){
+			hg.addTriple(t);
+		}
+		return hg;
+	}
+
+	@Benchmark
+	public Collection<HashGraph> blankNodePartition(){
+		return hashGraph.blankNodePartition();
+	}
+
+	@Benchmark
+	public GraphColouring colouring() throws Exception{
+		// colouring updates the dynamic hashes, so work on a copy
+		GraphColouring gc = new GraphColouring(hashGraph.branch());
+		gc.execute();
+		return gc;
+	}
+
+	@Benchmark
+	public GraphLabellingResult label() throws Exception{
+		return new GraphLabelling(graph, args).call();
+	}
+}
@@ -0,0 +1,55 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+
+/**
+ * Benchmarks DFS leaning, where most time is spent in the join (the
+ * search for a proper endomorphism). Cycles are lean (the search must
+ * fail); grids and random graphs fold; stars are trivially non-lean.
+ * Random graphs with 64 blank nodes already take seconds.
+ *
+ * @author ahogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LeaningBenchmark {
+	@Param({"cycle", "grid", "star", "random"})
+	public String family;
+
+	@Param({"16", "32", "64"})
+	public int size;
+
+	private List<Node[]> graph;
+
+	@Setup
+	public void setup(){
+		graph = Graphs.generate(family, size);
+	}
+
+	@Benchmark
+	public GraphLeaningResult dfs() throws Exception{
+		return new DFSGraphLeaning(graph).call();
+	}
+}
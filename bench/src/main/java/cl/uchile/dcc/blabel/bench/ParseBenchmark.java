@@ -0,0 +1,89 @@
+package cl.uchile.dcc.blabel.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.io.MappedNxReader;
+
+/**
+ * Benchmarks loading N-Triples with {@link NxParser} (from memory) and
+ * with {@link MappedNxReader} (from a temporary file, likely cached).
+ * The mapped reader hashes the bytes of each term rather than creating
+ * nodes, which is how it is used for grouping and interning.
+ *
+ * @author ahogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+	@Param({"random"})
+	public String family;
+
+	@Param({"1000", "100000"})
+	public int size;
+
+	private byte[] nt;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException{
+		nt = Graphs.toNTriples(Graphs.generate(family, size));
+		file = File.createTempFile("blabel-bench", ".nt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(nt);
+		fos.close();
+	}
+
+	@TearDown
+	public void tearDown(){
+		file.delete();
+	}
+
+	@Benchmark
+	public void nxParser(Blackhole bh) throws IOException{
+		NxParser nxp = new NxParser(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(nt), Charsets.UTF_8)));
+		while(nxp.hasNext()){
+			bh.consume(nxp.next());
+		}
+	}
+
+	@Benchmark
+	public void mappedReader(Blackhole bh) throws IOException{
+		MappedNxReader r = new MappedNxReader(file);
+		while(r.next()){
+			// touch the bytes of each term
+			for(int i=0; i<r.length(); i++){
+				bh.consume(r.hashTerm(i));
+			}
+		}
+		r.close();
+	}
+}
@@ -0,0 +1,391 @@
+package cl.uchile.dcc.blabel.cli;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.test.RunRecorder;
+
+/**
+ * Compares the JSON Lines results of a baseline run and a candidate run
+ * (written with -j by {@link RunSyntheticEvaluation} or
+ * {@link RunNQuadsTest}) and flags regressions:
+ * <ul>
+ * <li>FAILED: a phase of a document that succeeded in the baseline but
+ *   timed out or failed in the candidate</li>
+ * <li>SLOWER: a phase of a document whose metric is significantly higher
+ *   in the candidate (one-sided Mann-Whitney U test over repeated runs)
+ *   by at least the given ratio of medians</li>
+ * </ul>
+ * Overall, the median ratios of all documents are tested with a one-sided
+ * Wilcoxon signed-rank test (on log ratios), which also works for single
+ * runs. Several files can be given for either side (e.g., repeated runs).
+ *
+ * Exits with status 1 if a regression is flagged.
+ *
+ * @author ahogan
+ *
+ */
+public class CompareRuns {
+	static Logger LOG = Logger.getLogger(CompareRuns.class.getSimpleName());
+	public static final Level LOG_LEVEL = Level.WARNING;
+	static{
+		for(Handler h : LOG.getParent().getHandlers()){
+		    if(h instanceof ConsoleHandler){
+		        h.setLevel(LOG_LEVEL);
+		    }
+		}
+		LOG.setLevel(LOG_LEVEL);
+	}
+
+	public static final String DEFAULT_METRIC = RunRecorder.MS;
+	public static final double DEFAULT_ALPHA = 0.05;
+	public static final double DEFAULT_RATIO = 1.1;
+	public static final double DEFAULT_MIN = 10;
+
+	public static void main(String[] args) throws IOException{
+		Option aO = new Option("a", "baseline JSON Lines file(s), comma separated");
+		aO.setArgs(1);
+		aO.setRequired(true);
+
+		Option bO = new Option("b", "candidate JSON Lines file(s), comma separated");
+		bO.setArgs(1);
+		bO.setRequired(true);
+
+		Option mO = new Option("m", "numeric metric to compare (default "+DEFAULT_METRIC+"; e.g., "+RunRecorder.PEAK_HEAP+", joins, leaves)");
+		mO.setArgs(1);
+
+		Option alphaO = new Option("alpha", "significance level (default "+DEFAULT_ALPHA+")");
+		alphaO.setArgs(1);
+
+		Option rO = new Option("r", "minimum ratio of candidate to baseline median to flag (default "+DEFAULT_RATIO+")");
+		rO.setArgs(1);
+
+		Option minO = new Option("min", "ignore documents where both medians are below this value (default "+DEFAULT_MIN+"; noise)");
+		minO.setArgs(1);
+
+		Option vO = new Option("v", "print a line for every document compared (not only regressions)");
+
+		Option helpO = new Option("h", "print help");
+
+		Options options = new Options();
+		options.addOption(aO);
+		options.addOption(bO);
+		options.addOption(mO);
+		options.addOption(alphaO);
+		options.addOption(rO);
+		options.addOption(minO);
+		options.addOption(vO);
+		options.addOption(helpO);
+
+		CommandLineParser parser = new BasicParser();
+		CommandLine cmd = null;
+
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println("***ERROR: " + e.getClass() + ": " + e.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		// print help options and return
+		if (cmd.hasOption("h")) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		String metric = cmd.hasOption("m") ? cmd.getOptionValue("m") : DEFAULT_METRIC;
+		double alpha = cmd.hasOption("alpha") ? Double.parseDouble(cmd.getOptionValue("alpha")) : DEFAULT_ALPHA;
+		double ratio = cmd.hasOption("r") ? Double.parseDouble(cmd.getOptionValue("r")) : DEFAULT_RATIO;
+		double min = cmd.hasOption("min") ? Double.parseDouble(cmd.getOptionValue("min")) : DEFAULT_MIN;
+		boolean verbose = cmd.hasOption("v");
+
+		TreeMap<String,Samples> base = load(cmd.getOptionValue("a").split(","), metric);
+		TreeMap<String,Samples> cand = load(cmd.getOptionValue("b").split(","), metric);
+
+		int compared = 0, slower = 0, failed = 0, fixed = 0;
+		ArrayList<Double> logRatios = new ArrayList<Double>();
+
+		TreeSet<String> keys = new TreeSet<String>(base.keySet());
+		keys.retainAll(cand.keySet());
+		for(String key:keys){
+			Samples a = base.get(key);
+			Samples b = cand.get(key);
+
+			if(a.ok>0 && b.ok==0){
+				failed++;
+				System.out.println("FAILED\t"+key+"\t"+a.ok+"/"+a.runs+"\t"+b.ok+"/"+b.runs);
+				continue;
+			} else if(a.ok==0 && b.ok>0){
+				fixed++;
+				if(verbose) System.out.println("FIXED\t"+key+"\t"+a.ok+"/"+a.runs+"\t"+b.ok+"/"+b.runs);
+				continue;
+			} else if(a.values.isEmpty() || b.values.isEmpty()){
+				continue;
+			}
+
+			double[] va = a.toArray(), vb = b.toArray();
+			double ma = median(va), mb = median(vb);
+			if(ma<min && mb<min){
+				continue;
+			}
+			compared++;
+
+			// avoid division by zero for counts
+			double r = (mb+1)/(ma+1);
+			logRatios.add(Math.log(r));
+			double p = mannWhitneyP(va, vb);
+
+			String status = "SAME";
+			if(p<alpha && r>=ratio){
+				status = "SLOWER";
+				slower++;
+			} else if(mannWhitneyP(vb, va)<alpha && 1/r>=ratio){
+				status = "FASTER";
+			}
+			if(verbose || status.equals("SLOWER")){
+				System.out.println(status+"\t"+key+"\t"+ma+"\t"+mb+"\t"+String.format("%.3f", r)+"\t"+String.format("%.4g", p));
+			}
+		}
+
+		double[] lr = new double[logRatios.size()];
+		for(int i=0; i<lr.length; i++){
+			lr[i] = logRatios.get(i);
+		}
+		double geo = lr.length==0 ? 1 : Math.exp(mean(lr));
+		double overallP = wilcoxonP(lr);
+		boolean overall = overallP<alpha && geo>=ratio;
+
+		System.out.println("===============================================");
+		System.out.println("Metric:\t"+metric);
+		System.out.println("===============================================");
+		System.out.println("Documents/phases in both runs:\t"+keys.size());
+		System.out.println("===============================================");
+		System.out.println("Compared (above minimum):\t"+compared);
+		System.out.println("===============================================");
+		System.out.println("Significantly slower:\t"+slower);
+		System.out.println("===============================================");
+		System.out.println("Failed in candidate only:\t"+failed);
+		System.out.println("===============================================");
+		System.out.println("Failed in baseline only:\t"+fixed);
+		System.out.println("===============================================");
+		System.out.println("Geometric mean ratio (candidate/baseline):\t"+String.format("%.3f", geo));
+		System.out.println("===============================================");
+		System.out.println("Overall slowdown p-value (Wilcoxon signed-rank):\t"+String.format("%.4g", overallP)+(overall ? "\tSLOWER" : ""));
+		System.out.println("===============================================");
+
+		if(slower>0 || failed>0 || overall){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Values of the metric for a phase of a document over several runs.
+	 */
+	static class Samples {
+		int runs = 0;
+		int ok = 0;
+		ArrayList<Double> values = new ArrayList<Double>();
+
+		double[] toArray(){
+			double[] a = new double[values.size()];
+			for(int i=0; i<a.length; i++){
+				a[i] = values.get(i);
+			}
+			return a;
+		}
+	}
+
+	/**
+	 * Loads doc records keyed by phase and name.
+	 */
+	static TreeMap<String,Samples> load(String[] files, String metric) throws IOException{
+		TreeMap<String,Samples> samples = new TreeMap<String,Samples>();
+		for(String f:files){
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f.trim()), Charsets.UTF_8));
+			String line = null;
+			int ln = 0;
+			while((line = br.readLine())!=null){
+				ln++;
+				if(line.trim().isEmpty())
+					continue;
+				Map<String,Object> r = null;
+				try{
+					r = RunRecorder.parse(line);
+				} catch(IllegalArgumentException e){
+					LOG.warning("Skipping line "+ln+" of "+f+": "+e.getMessage());
+					continue;
+				}
+				if(!RunRecorder.DOC.equals(r.get(RunRecorder.TYPE)))
+					continue;
+
+				String key = r.get(RunRecorder.PHASE)+"\t"+r.get(RunRecorder.NAME);
+				Samples s = samples.get(key);
+				if(s==null){
+					s = new Samples();
+					samples.put(key, s);
+				}
+				s.runs++;
+				if(RunRecorder.OK.equals(r.get(RunRecorder.STATUS))){
+					s.ok++;
+					Object v = r.get(metric);
+					if(v instanceof Number){
+						s.values.add(((Number)v).doubleValue());
+					}
+				}
+			}
+			br.close();
+		}
+		return samples;
+	}
+
+	public static double median(double[] v){
+		double[] s = v.clone();
+		Arrays.sort(s);
+		int n = s.length;
+		return n%2==1 ? s[n/2] : (s[n/2-1]+s[n/2])/2;
+	}
+
+	private static double mean(double[] v){
+		double sum = 0;
+		for(double d:v){
+			sum += d;
+		}
+		return sum/v.length;
+	}
+
+	/**
+	 * One-sided Mann-Whitney U test with the normal approximation
+	 * (with correction for ties and continuity).
+	 * @return p-value for the alternative that values in b tend to be
+	 *   greater than those in a (1 if either is empty)
+	 */
+	public static double mannWhitneyP(double[] a, double[] b){
+		int na = a.length, nb = b.length, n = na+nb;
+		if(na==0 || nb==0)
+			return 1;
+		double[] all = new double[n];
+		System.arraycopy(a, 0, all, 0, na);
+		System.arraycopy(b, 0, all, na, nb);
+		double[] ranks = new double[n];
+		double ties = rank(all, ranks);
+
+		double rb = 0;
+		for(int i=na; i<n; i++){
+			rb += ranks[i];
+		}
+		double u = rb - nb*(nb+1)/2d;
+		double mu = na*(double)nb/2d;
+		double var = na*(double)nb/12d * ((n+1) - ties/(n*(double)(n-1)));
+		if(var<=0)
+			return 1;
+		double z = (u - mu - 0.5)/Math.sqrt(var);
+		return 1-normalCdf(z);
+	}
+
+	/**
+	 * One-sided Wilcoxon signed-rank test with the normal approximation
+	 * (zero differences dropped; correction for ties and continuity).
+	 * @return p-value for the alternative that the differences tend to
+	 *   be positive (1 if there are none)
+	 */
+	public static double wilcoxonP(double[] d){
+		ArrayList<Double> nz = new ArrayList<Double>();
+		ArrayList<Boolean> pos = new ArrayList<Boolean>();
+		for(double x:d){
+			if(x!=0){
+				nz.add(Math.abs(x));
+				pos.add(x>0);
+			}
+		}
+		int n = nz.size();
+		if(n==0)
+			return 1;
+		double[] abs = new double[n];
+		for(int i=0; i<n; i++){
+			abs[i] = nz.get(i);
+		}
+		double[] ranks = new double[n];
+		double ties = rank(abs, ranks);
+
+		double w = 0;
+		for(int i=0; i<n; i++){
+			if(pos.get(i))
+				w += ranks[i];
+		}
+		double mu = n*(n+1)/4d;
+		double var = n*(n+1)*(2d*n+1)/24d - ties/48d;
+		if(var<=0)
+			return 1;
+		double z = (w - mu - 0.5)/Math.sqrt(var);
+		return 1-normalCdf(z);
+	}
+
+	/**
+	 * Assigns ranks from 1 (ties get the average rank).
+	 * @return the sum of t^3-t over groups of t ties
+	 */
+	private static double rank(final double[] v, double[] ranks){
+		int n = v.length;
+		Integer[] order = new Integer[n];
+		for(int i=0; i<n; i++){
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer x, Integer y){
+				return Double.compare(v[x], v[y]);
+			}
+		});
+		double ties = 0;
+		int i = 0;
+		while(i<n){
+			int j = i;
+			while(j+1<n && v[order[j+1]]==v[order[i]]){
+				j++;
+			}
+			double r = (i+j)/2d+1;
+			for(int k=i; k<=j; k++){
+				ranks[order[k]] = r;
+			}
+			double t = j-i+1;
+			ties += t*t*t-t;
+			i = j+1;
+		}
+		return ties;
+	}
+
+	/**
+	 * Standard normal CDF (Abramowitz and Stegun 7.1.26 for erf;
+	 * absolute error below 1.5e-7).
+	 */
+	static double normalCdf(double z){
+		double x = Math.abs(z)/Math.sqrt(2);
+		double t = 1/(1+0.3275911*x);
+		double erf = 1 - (((((1.061405429*t - 1.453152027)*t) + 1.421413741)*t - 0.284496736)*t + 0.254829592)*t*Math.exp(-x*x);
+		return z>=0 ? (1+erf)/2 : (1-erf)/2;
+	}
+}
@@ -1,6 +1,7 @@
 package cl.uchile.dcc.blabel.cli;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,12 +23,17 @@ import org.semanticweb.yars.nx.Node;
 import org.semanticweb.yars.nx.parser.NxParser;
 import org.semanticweb.yars.util.FlyweightNodeIterator;
 
+import cl.uchile.dcc.blabel.io.MappedNxReader;
+
 public class Control {
 	static Logger log = Logger.getLogger(Control.class.getSimpleName());
 	
 	public static int TICKS = 10000000;
 	public static int FW = 100000;
 	
+	// context of statements without one (no term is empty)
+	private static final byte[] NO_CONTEXT = new byte[0];
+	
 	public static void main(String[] args) throws IOException{
 		long b4 = System.currentTimeMillis();
 		
@@ -38,11 +44,15 @@ public class Control {
 		Option ingzO = new Option("igz", "input file is GZipped");
 		ingzO.setArgs(0);
 		
+		Option mmO = new Option("mm", "memory-map input and tokenise without parsing terms (not for GZipped input)");
+		mmO.setArgs(0);
+		
 		Option helpO = new Option("h", "print help");
 		
 		Options options = new Options();
 		options.addOption(inO);
 		options.addOption(ingzO);
+		options.addOption(mmO);
 		options.addOption(helpO);
 
 		CommandLineParser parser = new BasicParser();
@@ -64,6 +74,19 @@ public class Control {
 			return;
 		}
 		
+		if(cmd.hasOption("mm")){
+			if(cmd.hasOption("igz")){
+				System.err.println("***ERROR: cannot memory-map GZipped input (-mm and -igz)");
+				return;
+			}
+			try{
+				controlMapped(new File(cmd.getOptionValue("i")), b4);
+			} catch(org.semanticweb.yars.nx.parser.ParseException e){
+				throw new IOException(e);
+			}
+			return;
+		}
+		
 		InputStream is = new FileInputStream(cmd.getOptionValue("i"));
 		if(cmd.hasOption("igz"))
 			is = new GZIPInputStream(is);
@@ -76,7 +99,9 @@ public class Control {
 			return;
 		}
 		
+		// context of the current document (null for no context)
 		Node old = null;
+		boolean started = false;
 		Node[] stmt = null;
 		boolean done = false; 
 		
@@ -106,7 +131,7 @@ public class Control {
 				}
 			}
 			
-			if(done || (old!=null && !stmt[3].equals(old))){
+			if(done || (started && !sameContext(old, context(stmt)))){
 				doc++;
 				System.out.println(old+"\t"+stmts.size());
 				stmts.clear();
@@ -115,7 +140,8 @@ public class Control {
 
 			if(!done){
 				stmts.add(stmt);
-				old = stmt[3];
+				old = context(stmt);
+				started = true;
 				if(!bnode && (stmt[0] instanceof BNode || stmt[2] instanceof BNode)){
 					bnode = true;
 				}
@@ -137,4 +163,102 @@ public class Control {
 		
 		log.info("Finished in "+(System.currentTimeMillis()-b4));
 	}
+	
+	/**
+	 * Same as the main method but reads the input through a memory-mapped
+	 * tokeniser: contexts are compared as bytes and only the context of
+	 * each document is parsed (to print it). Statements without a context
+	 * (triples) are taken to be in the same (default) document.
+	 */
+	private static void controlMapped(File in, long b4) throws IOException, org.semanticweb.yars.nx.parser.ParseException{
+		MappedNxReader mr = new MappedNxReader(in);
+		
+		log.info("Starting process ...");
+		
+		// context of the current document (empty for no context)
+		byte[] old = null;
+		Node oldNode = null;
+		boolean done = false;
+		
+		int doc = 0;
+		long read = 0;
+		int stmts = 0;
+		
+		boolean bnode = false;
+		
+		while(!done){
+			done = !mr.next();
+			if(!done){
+				read++;
+				
+				if(read%TICKS==0){
+					log.info("Read "+read+" input statements and "+doc+" documents");
+				}
+			}
+			
+			if(done || (old!=null && !sameContext(mr, old))){
+				if(old==null){
+					log.info("Empty input");
+					mr.close();
+					return;
+				}
+				doc++;
+				System.out.println(oldNode+"\t"+stmts);
+				stmts = 0;
+				bnode = false;
+			} 
+
+			if(!done){
+				stmts++;
+				if(old==null || stmts==1){
+					if(mr.length()>3){
+						old = mr.getTermBytes(3);
+						oldNode = mr.getNode(3);
+					} else{
+						old = NO_CONTEXT;
+						oldNode = null;
+					}
+				}
+				if(!bnode && (mr.isBNode(0) || mr.isBNode(2))){
+					bnode = true;
+				}
+			}
+		}
+		
+		log.info("Finished! Read "+read+" input statements and "+doc+" documents.");
+		
+		System.out.println("===============================================");
+		System.out.println("Number of statements read:\t"+read);
+		System.out.println("===============================================");
+		System.out.println("Number of documents read:\t"+doc);
+		System.out.println("===============================================");
+		System.out.println("Total duration:\t"+(System.currentTimeMillis()-b4));
+		System.out.println("===============================================");
+		
+		mr.close();
+		
+		log.info("Finished in "+(System.currentTimeMillis()-b4));
+	}
+	
+	/**
+	 * @return The context of the statement or null if a triple
+	 */
+	private static Node context(Node[] stmt){
+		return stmt.length>3 ? stmt[3] : null;
+	}
+	
+	private static boolean sameContext(Node a, Node b){
+		return a==null ? b==null : a.equals(b);
+	}
+	
+	/**
+	 * @return true if the current statement has the given context (or has
+	 * no context and the given context is {@link #NO_CONTEXT})
+	 */
+	private static boolean sameContext(MappedNxReader mr, byte[] context){
+		if(mr.length()>3){
+			return mr.termEquals(3, context);
+		}
+		return context==NO_CONTEXT;
+	}
 }
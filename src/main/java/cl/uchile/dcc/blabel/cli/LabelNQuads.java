@@ -0,0 +1,288 @@
+package cl.uchile.dcc.blabel.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Iterator;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.util.CallbackNxBufferedWriter;
+import org.semanticweb.yars.util.FlyweightNodeIterator;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import cl.uchile.dcc.blabel.io.MappedNxIterator;
+import cl.uchile.dcc.blabel.io.MappedNxReader;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline.NQuadsPipelineArgs;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline.NQuadsPipelineResult;
+
+/**
+ * Main method for leaning and/or labelling each named graph in an
+ * N-Quads file. Statements of a named graph must be contiguous in the
+ * input (e.g., sorted by context); statements without a context
+ * (triples) are treated as part of the default graph.
+ *
+ * Graphs are processed in parallel and written in input order.
+ *
+ * @author ahogan
+ *
+ */
+public class LabelNQuads {
+	static final Logger LOG = Logger.getLogger(LabelNQuads.class.getSimpleName());
+	public static final Level LOG_LEVEL = Level.INFO;
+	static{
+		for(Handler h : LOG.getParent().getHandlers()){
+		    if(h instanceof ConsoleHandler){
+		        h.setLevel(LOG_LEVEL);
+		    }
+		}
+		LOG.setLevel(LOG_LEVEL);
+	}
+
+	public static int FW = 100000;
+
+	public static String STD = LabelRDFGraph.STD;
+
+	public static String DEFAULT_ENCODING = LabelRDFGraph.DEFAULT_ENCODING;
+
+	// in seconds
+	public static int DEFAULT_TIMEOUT = 600;
+
+	public static void main(String[] args) throws IOException, InterruptedException{
+		long b4 = System.currentTimeMillis();
+
+		Option iO = new Option("i", "input file [enter '"+STD+"' for stdin]");
+		iO.setArgs(1);
+		iO.setRequired(true);
+
+		Option ieO = new Option("ie", "input encoding [default "+DEFAULT_ENCODING+"]");
+		ieO.setArgs(1);
+
+		Option igzO = new Option("igz", "input is GZipped");
+		igzO.setArgs(0);
+
+		Option mmO = new Option("mm", "memory-map the input file [input must be an uncompressed UTF-8 file]");
+		mmO.setArgs(0);
+
+		Option helpO = new Option("h", "print help");
+
+		Option lO = new Option("l", "lean each graph beforehand");
+		lO.setArgs(0);
+
+		Option sO = new Option("s", "hashing scheme: 0:md5 1:murmur3_128 2:sha1 3:sha256 4:sha512 (default "+GraphLabellingArgs.DEFAULT_HASHING.toString()+")");
+		sO.setArgs(1);
+
+		Option bO = new Option("b", "output labels as blank nodes");
+		bO.setArgs(0);
+
+		Option pO = new Option("p", "string prefix to append to label [make sure it's valid for URI or blank node!] [default empty string])");
+		pO.setArgs(1);
+
+		Option ddpO = new Option("ddp", "don't distinguish partitions [isomorphic blank node partitions will be removed; by default they are distinguished and kept]");
+		ddpO.setArgs(0);
+
+		Option uppO = new Option("upp", "keep blank nodes unique per partition, not graph [blank nodes are labelled only using information from the partition; by default the entire graph is encoded in the blank node label including ground triples]");
+		uppO.setArgs(0);
+
+		Option oO = new Option("o", "output file [enter '"+STD+"' for stdout]");
+		oO.setArgs(1);
+		oO.setRequired(true);
+
+		Option ogzO = new Option("ogz", "output should be GZipped");
+		ogzO.setArgs(0);
+
+		Option oeO = new Option("oe", "output encoding [default "+DEFAULT_ENCODING+"]");
+		oeO.setArgs(1);
+
+		Option nO = new Option("n", "number of worker threads [default "+NQuadsPipelineArgs.DEFAULT_THREADS+"]");
+		nO.setArgs(1);
+
+		Option tO = new Option("t", "timeout for each graph in seconds, 0 for none [default "+DEFAULT_TIMEOUT+"]");
+		tO.setArgs(1);
+
+		Option qO = new Option("q", "maximum number of graphs read but not yet written [default "+NQuadsPipelineArgs.DEFAULT_QUEUE_PER_THREAD+" per thread]");
+		qO.setArgs(1);
+
+		Option dfO = new Option("df", "drop graphs that fail or time out [by default they are written unchanged]");
+		dfO.setArgs(0);
+
+		Options options = new Options();
+		options.addOption(iO);
+		options.addOption(ieO);
+		options.addOption(igzO);
+		options.addOption(mmO);
+		options.addOption(sO);
+		options.addOption(helpO);
+		options.addOption(lO);
+		options.addOption(oO);
+		options.addOption(oeO);
+		options.addOption(ogzO);
+		options.addOption(pO);
+		options.addOption(bO);
+		options.addOption(ddpO);
+		options.addOption(uppO);
+		options.addOption(nO);
+		options.addOption(tO);
+		options.addOption(qO);
+		options.addOption(dfO);
+
+		CommandLineParser parser = new BasicParser();
+		CommandLine cmd = null;
+
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println("***ERROR: " + e.getClass() + ": " + e.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		// print help options and return
+		if (cmd.hasOption(helpO.getOpt())) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		GraphLabellingArgs cla = new GraphLabellingArgs();
+		if(cmd.getOptionValue(sO.getOpt())!=null){
+			int s = Integer.parseInt(cmd.getOptionValue(sO.getOpt()));
+			HashFunction hf = null;
+			switch(s){
+			case 0: hf = Hashing.md5(); break;
+			case 1: hf = Hashing.murmur3_128(); break;
+			case 2: hf = Hashing.sha1(); break;
+			case 3: hf = Hashing.sha256(); break;
+			case 4: hf = Hashing.sha512(); break;
+			}
+			if(hf!=null)
+				cla.setHashFunction(hf);
+		}
+		cla.setDistinguishIsoPartitions(!cmd.hasOption(ddpO.getOpt()));
+		cla.setUniquePerGraph(!cmd.hasOption(uppO.getOpt()));
+
+		NQuadsPipelineArgs pa = new NQuadsPipelineArgs();
+		pa.setLabellingArgs(cla);
+		pa.setLean(cmd.hasOption(lO.getOpt()));
+		pa.setWriteBnode(cmd.hasOption(bO.getOpt()));
+		if(cmd.hasOption(pO.getOpt())){
+			pa.setPrefix(cmd.getOptionValue(pO.getOpt()));
+		}
+		if(cmd.hasOption(nO.getOpt())){
+			pa.setThreads(Integer.parseInt(cmd.getOptionValue(nO.getOpt())));
+		}
+		if(cmd.hasOption(qO.getOpt())){
+			pa.setQueueSize(Integer.parseInt(cmd.getOptionValue(qO.getOpt())));
+		}
+		int timeout = DEFAULT_TIMEOUT;
+		if(cmd.hasOption(tO.getOpt())){
+			timeout = Integer.parseInt(cmd.getOptionValue(tO.getOpt()));
+		}
+		pa.setTimeout(timeout * 1000l);
+		pa.setWriteFailed(!cmd.hasOption(dfO.getOpt()));
+
+		String istr = cmd.getOptionValue(iO.getOpt());
+
+		Closeable in = null;
+		Iterator<Node[]> iter = null;
+		if(cmd.hasOption(mmO.getOpt())){
+			if(istr.equals(STD) || cmd.hasOption(igzO.getOpt())){
+				System.err.println("***ERROR: can only memory-map an uncompressed input file (-"+mmO.getOpt()+")");
+				HelpFormatter formatter = new HelpFormatter();
+				formatter.printHelp("parameters:", options );
+				return;
+			}
+			// re-uses node references like the flyweight iterator
+			MappedNxReader mr = new MappedNxReader(new File(istr));
+			in = mr;
+			iter = new MappedNxIterator(mr, FW);
+		} else{
+			InputStream is = null;
+			if(istr.equals(STD)){
+				is = System.in;
+			} else{
+				is = new FileInputStream(istr);
+			}
+			if(cmd.hasOption(igzO.getOpt())){
+				is = new GZIPInputStream(is);
+			}
+
+			String iestr = cmd.getOptionValue(ieO.getOpt());
+			if(iestr==null){
+				iestr = DEFAULT_ENCODING;
+			}
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(is,iestr));
+			in = br;
+			iter = new NxParser(br);
+
+			// re-use node references: saves mem
+			// at cost of map lookups
+			iter = new FlyweightNodeIterator(FW,iter);
+		}
+
+		OutputStream os = null;
+		String ostr = cmd.getOptionValue(oO.getOpt());
+		if(ostr.equals(STD)){
+			os = System.out;
+		} else{
+			os = new FileOutputStream(ostr);
+		}
+		if(cmd.hasOption(ogzO.getOpt())){
+			os = new GZIPOutputStream(os);
+		}
+
+		String oestr = cmd.getOptionValue(oeO.getOpt());
+		if(oestr==null){
+			oestr = DEFAULT_ENCODING;
+		}
+
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os,oestr));
+		CallbackNxBufferedWriter cb = new CallbackNxBufferedWriter(bw);
+
+		LOG.info("Processing graphs with "+pa.getThreads()+" threads, timeout "+timeout+" s, lean "+pa.getLean()+" ...");
+		NQuadsPipeline pipe = new NQuadsPipeline(iter, cb, pa);
+		NQuadsPipelineResult res = pipe.call();
+		LOG.info("... done.");
+
+		LOG.info("Statements read: "+res.getStatementsRead());
+		LOG.info("Statements written: "+res.getStatementsWritten());
+		LOG.info("Graphs: "+res.getDocumentCount());
+		LOG.info("Graphs with blank nodes: "+res.getBnodeDocumentCount());
+		if(pa.getLean()){
+			LOG.info("Triples removed by leaning: "+res.getLeanedTripleCount());
+		}
+		LOG.info("Graphs timed out: "+res.getTimeoutCount());
+		LOG.info("Graphs failed: "+res.getFailureCount());
+
+		LOG.info("Finished in "+(System.currentTimeMillis()-b4)+" ms");
+		in.close();
+		bw.close();
+	}
+}
@@ -2,6 +2,8 @@ package cl.uchile.dcc.blabel.cli;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -13,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -35,16 +38,22 @@ import org.semanticweb.yars.nx.parser.NxParser;
 import org.semanticweb.yars.util.CallbackNxBufferedWriter;
 import org.semanticweb.yars.util.FlyweightNodeIterator;
 
+import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 
+import cl.uchile.dcc.blabel.io.BinaryGraphWriter;
+import cl.uchile.dcc.blabel.io.MappedNxIterator;
+import cl.uchile.dcc.blabel.io.MappedNxReader;
 import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
 import cl.uchile.dcc.blabel.label.GraphLabelling;
 import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
 import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
 import cl.uchile.dcc.blabel.label.util.GraphLabelIterator;
+import cl.uchile.dcc.blabel.label.util.GroundGraphHasher;
 import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
 
 /**
  * Main method for leaning and/or labelling an RDF graph.
@@ -113,20 +122,44 @@ public class LabelRDFGraph {
 
 		Option oeO = new Option("oe", "output encoding [default "+DEFAULT_ENCODING+"]");
 		oeO.setArgs(1);
+		
+		Option obO = new Option("ob", "write output in a compact binary format with canonical labels stored as raw hashes [see BinaryGraphWriter; read back with BinaryGraphReader]");
+		obO.setArgs(0);
+		
+		Option sgO = new Option("sg", "stream ground triples: hash triples without blank nodes as they are read and spill them to a temporary file, keeping only blank node triples in memory [ground triples are written after the labelled triples; cannot be used with -l, -lo or -ob]");
+		sgO.setArgs(0);
+		
+		Option tdO = new Option("td", "directory for temporary files used by -sg [default system temporary directory]");
+		tdO.setArgs(1);
+
+		Option mmO = new Option("mm", "memory-map the input file [input must be an uncompressed UTF-8 file]");
+		mmO.setArgs(0);
+		
+		Option ltO = new Option("lt", "number of threads for the leaning search [default 1; more threads split the top of the search tree into parallel tasks]");
+		ltO.setArgs(1);
+		
+		Option lcO = new Option("lc", "number of threads for leaning connected components of blank nodes independently [default 1: lean all blank nodes as one query]");
+		lcO.setArgs(1);
 
 		Options options = new Options();
 		options.addOption(iO);
 		options.addOption(igzO);
+		options.addOption(mmO);
 		options.addOption(sO);
 		options.addOption(helpO);
 		options.addOption(lO);
 		options.addOption(olO);
 		options.addOption(oO);
 		options.addOption(ogzO);
+		options.addOption(obO);
 		options.addOption(pO);
 		options.addOption(bO);
 		options.addOption(ddpO);
 		options.addOption(uppO);
+		options.addOption(sgO);
+		options.addOption(tdO);
+		options.addOption(ltO);
+		options.addOption(lcO);
 
 		CommandLineParser parser = new BasicParser();
 		CommandLine cmd = null;
@@ -160,33 +193,87 @@ public class LabelRDFGraph {
 			}
 		}
 
-		InputStream is = null;
-
 		String istr = cmd.getOptionValue(iO.getOpt());
-		if(istr.equals(STD)){
-			is = System.in;
+		
+		Closeable in = null;
+		Iterator<Node[]> iter = null;
+		if(cmd.hasOption(mmO.getOpt())){
+			if(istr.equals(STD) || cmd.hasOption(igzO.getOpt())){
+				System.err.println("***ERROR: can only memory-map an uncompressed input file (-"+mmO.getOpt()+")");
+				HelpFormatter formatter = new HelpFormatter();
+				formatter.printHelp("parameters:", options );
+				return;
+			}
+			// re-uses node references like the flyweight iterator
+			// (contexts are ignored so are not parsed)
+			MappedNxReader mr = new MappedNxReader(new File(istr));
+			in = mr;
+			iter = new MappedNxIterator(mr, FW, 3);
 		} else{
-			is = new FileInputStream(istr);
-		}
-		if(cmd.hasOption(igzO.getOpt())){
-			is = new GZIPInputStream(is);
-		}
+			InputStream is = null;
+			if(istr.equals(STD)){
+				is = System.in;
+			} else{
+				is = new FileInputStream(istr);
+			}
+			if(cmd.hasOption(igzO.getOpt())){
+				is = new GZIPInputStream(is);
+			}
 
-		String iestr = cmd.getOptionValue(ieO.getOpt());
-		if(iestr==null){
-			iestr = DEFAULT_ENCODING;
-		}
+			String iestr = cmd.getOptionValue(ieO.getOpt());
+			if(iestr==null){
+				iestr = DEFAULT_ENCODING;
+			}
 
-		BufferedReader br = new BufferedReader(new InputStreamReader(is,iestr));
-		NxParser nxp = new NxParser(br);
+			BufferedReader br = new BufferedReader(new InputStreamReader(is,iestr));
+			in = br;
+			iter = new NxParser(br);
+			
+			// re-use node references: saves mem
+			// at cost of map lookups
+			iter = new FlyweightNodeIterator(FW,iter);
+		}
 
-		if(!nxp.hasNext()){
+		if(!iter.hasNext()){
 			LOG.info("Empty input");
 			return;
 		}
 		
 		boolean onlylean = cmd.hasOption("lo");
 		boolean lean = cmd.hasOption("l");
+		
+		// leaning needs ground triples in memory
+		// (blank nodes may map to ground terms)
+		boolean stream = cmd.hasOption(sgO.getOpt());
+		if(stream && (lean || onlylean)){
+			System.err.println("***ERROR: cannot lean while streaming ground triples (-"+sgO.getOpt()+")");
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+		// binary output sorts the whole graph in memory
+		// (which streaming is meant to avoid)
+		if(stream && cmd.hasOption(obO.getOpt())){
+			System.err.println("***ERROR: cannot write binary output (-"+obO.getOpt()+") while streaming ground triples (-"+sgO.getOpt()+")");
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+		
+		int leanThreads = 1;
+		if(cmd.hasOption(ltO.getOpt())){
+			leanThreads = Integer.parseInt(cmd.getOptionValue(ltO.getOpt()));
+		}
+		
+		int componentThreads = 1;
+		if(cmd.hasOption(lcO.getOpt())){
+			componentThreads = Integer.parseInt(cmd.getOptionValue(lcO.getOpt()));
+		}
+		
+		File tmpDir = null;
+		if(cmd.hasOption(tdO.getOpt())){
+			tmpDir = new File(cmd.getOptionValue(tdO.getOpt()));
+		}
 
 
 		OutputStream os = null;
@@ -212,13 +299,33 @@ public class LabelRDFGraph {
 			prefix = cmd.getOptionValue(pO.getOpt());
 		}
 
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os,oestr));
-		CallbackNxBufferedWriter cb = new CallbackNxBufferedWriter(bw);
+		Callback cb = null;
+		Closeable out = null;
+		if(cmd.hasOption(obO.getOpt())){
+			// statements are buffered and written on close
+			BinaryGraphWriter bgw = new BinaryGraphWriter(os, prefix, writeBnode);
+			cb = bgw;
+			out = bgw;
+		} else{
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os,oestr));
+			cb = new CallbackNxBufferedWriter(bw);
+			out = bw;
+		}
 
-		// re-use node references: saves mem
-		// at cost of map lookups
-		Iterator<Node[]> iter = nxp;
-		iter = new FlyweightNodeIterator(FW,iter);
+		// if streaming, ground triples are hashed and
+		// spilled to disk rather than kept in memory
+		GroundGraphHasher ggh = null;
+		File spill = null;
+		BufferedWriter spillBw = null;
+		CallbackNxBufferedWriter spillCb = null;
+		if(stream){
+			ggh = new GroundGraphHasher(hf == null ? GraphLabellingArgs.DEFAULT_HASHING : hf);
+			spill = File.createTempFile("blabel-ground", ".nt", tmpDir);
+			spill.deleteOnExit();
+			spillBw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spill), DEFAULT_ENCODING));
+			spillCb = new CallbackNxBufferedWriter(spillBw);
+			LOG.info("Spilling ground triples to "+spill.getAbsolutePath());
+		}
 		
 		// load the graph into memory
 		Collection<Node[]> stmts = new ArrayList<Node[]>();
@@ -226,13 +333,24 @@ public class LabelRDFGraph {
 		while(iter.hasNext()){
 			Node[] triple = iter.next();
 			if(triple.length>=3){
-				stmts.add(new Node[]{triple[0], triple[1], triple[2]});
-				bnode = bnode | (triple[0] instanceof BNode) | (triple[2] instanceof BNode);
+				Node[] t = new Node[]{triple[0], triple[1], triple[2]};
+				if(stream && GroundGraphHasher.isGround(t)){
+					ggh.addTriple(t);
+					spillCb.processStatement(t);
+				} else{
+					stmts.add(t);
+					bnode = bnode | (triple[0] instanceof BNode) | (triple[2] instanceof BNode);
+				}
 			} else{
 				LOG.warning("Not a triple "+Nodes.toN3(triple));
 			}
 		}
-		LOG.info("Loaded "+stmts.size()+" triples");
+		if(stream){
+			spillBw.close();
+			LOG.info("Loaded "+stmts.size()+" triples with blank nodes and spilled "+ggh.getTripleCount()+" ground triples");
+		} else{
+			LOG.info("Loaded "+stmts.size()+" triples");
+		}
 		
 		if(!bnode){
 			LOG.info("No bnodes ... buffering triple input to output");
@@ -243,7 +361,7 @@ public class LabelRDFGraph {
 		
 		if(bnode && (lean || onlylean)){
 			LOG.info("Starting leaning ...");
-			GraphLeaningResult glr  = leanGraph(stmts,cb);
+			GraphLeaningResult glr  = leanGraph(stmts,cb,leanThreads,componentThreads);
 			if(glr.getLeanData().size() == stmts.size()){
 				LOG.info("Input graph was lean");
 			} else{
@@ -270,19 +388,35 @@ public class LabelRDFGraph {
 			cla.setDistinguishIsoPartitions(!cmd.hasOption(ddpO.getOpt()));
 			cla.setUniquePerGraph(!cmd.hasOption(uppO.getOpt()));
 			
-			labelGraph(stmts,cb,cla,prefix,writeBnode);
+			labelGraph(stmts,cb,cla,prefix,writeBnode,stream ? ggh.getHash() : null);
 			LOG.info("... done.");
 		}
+		
+		if(stream){
+			LOG.info("Writing spilled ground triples ...");
+			long written = copySpilledTriples(spill, cb);
+			LOG.info("... written "+written+" statements.");
+			spill.delete();
+		}
 
 		LOG.info("Finished in "+(System.currentTimeMillis()-b4)+" ms");
-		br.close();
-		bw.close();
+		in.close();
+		out.close();
 	}
 
-	private static GraphLeaningResult leanGraph(Collection<Node[]> data, CallbackNxBufferedWriter cb) throws InterruptedException {
-		DFSGraphLeaning dfs = new DFSGraphLeaning(data);
+	private static GraphLeaningResult leanGraph(Collection<Node[]> data, Callback cb, int threads, int componentThreads) throws InterruptedException {
+		ForkJoinPool pool = (threads>1) ? new ForkJoinPool(threads) : null;
+		WorkerPool componentPool = (componentThreads>1) ? new WorkerPool(componentThreads) : null;
+		DFSGraphLeaning dfs = new DFSGraphLeaning(data,false,DFSGraphLeaning.DEFAULT_PRUNE,pool);
+		dfs.setComponentPool(componentPool);
 		LOG.info("Running leaning ...");
-		GraphLeaningResult glr = dfs.call();
+		GraphLeaningResult glr = null;
+		try{
+			glr = dfs.call();
+		} finally{
+			if(pool!=null) pool.shutdown();
+			if(componentPool!=null) componentPool.shutdown();
+		}
 		LOG.info("... done.");
 		
 		LOG.info("Number of input bnodes "+glr.getCoreMap().size());
@@ -306,8 +440,27 @@ public class LabelRDFGraph {
 	 * @returns null if no blank nodes in graph, otherwise returns an object with the details of the colouring process (including, e.g., a unique hash) 
 	 */
 	public static final GraphLabellingResult labelGraph(Collection<Node[]> stmts, Callback out, GraphLabellingArgs cla, String prefix, boolean writeBnode) throws InterruptedException, HashCollisionException{
+		return labelGraph(stmts, out, cla, prefix, writeBnode, null);
+	}
+	
+	/**
+	 * Labels the input graph and writes the result to the callback, where
+	 * ground triples not in the input have already been hashed.
+	 * 
+	 * @param in - The input data in Nx format
+	 * @param out - The output data in Nx format
+	 * @param cla - The options for running the labelling
+	 * @param prefix - Any prefix to be prepended to the label (e.g., a skolem prefix)
+	 * @param writeBnode - Writes bnodes if true, otherwise writes URIs
+	 * @param groundHash - The hash of ground triples not in the input (from a {@link GroundGraphHasher}) or null if none
+	 * @throws HashCollisionException 
+	 * @throws InterruptedException 
+	 * 
+	 * @returns null if no blank nodes in graph, otherwise returns an object with the details of the colouring process (including, e.g., a unique hash) 
+	 */
+	public static final GraphLabellingResult labelGraph(Collection<Node[]> stmts, Callback out, GraphLabellingArgs cla, String prefix, boolean writeBnode, HashCode groundHash) throws InterruptedException, HashCollisionException{
 		// create a new labeler
-		GraphLabelling cl = new GraphLabelling(stmts,cla);
+		GraphLabelling cl = new GraphLabelling(stmts,cla,groundHash);
 
 		LOG.info("Running labelling ...");
 		GraphLabellingResult clr = cl.call();
@@ -334,5 +487,24 @@ public class LabelRDFGraph {
 
 		return clr;
 	}
-
+	
+	/**
+	 * Writes the ground triples spilled to disk to the output.
+	 * 
+	 * @param spill - The file of spilled triples (in N-Triples)
+	 * @param out - The output data in Nx format
+	 * @return the number of triples written
+	 * @throws IOException
+	 */
+	private static long copySpilledTriples(File spill, Callback out) throws IOException{
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(spill), DEFAULT_ENCODING));
+		NxParser nxp = new NxParser(br);
+		long written = 0;
+		while(nxp.hasNext()){
+			out.processStatement(nxp.next());
+			written ++;
+		}
+		br.close();
+		return written;
+	}
 }
@@ -0,0 +1,488 @@
+package cl.uchile.dcc.blabel.cli;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Nodes;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.util.CallbackNxBufferedWriter;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
+import cl.uchile.dcc.blabel.pipeline.CanonicalGraphTask;
+import cl.uchile.dcc.blabel.pipeline.CanonicalGraphTask.CanonicalGraphResult;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+
+/**
+ * Runs a local HTTP server that labels (and optionally leans) RDF graphs,
+ * keeping the JVM warm across requests.
+ *
+ * POST an N-Triples document to /label: the response body is the canonical
+ * graph in N-Triples and headers give the graph hash and statistics.
+ * GET /status gives the number of requests served.
+ *
+ * Requests are run on a bounded pool of workers, each with a timeout;
+ * requests are rejected with 503 if the pool is full and 504 if they
+ * time out.
+ *
+ * @author ahogan
+ *
+ */
+public class LabelServer {
+	static final Logger LOG = Logger.getLogger(LabelServer.class.getSimpleName());
+	public static final Level LOG_LEVEL = Level.INFO;
+	static{
+		for(Handler h : LOG.getParent().getHandlers()){
+		    if(h instanceof ConsoleHandler){
+		        h.setLevel(LOG_LEVEL);
+		    }
+		}
+		LOG.setLevel(LOG_LEVEL);
+	}
+
+	public static String ENCODING = "UTF-8";
+	public static String CONTENT_TYPE = "application/n-triples; charset=utf-8";
+
+	public static String LABEL_PATH = "/label";
+	public static String STATUS_PATH = "/status";
+
+	// response headers
+	public static String HASH_HEADER = "X-Blabel-Hash";
+	public static String TRIPLES_HEADER = "X-Blabel-Triples";
+	public static String BNODES_HEADER = "X-Blabel-Bnodes";
+	public static String PARTITIONS_HEADER = "X-Blabel-Partitions";
+	public static String ITERATIONS_HEADER = "X-Blabel-Colour-Iterations";
+	public static String LEAVES_HEADER = "X-Blabel-Leaves";
+	public static String LEANED_HEADER = "X-Blabel-Leaned-Triples";
+	public static String TIME_HEADER = "X-Blabel-Time-Ms";
+
+	public static String DEFAULT_HOST = "localhost";
+	public static int DEFAULT_PORT = 8911;
+	public static int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	public static int DEFAULT_QUEUE = 64;
+	// HTTP threads beyond the requests admitted, which reject
+	// further requests without waiting for a thread
+	public static int SPARE_HTTP_THREADS = 4;
+	// in seconds
+	public static int DEFAULT_TIMEOUT = 60;
+	// in bytes
+	public static int DEFAULT_MAX_BODY = 16 * 1024 * 1024;
+
+	public static void main(String[] args) throws IOException{
+		Option hostO = new Option("host", "host/interface to bind to [default "+DEFAULT_HOST+"]");
+		hostO.setArgs(1);
+
+		Option portO = new Option("port", "port to listen on [default "+DEFAULT_PORT+"]");
+		portO.setArgs(1);
+
+		Option nO = new Option("n", "number of worker threads [default "+DEFAULT_THREADS+"]");
+		nO.setArgs(1);
+
+		Option qO = new Option("q", "maximum number of requests waiting for a worker, after which requests are rejected [default "+DEFAULT_QUEUE+"]");
+		qO.setArgs(1);
+
+		Option tO = new Option("t", "timeout for each request in seconds, 0 for none [default "+DEFAULT_TIMEOUT+"]");
+		tO.setArgs(1);
+
+		Option mbO = new Option("mb", "maximum request size in bytes [default "+DEFAULT_MAX_BODY+"]");
+		mbO.setArgs(1);
+
+		Option lO = new Option("l", "lean graphs beforehand");
+		lO.setArgs(0);
+
+		Option sO = new Option("s", "hashing scheme: 0:md5 1:murmur3_128 2:sha1 3:sha256 4:sha512 (default "+GraphLabellingArgs.DEFAULT_HASHING.toString()+")");
+		sO.setArgs(1);
+
+		Option bO = new Option("b", "output labels as blank nodes");
+		bO.setArgs(0);
+
+		Option pO = new Option("p", "string prefix to append to label [make sure it's valid for URI or blank node!] [default empty string])");
+		pO.setArgs(1);
+
+		Option ddpO = new Option("ddp", "don't distinguish partitions [isomorphic blank node partitions will be removed; by default they are distinguished and kept]");
+		ddpO.setArgs(0);
+
+		Option uppO = new Option("upp", "keep blank nodes unique per partition, not graph [blank nodes are labelled only using information from the partition; by default the entire graph is encoded in the blank node label including ground triples]");
+		uppO.setArgs(0);
+
+		Option helpO = new Option("h", "print help");
+
+		Options options = new Options();
+		options.addOption(hostO);
+		options.addOption(portO);
+		options.addOption(nO);
+		options.addOption(qO);
+		options.addOption(tO);
+		options.addOption(mbO);
+		options.addOption(lO);
+		options.addOption(sO);
+		options.addOption(bO);
+		options.addOption(pO);
+		options.addOption(ddpO);
+		options.addOption(uppO);
+		options.addOption(helpO);
+
+		CommandLineParser parser = new BasicParser();
+		CommandLine cmd = null;
+
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println("***ERROR: " + e.getClass() + ": " + e.getMessage());
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		// print help options and return
+		if (cmd.hasOption(helpO.getOpt())) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+
+		GraphLabellingArgs cla = new GraphLabellingArgs();
+		if(cmd.getOptionValue(sO.getOpt())!=null){
+			int s = Integer.parseInt(cmd.getOptionValue(sO.getOpt()));
+			HashFunction hf = null;
+			switch(s){
+			case 0: hf = Hashing.md5(); break;
+			case 1: hf = Hashing.murmur3_128(); break;
+			case 2: hf = Hashing.sha1(); break;
+			case 3: hf = Hashing.sha256(); break;
+			case 4: hf = Hashing.sha512(); break;
+			}
+			if(hf!=null)
+				cla.setHashFunction(hf);
+		}
+		cla.setDistinguishIsoPartitions(!cmd.hasOption(ddpO.getOpt()));
+		cla.setUniquePerGraph(!cmd.hasOption(uppO.getOpt()));
+
+		String host = DEFAULT_HOST;
+		if(cmd.hasOption(hostO.getOpt())){
+			host = cmd.getOptionValue(hostO.getOpt());
+		}
+		int port = DEFAULT_PORT;
+		if(cmd.hasOption(portO.getOpt())){
+			port = Integer.parseInt(cmd.getOptionValue(portO.getOpt()));
+		}
+		int threads = DEFAULT_THREADS;
+		if(cmd.hasOption(nO.getOpt())){
+			threads = Integer.parseInt(cmd.getOptionValue(nO.getOpt()));
+		}
+		int queue = DEFAULT_QUEUE;
+		if(cmd.hasOption(qO.getOpt())){
+			queue = Integer.parseInt(cmd.getOptionValue(qO.getOpt()));
+		}
+		int timeout = DEFAULT_TIMEOUT;
+		if(cmd.hasOption(tO.getOpt())){
+			timeout = Integer.parseInt(cmd.getOptionValue(tO.getOpt()));
+		}
+		int maxBody = DEFAULT_MAX_BODY;
+		if(cmd.hasOption(mbO.getOpt())){
+			maxBody = Integer.parseInt(cmd.getOptionValue(mbO.getOpt()));
+		}
+		String prefix = "";
+		if(cmd.hasOption(pO.getOpt())){
+			prefix = cmd.getOptionValue(pO.getOpt());
+		}
+
+		LabelHandler handler = new LabelHandler(new WorkerPool(threads, queue), timeout, maxBody, cmd.hasOption(lO.getOpt()), cla, prefix, cmd.hasOption(bO.getOpt()));
+		// enough threads for requests running or waiting on workers
+		// and some to reject others
+		final HttpServer server = start(new InetSocketAddress(host, port), handler, threads+queue+SPARE_HTTP_THREADS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				LOG.info("Stopping server ...");
+				LabelServer.stop(server);
+			}
+		});
+
+		LOG.info("Listening on http://"+host+":"+server.getAddress().getPort()+LABEL_PATH+" with "+threads+" workers, queue "+queue+", timeout "+timeout+" s");
+	}
+
+	/**
+	 * Starts a server with the given handler for labelling.
+	 * @param addr
+	 * @param handler
+	 * @param httpThreads Number of threads reading and parsing requests
+	 * (requests beyond wait for a thread); should be more than the requests
+	 * the handler admits so that others are rejected promptly
+	 * @return The server (call {@link #stop(HttpServer)} to stop it)
+	 * @throws IOException
+	 */
+	public static HttpServer start(InetSocketAddress addr, LabelHandler handler, int httpThreads) throws IOException{
+		HttpServer server = HttpServer.create(addr, 0);
+		server.createContext(LABEL_PATH, handler);
+		server.createContext(STATUS_PATH, handler.getStatusHandler());
+		// requests are read and parsed on these threads, and then 
+		// wait on the workers, which bound the labelling
+		ExecutorService http = Executors.newFixedThreadPool(httpThreads);
+		server.setExecutor(http);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Stops a server started with {@link #start(InetSocketAddress, LabelHandler, int)}
+	 * along with its threads.
+	 * @param server
+	 */
+	public static void stop(HttpServer server){
+		server.stop(0);
+		((ExecutorService)server.getExecutor()).shutdownNow();
+	}
+
+	/**
+	 * Handles requests to label a graph.
+	 */
+	public static class LabelHandler implements HttpHandler{
+		private final WorkerPool pool;
+		private final int timeout;
+		private final int maxBody;
+		private final boolean lean;
+		private final GraphLabellingArgs cla;
+		private final String prefix;
+		private final boolean writeBnode;
+
+		// requests reading, parsing or waiting on the workers
+		private final int capacity;
+		private final Semaphore admitted;
+
+		private final AtomicLong served = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+
+		/**
+		 * @param pool Workers to run the labelling
+		 * @param timeout Timeout per request in seconds (0 for none)
+		 * @param maxBody Maximum size of a request in bytes
+		 * @param lean Lean graphs before labelling
+		 * @param cla Arguments for labelling
+		 * @param prefix Prefix for canonical labels
+		 * @param writeBnode Write labels as blank nodes (otherwise IRIs)
+		 */
+		public LabelHandler(WorkerPool pool, int timeout, int maxBody, boolean lean, GraphLabellingArgs cla, String prefix, boolean writeBnode){
+			this.pool = pool;
+			this.timeout = timeout;
+			this.maxBody = maxBody;
+			this.lean = lean;
+			this.cla = cla;
+			this.prefix = prefix;
+			this.writeBnode = writeBnode;
+			this.capacity = pool.getCapacity();
+			this.admitted = new Semaphore(capacity);
+		}
+
+		public void handle(HttpExchange ex) throws IOException {
+			long b4 = System.currentTimeMillis();
+			boolean admit = false;
+			try{
+				if(!ex.getRequestMethod().equalsIgnoreCase("POST")){
+					ex.getResponseHeaders().set("Allow", "POST");
+					sendError(ex, 405, "POST an N-Triples document");
+					return;
+				}
+
+				// requests beyond those the workers can run or queue
+				// are rejected before reading the body
+				admit = admitted.tryAcquire();
+				if(!admit){
+					rejected.incrementAndGet();
+					sendError(ex, 503, "Too many requests");
+					return;
+				}
+
+				long declared = -1;
+				String length = ex.getRequestHeaders().getFirst("Content-Length");
+				if(length!=null){
+					try{
+						declared = Long.parseLong(length.trim());
+					} catch(NumberFormatException e){
+						sendError(ex, 400, "Bad Content-Length: "+length);
+						return;
+					}
+				}
+
+				// the body is read in full before parsing since the
+				// parser swallows errors from the stream
+				byte[] request = null;
+				if(declared<=maxBody){
+					request = readBody(ex.getRequestBody(), maxBody);
+				}
+				if(request==null){
+					sendError(ex, 413, "Request larger than "+maxBody+" bytes");
+					return;
+				}
+
+				ArrayList<Node[]> triples = new ArrayList<Node[]>();
+				BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(request), ENCODING));
+				NxParser nxp = new NxParser(br);
+				while(nxp.hasNext()){
+					Node[] t = nxp.next();
+					if(t.length!=3){
+						sendError(ex, 400, "Not a triple: "+Nodes.toN3(t));
+						return;
+					}
+					triples.add(t);
+				}
+
+				CanonicalGraphResult res = null;
+				try{
+					res = pool.run(new CanonicalGraphTask(triples, lean, cla, prefix, writeBnode), timeout, TimeUnit.SECONDS);
+				} catch(RejectedExecutionException e){
+					rejected.incrementAndGet();
+					sendError(ex, 503, "Too many requests");
+					return;
+				} catch(TimeoutException e){
+					timeouts.incrementAndGet();
+					sendError(ex, 504, "Timeout after "+timeout+" s");
+					return;
+				} catch(ExecutionException e){
+					failures.incrementAndGet();
+					LOG.warning("Error labelling graph: "+e.getCause());
+					sendError(ex, 500, "Error labelling graph: "+e.getCause());
+					return;
+				} catch(InterruptedException e){
+					// the flag is restored once replied since
+					// the response channel closes if interrupted
+					try{
+						sendError(ex, 503, "Server stopping");
+					} finally{
+						Thread.currentThread().interrupt();
+					}
+					return;
+				}
+
+				// serialise first to know the length
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(baos, ENCODING));
+				CallbackNxBufferedWriter cb = new CallbackNxBufferedWriter(bw);
+				for(Node[] t:res.getGraph()){
+					cb.processStatement(t);
+				}
+				bw.close();
+
+				ex.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				ex.getResponseHeaders().set(TRIPLES_HEADER, Integer.toString(res.getGraph().size()));
+				GraphLabellingResult glr = res.getLabellingResult();
+				if(glr!=null){
+					HashCode hc = glr.getUniqueGraphHash();
+					if(hc==null){
+						hc = glr.getHashGraph().getGraphHash();
+					}
+					ex.getResponseHeaders().set(HASH_HEADER, hc.toString());
+					ex.getResponseHeaders().set(BNODES_HEADER, Integer.toString(glr.getBnodeCount()));
+					ex.getResponseHeaders().set(PARTITIONS_HEADER, Integer.toString(glr.getPartitionCount()));
+					ex.getResponseHeaders().set(ITERATIONS_HEADER, Integer.toString(glr.getColourIterationCount()));
+					ex.getResponseHeaders().set(LEAVES_HEADER, Integer.toString(glr.getLeafCount()));
+				} else{
+					ex.getResponseHeaders().set(BNODES_HEADER, "0");
+				}
+				if(lean){
+					ex.getResponseHeaders().set(LEANED_HEADER, Integer.toString(res.getLeanedTripleCount()));
+				}
+				ex.getResponseHeaders().set(TIME_HEADER, Long.toString(System.currentTimeMillis()-b4));
+
+				byte[] body = baos.toByteArray();
+				ex.sendResponseHeaders(200, body.length);
+				OutputStream os = ex.getResponseBody();
+				os.write(body);
+				os.close();
+				served.incrementAndGet();
+			} finally{
+				if(admit){
+					admitted.release();
+				}
+				ex.close();
+			}
+		}
+
+		/**
+		 * @return A handler that reports the counts of requests
+		 */
+		public HttpHandler getStatusHandler(){
+			return new HttpHandler(){
+				public void handle(HttpExchange ex) throws IOException {
+					StringBuffer sb = new StringBuffer();
+					sb.append("served\t"+served.get()+"\n");
+					sb.append("rejected\t"+rejected.get()+"\n");
+					sb.append("timeouts\t"+timeouts.get()+"\n");
+					sb.append("failures\t"+failures.get()+"\n");
+					sb.append("pending\t"+pool.getPendingCount()+"\n");
+					sb.append("admitted\t"+(capacity-admitted.availablePermits())+"\n");
+					byte[] body = sb.toString().getBytes(ENCODING);
+					ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+					ex.sendResponseHeaders(200, body.length);
+					OutputStream os = ex.getResponseBody();
+					os.write(body);
+					os.close();
+				}
+			};
+		}
+
+		/**
+		 * Reads a request body of at most the given number of bytes.
+		 * @return The body, or null if larger than the limit
+		 */
+		private static byte[] readBody(InputStream is, int limit) throws IOException{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int r;
+			while((r = is.read(buf))>=0){
+				if(baos.size()+r>limit){
+					return null;
+				}
+				baos.write(buf, 0, r);
+			}
+			return baos.toByteArray();
+		}
+
+		private static void sendError(HttpExchange ex, int code, String msg) throws IOException{
+			byte[] body = (msg+"\n").getBytes(ENCODING);
+			ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+			ex.sendResponseHeaders(code, body.length);
+			OutputStream os = ex.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+	}
+}
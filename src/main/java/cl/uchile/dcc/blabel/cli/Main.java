@@ -23,9 +23,12 @@ public class Main {
 				StringBuffer sb = new StringBuffer();
 				sb.append("missing <utility> arg where <utility> one of");
 				sb.append("\n\t"+LabelRDFGraph.class.getSimpleName()+": Run labelling over an RDF graph encoded as N-Triples");
+				sb.append("\n\t"+LabelNQuads.class.getSimpleName()+": Run labelling over each named graph in an N-Quads file (in parallel)");
+				sb.append("\n\t"+LabelServer.class.getSimpleName()+": Run an HTTP server that labels N-Triples graphs on a warm worker pool");
 				sb.append("\n\t"+RunNQuadsTest.class.getSimpleName()+": [Testing] Compute the canonical graphs in a quads file");
 				sb.append("\n\t"+Control.class.getSimpleName()+": [Testing] Run a control experiment to time parsing a quads file");
 				sb.append("\n\t"+RunSyntheticEvaluation.class.getSimpleName()+": [Testing] Run synthetic benchmark");
+				sb.append("\n\t"+CompareRuns.class.getSimpleName()+": [Testing] Compare JSON Lines results of two runs and flag slowdowns");
 				/** TODO: Provide documentation for the CLI */
 				sb.append("\n\t"+AnalyseNQuadsResults.class.getSimpleName()+": [Testing] ");
 				sb.append("\n\t"+UndirectedGraphToRDF.class.getSimpleName()+": [Testing] ");
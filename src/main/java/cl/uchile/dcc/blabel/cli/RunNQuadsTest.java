@@ -2,6 +2,7 @@ package cl.uchile.dcc.blabel.cli;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -18,9 +19,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
@@ -46,6 +44,9 @@ import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 
 import cl.uchile.dcc.blabel.cli.RunSyntheticEvaluation.Benchmark;
+import cl.uchile.dcc.blabel.io.GraphHashIndex;
+import cl.uchile.dcc.blabel.io.MappedNxIterator;
+import cl.uchile.dcc.blabel.io.MappedNxReader;
 import cl.uchile.dcc.blabel.label.GraphLabelling;
 import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
 import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
@@ -53,6 +54,10 @@ import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.lean.TreeDecompositionGraphLeaning;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+import cl.uchile.dcc.blabel.test.RunRecorder;
+import cl.uchile.dcc.blabel.test.RunRecorder.Record;
 import cl.uchile.dcc.blabel.test.TestFramework;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkArgs;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkArgs.SaveLevel;
@@ -87,6 +92,9 @@ public class RunNQuadsTest {
 		Option ingzO = new Option("igz", "input file is GZipped");
 		ingzO.setArgs(0);
 		
+		Option mmO = new Option("mm", "memory-map input file (not for GZipped input)");
+		mmO.setArgs(0);
+		
 		Option helpO = new Option("h", "print help");
 		
 		Option tO = new Option("t", "timeout for each test in seconds (default "+DEFAULT_TIMEOUT+")");
@@ -95,20 +103,32 @@ public class RunNQuadsTest {
 		Option sO = new Option("s", "hashing scheme: 0:md5 1:murmur3_128 2:sha1 3:sha256 4:sha512 (murmur3_128 fastest)");
 		sO.setArgs(1);
 		
-		Option lO = new Option("l", "leaning algorithm: 0:dfs 1:bfs (dfs best ... bfs for testing)");
+		Option lO = new Option("l", "leaning algorithm: 0:dfs 1:bfs 2:tree decomposition (dfs best ... bfs for testing)");
 		lO.setArgs(1);
 		
 		Option nleanO = new Option("nlean", "no pruning by automorphism in DFS leaning (only enable for testing)");
 		
+		Option dynO = new Option("dyn", "choose the next pattern of DFS leaning while searching (fail first) rather than by static selectivity estimates");
+		
+		Option nacycO = new Option("nacyc", "always search in DFS leaning, even for acyclic queries (only enable for testing)");
+		
+		Option nbjO = new Option("nbj", "no backjumping or nogood caching in DFS leaning (only enable for testing)");
+		
 		Option nlabelO = new Option("nlabel", "no pruning by automorphism in labelling (only enable for testing)");
 		
 		Option rO = new Option("r", "randomise dfs search (don't guess best, select random ... only enable for testing)");
 		
 		Option dO = new Option("d", "if running isomorphism labelling, count duplicate graphs");
 		
+		Option diO = new Option("di", "with -d, use (and append to) this persistent index of graph hashes rather than counting in memory [reports graphs seen in this or previous runs]");
+		diO.setArgs(1);
+		
 		Option eO = new Option("e", "write exception graphs to this directory (optional)");
 		eO.setArgs(1);
 		
+		Option jO = new Option("j", "also write per-document results as JSON Lines to this file (for CompareRuns)");
+		jO.setArgs(1);
+		
 		Option bO = new Option("b", "select the process to run: "+RunSyntheticEvaluation.BENCHMARK_OPTIONS);
 		bO.setArgs(1);
 		bO.setRequired(true);
@@ -116,15 +136,21 @@ public class RunNQuadsTest {
 		Options options = new Options();
 		options.addOption(inO);
 		options.addOption(ingzO);
+		options.addOption(mmO);
 		options.addOption(sO);
 		options.addOption(lO);
 		options.addOption(rO);
 		options.addOption(dO);
+		options.addOption(diO);
 		options.addOption(bO);
 		options.addOption(tO);
 		options.addOption(eO);
+		options.addOption(jO);
 		options.addOption(nlabelO);
 		options.addOption(nleanO);
+		options.addOption(dynO);
+		options.addOption(nacycO);
+		options.addOption(nbjO);
 		options.addOption(helpO);
 
 		CommandLineParser parser = new BasicParser();
@@ -158,7 +184,17 @@ public class RunNQuadsTest {
 		
 		boolean countDupes = cmd.hasOption("d");
 		
+		GraphHashIndex dupeIndex = null;
+		if(countDupes && cmd.hasOption("di")){
+			dupeIndex = new GraphHashIndex(new File(cmd.getOptionValue("di")));
+			LOG.info("Opened graph hash index with "+dupeIndex.size()+" graphs");
+		}
+		int seen = 0;
+		
 		boolean noPruneLean = cmd.hasOption("nlean");
+		boolean dynamicOrder = cmd.hasOption("dyn");
+		boolean noAcyclic = cmd.hasOption("nacyc");
+		boolean noBackjump = cmd.hasOption("nbj");
 		boolean noPruneLabel = cmd.hasOption("nlabel");
 		
 		String exceptionDir = cmd.getOptionValue("e");
@@ -182,14 +218,33 @@ public class RunNQuadsTest {
 			l = Integer.parseInt(cmd.getOptionValue("l"));
 		}
 		
-		InputStream is = new FileInputStream(cmd.getOptionValue("i"));
-		if(cmd.hasOption("igz"))
-			is = new GZIPInputStream(is);
+		if(cmd.hasOption("mm") && cmd.hasOption("igz")){
+			System.err.println("***ERROR: cannot memory-map GZipped input (-mm and -igz)");
+			return;
+		}
 		
-		BufferedReader br = new BufferedReader(new InputStreamReader(is));
-		NxParser nxp = new NxParser(br);
+		Closeable in = null;
+		Iterator<Node[]> iter = null;
+		if(cmd.hasOption("mm")){
+			// re-uses node references like the flyweight iterator
+			MappedNxReader mr = new MappedNxReader(new File(cmd.getOptionValue("i")));
+			in = mr;
+			iter = new MappedNxIterator(mr, FW);
+		} else{
+			InputStream is = new FileInputStream(cmd.getOptionValue("i"));
+			if(cmd.hasOption("igz"))
+				is = new GZIPInputStream(is);
+			
+			BufferedReader br = new BufferedReader(new InputStreamReader(is));
+			in = br;
+			iter = new NxParser(br);
+			
+			// re-use node references: pushes down mem
+			// at cost of map lookups
+			iter = new FlyweightNodeIterator(FW,iter);
+		}
 		
-		if(!nxp.hasNext()){
+		if(!iter.hasNext()){
 			LOG.info("Empty input");
 			return;
 		}
@@ -219,16 +274,19 @@ public class RunNQuadsTest {
 		System.out.println("===============================================");
 		if(l!=-1){
 			if(l==0){
-				System.out.println("Running DFS leaning algorithm, random: "+randomiseDfs+" prune: "+!noPruneLean);
+				System.out.println("Running DFS leaning algorithm, random: "+randomiseDfs+" prune: "+!noPruneLean+" dynamic order: "+dynamicOrder+" acyclic: "+!noAcyclic+" backjump: "+!noBackjump);
 				System.out.println("===============================================");
 			} else if(l==1) {
 				System.out.println("Running BFS leaning algorithm");
 				System.out.println("===============================================");
+			} else if(l==2) {
+				System.out.println("Running tree decomposition leaning algorithm");
+				System.out.println("===============================================");
 			} else {
 				LOG.info("Illegal value for parameter l:"+l);
 				HelpFormatter formatter = new HelpFormatter();
 				formatter.printHelp("parameters:", options );
-				br.close();
+				in.close();
 				return;
 			}
 		}
@@ -243,12 +301,13 @@ public class RunNQuadsTest {
 		System.out.println("Timestamp started:\t"+b4);
 		System.out.println("===============================================");
 		
+		RunRecorder rec = null;
+		if(cmd.hasOption("j")){
+			rec = new RunRecorder(new FileOutputStream(cmd.getOptionValue("j")), RunNQuadsTest.class.getSimpleName(), args);
+		}
 		
-		Iterator<Node[]> iter = nxp;
-		
-		// re-use node references: pushes down mem
-		// at cost of map lookups
-		iter = new FlyweightNodeIterator(FW,iter);
+		// one worker re-used for all documents
+		WorkerPool pool = new WorkerPool(1);
 		
 		Collection<Node[]> data = new ArrayList<Node[]>();
 		
@@ -280,31 +339,42 @@ public class RunNQuadsTest {
 					docwb++;
 					
 					int bnodeCount = bnodes.size();
+					if(rec!=null) rec.startDocument();
 					
 					long duration = 0;
 					
 					if(bench.equals(Benchmark.LEAN) || bench.equals(Benchmark.BOTH)){
 						GraphLeaning gl = null;
 						if(l==0){
-							LOG.info("Running DFS leaning algorithm, random: "+randomiseDfs+" pruning: "+!noPruneLean);
-							gl = new DFSGraphLeaning(data,randomiseDfs,!noPruneLean);
+							LOG.info("Running DFS leaning algorithm, random: "+randomiseDfs+" pruning: "+!noPruneLean+" dynamic order: "+dynamicOrder+" acyclic: "+!noAcyclic+" backjump: "+!noBackjump);
+							DFSGraphLeaning dfs = new DFSGraphLeaning(data,randomiseDfs,!noPruneLean);
+							dfs.setDynamicOrder(dynamicOrder);
+							dfs.setAcyclic(!noAcyclic);
+							dfs.setBackjump(!noBackjump);
+							gl = dfs;
 						} else if(l==1) {
 							LOG.info("Running BFS leaning algorithm");
 							gl = new BFSGraphLeaning(data);
+						} else if(l==2) {
+							LOG.info("Running tree decomposition leaning algorithm");
+							gl = new TreeDecompositionGraphLeaning(data);
 						}
 						
-						ExecutorService executor = Executors.newSingleThreadExecutor();
-				        Future<GraphLeaningResult> future = executor.submit(gl);
 				        long b4l = System.currentTimeMillis();
 				        try {
 				            LOG.info("Running leaning ...");
-				            GraphLeaningResult glr = future.get(timeout, TimeUnit.SECONDS);
+				            GraphLeaningResult glr = pool.run(gl, timeout, TimeUnit.SECONDS);
 				            LOG.info("... finished!");
 				            
 				            int leanBnodeCount = RunSyntheticEvaluation.countBnodes(glr.getLeanData());
 				            long runtime = System.currentTimeMillis()-b4l;
 				            duration += runtime;
 				            System.out.println("LEAN\t"+old+"\t"+data.size()+"\t"+bnodeCount+"\t"+runtime+"\t"+glr.getLeanData().size()+"\t"+leanBnodeCount+"\t"+glr.getJoins()+"\t"+glr.getDepth()+"\t"+glr.getSolutionCount()+"\t"+(data.size()-glr.getLeanData().size())+"\t"+(bnodeCount-leanBnodeCount));
+				            if(rec!=null){
+				            	rec.write(record(rec, "LEAN", old, data.size(), bnodeCount, b4l, null)
+				            			.put("leanTriples", glr.getLeanData().size()).put("leanBnodes", leanBnodeCount)
+				            			.put("joins", glr.getJoins()).put("depth", glr.getDepth()).put("solutions", glr.getSolutionCount()));
+				            }
 				            
 				            if(bench.equals(Benchmark.BOTH)){
 				            	data = glr.getLeanData();
@@ -312,12 +382,13 @@ public class RunNQuadsTest {
 					        }
 				        } catch (Exception e) {
 				        	System.out.println("LEAN\t"+old+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4l)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+				        	if(rec!=null){
+				        		rec.write(record(rec, "LEAN", old, data.size(), bnodeCount, b4l, e));
+				        	}
 				        	LOG.warning(e.getClass().getName()+": "+e.getMessage());
 				        	writeToDir(exceptionDir,old,"LEAN",data);
 				        	fail = true;
 				        }
-				        executor.shutdownNow();
-				        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 					}
 					
 					if(!fail && (bench.equals(Benchmark.LABEL) || bench.equals(Benchmark.BOTH))){
@@ -327,36 +398,46 @@ public class RunNQuadsTest {
 						
 						GraphLabelling cl = new GraphLabelling(data,cla);
 						
-						ExecutorService executor = Executors.newSingleThreadExecutor();
-				        Future<GraphLabellingResult> future = executor.submit(cl);
-
 				        long b4l = System.currentTimeMillis();
 				        try {
 				            LOG.info("Running labelling, pruning: "+!noPruneLabel);
-				            GraphLabellingResult clr = future.get(timeout, TimeUnit.SECONDS);
+				            GraphLabellingResult clr = pool.run(cl, timeout, TimeUnit.SECONDS);
 				            LOG.info("... finished!");
 				            
 				            long runtime = System.currentTimeMillis()-b4l;
 				            duration += runtime;
 				            System.out.println("LABEL\t"+old+"\t"+data.size()+"\t"+clr.getBnodeCount()+"\t"+runtime+"\t"+clr.getColourIterationCount()+"\t"+clr.getLeafCount());
+				            if(rec!=null){
+				            	rec.write(record(rec, "LABEL", old, data.size(), clr.getBnodeCount(), b4l, null)
+				            			.put("colourIterations", clr.getColourIterationCount()).put("leaves", clr.getLeafCount()));
+				            }
 				            
 				            if(countDupes){
 				            	HashCode hc = clr.getUniqueGraphHash();
-				            	TreeSet<Node> dupes = dupeGraphs.get(hc);
-					        	if(dupes==null){
-					        		dupes = new TreeSet<Node>();
-					        		dupeGraphs.put(hc, dupes);
-					        	}
-					        	dupes.add(old);
+				            	if(dupeIndex!=null){
+				            		String first = dupeIndex.add(hc, old.toString());
+				            		if(first!=null){
+				            			seen++;
+				            			System.out.println("DUPE\t"+old+"\t"+first);
+				            		}
+				            	} else{
+					            	TreeSet<Node> dupes = dupeGraphs.get(hc);
+						        	if(dupes==null){
+						        		dupes = new TreeSet<Node>();
+						        		dupeGraphs.put(hc, dupes);
+						        	}
+						        	dupes.add(old);
+				            	}
 					        }
 				        } catch (Exception e) {
 				        	System.out.println("LABEL\t"+old+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4l)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+				        	if(rec!=null){
+				        		rec.write(record(rec, "LABEL", old, data.size(), bnodeCount, b4l, e));
+				        	}
 				        	LOG.warning(e.getClass().getName()+": "+e.getMessage());
 				        	writeToDir(exceptionDir,old,"LABEL",data);
 				        	fail = true;
 				        } 
-				        executor.shutdownNow();
-				        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 					}
 					
 					if(bench.equals(Benchmark.TEST)){
@@ -368,13 +449,10 @@ public class RunNQuadsTest {
 						
 						TestFramework tf = new TestFramework(data,tfa);
 						
-						ExecutorService executor = Executors.newSingleThreadExecutor();
-				        Future<TestFrameworkResult> future = executor.submit(tf);
-
 				        long b4l = System.currentTimeMillis();
 				        try {
 				            LOG.info("Running test ...");
-				            TestFrameworkResult tfr = future.get(timeout, TimeUnit.SECONDS);
+				            TestFrameworkResult tfr = pool.run(tf, timeout, TimeUnit.SECONDS);
 				            LOG.info("... finished!");
 				            
 				            long runtime = System.currentTimeMillis()-b4l;
@@ -414,14 +492,19 @@ public class RunNQuadsTest {
 			            	}
 				            
 				            System.out.println(message);
+				            if(rec!=null){
+				            	rec.write(record(rec, "TEST", old, data.size(), bnodeCount, b4l, null)
+				            			.put("result", message.contains("\tERROR") ? "ERROR" : "OKAY"));
+				            }
 				        } catch (Exception e) {
 				        	LOG.warning(e.getClass().getName()+" "+e.getMessage());
 				        	System.out.println("TEST\t"+old+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4l)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());
+				        	if(rec!=null){
+				        		rec.write(record(rec, "TEST", old, data.size(), bnodeCount, b4l, e));
+				        	}
 			        		writeToDir(exceptionDir,old,"TEST",data);
 				        	fail = true;
 				        } 
-				        executor.shutdownNow();
-				        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 					}
 					
 					if(duration>slowestTime){
@@ -450,9 +533,16 @@ public class RunNQuadsTest {
 			
 		}
 		
+		if(rec!=null) rec.close();
 		LOG.info("Finished! Read "+read+" input statements and "+doc+" documents.");
 		
-		if(countDupes && (bench.equals(Benchmark.LABEL) || bench.equals(Benchmark.BOTH))){
+		if(dupeIndex!=null){
+			System.out.println("===============================================");
+			System.out.println("Number of documents with blank nodes isomorphic to one seen before:\t"+seen);
+			System.out.println("===============================================");
+			System.out.println("Number of unique graphs in index:\t"+dupeIndex.size());
+			dupeIndex.close();
+		} else if(countDupes && (bench.equals(Benchmark.LABEL) || bench.equals(Benchmark.BOTH))){
 			LOG.info("Sorting duplicate graphs by size of class ...");
 			TreeSet<TreeSet<Node>> sortedDupes = new TreeSet<TreeSet<Node>>(new BiggestTreeSetComparator());
 			sortedDupes.addAll(dupeGraphs.values());
@@ -491,11 +581,19 @@ public class RunNQuadsTest {
 		System.out.println("Timestamp finished (ms):\t"+end);
 		System.out.println("===============================================");
 		
-		br.close();
+		in.close();
 		
 		LOG.info("Finished in "+(System.currentTimeMillis()-b4));
 	}
 	
+	/**
+	 * A JSON Lines record with the fields common to all phases.
+	 */
+	private static Record record(RunRecorder rec, String phase, Node doc, int triples, int bnodes, long b4, Exception e){
+		return rec.record(phase, doc.toString(), System.currentTimeMillis()-b4, e)
+				.put("triples", triples).put("bnodes", bnodes);
+	}
+	
 	private static void writeToDir(String exceptionDir, Node old, String string, Collection<Node[]> data) throws IOException {
 		if(exceptionDir==null)
 			return;
@@ -2,6 +2,7 @@ package cl.uchile.dcc.blabel.cli;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -9,9 +10,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
@@ -39,6 +38,12 @@ import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.lean.TreeDecompositionGraphLeaning;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+import cl.uchile.dcc.blabel.test.RunRecorder;
+import cl.uchile.dcc.blabel.test.RunRecorder.Record;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs.Family;
 import cl.uchile.dcc.blabel.test.TestFramework;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkArgs;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkResult;
@@ -61,6 +66,9 @@ public class RunSyntheticEvaluation {
 	
 	public static final int DEFAULT_TIMEOUT = 600; //in seconds
 	
+	public static final String DEFAULT_SIZES = "2,4,8,16,32,64,128";
+	public static final long DEFAULT_SEED = 0;
+	
 	public static final Resource PRED = new Resource("p");
 	
 	public static enum Benchmark { LEAN, LABEL, BOTH, CONTROL, TEST };
@@ -78,14 +86,22 @@ public class RunSyntheticEvaluation {
 //		Option zO = new Option("z", "fetch zip (doesn't seem to work :/)");
 //		zO.setArgs(0);
 
-		Option dO = new Option("d", "benchmark dir");
+		Option dO = new Option("d", "benchmark dir (or use -g)");
 		dO.setArgs(1);
-		dO.setRequired(true);
+		
+		Option gO = new Option("g", "generate graphs of these families rather than reading -d (comma-separated): "+SyntheticGraphs.FAMILY_OPTIONS);
+		gO.setArgs(1);
+		
+		Option kO = new Option("k", "sizes of graphs to generate with -g (comma-separated, in increasing order) [default "+DEFAULT_SIZES+"]");
+		kO.setArgs(1);
+		
+		Option seedO = new Option("seed", "seed for generating random graphs with -g [default "+DEFAULT_SEED+"]");
+		seedO.setArgs(1);
 
 		Option sO = new Option("s", "hashing scheme: 0:md5 1:murmur3_128 2:sha1 3:sha256 4:sha512");
 		sO.setArgs(1);
 		
-		Option lO = new Option("l", "leaning algorithm: 0:dfs 1:bfs");
+		Option lO = new Option("l", "leaning algorithm: 0:dfs 1:bfs 2:tree decomposition");
 		lO.setArgs(1);
 		
 		Option rO = new Option("r", "randomise dfs search (don't guess best, select random)");
@@ -97,22 +113,53 @@ public class RunSyntheticEvaluation {
 		bO.setArgs(1);
 		bO.setRequired(true);
 		
+		Option ltO = new Option("lt", "number of threads for DFS leaning (default 1; more threads split the top of the search tree into parallel tasks)");
+		ltO.setArgs(1);
+		
+		Option lcO = new Option("lc", "number of threads for leaning connected components of blank nodes independently (default 1: lean all blank nodes as one query)");
+		lcO.setArgs(1);
+		
+		Option lmO = new Option("lm", "memory budget in MB for the partial solutions of BFS leaning, spilled to disk beyond (default a quarter of the heap)");
+		lmO.setArgs(1);
+		
 		Option nleanO = new Option("nlean", "no pruning by automorphism in DFS leaning (only enable for testing)");
 		
+		Option dynO = new Option("dyn", "choose the next pattern of DFS leaning while searching (fail first) rather than by static selectivity estimates");
+		
+		Option nacycO = new Option("nacyc", "always search in DFS leaning, even for acyclic queries (only enable for testing)");
+		
+		Option nbjO = new Option("nbj", "no backjumping or nogood caching in DFS leaning (only enable for testing)");
+		
+		Option npropO = new Option("nprop", "no constraint propagation in DFS leaning (only enable for testing)");
+		
 		Option nlabelO = new Option("nlabel", "no pruning by automorphism in labelling (only enable for testing)");
 		
+		Option jO = new Option("j", "also write results as JSON Lines to this file (for CompareRuns)");
+		jO.setArgs(1);
+		
 		Option helpO = new Option("h", "print help");
 
 		Options options = new Options();
 //		options.addOption(zO);
 		options.addOption(dO);
+		options.addOption(gO);
+		options.addOption(kO);
+		options.addOption(seedO);
 		options.addOption(sO);
 		options.addOption(lO);
 		options.addOption(rO);
 		options.addOption(tO);
 		options.addOption(bO);
+		options.addOption(ltO);
+		options.addOption(lcO);
+		options.addOption(lmO);
 		options.addOption(nleanO);
+		options.addOption(dynO);
+		options.addOption(nacycO);
+		options.addOption(nbjO);
+		options.addOption(npropO);
 		options.addOption(nlabelO);
+		options.addOption(jO);
 		options.addOption(helpO);
 
 		CommandLineParser parser = new BasicParser();
@@ -137,7 +184,17 @@ public class RunSyntheticEvaluation {
 		int benchId = Integer.parseInt(cmd.getOptionValue("b"));
 		Benchmark bench = Benchmark.values()[benchId]; 
 
-		String dir = cmd.getOptionValue("d");
+		if(cmd.hasOption("d") == cmd.hasOption("g")){
+			System.err.println("***ERROR: specify either a benchmark dir (-d) or families to generate (-g)");
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp("parameters:", options );
+			return;
+		}
+		
+		long seed = DEFAULT_SEED;
+		if(cmd.hasOption("seed")){
+			seed = Long.parseLong(cmd.getOptionValue("seed"));
+		}
 
 //		if(cmd.hasOption("z")){
 //			String fn = downloadZip(ZIP_LOC,dir);
@@ -152,6 +209,29 @@ public class RunSyntheticEvaluation {
 		boolean randomiseDfs = cmd.hasOption("r");
 		
 		boolean noPruneLean = cmd.hasOption("nlean");
+		
+		boolean noPropagate = cmd.hasOption("nprop");
+		
+		boolean dynamicOrder = cmd.hasOption("dyn");
+		
+		boolean noAcyclic = cmd.hasOption("nacyc");
+		boolean noBackjump = cmd.hasOption("nbj");
+		
+		ForkJoinPool leanPool = null;
+		if(cmd.hasOption("lt") && Integer.parseInt(cmd.getOptionValue("lt"))>1){
+			leanPool = new ForkJoinPool(Integer.parseInt(cmd.getOptionValue("lt")));
+		}
+		
+		WorkerPool componentPool = null;
+		if(cmd.hasOption("lc") && Integer.parseInt(cmd.getOptionValue("lc"))>1){
+			componentPool = new WorkerPool(Integer.parseInt(cmd.getOptionValue("lc")));
+		}
+		
+		long leanMemory = BFSGraphLeaning.getDefaultMemoryBudget();
+		if(cmd.hasOption("lm")){
+			leanMemory = Long.parseLong(cmd.getOptionValue("lm")) * 1024 * 1024;
+		}
+		
 		boolean noPruneLabel = cmd.hasOption("nlabel");
 		
 		HashFunction hf = null;
@@ -174,8 +254,25 @@ public class RunSyntheticEvaluation {
 		
 		
 		LOG.info("Building test-cases");
-		File dirF = new File(dir);
-		TreeMap<String,TreeMap<Integer,File>> testCases = buildTestcases(dirF);
+		// files are null for generated graphs
+		TreeMap<String,TreeMap<Integer,File>> testCases = null;
+		if(cmd.hasOption("d")){
+			testCases = buildTestcases(new File(cmd.getOptionValue("d")));
+		} else{
+			String sizes = DEFAULT_SIZES;
+			if(cmd.hasOption("k")){
+				sizes = cmd.getOptionValue("k");
+			}
+			testCases = buildGeneratedTestcases(cmd.getOptionValue("g"), sizes);
+		}
+		
+		RunRecorder rec = null;
+		if(cmd.hasOption("j")){
+			rec = new RunRecorder(new FileOutputStream(cmd.getOptionValue("j")), RunSyntheticEvaluation.class.getSimpleName(), args);
+		}
+		
+		// one worker re-used for all graphs
+		WorkerPool pool = new WorkerPool(1);
 		
 		for(Map.Entry<String,TreeMap<Integer,File>> testClass : testCases.entrySet()){
 			boolean fail = false;
@@ -183,9 +280,19 @@ public class RunSyntheticEvaluation {
 				File fn = classInstance.getValue();
 				
 				LOG.info("Running class "+testClass.getKey()+" for k="+classInstance.getKey());
-				LOG.info("Loading "+fn+" ...");
-				Collection<Node[]> data = loadAndConvert(fn);
-				LOG.info("... loaded "+data.size()+" undirected triples.");
+				String name = null;
+				Collection<Node[]> data = null;
+				if(fn!=null){
+					LOG.info("Loading "+fn+" ...");
+					name = fn.getName();
+					data = loadAndConvert(fn);
+					LOG.info("... loaded "+data.size()+" undirected triples.");
+				} else{
+					LOG.info("Generating ...");
+					name = testClass.getKey()+"-"+classInstance.getKey();
+					data = SyntheticGraphs.generate(Family.valueOf(testClass.getKey()), classInstance.getKey(), seed);
+					LOG.info("... generated "+data.size()+" triples.");
+				}
 				
 		        // in case test fails, we still want to
 				// have a bnode count
@@ -195,33 +302,46 @@ public class RunSyntheticEvaluation {
 				
 				LOG.info("... running benchmark "+bench);
 				
+				if(rec!=null) rec.startDocument();
+				
 				
 				if(bench.equals(Benchmark.LEAN) || bench.equals(Benchmark.BOTH)){
 					GraphLeaning gl = null;
 					if(l==0){
-						LOG.info("Running DFS leaning algorithm, random: "+randomiseDfs+" prune: "+!noPruneLean);
-						gl = new DFSGraphLeaning(data,randomiseDfs,!noPruneLean);
+						LOG.info("Running DFS leaning algorithm, random: "+randomiseDfs+" prune: "+!noPruneLean+" propagate: "+!noPropagate+" dynamic order: "+dynamicOrder+" acyclic: "+!noAcyclic+" backjump: "+!noBackjump+" parallel: "+(leanPool!=null));
+						DFSGraphLeaning dfs = new DFSGraphLeaning(data,randomiseDfs,!noPruneLean,leanPool);
+						dfs.setPropagate(!noPropagate);
+						dfs.setDynamicOrder(dynamicOrder);
+						dfs.setAcyclic(!noAcyclic);
+						dfs.setBackjump(!noBackjump);
+						gl = dfs;
 					} else if(l==1) {
 						LOG.info("Running BFS leaning algorithm");
-						gl = new BFSGraphLeaning(data);
+						gl = new BFSGraphLeaning(data,leanMemory,null);
+					} else if(l==2) {
+						LOG.info("Running tree decomposition leaning algorithm");
+						gl = new TreeDecompositionGraphLeaning(data);
 					} else {
 						LOG.info("Illegal value for parameter l:"+l);
 						HelpFormatter formatter = new HelpFormatter();
 						formatter.printHelp("parameters:", options );
 						return;
 					}
+					gl.setComponentPool(componentPool);
 					
-					ExecutorService executor = Executors.newSingleThreadExecutor();
-			        Future<GraphLeaningResult> future = executor.submit(gl);
-			        
 			        long b4 = System.currentTimeMillis();
 			        try {
 			            LOG.info("Running leaning ...");
-			            GraphLeaningResult glr = future.get(timeout, TimeUnit.SECONDS);
+			            GraphLeaningResult glr = pool.run(gl, timeout, TimeUnit.SECONDS);
 			            LOG.info("... finished!");
 			            
 			            int leanBnodeCount = countBnodes(glr.getLeanData());
-			            System.out.println("LEAN\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+glr.getLeanData().size()+"\t"+leanBnodeCount+"\t"+glr.getJoins()+"\t"+glr.getDepth()+"\t"+glr.getSolutionCount()+"\t"+(data.size()-glr.getLeanData().size())+"\t"+(bnodeCount-leanBnodeCount));
+			            System.out.println("LEAN\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+glr.getLeanData().size()+"\t"+leanBnodeCount+"\t"+glr.getJoins()+"\t"+glr.getDepth()+"\t"+glr.getSolutionCount()+"\t"+(data.size()-glr.getLeanData().size())+"\t"+(bnodeCount-leanBnodeCount));
+			            if(rec!=null){
+			            	rec.write(record(rec, "LEAN", name, testClass.getKey(), classInstance.getKey(), data.size(), bnodeCount, b4, null)
+			            			.put("leanTriples", glr.getLeanData().size()).put("leanBnodes", leanBnodeCount)
+			            			.put("joins", glr.getJoins()).put("depth", glr.getDepth()).put("solutions", glr.getSolutionCount()));
+			            }
 			            
 			            if(bench.equals(Benchmark.BOTH)){
 			            	data = glr.getLeanData();
@@ -229,12 +349,13 @@ public class RunSyntheticEvaluation {
 				        }
 			        } catch (Exception e) {
 			        	LOG.warning(e.getClass().getName()+" "+e.getMessage());
-			        	System.out.println("LEAN\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+			        	System.out.println("LEAN\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+			        	if(rec!=null){
+			        		rec.write(record(rec, "LEAN", name, testClass.getKey(), classInstance.getKey(), data.size(), bnodeCount, b4, e));
+			        	}
 			        	
 			        	fail = true; // skip to next class
 			        } 
-			        executor.shutdownNow();
-			        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 				}
 				
 				if(!fail && (bench.equals(Benchmark.LABEL) || bench.equals(Benchmark.BOTH))){
@@ -244,40 +365,39 @@ public class RunSyntheticEvaluation {
 					
 					GraphLabelling cl = new GraphLabelling(data,cla);
 					
-					ExecutorService executor = Executors.newSingleThreadExecutor();
-			        Future<GraphLabellingResult> future = executor.submit(cl);
-
 			        long b4 = System.currentTimeMillis();
 			        try {
 			            LOG.info("Running labelling prune: "+!noPruneLabel);
-			            GraphLabellingResult clr = future.get(timeout, TimeUnit.SECONDS);
+			            GraphLabellingResult clr = pool.run(cl, timeout, TimeUnit.SECONDS);
 			            LOG.info("... finished!");
 			            
-			            System.out.println("LABEL\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+clr.getBnodeCount()+"\t"+(System.currentTimeMillis()-b4)+"\t"+clr.getColourIterationCount()+"\t"+clr.getLeafCount());
+			            System.out.println("LABEL\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+clr.getBnodeCount()+"\t"+(System.currentTimeMillis()-b4)+"\t"+clr.getColourIterationCount()+"\t"+clr.getLeafCount());
+			            if(rec!=null){
+			            	rec.write(record(rec, "LABEL", name, testClass.getKey(), classInstance.getKey(), data.size(), clr.getBnodeCount(), b4, null)
+			            			.put("colourIterations", clr.getColourIterationCount()).put("leaves", clr.getLeafCount()));
+			            }
 			        } catch (Exception e) {
 			        	LOG.warning(e.getClass().getName()+" "+e.getMessage());
-			        	System.out.println("LABEL\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+			        	System.out.println("LABEL\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());//+"\t"+gc.getTotalColourIterations()+"\t"+gc.getLeaves().countLeaves()+"\t"+gc.getLeaves().getAutomorphismGroup().countOrbits()+"\t"+gc.getLeaves().getAutomorphismGroup().maxOrbit());
+			        	if(rec!=null){
+			        		rec.write(record(rec, "LABEL", name, testClass.getKey(), classInstance.getKey(), data.size(), bnodeCount, b4, e));
+			        	}
 			        	
 			        	fail = true; // skip to next class
 			        } 
-			        executor.shutdownNow();
-			        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 				}
 				
 				if(bench.equals(Benchmark.TEST)){
 					TestFrameworkArgs tfa = new TestFrameworkArgs();
 					TestFramework tf = new TestFramework(data,tfa);
 					
-					ExecutorService executor = Executors.newSingleThreadExecutor();
-			        Future<TestFrameworkResult> future = executor.submit(tf);
-
 			        long b4 = System.currentTimeMillis();
 			        try {
 			            LOG.info("Running test ...");
-			            TestFrameworkResult tfr = future.get(timeout, TimeUnit.SECONDS);
+			            TestFrameworkResult tfr = pool.run(tf, timeout, TimeUnit.SECONDS);
 			            LOG.info("... finished!");
 			            
-			            String message = "TEST\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t";
+			            String message = "TEST\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t";
 			            
 			            if(tfr.getLabellingComparisons().size()<=1 && tfr.getLeaningExceptions().size()<=1 && tfr.getMappingsFailures().isEmpty() && tfr.getLabellingHashCollisions().isEmpty() && tfr.getLeaningHashCollisions().isEmpty()){
 			            	// no explicit error found
@@ -312,23 +432,39 @@ public class RunSyntheticEvaluation {
 		            	}
 			            
 			            System.out.println(message);
+			            if(rec!=null){
+			            	rec.write(record(rec, "TEST", name, testClass.getKey(), classInstance.getKey(), data.size(), bnodeCount, b4, null)
+			            			.put("result", message.contains("\tERROR") ? "ERROR" : "OKAY"));
+			            }
 			        } catch (Exception e) {
 			        	LOG.warning(e.getClass().getName()+" "+e.getMessage());
-			        	System.out.println("TEST\t"+fn.getName()+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());
+			        	System.out.println("TEST\t"+name+"\t"+testClass.getKey()+"\t"+classInstance.getKey()+"\t"+data.size()+"\t"+bnodeCount+"\t"+(System.currentTimeMillis()-b4)+"\t"+(-1*timeout*1000)+"\t"+e.getClass().getSimpleName()+"\t"+e.getCause());
+			        	if(rec!=null){
+			        		rec.write(record(rec, "TEST", name, testClass.getKey(), classInstance.getKey(), data.size(), bnodeCount, b4, e));
+			        	}
 			        	
 			        	fail = true; // skip to next class
 			        } 
-			        executor.shutdownNow();
-			        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
 				}
 				
 		        if(fail) break;
 			}
 			LOG.info("Finished class "+testClass.getKey());
 		}
+		if(rec!=null) rec.close();
+		if(leanPool!=null) leanPool.shutdown();
+		if(componentPool!=null) componentPool.shutdown();
 		LOG.info("Finished testcases. Results in standard out.");
 	}
 	
+	/**
+	 * A JSON Lines record with the fields common to all phases.
+	 */
+	private static Record record(RunRecorder rec, String phase, String name, String testClass, int k, int triples, int bnodes, long b4, Exception e){
+		return rec.record(phase, name, System.currentTimeMillis()-b4, e)
+				.put("class", testClass).put("k", k).put("triples", triples).put("bnodes", bnodes);
+	}
+	
 	public static int countBnodes(Collection<Node[]> data){
 		HashSet<BNode> bnodes = new HashSet<BNode>();
 		for(Node[] stmt : data){
@@ -364,6 +500,26 @@ public class RunSyntheticEvaluation {
 		return data;
 	}
 	
+	/**
+	 * Build map of test case classes (families) and sizes to generate
+	 * (files are null).
+	 * @param families Comma-separated ids of families
+	 * @param sizes Comma-separated sizes
+	 * @return
+	 */
+	private static TreeMap<String,TreeMap<Integer,File>> buildGeneratedTestcases(String families, String sizes){
+		TreeMap<String,TreeMap<Integer,File>> testCases = new  TreeMap<String,TreeMap<Integer,File>>();
+		for(String f:families.split(",")){
+			Family family = Family.values()[Integer.parseInt(f.trim())];
+			TreeMap<Integer,File> classCases = new TreeMap<Integer,File>();
+			for(String k:sizes.split(",")){
+				classCases.put(Integer.parseInt(k.trim()), null);
+			}
+			testCases.put(family.name(),classCases);
+		}
+		return testCases;
+	}
+	
 	/**
 	 * From file system, build map of test case classes (directory) and size (-num suffix on file)
 	 * @param dir
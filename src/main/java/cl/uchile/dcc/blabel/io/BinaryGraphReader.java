@@ -0,0 +1,173 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.label.GraphColouring;
+
+/**
+ * Reads a graph written by {@link BinaryGraphWriter}. The dictionary is
+ * read when the reader is created; triples are then decoded as they are
+ * iterated (in sorted order of term ids). Nodes are shared between
+ * triples.
+ *
+ * @author ahogan
+ *
+ */
+public class BinaryGraphReader implements Iterator<Node[]>, Closeable {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final DataInputStream in;
+	private final Node[] dict;
+	private final int count;
+
+	private int read = 0;
+	private int s = 0, p = 0, o = 0;
+
+	/**
+	 * Reads the header and dictionary.
+	 * @param is
+	 * @throws IOException if the input is not in the binary format or is corrupt
+	 */
+	public BinaryGraphReader(InputStream is) throws IOException{
+		in = new DataInputStream(new BufferedInputStream(is));
+		if(in.readInt()!=BinaryGraphWriter.MAGIC){
+			throw new IOException("Not a binary graph");
+		}
+		byte version = in.readByte();
+		if(version!=BinaryGraphWriter.VERSION){
+			throw new IOException("Unsupported version "+version+" of binary graph");
+		}
+		boolean bnode = (in.readByte() & BinaryGraphWriter.FLAG_BNODE_LABELS) != 0;
+		String labelPrefix = new String(readBytes(readVarInt()), Charsets.UTF_8) + GraphColouring.BNODE_LABEL_PREFIX;
+
+		int labelBytes = readVarInt();
+		int labels = readVarInt();
+		byte[] label = new byte[labelBytes];
+		char[] hex = new char[labelBytes*2];
+
+		// read terms after labels so both fit in one array
+		Node[] ls = new Node[labels];
+		for(int i=0; i<labels; i++){
+			in.readFully(label);
+			for(int j=0; j<labelBytes; j++){
+				hex[j*2] = HEX[(label[j] >> 4) & 0xf];
+				hex[j*2+1] = HEX[label[j] & 0xf];
+			}
+			String l = labelPrefix + new String(hex);
+			ls[i] = bnode ? new BNode(l) : new Resource(l);
+		}
+
+		int terms = readVarInt();
+		dict = new Node[labels+terms];
+		System.arraycopy(ls, 0, dict, 0, labels);
+		byte[] last = new byte[0];
+		for(int i=0; i<terms; i++){
+			int shared = readVarInt();
+			int suffix = readVarInt();
+			byte[] b = new byte[shared+suffix];
+			System.arraycopy(last, 0, b, 0, shared);
+			in.readFully(b, shared, suffix);
+			try{
+				dict[labels+i] = TermDictionary.toNode(new String(b, Charsets.UTF_8));
+			} catch(ParseException e){
+				throw new IOException("Cannot parse term "+(labels+i)+": "+e.getMessage());
+			}
+			last = b;
+		}
+
+		count = readVarInt();
+	}
+
+	/**
+	 * @return The number of triples in the graph
+	 */
+	public int getTripleCount(){
+		return count;
+	}
+
+	/**
+	 * @return The number of distinct terms in the graph
+	 */
+	public int getTermCount(){
+		return dict.length;
+	}
+
+	public boolean hasNext() {
+		return read<count;
+	}
+
+	public Node[] next() {
+		if(!hasNext())
+			throw new NoSuchElementException();
+		try{
+			if(read==0){
+				s = readVarInt();
+				p = readVarInt();
+				o = readVarInt();
+			} else{
+				int ds = readVarInt();
+				if(ds!=0){
+					s += ds;
+					p = readVarInt();
+					o = readVarInt();
+				} else{
+					int dp = readVarInt();
+					if(dp!=0){
+						p += dp;
+						o = readVarInt();
+					} else{
+						o += readVarInt();
+					}
+				}
+			}
+		} catch(IOException e){
+			throw new RuntimeException("Error reading triple "+read, e);
+		}
+		read++;
+		return new Node[]{ dict[s], dict[p], dict[o] };
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private byte[] readBytes(int len) throws IOException{
+		byte[] b = new byte[len];
+		in.readFully(b);
+		return b;
+	}
+
+	private int readVarInt() throws IOException{
+		int v = 0;
+		int shift = 0;
+		while(true){
+			int b = in.read();
+			if(b<0)
+				throw new EOFException();
+			v |= (b & 0x7f) << shift;
+			if((b & 0x80)==0)
+				return v;
+			shift += 7;
+			if(shift>28)
+				throw new IOException("Malformed variable-length int");
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.Callback;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.label.GraphColouring;
+
+/**
+ * Writes a (canonical) graph in a compact binary format, which can be
+ * read back with {@link BinaryGraphReader}.
+ *
+ * Canonical labels (the prefix, then {@link GraphColouring#BNODE_LABEL_PREFIX},
+ * then the hex of the hash) are stored as raw hash bytes; other terms are
+ * stored in a sorted, front-coded dictionary of their N3 forms; triples
+ * are sorted and stored as delta-encoded variable-length ints over the
+ * term ids.
+ *
+ * Layout (ints are variable-length unless stated):
+ * <pre>
+ * magic (4 bytes) version (1 byte) flags (1 byte)
+ * prefix-length prefix-bytes
+ * label-bytes label-count labels (label-bytes each, sorted)
+ * term-count [shared-prefix-length suffix-length suffix-bytes]*
+ * triple-count [s-delta (p-delta|p) (o-delta|o)]*
+ * </pre>
+ * Labels take ids from 0 and terms follow. A triple stores the delta of
+ * its subject id from the previous triple; if zero, the delta of its
+ * predicate id, else the predicate id; likewise for the object.
+ *
+ * Statements are buffered in memory and written on {@link #close()}
+ * (or {@link #endDocument()}); only the first three terms are kept.
+ *
+ * @author ahogan
+ *
+ */
+public class BinaryGraphWriter implements Callback, Closeable {
+	static final int MAGIC = 0x424c4247; // "BLBG"
+	static final byte VERSION = 1;
+
+	static final byte FLAG_BNODE_LABELS = 1;
+
+	private final DataOutputStream out;
+	private final String prefix;
+	private final boolean bnode;
+	private final String labelPrefix;
+
+	private final Collection<Node[]> triples = new ArrayList<Node[]>();
+	private boolean written = false;
+
+	/**
+	 * @param os Where to write the graph
+	 * @param prefix The prefix used for canonical labels (as in the labelling)
+	 * @param bnode true if canonical labels are blank nodes, false if IRIs
+	 */
+	public BinaryGraphWriter(OutputStream os, String prefix, boolean bnode){
+		this.out = new DataOutputStream(new BufferedOutputStream(os));
+		this.prefix = prefix;
+		this.bnode = bnode;
+		this.labelPrefix = prefix + GraphColouring.BNODE_LABEL_PREFIX;
+	}
+
+	public void startDocument() {
+		;
+	}
+
+	public void processStatement(Node[] nx) {
+		if(nx.length>3){
+			nx = new Node[]{nx[0], nx[1], nx[2]};
+		}
+		triples.add(nx);
+	}
+
+	/**
+	 * Writes the buffered graph (but does not close the stream).
+	 */
+	public void endDocument() {
+		try{
+			write();
+		} catch(IOException e){
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes the buffered graph (if not yet written) and closes the stream.
+	 */
+	public void close() throws IOException{
+		write();
+		out.close();
+	}
+
+	private void write() throws IOException{
+		if(written)
+			return;
+		written = true;
+
+		// split terms into canonical labels and others
+		TreeSet<String> labelHex = new TreeSet<String>();
+		TreeSet<String> terms = new TreeSet<String>();
+		int labelBytes = -1;
+		for(Node[] t:triples){
+			for(Node n:t){
+				String hex = getLabelHex(n);
+				if(hex!=null && (labelBytes==-1 || labelBytes*2==hex.length())){
+					labelBytes = hex.length()/2;
+					labelHex.add(hex);
+				} else{
+					terms.add(n.toN3());
+				}
+			}
+		}
+		if(labelBytes==-1){
+			labelBytes = 0;
+		}
+
+		// assign ids: labels then terms, each in sorted order
+		// (lowercase hex sorts like the unsigned bytes)
+		Map<String,Integer> labelIds = new HashMap<String,Integer>();
+		Map<String,Integer> termIds = new HashMap<String,Integer>();
+		int id = 0;
+		for(String hex:labelHex){
+			labelIds.put(hex, id++);
+		}
+		for(String n3:terms){
+			termIds.put(n3, id++);
+		}
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(bnode ? FLAG_BNODE_LABELS : 0);
+		writeBytes(prefix.getBytes(Charsets.UTF_8));
+
+		writeVarInt(labelBytes);
+		writeVarInt(labelHex.size());
+		for(String hex:labelHex){
+			for(int i=0; i<labelBytes; i++){
+				out.writeByte(Character.digit(hex.charAt(i*2), 16) << 4 | Character.digit(hex.charAt(i*2+1), 16));
+			}
+		}
+
+		writeVarInt(terms.size());
+		byte[] last = new byte[0];
+		for(String n3:terms){
+			byte[] b = n3.getBytes(Charsets.UTF_8);
+			int shared = 0;
+			int max = Math.min(last.length, b.length);
+			while(shared<max && last[shared]==b[shared]){
+				shared++;
+			}
+			writeVarInt(shared);
+			writeVarInt(b.length-shared);
+			out.write(b, shared, b.length-shared);
+			last = b;
+		}
+
+		int[][] ids = new int[triples.size()][];
+		int i = 0;
+		for(Node[] t:triples){
+			int[] tid = new int[3];
+			for(int j=0; j<3; j++){
+				String hex = getLabelHex(t[j]);
+				Integer l = hex==null ? null : labelIds.get(hex);
+				tid[j] = l!=null ? l : termIds.get(t[j].toN3());
+			}
+			ids[i++] = tid;
+		}
+		Arrays.sort(ids, TRIPLE_ORDER);
+
+		// count distinct triples (the input may not be a set)
+		int distinct = 0;
+		int[] prev = null;
+		for(int[] t:ids){
+			if(prev==null || TRIPLE_ORDER.compare(prev, t)!=0)
+				distinct++;
+			prev = t;
+		}
+
+		writeVarInt(distinct);
+		prev = null;
+		for(int[] t:ids){
+			if(prev==null){
+				writeVarInt(t[0]);
+				writeVarInt(t[1]);
+				writeVarInt(t[2]);
+			} else if(t[0]!=prev[0]){
+				writeVarInt(t[0]-prev[0]);
+				writeVarInt(t[1]);
+				writeVarInt(t[2]);
+			} else if(t[1]!=prev[1]){
+				writeVarInt(0);
+				writeVarInt(t[1]-prev[1]);
+				writeVarInt(t[2]);
+			} else if(t[2]!=prev[2]){
+				writeVarInt(0);
+				writeVarInt(0);
+				writeVarInt(t[2]-prev[2]);
+			} else{
+				// duplicate
+				continue;
+			}
+			prev = t;
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return the hex of a canonical label or null if not a canonical label
+	 */
+	private String getLabelHex(Node n){
+		if(bnode ? !(n instanceof BNode) : !(n instanceof Resource))
+			return null;
+		String s = n.toString();
+		if(!s.startsWith(labelPrefix))
+			return null;
+		int len = s.length() - labelPrefix.length();
+		if(len==0 || len%2!=0)
+			return null;
+		for(int i=labelPrefix.length(); i<s.length(); i++){
+			char c = s.charAt(i);
+			if(!((c>='0' && c<='9') || (c>='a' && c<='f')))
+				return null;
+		}
+		return s.substring(labelPrefix.length());
+	}
+
+	private void writeBytes(byte[] b) throws IOException{
+		writeVarInt(b.length);
+		out.write(b);
+	}
+
+	private void writeVarInt(int v) throws IOException{
+		while((v & ~0x7f) != 0){
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static final Comparator<int[]> TRIPLE_ORDER = new Comparator<int[]>(){
+		public int compare(int[] a, int[] b) {
+			for(int i=0; i<3; i++){
+				if(a[i]!=b[i])
+					return a[i] < b[i] ? -1 : 1;
+			}
+			return 0;
+		}
+	};
+}
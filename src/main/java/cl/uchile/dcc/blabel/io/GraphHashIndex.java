@@ -0,0 +1,408 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+
+/**
+ * A persistent index from (unique) graph hashes to the id of the first
+ * document seen with that graph, used to find graphs that are isomorphic
+ * to one seen before, possibly in a previous run.
+ *
+ * The index is an open-addressing hash table (linear probing) stored in a
+ * memory-mapped file, with fixed-size slots holding the first 16 bytes of
+ * the hash, the number of documents seen with the hash and the offset of
+ * the first document id in a second, append-only file (the index file
+ * name with the suffix {@link #IDS_SUFFIX}). Lookups and inserts read only
+ * the slots probed, so the table need not fit in heap. The table is
+ * doubled (rewriting the file) when its load exceeds {@link #MAX_LOAD}.
+ *
+ * Hashes are truncated to 16 bytes (128 bits) and are assumed to be
+ * uniformly distributed (i.e., the output of a hash function). The index
+ * is not thread-safe.
+ *
+ * @author ahogan
+ *
+ */
+public class GraphHashIndex implements Closeable {
+	static final Logger LOG = Logger.getLogger(GraphHashIndex.class.getSimpleName());
+
+	public static final String IDS_SUFFIX = ".ids";
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final double MAX_LOAD = 0.7;
+
+	static final int MAGIC = 0x424c4849; // "BLHI"
+	static final int VERSION = 1;
+
+	static final int KEY_BYTES = 16;
+
+	// slot layout: key (16), count (4), unused (4), id offset (8)
+	static final int SLOT_BYTES = 32;
+	private static final int COUNT_OFFSET = KEY_BYTES;
+	private static final int ID_OFFSET = KEY_BYTES + 8;
+
+	// header layout: magic (4), version (4), capacity (8), size (8), unused (8)
+	static final int HEADER_BYTES = 32;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SIZE_OFFSET = 16;
+
+	// slots per mapped segment (a single buffer can map < 2 GB)
+	private static final int SEGMENT_BITS = 24;
+	private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+
+	private final File file;
+
+	private RandomAccessFile raf;
+	private FileChannel fc;
+	private MappedByteBuffer header;
+	private MappedByteBuffer[] segments;
+	private long capacity;
+	private long size;
+
+	private final RandomAccessFile ids;
+	private final FileChannel idc;
+
+	// reusable buffer for keys
+	private final byte[] key = new byte[KEY_BYTES];
+
+	/**
+	 * Opens an index, creating it (with the default capacity) if it does not exist.
+	 * @param file
+	 * @throws IOException
+	 */
+	public GraphHashIndex(File file) throws IOException{
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens an index, creating it if it does not exist.
+	 * @param file
+	 * @param capacity Initial number of slots if the index is created (rounded up to a power of two)
+	 * @throws IOException
+	 */
+	public GraphHashIndex(File file, long capacity) throws IOException{
+		this.file = file;
+		if(!file.exists() || file.length()==0){
+			create(file, Math.max(powerOfTwo(capacity), 16));
+		}
+		open();
+
+		ids = new RandomAccessFile(new File(file.getPath()+IDS_SUFFIX), "rw");
+		idc = ids.getChannel();
+	}
+
+	private void open() throws IOException{
+		raf = new RandomAccessFile(file, "rw");
+		fc = raf.getChannel();
+		if(fc.size()<HEADER_BYTES){
+			raf.close();
+			throw new IOException("Not a graph hash index: "+file);
+		}
+		header = fc.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+		if(header.getInt(0)!=MAGIC){
+			raf.close();
+			throw new IOException("Not a graph hash index: "+file);
+		}
+		if(header.getInt(4)!=VERSION){
+			raf.close();
+			throw new IOException("Unsupported version "+header.getInt(4)+" of graph hash index: "+file);
+		}
+		capacity = header.getLong(CAPACITY_OFFSET);
+		size = header.getLong(SIZE_OFFSET);
+		if(fc.size()<HEADER_BYTES+capacity*SLOT_BYTES){
+			raf.close();
+			throw new IOException("Truncated graph hash index: "+file);
+		}
+
+		int segs = (int)((capacity + SEGMENT_SLOTS - 1) >>> SEGMENT_BITS);
+		segments = new MappedByteBuffer[segs];
+		for(int i=0; i<segs; i++){
+			long slots = Math.min(SEGMENT_SLOTS, capacity - ((long)i << SEGMENT_BITS));
+			segments[i] = fc.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + ((long)i << SEGMENT_BITS) * SLOT_BYTES, slots * SLOT_BYTES);
+		}
+	}
+
+	private static void create(File file, long capacity) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			// extends with zeros, i.e., empty slots
+			raf.setLength(0);
+			raf.setLength(HEADER_BYTES + capacity * SLOT_BYTES);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeLong(capacity);
+			raf.writeLong(0);
+		} finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param hc A graph hash
+	 * @return true if the hash has been seen
+	 */
+	public boolean contains(HashCode hc){
+		return find(hc)>=0;
+	}
+
+	/**
+	 * @param hc A graph hash
+	 * @return The id of the first document seen with the hash, or null if not seen
+	 * @throws IOException
+	 */
+	public String get(HashCode hc) throws IOException{
+		long slot = find(hc);
+		if(slot<0)
+			return null;
+		return readId(slot);
+	}
+
+	/**
+	 * @param hc A graph hash
+	 * @return The number of documents seen with the hash (0 if not seen)
+	 */
+	public int getCount(HashCode hc){
+		long slot = find(hc);
+		if(slot<0)
+			return 0;
+		return buffer(slot).getInt(offset(slot)+COUNT_OFFSET);
+	}
+
+	/**
+	 * Records a document with the given graph hash.
+	 * @param hc The graph hash of the document
+	 * @param id The id of the document
+	 * @return The id of the first document seen with the hash, or null if
+	 *   the hash was not seen before (in which case the id is stored)
+	 * @throws IOException
+	 */
+	public String add(HashCode hc, String id) throws IOException{
+		long slot = find(hc);
+		if(slot>=0){
+			ByteBuffer b = buffer(slot);
+			int o = offset(slot)+COUNT_OFFSET;
+			b.putInt(o, b.getInt(o)+1);
+			return readId(slot);
+		}
+
+		if(size+1 > capacity*MAX_LOAD){
+			resize(capacity*2);
+			slot = find(hc);
+		}
+
+		// find returns -(free slot)-1
+		slot = -slot-1;
+		long idOffset = writeId(id);
+		ByteBuffer b = buffer(slot);
+		int o = offset(slot);
+		for(int i=0; i<KEY_BYTES; i++){
+			b.put(o+i, key[i]);
+		}
+		b.putInt(o+COUNT_OFFSET, 1);
+		b.putLong(o+ID_OFFSET, idOffset);
+
+		size++;
+		header.putLong(SIZE_OFFSET, size);
+		return null;
+	}
+
+	/**
+	 * @return The number of unique hashes in the index
+	 */
+	public long size(){
+		return size;
+	}
+
+	/**
+	 * @return The number of slots in the table
+	 */
+	public long capacity(){
+		return capacity;
+	}
+
+	/**
+	 * Writes changes through to disk.
+	 * @throws IOException
+	 */
+	public void force() throws IOException{
+		header.force();
+		for(MappedByteBuffer seg:segments){
+			seg.force();
+		}
+		idc.force(false);
+	}
+
+	public void close() throws IOException{
+		force();
+		raf.close();
+		ids.close();
+	}
+
+	/**
+	 * Looks for a hash, setting the key buffer.
+	 * @return The slot of the hash if found, otherwise -(the free slot where it should go)-1
+	 */
+	private long find(HashCode hc){
+		setKey(hc);
+		long mask = capacity-1;
+		long slot = keyHash() & mask;
+		while(true){
+			ByteBuffer b = buffer(slot);
+			int o = offset(slot);
+			if(b.getInt(o+COUNT_OFFSET)==0){
+				return -slot-1;
+			}
+			if(keyEquals(b, o)){
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+	}
+
+	private void setKey(HashCode hc){
+		byte[] bytes = hc.asBytes();
+		int len = Math.min(bytes.length, KEY_BYTES);
+		System.arraycopy(bytes, 0, key, 0, len);
+		for(int i=len; i<KEY_BYTES; i++){
+			key[i] = 0;
+		}
+	}
+
+	private long keyHash(){
+		long h = 0;
+		for(int i=0; i<8; i++){
+			h = (h << 8) | (key[i] & 0xff);
+		}
+		// short hashes leave the lower bytes zero
+		return h ^ (h >>> 32);
+	}
+
+	private boolean keyEquals(ByteBuffer b, int o){
+		for(int i=0; i<KEY_BYTES; i++){
+			if(b.get(o+i)!=key[i])
+				return false;
+		}
+		return true;
+	}
+
+	private ByteBuffer buffer(long slot){
+		return segments[(int)(slot >>> SEGMENT_BITS)];
+	}
+
+	private static int offset(long slot){
+		return (int)(slot & (SEGMENT_SLOTS-1)) * SLOT_BYTES;
+	}
+
+	private long writeId(String id) throws IOException{
+		byte[] bytes = id.getBytes(Charsets.UTF_8);
+		long off = idc.size();
+		ByteBuffer b = ByteBuffer.allocate(4+bytes.length);
+		b.putInt(bytes.length);
+		b.put(bytes);
+		b.flip();
+		long pos = off;
+		while(b.hasRemaining()){
+			pos += idc.write(b, pos);
+		}
+		return off;
+	}
+
+	private String readId(long slot) throws IOException{
+		long off = buffer(slot).getLong(offset(slot)+ID_OFFSET);
+		ByteBuffer len = ByteBuffer.allocate(4);
+		readFully(len, off);
+		ByteBuffer bytes = ByteBuffer.allocate(len.getInt(0));
+		readFully(bytes, off+4);
+		return new String(bytes.array(), Charsets.UTF_8);
+	}
+
+	private void readFully(ByteBuffer b, long pos) throws IOException{
+		while(b.hasRemaining()){
+			int r = idc.read(b, pos);
+			if(r<0){
+				throw new IOException("Unexpected end of "+file.getPath()+IDS_SUFFIX);
+			}
+			pos += r;
+		}
+	}
+
+	/**
+	 * Rehashes into a new file with the given capacity and replaces the
+	 * current file with it.
+	 */
+	private void resize(long newCapacity) throws IOException{
+		LOG.fine("Resizing graph hash index from "+capacity+" to "+newCapacity+" slots");
+		File tmp = new File(file.getPath()+".tmp");
+		create(tmp, newCapacity);
+
+		RandomAccessFile traf = new RandomAccessFile(tmp, "rw");
+		FileChannel tfc = traf.getChannel();
+		int segs = (int)((newCapacity + SEGMENT_SLOTS - 1) >>> SEGMENT_BITS);
+		MappedByteBuffer[] tsegs = new MappedByteBuffer[segs];
+		for(int i=0; i<segs; i++){
+			long slots = Math.min(SEGMENT_SLOTS, newCapacity - ((long)i << SEGMENT_BITS));
+			tsegs[i] = tfc.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + ((long)i << SEGMENT_BITS) * SLOT_BYTES, slots * SLOT_BYTES);
+		}
+
+		long mask = newCapacity-1;
+		byte[] slotBytes = new byte[SLOT_BYTES];
+		for(long s=0; s<capacity; s++){
+			ByteBuffer b = buffer(s);
+			int o = offset(s);
+			if(b.getInt(o+COUNT_OFFSET)==0)
+				continue;
+			for(int i=0; i<SLOT_BYTES; i++){
+				slotBytes[i] = b.get(o+i);
+			}
+			for(int i=0; i<KEY_BYTES; i++){
+				key[i] = slotBytes[i];
+			}
+			long t = keyHash() & mask;
+			while(true){
+				ByteBuffer tb = tsegs[(int)(t >>> SEGMENT_BITS)];
+				int to = offset(t);
+				if(tb.getInt(to+COUNT_OFFSET)==0){
+					for(int i=0; i<SLOT_BYTES; i++){
+						tb.put(to+i, slotBytes[i]);
+					}
+					break;
+				}
+				t = (t+1) & mask;
+			}
+		}
+
+		MappedByteBuffer th = tfc.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+		th.putLong(SIZE_OFFSET, size);
+		th.force();
+		for(MappedByteBuffer seg:tsegs){
+			seg.force();
+		}
+		traf.close();
+		raf.close();
+
+		if(!tmp.renameTo(file)){
+			// e.g., on platforms that cannot replace a file by rename
+			if(!file.delete() || !tmp.renameTo(file)){
+				throw new IOException("Could not replace "+file+" with resized index "+tmp);
+			}
+		}
+		open();
+	}
+
+	private static long powerOfTwo(long n){
+		long p = 1;
+		while(p<n){
+			p <<= 1;
+		}
+		return p;
+	}
+}
@@ -0,0 +1,97 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+/**
+ * Adapts a {@link MappedNxReader} to an iterator of statements so it can
+ * be used in place of an NxParser. Terms are interned in a dictionary so
+ * that repeated terms are parsed once and share the same {@link Node};
+ * the dictionary is cleared when it grows beyond a given number of terms
+ * (acting like a flyweight cache).
+ *
+ * Only the terms a caller uses are interned and parsed: statements can be
+ * cut to their first terms (e.g., to ignore contexts).
+ *
+ * Statements with terms that cannot be parsed are skipped with a warning.
+ *
+ * @author ahogan
+ *
+ */
+public class MappedNxIterator implements Iterator<Node[]> {
+	static final Logger LOG = Logger.getLogger(MappedNxIterator.class.getSimpleName());
+
+	public static final int DEFAULT_MAX_TERMS = 100000;
+
+	private final MappedNxReader reader;
+	private final TermDictionary dict;
+	private final int maxTerms;
+	private final int width;
+
+	private Node[] next = null;
+
+	public MappedNxIterator(MappedNxReader reader){
+		this(reader, DEFAULT_MAX_TERMS);
+	}
+
+	/**
+	 * @param reader
+	 * @param maxTerms Number of terms to cache before clearing
+	 */
+	public MappedNxIterator(MappedNxReader reader, int maxTerms){
+		this(reader, maxTerms, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param reader
+	 * @param maxTerms Number of terms to cache before clearing
+	 * @param width Number of terms of each statement to read (others are not parsed)
+	 */
+	public MappedNxIterator(MappedNxReader reader, int maxTerms, int width){
+		this.reader = reader;
+		this.maxTerms = maxTerms;
+		this.width = width;
+		this.dict = new TermDictionary(Math.min(maxTerms, 1 << 16));
+	}
+
+	public boolean hasNext() {
+		while(next == null){
+			try {
+				if(!reader.next()){
+					return false;
+				}
+				if(dict.size() > maxTerms){
+					dict.clear();
+				}
+				Node[] stmt = new Node[Math.min(reader.length(), width)];
+				for(int i=0; i<stmt.length; i++){
+					stmt[i] = dict.getNode(reader.intern(i, dict));
+				}
+				next = stmt;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} catch (ParseException e) {
+				LOG.warning("Skipping statement at line "+reader.getLineNumber()+": "+e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	public Node[] next() {
+		if(!hasNext()){
+			throw new NoSuchElementException();
+		}
+		Node[] stmt = next;
+		next = null;
+		return stmt;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
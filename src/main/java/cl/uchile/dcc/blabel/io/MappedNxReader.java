@@ -0,0 +1,479 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reads N-Triples or N-Quads from a memory-mapped file without creating
+ * objects per term. Statements are tokenised directly from the mapped
+ * buffer and terms are exposed as byte ranges, which can be compared,
+ * interned into a {@link TermDictionary} or materialised as {@link Node}s
+ * only when needed.
+ *
+ * Large files are mapped in windows; a statement must fit in a window.
+ * Lines that cannot be tokenised are skipped with a warning. Terms are
+ * not validated beyond tokenisation (even if materialised).
+ *
+ * Usage:
+ * <pre>
+ * MappedNxReader r = new MappedNxReader(file);
+ * while(r.next()){
+ *   if(r.isBNode(0)) ...
+ * }
+ * r.close();
+ * </pre>
+ *
+ * @author ahogan
+ *
+ */
+public class MappedNxReader implements Closeable {
+	static final Logger LOG = Logger.getLogger(MappedNxReader.class.getSimpleName());
+
+	public static final int DEFAULT_WINDOW = 1 << 28;
+
+	// types of terms (by first byte)
+	public static final byte IRI = 0;
+	public static final byte BNODE = 1;
+	public static final byte LITERAL = 2;
+
+	private static final int NEED_MORE = -1;
+	private static final int SKIP = 0;
+	private static final int STATEMENT = 1;
+
+	private final RandomAccessFile raf;
+	private final FileChannel fc;
+	private final long size;
+	private final int window;
+
+	// the current window and its offset in the file
+	private MappedByteBuffer buf;
+	private long bufStart;
+	private int limit;
+
+	// position in the current window
+	private int pos = 0;
+
+	// term byte ranges for the current statement
+	private int[] starts = new int[4];
+	private int[] ends = new int[4];
+	private byte[] types = new byte[4];
+	private int terms = 0;
+
+	// reusable buffer to copy out bytes
+	private byte[] scratch = new byte[256];
+
+	private long line = 0;
+	private long statements = 0;
+
+	/**
+	 * Map a file with the default window size.
+	 * @param f
+	 * @throws IOException
+	 */
+	public MappedNxReader(File f) throws IOException{
+		this(f, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Map a file with a given window size in bytes (no statement can be longer).
+	 * @param f
+	 * @param window
+	 * @throws IOException
+	 */
+	public MappedNxReader(File f, int window) throws IOException{
+		this.raf = new RandomAccessFile(f, "r");
+		this.fc = raf.getChannel();
+		this.size = fc.size();
+		this.window = window;
+		map(0);
+	}
+
+	private void map(long start) throws IOException{
+		bufStart = start;
+		long len = Math.min(window, size - start);
+		buf = fc.map(FileChannel.MapMode.READ_ONLY, start, len);
+		limit = (int) len;
+		pos = 0;
+	}
+
+	private boolean atEndOfFile(){
+		return bufStart + limit >= size;
+	}
+
+	/**
+	 * Advances to the next statement.
+	 * @return false if there are no more statements
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException{
+		while(true){
+			int stmtStart = pos;
+			int r = tokenise();
+			if(r == STATEMENT){
+				statements++;
+				return true;
+			} else if(r == NEED_MORE){
+				if(atEndOfFile()){
+					if(terms>0){
+						LOG.warning("Skipping unterminated statement at end of file (line "+(line+1)+")");
+					}
+					terms = 0;
+					return false;
+				}
+				if(stmtStart == 0){
+					throw new IOException("Statement at line "+(line+1)+" is longer than the window of "+window+" bytes");
+				}
+				map(bufStart + stmtStart);
+			}
+		}
+	}
+
+	/**
+	 * Tokenises a line.
+	 * @return STATEMENT if a statement was read, SKIP if an empty, comment
+	 *   or invalid line was skipped, NEED_MORE if the end of the window was
+	 *   reached before the end of the line
+	 */
+	private int tokenise(){
+		terms = 0;
+		int p = pos;
+		while(p<limit){
+			byte b = buf.get(p);
+			switch(b){
+			case ' ': case '\t': case '\r':
+				p++;
+				break;
+			case '\n':
+				return endLine(p + 1, terms == 0 ? SKIP : invalid("statement not terminated by '.'"));
+			case '#':
+				p = skipToEndOfLine(p);
+				if(p<0) return NEED_MORE;
+				return endLine(p + 1, terms == 0 ? SKIP : invalid("statement not terminated by '.'"));
+			case '.':
+				if(terms == 0){
+					return skipLine(p, "no terms before '.'");
+				}
+				p++;
+				// rest of line should be whitespace or a comment
+				while(p<limit){
+					b = buf.get(p);
+					if(b == '\n'){
+						return endLine(p + 1, STATEMENT);
+					} else if(b == '#'){
+						p = skipToEndOfLine(p);
+						if(p<0) break;
+						return endLine(p + 1, STATEMENT);
+					} else if(b != ' ' && b != '\t' && b != '\r'){
+						return skipLine(p, "unexpected content after '.'");
+					}
+					p++;
+				}
+				if(atEndOfFile()){
+					return endLine(limit, STATEMENT);
+				}
+				return NEED_MORE;
+			case '<':
+				int e = scanIri(p);
+				if(e<0) return NEED_MORE;
+				addTerm(p, e, IRI);
+				p = e;
+				break;
+			case '_':
+				e = scanBNode(p);
+				if(e<0) return NEED_MORE;
+				if(e - p < 3 || buf.get(p + 1) != ':'){
+					return skipLine(p, "invalid blank node");
+				}
+				addTerm(p, e, BNODE);
+				p = e;
+				break;
+			case '"':
+				e = scanLiteral(p);
+				if(e<0) return NEED_MORE;
+				addTerm(p, e, LITERAL);
+				p = e;
+				break;
+			default:
+				return skipLine(p, "unexpected character '"+(char)b+"'");
+			}
+		}
+		// may be a last line without a newline
+		return NEED_MORE;
+	}
+
+	private int endLine(int p, int result){
+		pos = p;
+		line++;
+		return result;
+	}
+
+	private int invalid(String msg){
+		LOG.warning("Skipping line "+(line+1)+": "+msg);
+		terms = 0;
+		return SKIP;
+	}
+
+	private int skipLine(int p, String msg){
+		p = skipToEndOfLine(p);
+		if(p<0){
+			if(!atEndOfFile()){
+				return NEED_MORE;
+			}
+			p = limit - 1;
+		}
+		pos = p + 1;
+		line++;
+		return invalid(msg);
+	}
+
+	private int skipToEndOfLine(int p){
+		while(p<limit){
+			if(buf.get(p) == '\n'){
+				return p;
+			}
+			p++;
+		}
+		return -1;
+	}
+
+	private int scanIri(int p){
+		p++;
+		while(p<limit){
+			if(buf.get(p) == '>'){
+				return p + 1;
+			}
+			p++;
+		}
+		return -1;
+	}
+
+	private int scanBNode(int p){
+		while(p<limit){
+			byte b = buf.get(p);
+			if(b == ' ' || b == '\t' || b == '\r' || b == '\n'){
+				// a '.' at the end of a label is the end of the statement
+				if(buf.get(p - 1) == '.'){
+					return p - 1;
+				}
+				return p;
+			}
+			p++;
+		}
+		return atEndOfFile() && buf.get(p - 1) == '.' ? p - 1 : -1;
+	}
+
+	private int scanLiteral(int p){
+		p++;
+		// find closing quote
+		while(true){
+			if(p>=limit) return -1;
+			byte b = buf.get(p);
+			if(b == '\\'){
+				p += 2;
+			} else if(b == '"'){
+				p++;
+				break;
+			} else{
+				p++;
+			}
+		}
+		if(p>=limit) return -1;
+		byte b = buf.get(p);
+		if(b == '@'){
+			// language tag
+			while(p<limit){
+				b = buf.get(p);
+				if(b == ' ' || b == '\t' || b == '\r' || b == '\n'){
+					return p;
+				}
+				p++;
+			}
+			return -1;
+		} else if(b == '^'){
+			// datatype
+			if(p + 2 >= limit) return -1;
+			return scanIri(p + 2);
+		}
+		return p;
+	}
+
+	private void addTerm(int s, int e, byte type){
+		if(terms == starts.length){
+			int[] ns = new int[terms * 2];
+			int[] ne = new int[terms * 2];
+			byte[] nt = new byte[terms * 2];
+			System.arraycopy(starts, 0, ns, 0, terms);
+			System.arraycopy(ends, 0, ne, 0, terms);
+			System.arraycopy(types, 0, nt, 0, terms);
+			starts = ns;
+			ends = ne;
+			types = nt;
+		}
+		starts[terms] = s;
+		ends[terms] = e;
+		types[terms] = type;
+		terms++;
+	}
+
+	/**
+	 * @return The number of terms in the current statement
+	 */
+	public int length(){
+		return terms;
+	}
+
+	/**
+	 * @param i
+	 * @return The type of the i-th term: {@link #IRI}, {@link #BNODE} or {@link #LITERAL}
+	 */
+	public byte getType(int i){
+		return types[i];
+	}
+
+	public boolean isBNode(int i){
+		return types[i] == BNODE;
+	}
+
+	/**
+	 * @param i
+	 * @return The length in bytes of the i-th term
+	 */
+	public int getTermLength(int i){
+		return ends[i] - starts[i];
+	}
+
+	/**
+	 * Tests if the i-th term has the given bytes (e.g., a term from a
+	 * previous statement copied with {@link #getTermBytes(int)}).
+	 * @param i
+	 * @param bytes
+	 * @return
+	 */
+	public boolean termEquals(int i, byte[] bytes){
+		int s = starts[i];
+		int len = ends[i] - s;
+		if(bytes == null || bytes.length != len){
+			return false;
+		}
+		for(int j=0; j<len; j++){
+			if(buf.get(s + j) != bytes[j]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies out the bytes of the i-th term.
+	 * @param i
+	 * @return
+	 */
+	public byte[] getTermBytes(int i){
+		int s = starts[i];
+		byte[] bytes = new byte[ends[i] - s];
+		for(int j=0; j<bytes.length; j++){
+			bytes[j] = buf.get(s + j);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Computes a hash of the bytes of the i-th term (the same as
+	 * {@link TermDictionary#hash(byte[], int, int)}).
+	 * @param i
+	 * @return
+	 */
+	public int hashTerm(int i){
+		int h = TermDictionary.HASH_SEED;
+		for(int j=starts[i]; j<ends[i]; j++){
+			h = TermDictionary.hashStep(h, buf.get(j));
+		}
+		return h;
+	}
+
+	/**
+	 * Interns the i-th term in the dictionary.
+	 * @param i
+	 * @param dict
+	 * @return The id of the term in the dictionary
+	 */
+	public int intern(int i, TermDictionary dict){
+		int h = hashTerm(i);
+		int id = dict.lookup(h, buf, starts[i], ends[i]);
+		if(id<0){
+			int len = ends[i] - starts[i];
+			if(scratch.length < len){
+				scratch = new byte[Math.max(len, scratch.length * 2)];
+			}
+			for(int j=0; j<len; j++){
+				scratch[j] = buf.get(starts[i] + j);
+			}
+			id = dict.add(h, scratch, 0, len);
+		}
+		return id;
+	}
+
+	/**
+	 * Materialises the i-th term.
+	 * @param i
+	 * @return
+	 * @throws ParseException
+	 */
+	public Node getNode(int i) throws ParseException{
+		String n3 = new String(getTermBytes(i), Charsets.UTF_8);
+		switch(types[i]){
+		case IRI:
+			return new Resource(n3, true);
+		case BNODE:
+			return new BNode(n3, true);
+		default:
+			return new Literal(n3, true);
+		}
+	}
+
+	/**
+	 * Materialises the current statement.
+	 * @return
+	 * @throws ParseException
+	 */
+	public Node[] getNodes() throws ParseException{
+		Node[] stmt = new Node[terms];
+		for(int i=0; i<terms; i++){
+			stmt[i] = getNode(i);
+		}
+		return stmt;
+	}
+
+	/**
+	 * @return The number of lines read so far
+	 */
+	public long getLineNumber(){
+		return line;
+	}
+
+	/**
+	 * @return The number of statements read so far
+	 */
+	public long getStatementCount(){
+		return statements;
+	}
+
+	public void close() throws IOException{
+		buf = null;
+		fc.close();
+		raf.close();
+	}
+}
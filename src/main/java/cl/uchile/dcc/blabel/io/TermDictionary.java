@@ -0,0 +1,289 @@
+package cl.uchile.dcc.blabel.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Interns terms given as bytes (in N-Triples syntax) to consecutive int ids.
+ * Bytes are stored in a single growing array and looked up with an
+ * open-addressing hash table, so no objects are created per term. A
+ * {@link Node} is only created for a term (and cached) when requested.
+ *
+ * @author ahogan
+ *
+ */
+public class TermDictionary {
+	static final int HASH_SEED = 0x811c9dc5;
+	private static final int HASH_PRIME = 0x01000193;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	// bytes of all terms
+	private byte[] arena;
+	private int arenaSize = 0;
+
+	// per id
+	private int[] offsets;
+	private int[] lengths;
+	private int[] hashes;
+	private Node[] nodes;
+	private int size = 0;
+
+	// hash table of id+1 (0 is empty)
+	private int[] table;
+	private int mask;
+
+	public TermDictionary(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity Initial number of terms
+	 */
+	public TermDictionary(int capacity){
+		capacity = Math.max(16, capacity);
+		arena = new byte[capacity * 32];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		hashes = new int[capacity];
+		nodes = new Node[capacity];
+		int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		table = new int[slots];
+		mask = slots - 1;
+	}
+
+	static int hashStep(int h, byte b){
+		return (h ^ (b & 0xff)) * HASH_PRIME;
+	}
+
+	/**
+	 * The hash of a term as used in the dictionary.
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static int hash(byte[] bytes, int off, int len){
+		int h = HASH_SEED;
+		for(int i=off; i<off+len; i++){
+			h = hashStep(h, bytes[i]);
+		}
+		return h;
+	}
+
+	private static int slot(int h){
+		// spread low bits
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Finds the id of the term in the buffer at [start,end).
+	 * @param h The hash of the term
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @return The id or -1 if not present
+	 */
+	int lookup(int h, ByteBuffer buf, int start, int end){
+		int len = end - start;
+		for(int s = slot(h) & mask; ; s = (s + 1) & mask){
+			int id = table[s] - 1;
+			if(id<0){
+				return -1;
+			}
+			if(hashes[id] == h && lengths[id] == len){
+				int off = offsets[id];
+				boolean eq = true;
+				for(int i=0; i<len && eq; i++){
+					eq = arena[off + i] == buf.get(start + i);
+				}
+				if(eq){
+					return id;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the id of a term.
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @return The id or -1 if not present
+	 */
+	public int lookup(byte[] bytes, int off, int len){
+		int h = hash(bytes, off, len);
+		for(int s = slot(h) & mask; ; s = (s + 1) & mask){
+			int id = table[s] - 1;
+			if(id<0){
+				return -1;
+			}
+			if(hashes[id] == h && lengths[id] == len && equals(id, bytes, off, len)){
+				return id;
+			}
+		}
+	}
+
+	private boolean equals(int id, byte[] bytes, int off, int len){
+		int aoff = offsets[id];
+		for(int i=0; i<len; i++){
+			if(arena[aoff + i] != bytes[off + i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Interns a term.
+	 * @param bytes
+	 * @param off
+	 * @param len
+	 * @return The id of the term (new or existing)
+	 */
+	public int intern(byte[] bytes, int off, int len){
+		int id = lookup(bytes, off, len);
+		if(id<0){
+			id = add(hash(bytes, off, len), bytes, off, len);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds a term known not to be present.
+	 */
+	int add(int h, byte[] bytes, int off, int len){
+		if(size == offsets.length){
+			growIds();
+		}
+		if(arenaSize + len > arena.length){
+			byte[] na = new byte[Math.max(arena.length * 2, arenaSize + len)];
+			System.arraycopy(arena, 0, na, 0, arenaSize);
+			arena = na;
+		}
+		System.arraycopy(bytes, off, arena, arenaSize, len);
+
+		int id = size++;
+		offsets[id] = arenaSize;
+		lengths[id] = len;
+		hashes[id] = h;
+		arenaSize += len;
+
+		if(size * 2 > table.length){
+			rehash();
+		} else{
+			insert(id);
+		}
+		return id;
+	}
+
+	private void insert(int id){
+		int s = slot(hashes[id]) & mask;
+		while(table[s] != 0){
+			s = (s + 1) & mask;
+		}
+		table[s] = id + 1;
+	}
+
+	private void growIds(){
+		int cap = offsets.length * 2;
+		int[] no = new int[cap];
+		int[] nl = new int[cap];
+		int[] nh = new int[cap];
+		Node[] nn = new Node[cap];
+		System.arraycopy(offsets, 0, no, 0, size);
+		System.arraycopy(lengths, 0, nl, 0, size);
+		System.arraycopy(hashes, 0, nh, 0, size);
+		System.arraycopy(nodes, 0, nn, 0, size);
+		offsets = no;
+		lengths = nl;
+		hashes = nh;
+		nodes = nn;
+	}
+
+	private void rehash(){
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for(int id=0; id<size; id++){
+			insert(id);
+		}
+	}
+
+	/**
+	 * @return The number of terms interned
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @param id
+	 * @return A copy of the bytes of the term
+	 */
+	public byte[] getBytes(int id){
+		byte[] b = new byte[lengths[id]];
+		System.arraycopy(arena, offsets[id], b, 0, b.length);
+		return b;
+	}
+
+	/**
+	 * @param id
+	 * @return The term as a string in N-Triples syntax
+	 */
+	public String getString(int id){
+		return new String(arena, offsets[id], lengths[id], Charsets.UTF_8);
+	}
+
+	/**
+	 * Materialises the term (parsing it the first time).
+	 * @param id
+	 * @return
+	 * @throws ParseException
+	 */
+	public Node getNode(int id) throws ParseException{
+		Node n = nodes[id];
+		if(n == null){
+			n = toNode(getString(id));
+			nodes[id] = n;
+		}
+		return n;
+	}
+
+	/**
+	 * Creates the node for a term in N-Triples syntax, choosing its kind
+	 * by the first character.
+	 * @param n3
+	 * @return
+	 * @throws ParseException if not an IRI, blank node or literal
+	 */
+	static Node toNode(String n3) throws ParseException{
+		switch(n3.isEmpty() ? 0 : n3.charAt(0)){
+		case '<':
+			return new Resource(n3, true);
+		case '_':
+			return new BNode(n3, true);
+		case '"':
+			return new Literal(n3, true);
+		default:
+			throw new ParseException("Not an IRI, blank node or literal: "+n3);
+		}
+	}
+
+	/**
+	 * Removes all terms (ids are reused).
+	 */
+	public void clear(){
+		Arrays.fill(table, 0);
+		Arrays.fill(nodes, 0, size, null);
+		arenaSize = 0;
+		size = 0;
+	}
+}
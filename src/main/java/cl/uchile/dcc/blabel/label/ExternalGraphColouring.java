@@ -0,0 +1,617 @@
+package cl.uchile.dcc.blabel.label;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Nodes;
+import org.semanticweb.yars.nx.parser.Callback;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
+import cl.uchile.dcc.blabel.label.util.ExternalSort;
+import cl.uchile.dcc.blabel.label.util.HashGraph;
+
+/**
+ * Runs the colour refinement of {@link GraphColouring} over a graph on
+ * disk, for blank node partitions too large to hold as a {@link HashGraph}.
+ *
+ * Each colouring round is a sort/merge pass over files keyed by blank node:
+ * the colours of the previous round are joined with the edges to compute
+ * the hash of each edge, and the edge hashes are then grouped (in sorted
+ * order) per blank node to compute its next colour. Memory is bounded by
+ * the budget given to the sorts.
+ *
+ * The colours computed are the same as those computed by the colouring
+ * iterations of {@link GraphColouring} (before any branching). If the
+ * colouring is not discrete (some blank nodes share a colour),
+ * {@link #toHashGraph()} can be used to continue in memory.
+ *
+ * Unlike the in-memory version, hash collisions are detected but not
+ * recovered from.
+ *
+ * @author ahogan
+ *
+ */
+public class ExternalGraphColouring {
+	public static final Level LOG_LEVEL = Level.INFO;
+	public static final Logger LOG = Logger.getLogger(ExternalGraphColouring.class.getName());
+	static{
+		for(Handler h : LOG.getParent().getHandlers()){
+			if(h instanceof ConsoleHandler){
+				h.setLevel(LOG_LEVEL);
+			}
+		}
+		LOG.setLevel(LOG_LEVEL);
+	}
+
+	public static final long DEFAULT_BUDGET = 64 * 1024 * 1024;
+
+	// tags to mark the hash of a blank node and
+	// the hash of an edge in the same sorted file
+	private static final String OWN = "o";
+	private static final String EDGE = "e";
+
+	// max number of predicate hashes to cache
+	private static final int MAX_CACHE = 10000;
+
+	private final File triples;
+	private final HashFunction hf;
+	private final long budget;
+	private final File tmpDir;
+
+	// marks subject, object
+	private final HashCode plus;
+	private final HashCode minus;
+
+	// edges to blank nodes sorted by the blank node
+	// they need the colour of: other\ttarget\tpredicate\tsign
+	private File bnodeEdges;
+
+	// edges to ground terms (fixed hash): target\thash\te
+	private File groundEdges;
+
+	// current colours: bnode\thash
+	private File colours;
+
+	private long bnodeCount = 0;
+	private long colourCount = 0;
+	private int iterations = 0;
+
+	private final HashMap<Node,HashCode> cache = new HashMap<Node,HashCode>();
+
+	/**
+	 * Colour with default memory budget and temporary directory.
+	 * @param triples A file with the triples in N-Triples format (ground
+	 *    triples are ignored)
+	 * @param hf The hash function to use
+	 */
+	public ExternalGraphColouring(File triples, HashFunction hf){
+		this(triples, hf, DEFAULT_BUDGET, null);
+	}
+
+	/**
+	 * @param triples A file with the triples in N-Triples format (ground
+	 *    triples are ignored)
+	 * @param hf The hash function to use
+	 * @param budget Approximate number of bytes to use per sort
+	 * @param tmpDir Directory for temporary files (null for system default)
+	 */
+	public ExternalGraphColouring(File triples, HashFunction hf, long budget, File tmpDir){
+		this.triples = triples;
+		this.hf = hf;
+		this.budget = budget;
+		this.tmpDir = tmpDir;
+
+		this.plus = hf.hashUnencodedChars("+");
+		this.minus = hf.hashUnencodedChars("-");
+	}
+
+	/**
+	 * Runs colouring to fixpoint.
+	 *
+	 * @return The number of colouring iterations
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws HashCollisionException
+	 */
+	public int execute() throws IOException, InterruptedException, HashCollisionException{
+		index();
+
+		// initially all blank nodes have the same colour
+		long last = bnodeCount == 0 ? 0 : 1;
+		boolean done = bnodeCount == 0;
+
+		while(!done){
+			iterations++;
+			LOG.fine("Running colouring iteration "+iterations);
+
+			colourCount = refine();
+
+			// finished if number of partitions doesn't increase
+			// complete if every blank node has been distinguished
+			done = last == colourCount || colourCount == bnodeCount;
+			last = colourCount;
+		}
+
+		return iterations;
+	}
+
+	/**
+	 * @return true if every blank node has a distinct colour
+	 */
+	public boolean isDiscrete(){
+		return colourCount == bnodeCount;
+	}
+
+	public long getBlankNodeCount(){
+		return bnodeCount;
+	}
+
+	public long getColourCount(){
+		return colourCount;
+	}
+
+	public int getColourIterations(){
+		return iterations;
+	}
+
+	/**
+	 * The colours as a file sorted by blank node, one per line with the
+	 * label and the hash separated by a tab.
+	 * @return
+	 */
+	public File getColours(){
+		return colours;
+	}
+
+	/**
+	 * Reads the colours into memory.
+	 * @return
+	 * @throws IOException
+	 */
+	public HashMap<Node,HashCode> loadColours() throws IOException{
+		HashMap<Node,HashCode> map = new HashMap<Node,HashCode>();
+		BufferedReader br = ExternalSort.createReader(colours);
+		String line = null;
+		while((line = br.readLine())!=null){
+			map.put(new BNode(ExternalSort.getKey(line)), HashCode.fromString(ExternalSort.getValue(line)));
+		}
+		br.close();
+		return map;
+	}
+
+	/**
+	 * Loads the triples with blank nodes and their current colours
+	 * into memory, e.g., to continue with {@link GraphColouring} if
+	 * the colouring is not discrete.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public HashGraph toHashGraph() throws IOException{
+		HashGraph hg = new HashGraph(hf);
+		BufferedReader br = ExternalSort.createReader(triples);
+		NxParser nxp = new NxParser(br);
+		while(nxp.hasNext()){
+			Node[] t = nxp.next();
+			if(t.length>=3 && (t[0] instanceof BNode || t[2] instanceof BNode)){
+				hg.addTriple(t);
+			}
+		}
+		br.close();
+		hg.updateBNodeHashes(loadColours());
+		return hg;
+	}
+
+	/**
+	 * Writes the triples with blank nodes relabelled by their
+	 * colours (as {@link GraphColouring#labelBlankNodes(HashGraph)}),
+	 * in no particular order and without removing duplicates.
+	 *
+	 * @param out
+	 * @return The number of triples written
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public long writeLabelledGraph(Callback out) throws IOException, InterruptedException{
+		long written = 0;
+
+		// first pass: triples keyed by subject
+		ExternalSort bySubject = new ExternalSort(budget, tmpDir);
+		ExternalSort byObject = new ExternalSort(budget, tmpDir);
+
+		BufferedReader br = ExternalSort.createReader(triples);
+		NxParser nxp = new NxParser(br);
+		while(nxp.hasNext()){
+			Node[] t = nxp.next();
+			if(t.length<3){
+				continue;
+			}
+			t = new Node[]{ t[0], t[1], t[2] };
+			if(t[0] instanceof BNode){
+				bySubject.add(t[0].toString()+"\t"+Nodes.toN3(t));
+			} else if(t[2] instanceof BNode){
+				byObject.add(t[2].toString()+"\t"+Nodes.toN3(t));
+			}
+		}
+		br.close();
+
+		File sorted = createTempFile();
+		bySubject.sort(sorted, false);
+
+		// join subjects with colours
+		MergeJoin mj = new MergeJoin(colours, sorted);
+		String line = null;
+		while((line = mj.nextRight())!=null){
+			Node[] t = parseTriple(ExternalSort.getValue(line));
+			t[0] = createBNode(HashCode.fromString(ExternalSort.getValue(mj.getLeft())));
+			if(t[2] instanceof BNode){
+				// object keeps its original label for the second pass
+				byObject.add(t[2].toString()+"\t"+Nodes.toN3(t));
+			} else{
+				out.processStatement(t);
+				written++;
+			}
+		}
+		mj.close();
+
+		// join objects with colours
+		byObject.sort(sorted, false);
+		mj = new MergeJoin(colours, sorted);
+		while((line = mj.nextRight())!=null){
+			Node[] t = parseTriple(ExternalSort.getValue(line));
+			t[2] = createBNode(HashCode.fromString(ExternalSort.getValue(mj.getLeft())));
+			out.processStatement(t);
+			written++;
+		}
+		mj.close();
+		sorted.delete();
+
+		return written;
+	}
+
+	/**
+	 * Reads the triples and writes the edge files and the
+	 * initial colours.
+	 */
+	private void index() throws IOException, InterruptedException{
+		ExternalSort bnodes = new ExternalSort(budget, tmpDir);
+		ExternalSort bEdges = new ExternalSort(budget, tmpDir);
+		ExternalSort gEdges = new ExternalSort(budget, tmpDir);
+
+		HashCode[] plusMinus = new HashCode[] { plus, null, minus };
+		int[] subjObj = new int[] {2, 1, 0};
+		ArrayList<HashCode> tup = new ArrayList<HashCode>(3);
+
+		BufferedReader br = ExternalSort.createReader(triples);
+		NxParser nxp = new NxParser(br);
+		while(nxp.hasNext()){
+			if (Thread.interrupted()) {
+				br.close();
+				throw new InterruptedException();
+			}
+
+			Node[] t = nxp.next();
+			if(t.length<3){
+				continue;
+			}
+
+			HashCode p = null;
+			for(int i : new int[]{0,2}){
+				if(t[i] instanceof BNode){
+					bnodes.add(t[i].toString());
+					if(p == null){
+						p = getStaticHash(t[1]);
+					}
+
+					Node other = t[subjObj[i]];
+					if(other instanceof BNode){
+						// hash depends on colour of other bnode
+						bEdges.add(other.toString()+"\t"+t[i].toString()+"\t"+p.toString()+"\t"+i);
+					} else{
+						// hash fixed
+						tup.add(hf.hashString(other.toN3(), Charsets.UTF_8));
+						tup.add(p);
+						tup.add(plusMinus[i]);
+						HashCode hcTup = Hashing.combineOrdered(tup);
+						tup.clear();
+						gEdges.add(t[i].toString()+"\t"+hcTup.toString()+"\t"+EDGE);
+					}
+				}
+			}
+		}
+		br.close();
+
+		bnodeEdges = createTempFile();
+		bEdges.sort(bnodeEdges, false);
+
+		groundEdges = createTempFile();
+		gEdges.sort(groundEdges, false);
+
+		File bnodeList = createTempFile();
+		bnodeCount = bnodes.sort(bnodeList, true);
+
+		// initial colour is the blank hash
+		String blankHash = hf.hashString("", Charsets.UTF_8).toString();
+		colours = createTempFile();
+		BufferedWriter bw = ExternalSort.createWriter(colours);
+		br = ExternalSort.createReader(bnodeList);
+		String line = null;
+		while((line = br.readLine())!=null){
+			bw.write(line+"\t"+blankHash);
+			bw.newLine();
+		}
+		br.close();
+		bw.close();
+		bnodeList.delete();
+
+		LOG.fine("Indexed "+bnodeCount+" blank nodes");
+	}
+
+	/**
+	 * Runs one round of colouring, replacing the current colours.
+	 * @return The number of colours after the round
+	 */
+	private long refine() throws IOException, InterruptedException, HashCollisionException{
+		HashCode[] plusMinus = new HashCode[] { plus, null, minus };
+		ArrayList<HashCode> tup = new ArrayList<HashCode>(3);
+
+		// join edges with the current colour of the other bnode
+		ExternalSort hashes = new ExternalSort(budget, tmpDir);
+		MergeJoin mj = new MergeJoin(colours, bnodeEdges);
+		String edge = null;
+		while((edge = mj.nextRight())!=null){
+			if (Thread.interrupted()) {
+				mj.close();
+				throw new InterruptedException();
+			}
+
+			String[] parts = edge.split("\t");
+			tup.add(HashCode.fromString(ExternalSort.getValue(mj.getLeft())));
+			tup.add(HashCode.fromString(parts[2]));
+			tup.add(plusMinus[Integer.parseInt(parts[3])]);
+			HashCode hcTup = Hashing.combineOrdered(tup);
+			tup.clear();
+			hashes.add(parts[1]+"\t"+hcTup.toString()+"\t"+EDGE);
+		}
+		mj.close();
+
+		// add the current colour of each bnode
+		BufferedReader br = ExternalSort.createReader(colours);
+		String line = null;
+		while((line = br.readLine())!=null){
+			hashes.add(line+"\t"+OWN);
+		}
+		br.close();
+
+		File sorted = createTempFile();
+		hashes.sort(sorted, false);
+
+		// group the (sorted) hashes per bnode, merged with
+		// the (sorted) ground edges
+		File next = createTempFile();
+		BufferedWriter bw = ExternalSort.createWriter(next);
+		ExternalSort pairs = new ExternalSort(budget, tmpDir);
+
+		MergedLines ml = new MergedLines(sorted, groundEdges);
+		String bnode = null;
+		String old = null;
+		OrderedCombiner comb = new OrderedCombiner();
+		while((line = ml.readLine())!=null){
+			if (Thread.interrupted()) {
+				ml.close();
+				bw.close();
+				throw new InterruptedException();
+			}
+
+			String[] parts = line.split("\t");
+			if(bnode!=null && !bnode.equals(parts[0])){
+				writeColour(bnode, old, comb, bw, pairs);
+				comb = new OrderedCombiner();
+				old = null;
+			}
+			bnode = parts[0];
+			comb.add(HashCode.fromString(parts[1]));
+			if(parts[2].equals(OWN)){
+				old = parts[1];
+			}
+		}
+		if(bnode!=null){
+			writeColour(bnode, old, comb, bw, pairs);
+		}
+		ml.close();
+		bw.close();
+		sorted.delete();
+
+		colours.delete();
+		colours = next;
+
+		// the new partition must refine the old one
+		// or we have a hash collision
+		File pairFile = createTempFile();
+		pairs.sort(pairFile, true);
+		long count = 0;
+		String lastNew = null;
+		br = ExternalSort.createReader(pairFile);
+		while((line = br.readLine())!=null){
+			String nh = ExternalSort.getKey(line);
+			if(nh.equals(lastNew)){
+				br.close();
+				pairFile.delete();
+				throw new HashCollisionException("Hash collision in round "+iterations+" of external colouring: "+nh+" has more than one previous colour");
+			}
+			lastNew = nh;
+			count++;
+		}
+		br.close();
+		pairFile.delete();
+
+		return count;
+	}
+
+	private static void writeColour(String bnode, String old, OrderedCombiner comb, BufferedWriter bw, ExternalSort pairs) throws IOException{
+		String hc = comb.getHash().toString();
+		bw.write(bnode+"\t"+hc);
+		bw.newLine();
+		pairs.add(hc+"\t"+old);
+	}
+
+	private HashCode getStaticHash(Node n){
+		HashCode hc = cache.get(n);
+		if(hc==null){
+			hc = hf.hashString(n.toN3(), Charsets.UTF_8);
+			if(cache.size()<MAX_CACHE){
+				cache.put(n, hc);
+			}
+		}
+		return hc;
+	}
+
+	private File createTempFile() throws IOException{
+		File f = File.createTempFile("blabel-colour", ".txt", tmpDir);
+		f.deleteOnExit();
+		return f;
+	}
+
+	private static BNode createBNode(HashCode hc){
+		return new BNode(GraphColouring.BNODE_LABEL_PREFIX+hc.toString());
+	}
+
+	private static Node[] parseTriple(String n3) throws IOException{
+		try {
+			return NxParser.parseNodes(n3);
+		} catch (ParseException e) {
+			throw new IOException("Cannot parse temporary triple "+n3+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Same as {@link Hashing#combineOrdered(Iterable)} but computed
+	 * incrementally, so that the hashes (which may be many for a
+	 * blank node with high degree) need not be held in memory.
+	 *
+	 * @author ahogan
+	 */
+	static class OrderedCombiner{
+		private byte[] bytes = null;
+
+		void add(HashCode hc){
+			byte[] next = hc.asBytes();
+			if(bytes == null){
+				bytes = new byte[next.length];
+			} else if(next.length != bytes.length){
+				throw new IllegalArgumentException("All hashcodes must have the same bit length.");
+			}
+			for(int i=0; i<next.length; i++){
+				bytes[i] = (byte) (bytes[i] * 37 ^ next[i]);
+			}
+		}
+
+		HashCode getHash(){
+			return HashCode.fromBytes(bytes);
+		}
+	}
+
+	/**
+	 * Merges the lines of two sorted files into one sorted sequence.
+	 */
+	private static class MergedLines {
+		private final BufferedReader a;
+		private final BufferedReader b;
+		private String nextA;
+		private String nextB;
+
+		MergedLines(File fa, File fb) throws IOException{
+			a = ExternalSort.createReader(fa);
+			b = ExternalSort.createReader(fb);
+			nextA = a.readLine();
+			nextB = b.readLine();
+		}
+
+		String readLine() throws IOException{
+			String line = null;
+			if(nextA!=null && (nextB==null || nextA.compareTo(nextB)<=0)){
+				line = nextA;
+				nextA = a.readLine();
+			} else if(nextB!=null){
+				line = nextB;
+				nextB = b.readLine();
+			}
+			return line;
+		}
+
+		void close() throws IOException{
+			a.close();
+			b.close();
+		}
+	}
+
+	/**
+	 * Joins a file with unique keys (left) with a file with
+	 * repeated keys (right), both sorted by key. Streams the 
+	 * right lines that have a matching left line.
+	 */
+	private static class MergeJoin {
+		private final BufferedReader left;
+		private final BufferedReader right;
+		private String leftLine;
+		private String leftKey;
+
+		MergeJoin(File l, File r) throws IOException{
+			left = ExternalSort.createReader(l);
+			right = ExternalSort.createReader(r);
+		}
+
+		/**
+		 * @return the next right line with a matching left 
+		 *   line (see {@link #getLeft()}) or null if none
+		 * @throws IOException
+		 */
+		String nextRight() throws IOException{
+			String rightLine = null;
+			while((rightLine = right.readLine())!=null){
+				String rk = ExternalSort.getKey(rightLine);
+
+				// advance left to the right key
+				while(leftKey == null || leftKey.compareTo(rk)<0){
+					leftLine = left.readLine();
+					if(leftLine==null){
+						return null;
+					}
+					leftKey = ExternalSort.getKey(leftLine);
+				}
+
+				if(leftKey.equals(rk)){
+					return rightLine;
+				}
+				// otherwise no left line for the right key: skip
+			}
+			return null;
+		}
+
+		String getLeft(){
+			return leftLine;
+		}
+
+		void close() throws IOException{
+			left.close();
+			right.close();
+		}
+	}
+}
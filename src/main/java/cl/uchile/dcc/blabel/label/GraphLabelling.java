@@ -22,6 +22,7 @@ import com.google.common.hash.Hashing;
 import cl.uchile.dcc.blabel.label.GraphColouring.GraphResult;
 import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
 import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
+import cl.uchile.dcc.blabel.label.util.GroundGraphHasher;
 import cl.uchile.dcc.blabel.label.util.HashGraph;
 
 /**
@@ -36,6 +37,9 @@ public class GraphLabelling implements Callable<GraphLabellingResult> {
 	private final Collection<Node[]> data;
 	private final GraphLabellingArgs args;
 	
+	// hash of ground triples not present in data (or null)
+	private final HashCode groundHash;
+	
 	/** 
 	 * Canonicalise graph with standard arguments.
 	 * @param data
@@ -50,8 +54,26 @@ public class GraphLabelling implements Callable<GraphLabellingResult> {
 	 * @param cla
 	 */
 	public GraphLabelling(Collection<Node[]> data, GraphLabellingArgs cla){
+		this(data, cla, null);
+	}
+	
+	/**
+	 * Canonicalise graph with custom arguments where (some or all) ground 
+	 * triples have already been hashed and are not in the data (e.g., 
+	 * they were streamed to disk). The ground hash only affects labels
+	 * if a unique label per graph is set in the arguments; the canonical
+	 * graph in the result will not contain the ground triples left out.
+	 * 
+	 * @param data
+	 * @param cla
+	 * @param groundHash The hash of the ground triples left out, computed
+	 *    with a {@link GroundGraphHasher} using the same hash function; 
+	 *    null if all triples are in the data
+	 */
+	public GraphLabelling(Collection<Node[]> data, GraphLabellingArgs cla, HashCode groundHash){
 		this.data = data;
 		this.args = cla;
+		this.groundHash = groundHash;
 	}
 	
 	/**
@@ -138,7 +160,12 @@ public class GraphLabelling implements Callable<GraphLabellingResult> {
 			// need to mux in a graph-level unique hash
 			
 			// get the hash over all ground triples
-			HashCode ground = hg.getGroundSubGraphHash();
+			HashCode ground = null;
+			if(groundHash == null){
+				ground = hg.getGroundSubGraphHash();
+			} else{
+				ground = hg.getGroundSubGraphHash(groundHash);
+			}
 			// add it with the hashes for all partitions and combine
 			hashes.add(ground);
 			ghash = Hashing.combineUnordered(hashes);
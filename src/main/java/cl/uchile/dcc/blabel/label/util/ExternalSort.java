@@ -0,0 +1,286 @@
+package cl.uchile.dcc.blabel.label.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Sorts lines of text using a bounded amount of memory. Lines are
+ * buffered in memory until the budget is reached, at which point they
+ * are sorted and written to a temporary file (a run); runs are then
+ * merged.
+ *
+ * Lines are sorted by {@link String#compareTo(String)} and duplicates
+ * are kept (unless requested otherwise). Lines must not contain newlines.
+ *
+ * Since tab sorts before any printable character, lines of the form
+ * "key\tvalue" sort by key first, which allows for merge-joins of
+ * sorted files on the key.
+ *
+ * @author ahogan
+ *
+ */
+public class ExternalSort {
+	public static final Charset CHARSET = Charsets.UTF_8;
+
+	// rough overhead of a String object in memory
+	private static final int STRING_OVERHEAD = 48;
+
+	// maximum number of runs to merge at once
+	public static final int DEFAULT_FAN_IN = 64;
+
+	// size of buffer for each reader/writer
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final long budget;
+	private final File tmpDir;
+	private final int fanIn;
+
+	// lines buffered in memory
+	private ArrayList<String> buffer = new ArrayList<String>();
+	private long buffered = 0;
+
+	// sorted runs written to disk
+	private ArrayList<File> runs = new ArrayList<File>();
+
+	// lines added overall
+	private long count = 0;
+
+	/**
+	 * @param budget Approximate number of bytes of lines to hold in memory
+	 * @param tmpDir Directory for runs (null for system default)
+	 */
+	public ExternalSort(long budget, File tmpDir){
+		this(budget, tmpDir, DEFAULT_FAN_IN);
+	}
+
+	/**
+	 * @param budget Approximate number of bytes of lines to hold in memory
+	 * @param tmpDir Directory for runs (null for system default)
+	 * @param fanIn Maximum number of runs to merge at once
+	 */
+	public ExternalSort(long budget, File tmpDir, int fanIn){
+		if(fanIn<2){
+			throw new IllegalArgumentException("Fan-in must be at least two, not "+fanIn);
+		}
+		this.budget = budget;
+		this.tmpDir = tmpDir;
+		this.fanIn = fanIn;
+	}
+
+	/**
+	 * Adds a line to be sorted.
+	 * @param line
+	 * @throws IOException
+	 */
+	public void add(String line) throws IOException{
+		buffer.add(line);
+		buffered += STRING_OVERHEAD + 2 * line.length();
+		count++;
+		if(buffered>=budget){
+			spill();
+		}
+	}
+
+	/**
+	 * @return Number of lines added
+	 */
+	public long size(){
+		return count;
+	}
+
+	/**
+	 * Writes all lines added in sorted order to the output file and
+	 * clears the sorter.
+	 *
+	 * @param out
+	 * @param unique If true, duplicate lines are written once
+	 * @return The number of lines written
+	 * @throws IOException
+	 */
+	public long sort(File out, boolean unique) throws IOException{
+		long written = 0;
+		if(runs.isEmpty()){
+			// all in memory: no need for runs
+			Collections.sort(buffer);
+			BufferedWriter bw = createWriter(out);
+			String last = null;
+			for(String line:buffer){
+				if(!unique || last==null || !last.equals(line)){
+					bw.write(line);
+					bw.newLine();
+					written++;
+				}
+				last = line;
+			}
+			bw.close();
+		} else{
+			if(!buffer.isEmpty()){
+				spill();
+			}
+
+			// merge down to fan-in runs
+			while(runs.size()>fanIn){
+				ArrayList<File> next = new ArrayList<File>();
+				for(int i=0; i<runs.size(); i+=fanIn){
+					File run = createTempFile();
+					merge(runs.subList(i, Math.min(i+fanIn, runs.size())), run, false);
+					next.add(run);
+				}
+				runs = next;
+			}
+			written = merge(runs, out, unique);
+		}
+		clear();
+		return written;
+	}
+
+	/**
+	 * Clears the sorter, deleting any runs.
+	 */
+	public void clear(){
+		for(File run:runs){
+			run.delete();
+		}
+		runs.clear();
+		buffer = new ArrayList<String>();
+		buffered = 0;
+		count = 0;
+	}
+
+	private void spill() throws IOException{
+		Collections.sort(buffer);
+		File run = createTempFile();
+		BufferedWriter bw = createWriter(run);
+		for(String line:buffer){
+			bw.write(line);
+			bw.newLine();
+		}
+		bw.close();
+		runs.add(run);
+
+		buffer = new ArrayList<String>();
+		buffered = 0;
+	}
+
+	/**
+	 * Merges sorted runs into the output file; input runs are deleted.
+	 */
+	private static long merge(List<File> in, File out, boolean unique) throws IOException{
+		PriorityQueue<RunReader> pq = new PriorityQueue<RunReader>();
+		for(File run:in){
+			RunReader rr = new RunReader(run);
+			if(rr.advance()){
+				pq.add(rr);
+			}
+		}
+
+		long written = 0;
+		BufferedWriter bw = createWriter(out);
+		String last = null;
+		while(!pq.isEmpty()){
+			RunReader rr = pq.poll();
+			if(!unique || last==null || !last.equals(rr.current)){
+				bw.write(rr.current);
+				bw.newLine();
+				written++;
+			}
+			last = rr.current;
+			if(rr.advance()){
+				pq.add(rr);
+			}
+		}
+		bw.close();
+
+		for(File run:in){
+			run.delete();
+		}
+		return written;
+	}
+
+	private File createTempFile() throws IOException{
+		File f = File.createTempFile("blabel-sort", ".txt", tmpDir);
+		f.deleteOnExit();
+		return f;
+	}
+
+	/**
+	 * Opens a file of lines for writing with the right charset.
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedWriter createWriter(File f) throws IOException{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), CHARSET), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens a file of lines for reading with the right charset.
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public static BufferedReader createReader(File f) throws IOException{
+		return new BufferedReader(new InputStreamReader(new FileInputStream(f), CHARSET), BUFFER_SIZE);
+	}
+
+	/**
+	 * The key of a line: everything before the first tab.
+	 * @param line
+	 * @return
+	 */
+	public static String getKey(String line){
+		int tab = line.indexOf('\t');
+		if(tab<0){
+			return line;
+		}
+		return line.substring(0, tab);
+	}
+
+	/**
+	 * The value of a line: everything after the first tab.
+	 * @param line
+	 * @return
+	 */
+	public static String getValue(String line){
+		int tab = line.indexOf('\t');
+		if(tab<0){
+			return "";
+		}
+		return line.substring(tab+1);
+	}
+
+	private static class RunReader implements Comparable<RunReader>{
+		private final BufferedReader br;
+		private String current;
+
+		RunReader(File f) throws IOException{
+			br = createReader(f);
+		}
+
+		boolean advance() throws IOException{
+			current = br.readLine();
+			if(current==null){
+				br.close();
+				return false;
+			}
+			return true;
+		}
+
+		public int compareTo(RunReader o) {
+			return current.compareTo(o.current);
+		}
+	}
+}
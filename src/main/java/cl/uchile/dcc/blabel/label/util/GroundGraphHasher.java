@@ -0,0 +1,99 @@
+package cl.uchile.dcc.blabel.label.util;
+
+import java.util.ArrayList;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes the same hash as {@link HashGraph#getGroundSubGraphHash()}
+ * one triple at a time, so that ground triples can be hashed as they
+ * are read and need not be kept in memory.
+ * 
+ * The hash is unordered: triples can be added in any order.
+ * 
+ * @author ahogan
+ *
+ */
+public class GroundGraphHasher {
+	// the hash function used for the graph
+	private final HashFunction hf;
+	
+	// the hash of the ground triples seen so far
+	private HashCode hash;
+	
+	// the number of ground triples seen so far
+	private long triples = 0;
+	
+	/**
+	 * Create a hasher with no ground triples
+	 * @param hf The hashing function to be used (must be the same as for the labelling)
+	 */
+	public GroundGraphHasher(HashFunction hf){
+		this.hf = hf;
+		this.hash = hf.hashString("", Charsets.UTF_8);
+	}
+	
+	/**
+	 * Checks if the triple contains no blank node in the subject
+	 * or object position.
+	 * @param t
+	 * @return
+	 */
+	public static boolean isGround(Node[] t){
+		return !(t[0] instanceof BNode) && !(t[2] instanceof BNode);
+	}
+	
+	/**
+	 * Adds a ground triple to the hash. 
+	 * Be aware that (like HashGraph) it doesn't check for duplicates.
+	 * 
+	 * @param t
+	 */
+	public void addTriple(Node[] t){
+		if(t.length<3){
+			throw new IllegalArgumentException("Expecting triples not tuples of length "+t.length);
+		} else if(!isGround(t)){
+			throw new IllegalArgumentException("Expecting a ground triple not "+t[0]+" "+t[1]+" "+t[2]);
+		}
+		
+		ArrayList<HashCode> tup = new ArrayList<HashCode>(3);
+		for(int i=0; i<3; i++){
+			tup.add(hf.hashString(t[i].toN3(), Charsets.UTF_8));
+		}
+		HashCode o = Hashing.combineOrdered(tup);
+		
+		tup.clear();
+		tup.add(o);
+		tup.add(hash);
+		
+		hash = Hashing.combineUnordered(tup);
+		triples++;
+	}
+	
+	/**
+	 * The hash of all ground triples added so far; can
+	 * be passed to {@link HashGraph#getGroundSubGraphHash(HashCode)}.
+	 * @return
+	 */
+	public HashCode getHash(){
+		return hash;
+	}
+	
+	/**
+	 * The number of ground triples added so far
+	 * @return
+	 */
+	public long getTripleCount(){
+		return triples;
+	}
+	
+	public HashFunction getHashFunction(){
+		return hf;
+	}
+}
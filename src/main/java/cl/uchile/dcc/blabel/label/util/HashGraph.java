@@ -201,7 +201,20 @@ public class HashGraph {
 	}
 	
 	public HashCode getGroundSubGraphHash(){
-		HashCode b = blankHash;
+		return getGroundSubGraphHash(blankHash);
+	}
+	
+	/**
+	 * Folds the ground triples of this graph into the given hash.
+	 * 
+	 * Used when some ground triples were hashed elsewhere (see 
+	 * {@link GroundGraphHasher}) and are not held in this graph;
+	 * passing {@link #getBlankHash()} gives {@link #getGroundSubGraphHash()}.
+	 * 
+	 * @param b the hash of the ground triples seen so far
+	 * @return
+	 */
+	public HashCode getGroundSubGraphHash(HashCode b){
 		for(Node[] t: data){
 			if(!(t[0] instanceof BNode) && !(t[2] instanceof BNode)){
 				ArrayList<HashCode> tup = new ArrayList<HashCode>();
@@ -1,11 +1,15 @@
 package cl.uchile.dcc.blabel.lean;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.nx.BNode;
@@ -13,14 +17,56 @@ import org.semanticweb.yars.nx.Node;
 import org.semanticweb.yars.nx.Nodes;
 import org.semanticweb.yars.nx.parser.NxParser;
 
-import cl.uchile.dcc.blabel.lean.util.Bindings;
+import cl.uchile.dcc.blabel.lean.util.CSRIndex;
+import cl.uchile.dcc.blabel.lean.util.IntTable;
 
+/**
+ * Finds a core by computing all homomorphisms of the query with a
+ * breadth-first search: the patterns are joined one at a time, each
+ * step extending a table of partial solutions. A core is then given by
+ * a solution with the fewest blank nodes.
+ *
+ * Partial solutions are kept in columnar int tables ({@link IntTable}),
+ * one column per variable bound so far, over the dictionary ids of the
+ * data. Each pattern is evaluated as a hash join: the partial solutions
+ * probe a direct-address table on the bound term, built over the
+ * {@link CSRIndex} of the predicate. Tables larger than the memory
+ * budget are spilled to disk.
+ * 
+ * @author ahogan
+ *
+ */
 public class BFSGraphLeaning extends GraphLeaning{
 	
 	public static final Logger LOG = Logger.getLogger(BFSGraphLeaning.class.getName());
 	
+	// budget for the tables of partial solutions
+	// (shared by the input and output of a join)
+	private final long memoryBudget;
+	
+	// directory for spilled tables
+	private final File tmpDir;
+	
 	public BFSGraphLeaning(Collection<Node[]> data){
+		this(data, getDefaultMemoryBudget(), null);
+	}
+	
+	/**
+	 * @param data
+	 * @param memoryBudget Approximate number of bytes of partial solutions to hold in memory
+	 * @param tmpDir Directory for spilled partial solutions (null for system default)
+	 */
+	public BFSGraphLeaning(Collection<Node[]> data, long memoryBudget, File tmpDir){
 		super(data);
+		this.memoryBudget = memoryBudget;
+		this.tmpDir = tmpDir;
+	}
+	
+	/**
+	 * @return A quarter of the maximum heap
+	 */
+	public static long getDefaultMemoryBudget(){
+		return Runtime.getRuntime().maxMemory() / 4;
 	}
 	
 	/**
@@ -31,109 +77,267 @@ public class BFSGraphLeaning extends GraphLeaning{
 	 * @throws Exception 
 	 */
 	protected GraphLeaningResult getCore(ArrayList<Node[]> query, HashMap<BNode,Node> initialMap) throws InterruptedException {
-		ArrayList<HashMap<BNode,Node>> solutions = getSolutions(query,initialMap);
-		
-		int minCount = Integer.MAX_VALUE;
-		HashMap<BNode,Node> coreSolution = null;
-		// core given by a solution with fewest blank nodes
-		for(HashMap<BNode,Node> solution:solutions){
-			HashSet<BNode> bnodes = getBNodeBindings(solution);
-			
-			// fewest blank nodes and reduces at least one blank node
-			if(bnodes.size()<minCount && bnodes.size()<solution.size()){
-				coreSolution = solution;
-				minCount = bnodes.size();
+		// variables: initially mapped bnodes, then query bnodes
+		// in the order they are bound by the patterns
+		ArrayList<BNode> varList = new ArrayList<BNode>();
+		HashMap<BNode,Integer> varIds = new HashMap<BNode,Integer>();
+		int[] initialRow = new int[(initialMap==null ? 0 : initialMap.size())];
+		if(initialMap!=null){
+			for(Map.Entry<BNode, Node> e: initialMap.entrySet()){
+				initialRow[addVar(e.getKey(), varList, varIds)] = dict.encode(e.getValue());
 			}
 		}
 		
-		Collection<Node[]> leanData = filteredData;
-		
-		if(coreSolution!=null){
-			leanData = mapData(leanData,coreSolution);
+		int[] patS = new int[query.size()];
+		int[] patO = new int[query.size()];
+		for(int i=0; i<query.size(); i++){
+			Node[] pattern = query.get(i);
+			patS[i] = addVar((BNode)pattern[0], varList, varIds);
+			patO[i] = addVar((BNode)pattern[2], varList, varIds);
 		}
 		
-		GraphLeaningResult glr = new GraphLeaningResult(leanData);
-		glr.setDepth(0);
-		glr.setJoins(joins);
-		glr.setSolutionCount(solutions.size());
-		glr.setCoreMap(coreSolution);
+		int vars = varList.size();
+		int[] varNode = new int[vars];
+		int[][] varCands = new int[vars][];
+		for(int v=0; v<vars; v++){
+			varNode[v] = dict.encode(varList.get(v));
+			Set<Node> cands = candidates.get(varList.get(v));
+			if(cands!=null){
+				int[] ids = new int[cands.size()];
+				int c = 0;
+				for(Node n:cands){
+					int id = dict.getId(n);
+					if(id>=0) ids[c++] = id;
+				}
+				varCands[v] = Arrays.copyOf(ids, c);
+				Arrays.sort(varCands[v]);
+			}
+		}
 		
-		return glr;
+		IntTable solutions = null;
+		try{
+			// start from the initial map
+			solutions = new IntTable(initialRow.length, memoryBudget / 2, tmpDir);
+			solutions.add(initialRow);
+			
+			for(int i=0; i<query.size() && solutions.size()>0; i++){
+				IntTable next = join(query.get(i), patS[i], patO[i], solutions, varNode, varCands);
+				solutions.close();
+				solutions = next;
+			}
+			
+			if(solutions.size()==0){
+				// no solution found
+				// should never happen?
+				// should at least map to self
+				LOG.warning("No solution found");
+			}
+			
+			// core given by a solution with fewest blank nodes
+			int[] coreRow = getFewestBNodes(solutions);
+			
+			HashMap<BNode,Node> coreSolution = null;
+			Collection<Node[]> leanData = filteredData;
+			if(coreRow!=null){
+				coreSolution = new HashMap<BNode,Node>();
+				for(int v=0; v<vars; v++){
+					coreSolution.put(varList.get(v), dict.getNode(coreRow[v]));
+				}
+				leanData = mapData(leanData,coreSolution);
+			}
+			
+			GraphLeaningResult glr = new GraphLeaningResult(leanData);
+			glr.setDepth(0);
+			glr.setJoins(joins);
+			glr.setSolutionCount(solutions.size());
+			glr.setCoreMap(coreSolution);
+			
+			return glr;
+		} catch(IOException e){
+			throw new RuntimeException(e);
+		} finally{
+			if(solutions!=null){
+				try{
+					solutions.close();
+				} catch(IOException e){
+					LOG.warning("Cannot delete table of partial solutions: "+e.getMessage());
+				}
+			}
+		}
 	}
 	
-	private ArrayList<HashMap<BNode,Node>> getSolutions(ArrayList<Node[]> todo, HashMap<BNode, Node> initialMap) throws InterruptedException{
-		ArrayList<HashMap<BNode,Node>> solutions = new ArrayList<HashMap<BNode,Node>>();
-		if(initialMap!=null)
-			solutions.add(initialMap);
-		else solutions.add(new HashMap<BNode,Node>());
-		ArrayList<Node[]> todoCopy = new ArrayList<Node[]>(todo);
-		return join(todoCopy,solutions);
+	private static int addVar(BNode b, ArrayList<BNode> varList, HashMap<BNode,Integer> varIds){
+		Integer v = varIds.get(b);
+		if(v==null){
+			v = varList.size();
+			varList.add(b);
+			varIds.put(b, v);
+		}
+		return v;
+	}
+	
+	/**
+	 * @return The solution with the fewest blank nodes that reduces at least
+	 * one blank node (the first such solution in the table), or null if none
+	 */
+	private int[] getFewestBNodes(IntTable solutions) throws IOException, InterruptedException{
+		int width = solutions.width();
+		int nodes = dict.size();
+		boolean[] bnode = new boolean[nodes];
+		for(int n=0; n<nodes; n++){
+			bnode[n] = dict.getNode(n) instanceof BNode;
+		}
+		// marks blank nodes already counted for the current row
+		int[] seen = new int[nodes];
+		int stamp = 0;
+		
+		int minCount = Integer.MAX_VALUE;
+		int[] coreRow = null;
+		IntTable.Cursor cursor = solutions.cursor();
+		try{
+			IntTable.Block block;
+			while((block = cursor.next())!=null){
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				for(int r=0; r<block.size(); r++){
+					if(stamp==Integer.MAX_VALUE){
+						Arrays.fill(seen, 0);
+						stamp = 0;
+					}
+					stamp++;
+					int count = 0;
+					for(int c=0; c<width; c++){
+						int n = block.get(c, r);
+						if(bnode[n] && seen[n]!=stamp){
+							seen[n] = stamp;
+							count++;
+						}
+					}
+					// fewest blank nodes and reduces at least one blank node
+					if(count<minCount && count<width){
+						minCount = count;
+						if(coreRow==null) 
+							coreRow = new int[width];
+						for(int c=0; c<width; c++){
+							coreRow[c] = block.get(c, r);
+						}
+					}
+				}
+			}
+		} finally{
+			cursor.close();
+		}
+		return coreRow;
 	}
 
 	/**
+	 * Extends each partial solution with the bindings of a pattern.
 	 * 
-	 * @param current Pattern with blank node subject and object
-	 * @param todo Patterns left to do
-	 * @param partialSol A partial solution 
-	 * @param timesBound Number of times each term bound in current partial solution
-	 * @return null if no valid homomorphism found in depth first search, otherwise a single homomorphism
+	 * @param current The pattern
+	 * @param s Variable of the subject
+	 * @param o Variable of the object
+	 * @param partialSols Partial solutions binding (at least) the variables
+	 * below their width
+	 * @param varNode Node id of each variable
+	 * @param varCands Sorted ground candidates of each variable (null if unrestricted)
+	 * @return The extended partial solutions (possibly none)
 	 * @throws InterruptedException 
+	 * @throws IOException 
 	 */
-	private ArrayList<HashMap<BNode,Node>> join(ArrayList<Node[]> todo, ArrayList<HashMap<BNode,Node>> partialSols) throws InterruptedException{
-		ArrayList<HashMap<BNode,Node>> nextPartialSols = new ArrayList<HashMap<BNode,Node>>();
-		Node[] current = todo.remove(0);
+	private IntTable join(Node[] current, int s, int o, IntTable partialSols, int[] varNode, int[][] varCands) throws InterruptedException, IOException{
+		int width = partialSols.width();
+		int nextWidth = Math.max(width, Math.max(s, o)+1);
+		IntTable nextPartialSols = new IntTable(nextWidth, memoryBudget / 2, tmpDir);
+		int[] row = new int[nextWidth];
 		
-
-		for(HashMap<BNode,Node> partialSol:partialSols){
-			if (Thread.interrupted()) {
-				throw new InterruptedException();
-			}
-			joins++;
-			Bindings bindings = getBindings(current,partialSol);
-			
-			if(bindings.getBindings()==null){
-				continue;
+		boolean sBound = s<width;
+		boolean oBound = o<width;
+		
+		CSRIndex soEdges = getIndex(psoIndex,current[1]);
+		CSRIndex osEdges = getIndex(posIndex,current[1]);
+		
+		// probe index: direct-address table from node id to the
+		// key position in the CSR index on the bound term
+		int[] probe = null;
+		CSRIndex index = null;
+		if(sBound!=oBound){
+			index = sBound ? soEdges : osEdges;
+			probe = new int[dict.size()];
+			Arrays.fill(probe, -1);
+			for(int k=0; k<index.keyCount(); k++){
+				probe[index.getKey(k)] = k;
 			}
-			
-			for(Node[] bind : bindings.getBindings()){
-				if (Thread.interrupted()) {
-					throw new InterruptedException();
-				}
-				
-				// copy all the inputs
-				HashMap<BNode,Node> nextPartialSol = new HashMap<BNode,Node>();
-				nextPartialSol.putAll(partialSol);
-	
-				// update the inputs with new bindings
-				for(int i=0; i<bindings.getOutput().size(); i++){
+		}
+		
+		IntTable.Cursor cursor = partialSols.cursor();
+		try{
+			IntTable.Block block;
+			while((block = cursor.next())!=null){
+				for(int r=0; r<block.size(); r++){
 					if (Thread.interrupted()) {
 						throw new InterruptedException();
 					}
-					nextPartialSol.put(bindings.getOutput().get(i),bind[i]);
+					joins++;
+					for(int c=0; c<width; c++){
+						row[c] = block.get(c, r);
+					}
+					
+					if(sBound && oBound){
+						// both bound: check the edge exists
+						if(soEdges.contains(row[s], row[o])){
+							nextPartialSols.add(row);
+						}
+					} else if(sBound || oBound){
+						// one bound: probe for the other
+						int b = sBound ? s : o;
+						int ub = sBound ? o : s;
+						int k = probe[row[b]];
+						if(k>=0){
+							for(int i=index.start(k); i<index.end(k); i++){
+								int v = index.getValue(i);
+								if(compatible(ub, v, varNode, varCands)){
+									row[ub] = v;
+									nextPartialSols.add(row);
+								}
+							}
+						}
+					} else{
+						// neither bound: all (compatible) edges
+						boolean sameVars = (s==o);
+						for(int k=0; k<osEdges.keyCount(); k++){
+							int on = osEdges.getKey(k);
+							if(!compatible(o, on, varNode, varCands)){
+								continue;
+							}
+							for(int i=osEdges.start(k); i<osEdges.end(k); i++){
+								int sn = osEdges.getValue(i);
+								// if o and s blank nodes are the same, binding
+								// must be the same
+								if((!sameVars || sn==on) && compatible(s, sn, varNode, varCands)){
+									row[s] = sn;
+									row[o] = on;
+									nextPartialSols.add(row);
+								}
+							}
+						}
+					}
 				}
-				
-				// add to table of partial solutions
-				nextPartialSols.add(nextPartialSol);
 			}
+		} finally{
+			cursor.close();
 		}
 		
-		if(nextPartialSols.isEmpty()){
-			// no solution found
-			// should never happen?
-			// should at least map to self
-			LOG.warning("No solution found");
-			return nextPartialSols;
-		}
-		
-		if(!todo.isEmpty()){
-			// recurse
-			ArrayList<Node[]> nextTodo = new ArrayList<Node[]>(todo);
-			ArrayList<HashMap<BNode,Node>> sol = join(nextTodo,nextPartialSols);
-			return sol;
-		} else{
-			// we're done
-			return nextPartialSols;
+		if(nextPartialSols.isSpilled() && !partialSols.isSpilled()){
+			LOG.info("Spilled "+nextPartialSols.size()+" partial solutions to disk");
 		}
+		return nextPartialSols;
+	}
+	
+	private static boolean compatible(int v, int n, int[] varNode, int[][] varCands){
+		if(n==varNode[v])
+			return true;
+		return varCands[v]==null || Arrays.binarySearch(varCands[v], n)>=0;
 	}
 		
 	public static void main(String[] args) throws Exception{
@@ -3,46 +3,270 @@ package cl.uchile.dcc.blabel.lean;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.nx.BNode;
 import org.semanticweb.yars.nx.Node;
 import org.semanticweb.yars.nx.NodeComparator;
-import org.semanticweb.yars.nx.Nodes;
 import org.semanticweb.yars.nx.parser.NxParser;
-import org.semanticweb.yars.stats.Count;
 
 import cl.uchile.dcc.blabel.label.util.Orbits;
-import cl.uchile.dcc.blabel.lean.util.Bindings;
+import cl.uchile.dcc.blabel.lean.util.CSRIndex;
+import cl.uchile.dcc.blabel.lean.util.Edge;
+import cl.uchile.dcc.blabel.lean.util.NogoodCache;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool.DeadlineFuture;
 
 public class DFSGraphLeaning extends GraphLeaning{
 	
 	public static final boolean DEFAULT_PRUNE = true;
 	
+	public static final boolean DEFAULT_PROPAGATE = true;
+	
+	public static final boolean DEFAULT_DYNAMIC_ORDER = false;
+	
+	public static final boolean DEFAULT_ACYCLIC = true;
+	
+	public static final boolean DEFAULT_BACKJUMP = true;
+	
+	// maximum number of bits (variables times nodes) for the
+	// domains made arc consistent before the search
+	public static final long MAX_DOMAIN_BITS = 1L << 27;
+	
+	// maximum number of nodes in the domains of an acyclic query
+	// solved without backtracking
+	public static final long MAX_TREE_DOMAINS = 1L << 24;
+	
+	// levels of the search tree split into parallel tasks
+	public static final int DEFAULT_SPLIT_DEPTH = 2;
+	
 	public static final Logger LOG = Logger.getLogger(DFSGraphLeaning.class.getName());
 	
 	// whether or not to try prune by automorphisms found
 	private boolean prune = DEFAULT_PRUNE;
 	
-	private ArrayList<ArrayList<Node>> automorphisms = null;
-	private ArrayList<BNode> automorphismMask = null;
+	// whether or not to propagate constraints over domains
+	private boolean propagate = DEFAULT_PROPAGATE;
+	
+	// whether or not to choose the next pattern while searching
+	private boolean dynamicOrder = DEFAULT_DYNAMIC_ORDER;
+	
+	// whether or not to solve acyclic queries without backtracking
+	private boolean acyclic = DEFAULT_ACYCLIC;
+	
+	// whether or not to backjump and cache nogoods
+	private boolean backjump = DEFAULT_BACKJUMP;
+	
+	// pool for a parallel search (null for sequential)
+	private final ForkJoinPool pool;
+	
+	private int splitDepth = DEFAULT_SPLIT_DEPTH;
+	
+	// number of queries solved without backtracking [for statistics]
+	private long treeSearches = 0;
+	
+	// number of jumps back and of cached nogoods met [for statistics]
+	private long backjumps = 0;
+	private long nogoodHits = 0;
+	
+	// automorphisms found: node ids indexed by variable
+	// (synchronized for a parallel search)
+	private List<int[]> automorphisms = null;
+	
+	// the query encoded over dictionary ids by initSearch, 
+	// read-only during the search (the mutable state of
+	// the search is kept by a Search)
+	private static final int COUNT_BITS = 28;
+	private static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+	private static final int RANK_BITS = 31;
+	private static final long RANK_MASK = (1L << RANK_BITS) - 1;
+	
+	// number of variables (initially mapped and query bnodes)
+	private int vars;
+	// variable to node id and node id to variable (or -1)
+	private int[] varNode;
+	private int[] nodeVar;
+	// node id is a blank node
+	private boolean[] bnode;
+	// node id to position in node order and back
+	private int[] rank;
+	private int[] byRank;
+	// variable to sorted ground candidates (null if unrestricted)
+	private int[][] varCands;
+	// query patterns: variables and index of the predicate
+	private int[] patS;
+	private int[] patO;
+	private CSRIndex[] patSO;
+	private CSRIndex[] patOS;
+	// variable to the patterns it appears in
+	private int[][] varPats;
+	// variable to arc consistent domain (null if not computed)
+	private BitSet[] domains;
+	
+	// the query as a forest (null if not acyclic)
+	private TreeSearch tree;
+	
+	// node ids removed from the data by earlier homomorphisms
+	private boolean[] removed;
+	
+	// first proper homomorphism found
+	private volatile HashMap<BNode,Node> solution;
+	
+	// set to stop a parallel search (e.g., when interrupted)
+	private volatile boolean stop;
+	
+	private final Random random = new Random();
 	
 	public DFSGraphLeaning(Collection<Node[]> data){
-		super(data);
+		this(data,false);
 	}
 	
 	public DFSGraphLeaning(Collection<Node[]> data, boolean randomiseBindings){
-		super(data,randomiseBindings);
+		this(data,randomiseBindings,DEFAULT_PRUNE);
 	}
 	
 	public DFSGraphLeaning(Collection<Node[]> data, boolean randomiseBindings, boolean prune){
+		this(data,randomiseBindings,prune,null);
+	}
+	
+	/**
+	 * With a pool, the top levels of the search tree (see
+	 * {@link #setSplitDepth(int)}) are split into tasks run in
+	 * parallel; the first proper homomorphism found stops the other 
+	 * tasks. Automorphisms found by any task are used to prune all tasks.
+	 * The homomorphism found may thus differ from a sequential search,
+	 * but the result is still a core.
+	 * 
+	 * @param data
+	 * @param randomiseBindings set to true to randomise order bindings are visited
+	 * @param prune prune by automorphisms found
+	 * @param pool pool for a parallel search or null for a sequential search
+	 */
+	public DFSGraphLeaning(Collection<Node[]> data, boolean randomiseBindings, boolean prune, ForkJoinPool pool){
 		super(data,randomiseBindings);
 		this.prune = prune;
+		this.pool = pool;
+	}
+	
+	/**
+	 * Creates a search for a component of the query that shares the
+	 * (read-only) indexes of the parent.
+	 */
+	private DFSGraphLeaning(DFSGraphLeaning parent){
+		this(parent.data,parent.randomiseBindings,parent.prune,parent.pool);
+		splitDepth = parent.splitDepth;
+		propagate = parent.propagate;
+		dynamicOrder = parent.dynamicOrder;
+		acyclic = parent.acyclic;
+		backjump = parent.backjump;
+		dict = parent.dict;
+		psoIndex = parent.psoIndex;
+		posIndex = parent.posIndex;
+		candidates = parent.candidates;
+		bnode = parent.bnode;
+		rank = parent.rank;
+		byRank = parent.byRank;
+		removed = parent.removed;
+	}
+	
+	/**
+	 * With propagation, the domains of variables are made arc consistent
+	 * over the query before the search, and after binding a variable, 
+	 * the domains of its unbound neighbours are restricted to the 
+	 * neighbours of the node bound (forward checking), backtracking as 
+	 * soon as a domain is empty.
+	 * 
+	 * @param propagate set to false to only check bindings as they are tried
+	 */
+	public void setPropagate(boolean propagate){
+		this.propagate = propagate;
+	}
+	
+	/**
+	 * By default, patterns are joined in the order given by the selectivity
+	 * estimates. With a dynamic order, the next pattern is chosen at each
+	 * step of the search as the one with the fewest bindings left (fail 
+	 * first): a pattern with both variables bound, else a pattern with one
+	 * variable bound whose other variable has the smallest domain (or the
+	 * bound node the fewest neighbours), else the next pattern in the 
+	 * static order.
+	 * 
+	 * @param dynamicOrder set to true to choose the next pattern while searching
+	 */
+	public void setDynamicOrder(boolean dynamicOrder){
+		this.dynamicOrder = dynamicOrder;
+	}
+	
+	/**
+	 * By default, an acyclic query (see {@link TreeSearch}) is solved by
+	 * semi-joins in polynomial time rather than by the search.
+	 * 
+	 * @param acyclic set to false to always search (only for testing)
+	 */
+	public void setAcyclic(boolean acyclic){
+		this.acyclic = acyclic;
+	}
+	
+	/**
+	 * @return Number of queries solved as acyclic queries without backtracking [for statistics]
+	 */
+	public long getTreeSearches(){
+		return treeSearches;
+	}
+	
+	/**
+	 * With backjumping, a failed step of the search returns the variables
+	 * that explain the failure (its conflict set): those whose bindings
+	 * restricted the bindings tried, and the conflict sets of the steps 
+	 * below. If the variable bound by a step is not in the conflict set of 
+	 * the step below, its other bindings would fail the same way, so the
+	 * search jumps back to the most recent variable in the conflict set.
+	 * The bindings of a conflict set are cached as a nogood (see 
+	 * {@link NogoodCache}) and a binding that completes a cached nogood is
+	 * not searched again. A step that fails due to an automorphism (or 
+	 * that is pruned by one) has all variables bound in its conflict set.
+	 * 
+	 * @param backjump set to false to backtrack chronologically
+	 */
+	public void setBackjump(boolean backjump){
+		this.backjump = backjump;
+	}
+	
+	/**
+	 * @return Number of times the search jumped back over a variable not in a conflict set [for statistics]
+	 */
+	public long getBackjumps(){
+		return backjumps;
+	}
+	
+	/**
+	 * @return Number of bindings not searched since they complete a cached nogood [for statistics]
+	 */
+	public long getNogoodHits(){
+		return nogoodHits;
+	}
+	
+	/**
+	 * @param splitDepth Number of levels of the search tree to split into parallel tasks (only used with a pool)
+	 */
+	public void setSplitDepth(int splitDepth){
+		this.splitDepth = splitDepth;
 	}
 	
 	/**
@@ -53,41 +277,318 @@ public class DFSGraphLeaning extends GraphLeaning{
 	 * @throws Exception 
 	 */
 	protected GraphLeaningResult getCore(ArrayList<Node[]> query, HashMap<BNode,Node> initialMap) throws InterruptedException {
-		HashMap<BNode,Node> hom = getHomomorphism(query, initialMap);
-		GraphLeaningResult glr = null;
-		if(hom==null){
-			// graph is lean, we only have automorphisms
-			glr = new GraphLeaningResult(filteredData);
-			glr.depth = 1;
-		} else{
-			//TODO we could probably be more efficient here
-			// reusing some work and doing some better checks
+		HashMap<BNode,Node> coreMap = null;
+		int depth = 1;
+		
+		HashMap<BNode,Node> hom;
+		while(!query.isEmpty() && (hom = getHomomorphism(query, initialMap))!=null){
+			depth++;
 			
-			// map the data per the homomorphism we found
-			// and recurse on everything
-			TreeSet<Node[]> leanerData = mapData(filteredData,hom);
-			DFSGraphLeaning gl = new DFSGraphLeaning(leanerData,randomiseBindings,prune);
+			// rather than mapping the data and starting again,
+			// remove the blank nodes not in the image of the
+			// homomorphism (and their triples) from the data
+			// and the indexes, and search again on the rest
+			hom = new HashMap<BNode,Node>(hom);
+			query = fold(query, hom);
 			
-			// single threaded for now
-			glr = gl.call();
-			glr.depth++;
-			if(glr.getCoreMap()==null){
-				// no need to merge
-				// (actually, this will probably never happen since higher
-				// level call always returns a core map, even if an automorphism)
-				glr.setCoreMap(hom);
-			} else {
+			if(coreMap==null){
+				coreMap = hom;
+			} else{
 				// we (may) need to merge the two homomorphisms
-				glr.setCoreMap(merge(hom,glr.getCoreMap()));
+				coreMap = merge(coreMap, hom);
+			}
+		}
+		
+		// if no homomorphism, graph is lean, we only have automorphisms
+		GraphLeaningResult glr = new GraphLeaningResult(filteredData);
+		glr.depth = depth;
+		glr.setCoreMap(coreMap);
+		glr.joins+=joins;
+		glr.setSolutionCount(1);
+		
+		return glr;
+	}
+	
+	/**
+	 * Solves each component of the query independently on the component 
+	 * pool: a proper homomorphism for a component maps it into the data
+	 * leaving out some of its blank nodes, and can be combined with the 
+	 * identity on the rest of the data. Once all searches of a round 
+	 * finish, the homomorphisms found are applied one by one (as in 
+	 * {@link #getCore(ArrayList, HashMap)}),
+	 * skipping those that map to blank nodes removed by another; 
+	 * components with a homomorphism are then searched again, until 
+	 * no component has a proper homomorphism. Components without one
+	 * are lean and are not searched again (the data only shrinks).
+	 */
+	protected GraphLeaningResult getCoreByComponents(ArrayList<ArrayList<Node[]>> components, final HashMap<BNode,Node> initialMap) throws InterruptedException {
+		// encode the initial map before searches share the dictionary
+		if(initialMap!=null){
+			for(Node n:initialMap.values()){
+				dict.encode(n);
+			}
+		}
+		initNodes();
+		
+		HashMap<BNode,Node> coreMap = null;
+		int depth = 1;
+		
+		ArrayList<ArrayList<Node[]>> todo = components;
+		while(!todo.isEmpty()){
+			ArrayList<DFSGraphLeaning> searches = new ArrayList<DFSGraphLeaning>();
+			ArrayList<DeadlineFuture<HashMap<BNode,Node>>> futures = new ArrayList<DeadlineFuture<HashMap<BNode,Node>>>();
+			for(final ArrayList<Node[]> component:todo){
+				final DFSGraphLeaning search = new DFSGraphLeaning(this);
+				searches.add(search);
+				futures.add(componentPool.submit(new Callable<HashMap<BNode,Node>>(){
+					public HashMap<BNode,Node> call() throws InterruptedException{
+						return search.getHomomorphism(component, initialMap);
+					}
+				}, 0, TimeUnit.SECONDS));
+			}
+			
+			// wait for all searches of the round before folding since
+			// folding changes the data and indexes the searches read
+			ArrayList<HashMap<BNode,Node>> homs = new ArrayList<HashMap<BNode,Node>>();
+			for(int i=0; i<todo.size(); i++){
+				homs.add(getResult(futures, i));
+				joins += searches.get(i).joins;
+				treeSearches += searches.get(i).treeSearches;
+				backjumps += searches.get(i).backjumps;
+				nogoodHits += searches.get(i).nogoodHits;
 			}
 			
+			ArrayList<ArrayList<Node[]>> next = new ArrayList<ArrayList<Node[]>>();
+			for(int i=0; i<todo.size(); i++){
+				HashMap<BNode,Node> hom = homs.get(i);
+				
+				if(hom==null){
+					// component is lean
+					continue;
+				} else if(!isAlive(hom)){
+					// image folded by another component:
+					// try again in the next round
+					next.add(todo.get(i));
+					continue;
+				}
+				
+				depth++;
+				if(coreMap==null){
+					// map all blank nodes to themselves to start with
+					coreMap = new HashMap<BNode,Node>();
+					if(initialMap!=null){
+						coreMap.putAll(initialMap);
+					}
+					for(ArrayList<Node[]> component:components){
+						for(Node[] pattern:component){
+							coreMap.put((BNode)pattern[0], pattern[0]);
+							coreMap.put((BNode)pattern[2], pattern[2]);
+						}
+					}
+				}
+				hom = new HashMap<BNode,Node>(hom);
+				ArrayList<Node[]> rest = fold(todo.get(i), hom);
+				coreMap = merge(coreMap, hom);
+				if(!rest.isEmpty()){
+					next.add(rest);
+				}
+			}
+			todo = next;
 		}
-
+		
+		GraphLeaningResult glr = new GraphLeaningResult(filteredData);
+		glr.depth = depth;
+		glr.setCoreMap(coreMap);
 		glr.joins+=joins;
 		glr.setSolutionCount(1);
 		
 		return glr;
 	}
+	
+	/**
+	 * Waits for the search of a component; if interrupted, cancels
+	 * all searches.
+	 */
+	private static HashMap<BNode,Node> getResult(ArrayList<DeadlineFuture<HashMap<BNode,Node>>> futures, int i) throws InterruptedException{
+		try{
+			return futures.get(i).get();
+		} catch(InterruptedException e){
+			for(DeadlineFuture<HashMap<BNode,Node>> future:futures){
+				future.cancel(true);
+			}
+			throw e;
+		} catch(ExecutionException e){
+			for(DeadlineFuture<HashMap<BNode,Node>> future:futures){
+				future.cancel(true);
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * @return true if no node the homomorphism maps to has been removed
+	 */
+	private boolean isAlive(HashMap<BNode,Node> hom){
+		for(Node n:hom.values()){
+			int id = dict.getId(n);
+			if(id>=0 && removed[id]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the blank nodes not in the image of the homomorphism from
+	 * the (filtered) data, along with their triples; the indexes are kept,
+	 * but removed nodes are no longer bound by the search. The candidates
+	 * of the query blank nodes that lose edges are recomputed; those no
+	 * longer connected to other query blank nodes are mapped directly to
+	 * a candidate if they have one (updating the homomorphism).
+	 * 
+	 * The data without the removed nodes contains the image of the 
+	 * homomorphism and is thus equivalent to the previous data.
+	 * 
+	 * @param query
+	 * @param hom A proper homomorphism found for the query
+	 * @return The patterns of the query left
+	 * @throws InterruptedException 
+	 */
+	private ArrayList<Node[]> fold(ArrayList<Node[]> query, HashMap<BNode,Node> hom) throws InterruptedException{
+		HashSet<Node> image = new HashSet<Node>(hom.values());
+		ArrayList<BNode> folded = new ArrayList<BNode>();
+		for(BNode b:hom.keySet()){
+			if(!image.contains(b)){
+				folded.add(b);
+			}
+		}
+		
+		while(!folded.isEmpty()){
+			for(BNode b:folded){
+				removed[dict.getId(b)] = true;
+			}
+			
+			// query blank nodes that lose triples and the
+			// (predicate) edges they no longer have
+			HashMap<BNode,TreeSet<Edge>> lost = new HashMap<BNode,TreeSet<Edge>>();
+			for(BNode b:folded){
+				for(int p=0; p<psoIndex.length; p++){
+					if(psoIndex[p]!=null){
+						removeTriples(b, p, true, lost);
+						removeTriples(b, p, false, lost);
+					}
+				}
+			}
+			
+			ArrayList<Node[]> remaining = new ArrayList<Node[]>();
+			HashSet<Node> connected = new HashSet<Node>();
+			for(Node[] pattern:query){
+				if(!removed[dict.getId(pattern[0])] && !removed[dict.getId(pattern[2])]){
+					remaining.add(pattern);
+					connected.add(pattern[0]);
+					connected.add(pattern[2]);
+				}
+			}
+			query = remaining;
+			
+			folded = new ArrayList<BNode>();
+			for(Map.Entry<BNode,TreeSet<Edge>> e:lost.entrySet()){
+				BNode b = e.getKey();
+				
+				int gb = groundEdges.nodeId(b);
+				int[] old = groundEdges.getEdges(gb);
+				int[] edges = new int[old.length];
+				int kept = 0;
+				for(int g:old){
+					if(!e.getValue().contains(groundEdges.getEdge(g))){
+						edges[kept++] = g;
+					}
+				}
+				edges = Arrays.copyOf(edges, kept);
+				groundEdges.setEdges(gb, edges);
+				
+				// b is still listed for the edges it lost, which
+				// may only add candidates (the search checks edges
+				// between query blank nodes, and ground edges are
+				// never lost)
+				TreeSet<Node> cans = new TreeSet<Node>();
+				for(Node c:findGroundCandidates(b, edges)){
+					int id = dict.getId(c);
+					if(id<0 || !removed[id]){
+						cans.add(c);
+					}
+				}
+				
+				if(!connected.contains(b) && !cans.isEmpty()){
+					// b only has ground edges left, which c has
+					Node c = cans.first();
+					removed[dict.getId(b)] = true;
+					for(Map.Entry<BNode,Node> he:hom.entrySet()){
+						if(he.getValue().equals(b)){
+							he.setValue(c);
+						}
+					}
+					folded.add(b);
+				} else{
+					cans.add(b);
+					candidates.put(b, cans);
+				}
+			}
+		}
+		return query;
+	}
+	
+	/**
+	 * Removes a triple from the (filtered) data; the data may hold quads
+	 * (or longer tuples), so all tuples starting with the triple are
+	 * removed (these sort directly after the triple itself).
+	 */
+	private void removeTriple(Node[] triple){
+		Node[] next;
+		while((next = filteredData.ceiling(triple))!=null && next[0].equals(triple[0]) && next[1].equals(triple[1]) && next[2].equals(triple[2])){
+			filteredData.remove(next);
+		}
+	}
+	
+	/**
+	 * Removes the triples of a folded blank node with a predicate in one
+	 * direction, recording the edges lost by its neighbours in the query.
+	 */
+	private void removeTriples(BNode b, int p, boolean out, HashMap<BNode,TreeSet<Edge>> lost) throws InterruptedException{
+		CSRIndex index = out ? psoIndex[p] : posIndex[p];
+		int k = index.find(dict.getId(b));
+		if(k<0){
+			return;
+		}
+		Node pred = dict.getNode(p);
+		for(int i=index.start(k); i<index.end(k); i++){
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			int n = index.getValue(i);
+			Node node = dict.getNode(n);
+			removeTriple(out ? new Node[]{b, pred, node} : new Node[]{node, pred, b});
+			
+			if(!removed[n] && node instanceof BNode && queryBnodes.contains(node)){
+				TreeSet<Edge> edges = lost.get(node);
+				if(edges==null){
+					edges = new TreeSet<Edge>();
+					lost.put((BNode)node, edges);
+				}
+				// the neighbour loses the edge with the predicate
+				// (in the other direction) unless it has another
+				CSRIndex back = out ? posIndex[p] : psoIndex[p];
+				int bk = back.find(n);
+				boolean other = false;
+				for(int j=back.start(bk); j<back.end(bk) && !other; j++){
+					other = !removed[back.getValue(j)];
+				}
+				if(!other){
+					edges.add(new Edge(pred, DUMMY, !out));
+				}
+			}
+		}
+	}
 
 	private static HashMap<BNode, Node> merge(HashMap<BNode, Node> map1, Map<BNode, Node> map2) {
 		// if a-> b in map1 and b->c in map2, output a->c, etc.
@@ -111,226 +612,1521 @@ public class DFSGraphLeaning extends GraphLeaning{
 	 * @throws InterruptedException 
 	 */
 	private HashMap<BNode,Node> getHomomorphism(ArrayList<Node[]> query, HashMap<BNode, Node> initialMap) throws InterruptedException{
-		ArrayList<Node[]> queryCopy = new ArrayList<Node[]>(query);
-		HashMap<BNode,Node> startingSolution = new HashMap<BNode,Node>();
-		Count<Node> timesBound = new Count<Node>();
+		Search root = initSearch(query, initialMap);
+		solution = null;
+		stop = false;
+		if(tree!=null){
+			treeSearches++;
+			solution = tree.solve(root);
+			joins += tree.joins;
+			return solution;
+		} else if(pool==null){
+			root.join(0);
+		} else{
+			SearchTask task = new SearchTask(root, 0);
+			pool.execute(task);
+			try{
+				task.get();
+			} catch(InterruptedException e){
+				// stop the tasks
+				stop = true;
+				throw e;
+			} catch(ExecutionException e){
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		joins += root.joins;
+		backjumps += root.backjumps;
+		nogoodHits += root.nogoodHits;
+		return solution;
+	}
+	
+	/**
+	 * Encodes the query and the initial map over the dictionary.
+	 * @return The initial state of the search
+	 */
+	private Search initSearch(ArrayList<Node[]> query, HashMap<BNode, Node> initialMap) throws InterruptedException{
+		// variables: initially mapped bnodes, then query bnodes
+		ArrayList<BNode> varList = new ArrayList<BNode>();
+		HashMap<BNode,Integer> varIds = new HashMap<BNode,Integer>();
+		if(initialMap!=null){
+			for(Map.Entry<BNode, Node> e: initialMap.entrySet()){
+				addVar(e.getKey(), varList, varIds);
+				dict.encode(e.getValue());
+			}
+		}
+		patS = new int[query.size()];
+		patO = new int[query.size()];
+		patSO = new CSRIndex[query.size()];
+		patOS = new CSRIndex[query.size()];
+		for(int i=0; i<query.size(); i++){
+			Node[] pattern = query.get(i);
+			patS[i] = addVar((BNode)pattern[0], varList, varIds);
+			patO[i] = addVar((BNode)pattern[2], varList, varIds);
+			patSO[i] = getIndex(psoIndex, pattern[1]);
+			patOS[i] = getIndex(posIndex, pattern[1]);
+		}
+		
+		vars = varList.size();
+		int nodes = dict.size();
+		
+		varNode = new int[vars];
+		nodeVar = new int[nodes];
+		Arrays.fill(nodeVar, -1);
+		for(int v=0; v<vars; v++){
+			varNode[v] = dict.getId(varList.get(v));
+			nodeVar[varNode[v]] = v;
+		}
+		
+		initNodes();
+		
+		varCands = new int[vars][];
+		for(int v=0; v<vars; v++){
+			Set<Node> cands = candidates.get(varList.get(v));
+			if(cands!=null){
+				int[] ids = new int[cands.size()];
+				int c = 0;
+				for(Node n:cands){
+					int id = dict.getId(n);
+					if(id>=0) ids[c++] = id;
+				}
+				varCands[v] = Arrays.copyOf(ids, c);
+				Arrays.sort(varCands[v]);
+			}
+		}
+		
+		int[] patCount = new int[vars];
+		for(int d=0; d<patS.length; d++){
+			patCount[patS[d]]++;
+			if(patO[d]!=patS[d]) patCount[patO[d]]++;
+		}
+		varPats = new int[vars][];
+		for(int v=0; v<vars; v++){
+			varPats[v] = new int[patCount[v]];
+			patCount[v] = 0;
+		}
+		for(int d=0; d<patS.length; d++){
+			varPats[patS[d]][patCount[patS[d]]++] = d;
+			if(patO[d]!=patS[d]) varPats[patO[d]][patCount[patO[d]]++] = d;
+		}
+		
+		tree = acyclic ? initTreeSearch() : null;
+		
+		domains = null;
+		if(propagate && tree==null){
+			domains = initDomains();
+		}
+		
+		if(prune){
+			automorphisms = new ArrayList<int[]>();
+			if(pool!=null){
+				automorphisms = Collections.synchronizedList(automorphisms);
+			}
+			// adding the trivial automorphism makes life easier
+			// later :)
+			automorphisms.add(varNode.clone());
+		}
 		
-		if(initialMap!=null && !initialMap.isEmpty()){
-			startingSolution.putAll(initialMap);
+		Search root = new Search();
+		if(initialMap!=null){
 			for(Map.Entry<BNode, Node> e: initialMap.entrySet()){
-				timesBound.add(e.getValue());
+				root.bind(varIds.get(e.getKey()), dict.getId(e.getValue()));
 			}
 		}
-		HashMap<BNode,Node> hom = join(queryCopy, startingSolution, timesBound);
-		return hom;
+		return root;
 	}
 	
-	
 	/**
+	 * Builds the trees of an acyclic query (see {@link TreeSearch}) along 
+	 * with the domains of their variables: candidates with an edge for 
+	 * each pattern of the variable.
 	 * 
-	 * @param current Pattern with blank node subject and object
-	 * @param todo Patterns left to do
-	 * @param partialSol A partial solution 
-	 * @param timesBound Number of times each term bound in current partial solution
-	 * @return null if no valid homomorphism found in depth first search, otherwise a single homomorphism
+	 * @return The search, or null if the query is not acyclic or the domains would take too much memory
 	 * @throws InterruptedException 
 	 */
-	private HashMap<BNode,Node> join(ArrayList<Node[]> todo, HashMap<BNode,Node> partialSol, Count<Node> timesBound) throws InterruptedException{
-		if (Thread.interrupted()) {
-			throw new InterruptedException();
+	private TreeSearch initTreeSearch() throws InterruptedException{
+		// a pattern between two variables already connected by
+		// other pairs closes a cycle
+		HashMap<Long,int[]> pairPats = new HashMap<Long,int[]>();
+		int[] component = new int[vars];
+		for(int v=0; v<vars; v++){
+			component[v] = v;
+		}
+		int[] degree = new int[vars];
+		for(int d=0; d<patS.length; d++){
+			int a = Math.min(patS[d], patO[d]), b = Math.max(patS[d], patO[d]);
+			if(a==b){
+				continue;
+			}
+			long pair = CSRIndex.pack(a, b);
+			int[] pats = pairPats.get(pair);
+			if(pats==null){
+				int ca = find(component, a), cb = find(component, b);
+				if(ca==cb){
+					return null;
+				}
+				component[ca] = cb;
+				degree[a]++;
+				degree[b]++;
+				pats = new int[0];
+			}
+			pats = Arrays.copyOf(pats, pats.length+1);
+			pats[pats.length-1] = d;
+			pairPats.put(pair, pats);
 		}
 		
-		joins++;
-		
-		Node[] current = todo.remove(0);
-		Bindings bindings = getBindings(current,partialSol,timesBound);
-		if(bindings.getBindings()==null){
-			return null;
+		int[][] neighbours = new int[vars][];
+		for(int v=0; v<vars; v++){
+			neighbours[v] = new int[degree[v]];
+			degree[v] = 0;
+		}
+		for(long pair:pairPats.keySet()){
+			int a = (int)(pair >>> 32), b = (int)pair;
+			neighbours[a][degree[a]++] = b;
+			neighbours[b][degree[b]++] = a;
 		}
 		
-		// the following are all for pruning
-		// by automorphism
-		Orbits o = null;
-		TreeSet<Node> visited = null;
-		HashMap<BNode,Integer> indexes = null;
-		HashMap<StaticArrayList<Integer>,ArrayList<Node>> partition = null;
-		int checked = 0;
-		
-		// we only prune if one term is bound
-		// the case for two terms is awkward :(
-		if(prune && bindings.getOutput().size()==1){
-			o = new Orbits();
-			visited = new TreeSet<Node>();
-			indexes = new HashMap<BNode,Integer>();
-			int i=0;
-			
-			// this will be used to compute a signature
-			// to determine which automorphisms are the identity
-			// for nodes visited thus far
-			for(BNode b:partialSol.keySet()){
-				indexes.put(b, i++);
+		// visit each tree from its lowest variable
+		int[] order = new int[vars];
+		int[] treeStart = new int[vars+1];
+		int trees = 0, size = 0;
+		int[] parent = new int[vars];
+		Arrays.fill(parent, -2);
+		int[][] parentPats = new int[vars][];
+		int[][] children = new int[vars][];
+		for(int r=0; r<vars; r++){
+			if(parent[r]!=-2 || varPats[r].length==0){
+				continue;
+			}
+			treeStart[trees++] = size;
+			parent[r] = -1;
+			order[size++] = r;
+			for(int i=size-1; i<size; i++){
+				int v = order[i];
+				children[v] = new int[neighbours[v].length - (parent[v]>=0 ? 1 : 0)];
+				int c = 0;
+				for(int u:neighbours[v]){
+					if(u!=parent[v]){
+						parent[u] = v;
+						parentPats[u] = pairPats.get(CSRIndex.pack(Math.min(u, v), Math.max(u, v)));
+						children[v][c++] = u;
+						order[size++] = u;
+					}
+				}
 			}
-			
-//			// if two terms are bound, we'll arbitrarily 
-//			// consider the second one fixed
-//			if(bindings.getOutput().size()>1){
-//				indexes.put(bindings.getOutput().get(1),i++);
-//			}
-			
-			// only store one solution per rooted signature
-			// ... will compose orbits from individual pairs
-			partition = new HashMap<StaticArrayList<Integer>,ArrayList<Node>>();
 		}
+		treeStart[trees] = size;
 		
-		for(Node[] bind : bindings.getBindings()){
-			// first let's check if we can prune
-			// this branch according to automorphisms
-			
-			// we should only check if
-			// (1) precisely one term is bound
-			// (2) binding constant is not in partialSol (i.e., this is an automorphism we're trying)
-			// (3) we have something previous to map to
-			if(prune && bindings.getOutput().size()==1 && !visited.isEmpty() && automorphisms!=null && automorphisms.size()>1 && !partialSol.containsKey(bind[0])){
-//				System.err.println("Trying to prune");
-//				System.err.println(automorphismMask);
-//				for(ArrayList<Node> auto:automorphisms)
-//					System.err.println(auto);
-//				System.err.println("Root "+indexes.keySet());
-//				System.err.println("Visited "+visited);
-//				System.err.println("Next "+bind[0]);
-				
-				// let's check the orbits we know
-				if(prune(bind[0],o,visited)){
-					visited.add(bind[0]);
+		int[][] initial = new int[vars][];
+		long total = 0;
+		for(int i=0; i<size; i++){
+			int v = order[i];
+			int[] cands = varCands[v];
+			if(cands==null){
+				int d = varPats[v][0];
+				CSRIndex index = (patS[d]==v) ? patSO[d] : patOS[d];
+				cands = new int[index.keyCount()];
+				for(int k=0; k<cands.length; k++){
+					cands[k] = index.getKey(k);
+				}
+			} else if(Arrays.binarySearch(cands, varNode[v])<0){
+				cands = Arrays.copyOf(cands, cands.length+1);
+				cands[cands.length-1] = varNode[v];
+				Arrays.sort(cands);
+			}
+			int[] dom = new int[cands.length];
+			int c = 0;
+			for(int n:cands){
+				if(removed[n]){
 					continue;
 				}
-				
-				// here we only check new automorphisms not used
-				// to compute new orbits
-				boolean skip = false;
-				for(int i=checked; i<automorphisms.size(); i++){
-					// we compute the indexes of the nodes we've
-					// bound in partial solution: the automorphisms
-					// we're looking for are the identity on these
-					StaticArrayList<Integer> signature = new StaticArrayList<Integer>(indexes.size());
-					for(int j=0; j<indexes.size(); j++){
-						signature.add(-1);
-					}
-					for(int j=0; j<automorphisms.get(i).size(); j++){
-						// value must be a bnode since it's an automorphism
-						BNode b = (BNode) automorphisms.get(i).get(j);
-						Integer bi = indexes.get(b);
-						if(bi!=null){
-							if(bi>=signature.size()){
-								System.err.println(signature);
-								System.err.println(indexes);
-								System.err.println(Nodes.toN3(bind));
-							}
-							signature.set(bi,j);
-						}
-					}
-					ArrayList<Node> rooted = partition.get(signature);
-					if(rooted==null){
-						partition.put(signature, automorphisms.get(i));
+				boolean edges = true;
+				for(int j=0; j<varPats[v].length && edges; j++){
+					int d = varPats[v][j];
+					if(patS[d]==patO[d]){
+						edges = patSO[d].contains(n, n);
 					} else{
-						o.addAndCompose(getMapping(rooted,automorphisms.get(i)));
-						
-						if(prune(bind[0],o,visited)){
-							skip = true;
-//							System.err.println("... pruning");
-							break;
-						}
+						edges = ((patS[d]==v) ? patSO[d] : patOS[d]).find(n)>=0;
 					}
 				}
-				
-				checked = automorphisms.size()-1;
-				visited.add(bind[0]);
-				
-				if(skip){
-					continue;
+				if(edges){
+					dom[c++] = n;
 				}
-			} else if(prune && bindings.getOutput().size()==1 && !partialSol.containsKey(bind[0])){
-				// even if conditions for pruning are met, we need
-				// to keep track of which siblings we've visited
-				visited.add(bind[0]);
 			}
-			
-			
-			// instead of copying, let's reuse the objects
-			// update the inputs with new bindings
-			for(int i=0; i<bindings.getOutput().size(); i++){
-				partialSol.put(bindings.getOutput().get(i),bind[i]);
-				timesBound.add(bind[i]);
+			initial[v] = Arrays.copyOf(dom, c);
+			total += c;
+			if(total > MAX_TREE_DOMAINS){
+				return null;
 			}
-
-			if(!todo.isEmpty()){
-				// recurse
-				ArrayList<Node[]> nextTodo = new ArrayList<Node[]>(todo);
-				HashMap<BNode,Node> sol = join(nextTodo,partialSol,timesBound);
-				if(sol!=null) return sol;
-			} else{
-				// last pattern ... check to see if solution maps to
-				// same term twice or maps to ground term
-				HashSet<BNode> bnodes = getBNodeBindings(partialSol); 
-				boolean hom = bnodes.size() < partialSol.size();
-				
-				// return first such homomorphism ... ordering should
-				// pick a good one! (hopefully)
-				if(hom) return partialSol;
-				
-				//otherwise we found an automorphism
-				if(prune){
-					if(automorphisms == null){
-						automorphisms = new ArrayList<ArrayList<Node>>();
-						automorphismMask = new ArrayList<BNode>();
-						
-						automorphismMask.addAll(partialSol.keySet());
-						
-						// adding the trivial automorphism makes life easier
-						// later :)
-						ArrayList<Node> automorphism = new ArrayList<Node>();
-						automorphism.addAll(automorphismMask);
-						automorphisms.add(automorphism);
-					}
-					
-					boolean trivial = true;
-					ArrayList<Node> automorphism = new ArrayList<Node>();
-					for(BNode b: automorphismMask){
-						Node val = partialSol.get(b);
-						automorphism.add(val);
-						if(!b.equals(val)){
-							trivial = false;
+		}
+		
+		return new TreeSearch(order, Arrays.copyOf(treeStart, trees+1), parent, parentPats, children, initial);
+	}
+	
+	private static int find(int[] component, int v){
+		while(component[v]!=v){
+			component[v] = component[component[v]];
+			v = component[v];
+		}
+		return v;
+	}
+	
+	/**
+	 * Computes the domain of each variable in the query as a bitset over
+	 * node ids: its candidates with an edge for each of its patterns,
+	 * then made arc consistent over the patterns (AC-3), such that every
+	 * node in the domain of a variable has a neighbour in the domain of
+	 * the variable at the other end of each of its patterns. The node of
+	 * a variable is never removed (the identity is a solution).
+	 * 
+	 * @return The domains (null for variables in no pattern), or null if they would take too much memory
+	 * @throws InterruptedException 
+	 */
+	private BitSet[] initDomains() throws InterruptedException{
+		int nodes = dict.size();
+		if((long)vars * nodes > MAX_DOMAIN_BITS){
+			return null;
+		}
+		
+		BitSet[] dom = new BitSet[vars];
+		for(int v=0; v<vars; v++){
+			for(int d:varPats[v]){
+				CSRIndex index = (patS[d]==v) ? patSO[d] : patOS[d];
+				if(dom[v]==null){
+					dom[v] = new BitSet(nodes);
+					if(varCands[v]!=null){
+						dom[v].set(varNode[v]);
+						for(int n:varCands[v]){
+							if(!removed[n] && index.find(n)>=0) dom[v].set(n);
+						}
+					} else{
+						for(int k=0; k<index.keyCount(); k++){
+							if(!removed[index.getKey(k)]) dom[v].set(index.getKey(k));
 						}
 					}
-					
-					// don't want to add the trivial automorphism twice
-					if(!trivial){
-						automorphisms.add(automorphism);
+				} else{
+					for(int n=dom[v].nextSetBit(0); n>=0; n=dom[v].nextSetBit(n+1)){
+						if(index.find(n)<0) dom[v].clear(n);
 					}
 				}
 			}
+		}
+		
+		// arc 2d revises the subject of pattern d, 2d+1 the object
+		int arcs = patS.length * 2;
+		int[] queue = new int[arcs];
+		boolean[] queued = new boolean[arcs];
+		for(int a=0; a<arcs; a++){
+			queue[a] = a;
+			queued[a] = true;
+		}
+		int head = 0, size = arcs;
+		while(size>0){
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			int a = queue[head];
+			head = (head + 1) % arcs;
+			size--;
+			queued[a] = false;
 			
-			// if solution is no good, we need to
-			// return the object state to where it was
-			for(int i=0; i<bindings.getOutput().size(); i++){
-				partialSol.remove(bindings.getOutput().get(i));
-				timesBound.put(bind[i],timesBound.get(bind[i])-1);
+			int d = a >> 1;
+			boolean subject = (a & 1)==0;
+			int x = subject ? patS[d] : patO[d];
+			int y = subject ? patO[d] : patS[d];
+			if(revise(dom[x], dom[y], subject ? patSO[d] : patOS[d], x==y)){
+				// revise the neighbours of x again
+				for(int f:varPats[x]){
+					int b = (patS[f]==x) ? 2*f+1 : 2*f;
+					if(!queued[b]){
+						queued[b] = true;
+						queue[(head + size) % arcs] = b;
+						size++;
+					}
+				}
 			}
 		}
-			
-		// no homomorphism found
-		return null;
-	}	
+		return dom;
+	}
 	
-	private static boolean prune(Node next, Orbits o, TreeSet<Node> visited){
-		// first check if we're in an orbit previously computed
-		// it's sufficient to find an orbit for one of the bind terms
-		TreeSet<Node> orbits = o.getNonTrivialOrbit(next);
+	/**
+	 * Removes the nodes from the domain of x without a neighbour in the 
+	 * index in the domain of y (or, for a pattern with the same variable 
+	 * at both ends, without a self-loop).
+	 * 
+	 * @return true if the domain of x changed
+	 */
+	private static boolean revise(BitSet dx, BitSet dy, CSRIndex index, boolean self){
+		boolean changed = false;
+		for(int n=dx.nextSetBit(0); n>=0; n=dx.nextSetBit(n+1)){
+			boolean supported = false;
+			if(self){
+				supported = index.contains(n, n);
+			} else{
+				int k = index.find(n);
+				if(k>=0){
+					for(int i=index.start(k); i<index.end(k) && !supported; i++){
+						supported = dy.get(index.getValue(i));
+					}
+				}
+			}
+			if(!supported){
+				dx.clear(n);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * @return true if the node is in the (initial) domain of the variable
+	 */
+	private boolean compatible(int v, int n){
+		if(domains!=null && domains[v]!=null)
+			return domains[v].get(n);
+		if(removed[n])
+			return false;
+		if(n==varNode[v])
+			return true;
+		return varCands[v]==null || Arrays.binarySearch(varCands[v], n)>=0;
+	}
+	
+	/**
+	 * Computes the order of nodes for the first search (and again
+	 * only if nodes are added to the dictionary).
+	 */
+	private void initNodes(){
+		int nodes = dict.size();
+		if(rank==null || rank.length!=nodes){
+			bnode = new boolean[nodes];
+			Integer[] order = new Integer[nodes];
+			for(int n=0; n<nodes; n++){
+				bnode[n] = dict.getNode(n) instanceof BNode;
+				order[n] = n;
+			}
+			// rank nodes in their natural order (ties broken by node value)
+			Arrays.sort(order, new Comparator<Integer>(){
+				public int compare(Integer a, Integer b) {
+					return dict.getNode(a).compareTo(dict.getNode(b));
+				}
+			});
+			rank = new int[nodes];
+			byRank = new int[nodes];
+			for(int r=0; r<nodes; r++){
+				rank[order[r]] = r;
+				byRank[r] = order[r];
+			}
+			removed = (removed==null) ? new boolean[nodes] : Arrays.copyOf(removed, nodes);
+		}
+	}
+	
+	private static int addVar(BNode b, ArrayList<BNode> varList, HashMap<BNode,Integer> varIds){
+		Integer v = varIds.get(b);
+		if(v==null){
+			v = varList.size();
+			varList.add(b);
+			varIds.put(b, v);
+		}
+		return v;
+	}
+	
+	/**
+	 * The mutable state of a search: variables are bound and unbound
+	 * on a trail so that backtracking does not allocate. A parallel
+	 * search copies the state for each task.
+	 */
+	private class Search {
+		// variable to node id bound (or -1)
+		private final int[] assignment;
+		// node id to number of variables bound to it
+		private final int[] timesBound;
+		// number of distinct nodes of variables bound (the search
+		// looks for a solution that does not bind all of them)
+		private int distinctVarNodes;
+		// variables in the order bound and their positions
+		private final int[] trail;
+		private final int[] trailPos;
+		private int trailSize;
+		// current domains restricted by forward checking: offset
+		// in the arena and size (offset -1 if not restricted)
+		private final int[] domStart;
+		private final int[] domSize;
+		private int[] arena;
+		private int arenaTop;
+		// previous domains (variable, offset, size) to restore
+		// and the top of this trail and of the arena indexed by
+		// the trail position of the variable bound
+		private int[] fcTrail;
+		private int fcTop;
+		private final int[] fcMark;
+		private final int[] arenaMark;
+		// per pattern buffers for bindings and visited siblings
+		private final long[][] bufHi;
+		private final long[][] bufLo;
+		private final int[][] visitedBuf;
+		// patterns in the order joined (null for the static order):
+		// those from the current depth on are yet to be joined
+		private final int[] order;
+		// conflict set of the failure at each depth: variables
+		// bound on entry that explain it (null without backjumping)
+		private final BitSet[] conflicts;
+		// failed bindings of conflict sets (null without backjumping)
+		private final NogoodCache nogoods;
+		// number of joins, jumps back and nogoods met [for statistics]
+		private long joins;
+		private long backjumps;
+		private long nogoodHits;
+		
+		Search(){
+			assignment = new int[vars];
+			Arrays.fill(assignment, -1);
+			trail = new int[vars];
+			trailPos = new int[vars];
+			Arrays.fill(trailPos, -1);
+			timesBound = new int[bnode.length];
+			domStart = new int[vars];
+			Arrays.fill(domStart, -1);
+			domSize = new int[vars];
+			arena = new int[64];
+			fcTrail = new int[48];
+			fcMark = new int[vars];
+			arenaMark = new int[vars];
+			bufHi = new long[patS.length][];
+			bufLo = new long[patS.length][];
+			visitedBuf = new int[patS.length][];
+			order = dynamicOrder ? new int[patS.length] : null;
+			for(int d=0; order!=null && d<order.length; d++){
+				order[d] = d;
+			}
+			conflicts = backjump ? new BitSet[patS.length] : null;
+			nogoods = backjump ? new NogoodCache(vars) : null;
+		}
+		
+		/**
+		 * Copies the bindings of the given state (not the buffers).
+		 */
+		Search(Search s){
+			assignment = s.assignment.clone();
+			timesBound = s.timesBound.clone();
+			distinctVarNodes = s.distinctVarNodes;
+			trail = s.trail.clone();
+			trailPos = s.trailPos.clone();
+			trailSize = s.trailSize;
+			domStart = s.domStart.clone();
+			domSize = s.domSize.clone();
+			arena = s.arena.clone();
+			arenaTop = s.arenaTop;
+			fcTrail = s.fcTrail.clone();
+			fcTop = s.fcTop;
+			fcMark = s.fcMark.clone();
+			arenaMark = s.arenaMark.clone();
+			bufHi = new long[patS.length][];
+			bufLo = new long[patS.length][];
+			visitedBuf = new int[patS.length][];
+			order = (s.order==null) ? null : s.order.clone();
+			conflicts = (s.conflicts==null) ? null : new BitSet[patS.length];
+			nogoods = (s.nogoods==null) ? null : new NogoodCache(vars);
+		}
+		
+		private void bind(int v, int n){
+			fcMark[trailSize] = fcTop;
+			arenaMark[trailSize] = arenaTop;
+			assignment[v] = n;
+			trailPos[v] = trailSize;
+			trail[trailSize++] = v;
+			if(timesBound[n]++==0 && nodeVar[n]>=0){
+				distinctVarNodes++;
+			}
+		}
+	
+		/**
+		 * Pops variables from the trail until the given size.
+		 */
+		private void unbind(int size){
+			if(trailSize<=size){
+				return;
+			}
+			while(trailSize>size){
+				int v = trail[--trailSize];
+				int n = assignment[v];
+				if(--timesBound[n]==0 && nodeVar[n]>=0){
+					distinctVarNodes--;
+				}
+				assignment[v] = -1;
+				trailPos[v] = -1;
+			}
+			while(fcTop>fcMark[size]){
+				fcTop -= 3;
+				int u = fcTrail[fcTop];
+				domStart[u] = fcTrail[fcTop+1];
+				domSize[u] = fcTrail[fcTop+2];
+			}
+			arenaTop = arenaMark[size];
+		}
+	
+		/**
+		 * A sort key for binding a variable to a node (lower keys are tried
+		 * first): ground terms, then terms most frequently bound, then
+		 * non-self matches (as per NodeBindCount).
+		 */
+		private long key(int n, int v, int extraCount){
+			long k = bnode[n] ? 1 : 0;
+			k = (k << COUNT_BITS) | (MAX_COUNT - (timesBound[n]+extraCount));
+			k = (k << 1) | (n==varNode[v] ? 1 : 0);
+			return (k << RANK_BITS) | rank[n];
+		}
+	
+		private int keyNode(long k){
+			return byRank[(int)(k & RANK_MASK)];
+		}
+	
+		/**
+		 * @return true if the node is in the current domain of the variable
+		 */
+		private boolean inDomain(int v, int n){
+			if(domStart[v]>=0)
+				return Arrays.binarySearch(arena, domStart[v], domStart[v]+domSize[v], n)>=0;
+			return compatible(v, n);
+		}
+		
+		/**
+		 * Restricts the domains of the unbound neighbours of a variable just
+		 * bound to the neighbours of its node (forward checking); the 
+		 * previous domains are restored by {@link #unbind(int)}.
+		 * 
+		 * @return A variable whose domain is left empty, or -1 if none
+		 */
+		private int forward(int w){
+			int n = assignment[w];
+			for(int d:varPats[w]){
+				int u;
+				CSRIndex index;
+				if(patS[d]==w){
+					u = patO[d];
+					index = patSO[d];
+				} else{
+					u = patS[d];
+					index = patOS[d];
+				}
+				if(assignment[u]>=0){
+					continue;
+				}
+				int k = index.find(n);
+				if(k<0 || !restrict(u, index, k)){
+					return u;
+				}
+			}
+			return -1;
+		}
+		
+		/**
+		 * Restricts the domain of u to the values of the key in the index;
+		 * the domain is written (sorted) on top of the arena.
+		 * 
+		 * @return false if the domain is left empty
+		 */
+		private boolean restrict(int u, CSRIndex index, int k){
+			int start = index.start(k), end = index.end(k);
+			if(arena.length<arenaTop+end-start){
+				arena = Arrays.copyOf(arena, Math.max(arena.length*2, arenaTop+end-start));
+			}
+			int top = arenaTop;
+			if(domStart[u]<0){
+				for(int i=start; i<end; i++){
+					int n = index.getValue(i);
+					if(compatible(u, n)){
+						arena[top++] = n;
+					}
+				}
+			} else{
+				// both are sorted
+				int i = start, j = domStart[u], jEnd = domStart[u]+domSize[u];
+				while(i<end && j<jEnd){
+					int a = index.getValue(i), b = arena[j];
+					if(a==b){
+						arena[top++] = a;
+						i++;
+						j++;
+					} else if(a<b){
+						i++;
+					} else{
+						j++;
+					}
+				}
+				if(top-arenaTop==domSize[u]){
+					// nothing removed
+					return true;
+				}
+			}
+			if(fcTrail.length<fcTop+3){
+				fcTrail = Arrays.copyOf(fcTrail, fcTrail.length*2);
+			}
+			fcTrail[fcTop++] = u;
+			fcTrail[fcTop++] = domStart[u];
+			fcTrail[fcTop++] = domSize[u];
+			domStart[u] = arenaTop;
+			domSize[u] = top-arenaTop;
+			arenaTop = top;
+			return domSize[u]>0;
+		}
+	
+		/**
+		 * Fills the buffers for pattern d with bindings for its unbound
+		 * variables, in the order they should be tried.
+		 * 
+		 * @return number of bindings (-1 if both variables are bound and the edge exists)
+		 */
+		private int getBindings(int d){
+			int sv = patS[d], ov = patO[d];
+			int sb = assignment[sv], ob = assignment[ov];
+		
+			if(sb>=0 && ob>=0){
+				return patSO[d].contains(sb, ob) ? -1 : 0;
+			}
+		
+			if(bufHi[d]==null){
+				// enough for all edges of the predicate
+				bufHi[d] = new long[patSO[d].size()];
+				bufLo[d] = new long[patSO[d].size()];
+				visitedBuf[d] = new int[patSO[d].size()];
+			}
+			long[] hi = bufHi[d], lo = bufLo[d];
+			int count = 0;
+		
+			if(sb<0 && ob<0){
+				// pairs: the greater key of s and o goes in hi;
+				// the lesser key and whether s is greater goes in lo
+				boolean sameVars = sv==ov;
+				CSRIndex os = patOS[d];
+				for(int k=0; k<os.keyCount(); k++){
+					int o = os.getKey(k);
+					if(inDomain(ov,o)){
+						for(int i=os.start(k); i<os.end(k); i++){
+							int s = os.getValue(i);
+							if((!sameVars || s==o) && inDomain(sv,s)){
+								long ks = key(s,sv,0), ko = key(o,ov,0);
+								if(ks==ko){
+									ks = ko = key(s,sv,1);
+									hi[count] = ko;
+									lo[count] = ks << 1;
+								} else if(ks>ko){
+									hi[count] = ks;
+									lo[count] = (ko << 1) | 1;
+								} else{
+									hi[count] = ko;
+									lo[count] = ks << 1;
+								}
+								count++;
+							}
+						}
+					}
+				}
+				sortPairs(hi, lo, 0, count);
+			} else{
+				int uv = (sb>=0) ? ov : sv;
+				if(domStart[uv]>=0){
+					// forward checking restricted the domain to 
+					// neighbours of the node bound
+					for(int i=domStart[uv]; i<domStart[uv]+domSize[uv]; i++){
+						hi[count++] = key(arena[i],uv,0);
+					}
+				} else{
+					CSRIndex index = (sb>=0) ? patSO[d] : patOS[d];
+					int k = index.find((sb>=0) ? sb : ob);
+					if(k>=0){
+						for(int i=index.start(k); i<index.end(k); i++){
+							int n = index.getValue(i);
+							if(compatible(uv,n)){
+								hi[count++] = key(n,uv,0);
+							}
+						}
+					}
+				}
+				Arrays.sort(hi, 0, count);
+			}
+		
+			// only for benchmark purposes to see
+			// benefit of ordering bindings in DFS
+			// SHOULD NOT BE SET OTHERWISE
+			if(randomiseBindings){
+				for(int i=count-1; i>0; i--){
+					int j = random.nextInt(i+1);
+					long t = hi[i]; hi[i] = hi[j]; hi[j] = t;
+					t = lo[i]; lo[i] = lo[j]; lo[j] = t;
+				}
+			}
+		
+			return count;
+		}
+	
+		/**
+		 * Moves the pattern left with the fewest bindings to position d of
+		 * the order (see {@link DFSGraphLeaning#setDynamicOrder(boolean)}).
+		 * 
+		 * @return The pattern
+		 */
+		private int select(int d){
+			int best = d;
+			long bestCost = Long.MAX_VALUE;
+			for(int i=d; i<order.length && bestCost>0; i++){
+				// ties are broken by the static order
+				long cost = cost(order[i]);
+				if(cost<bestCost || (cost==bestCost && order[i]<order[best])){
+					best = i;
+					bestCost = cost;
+				}
+			}
+			int p = order[best];
+			order[best] = order[d];
+			order[d] = p;
+			return p;
+		}
+		
+		/**
+		 * @return An upper bound on the bindings of the pattern (beyond
+		 * any pattern with a variable bound if neither is bound)
+		 */
+		private long cost(int p){
+			int sb = assignment[patS[p]], ob = assignment[patO[p]];
+			if(sb>=0 && ob>=0){
+				return 0;
+			} else if(sb<0 && ob<0){
+				return Integer.MAX_VALUE + (long)patSO[p].size();
+			}
+			int uv = (sb>=0) ? patO[p] : patS[p];
+			if(domStart[uv]>=0){
+				return domSize[uv];
+			}
+			CSRIndex index = (sb>=0) ? patSO[p] : patOS[p];
+			int k = index.find((sb>=0) ? sb : ob);
+			return (k<0) ? 0 : index.end(k) - index.start(k);
+		}
+		
+		/**
+		 * 
+		 * @param d Depth of the search: index of the current pattern (in the order)
+		 * @return true if a homomorphism is found (set as {@link #solution}), false otherwise
+		 * @throws InterruptedException 
+		 */
+		private boolean join(int d) throws InterruptedException{
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if(stop || solution!=null){
+				// another task found a solution
+				return false;
+			}
+		
+			joins++;
+		
+			int p = (order==null) ? d : select(d);
+			int count = getBindings(p);
+			BitSet conflict = null;
+			if(conflicts!=null){
+				if(conflicts[d]==null){
+					conflicts[d] = new BitSet(vars);
+				}
+				conflict = conflicts[d];
+				conflict.clear();
+			}
+			if(count==0){
+				if(conflict!=null){
+					addReason(conflict, p);
+				}
+				return false;
+			}
+		
+			int sv = patS[p], ov = patO[p];
+			boolean pairs = assignment[sv]<0 && assignment[ov]<0;
+			
+			// variables bound at this depth (or -1)
+			int ownS = assignment[sv]<0 ? sv : -1;
+			int ownO = assignment[ov]<0 ? ov : -1;
+			// whether the conflict set is all variables bound on entry
+			boolean full = false;
+		
+			// we only prune if one term is bound
+			// the case for two terms is awkward :(
+			boolean single = count>0 && (!pairs || sv==ov);
+		
+			// the following are all for pruning
+			// by automorphism (created when needed)
+			Orbits o = null;
+			HashMap<StaticArrayList<Integer>,int[]> partition = null;
+			int visited = 0;
+			int checked = 0;
+			int entry = trailSize;
+		
+			long[] hi = bufHi[p], lo = bufLo[p];
+			int[] visitedNodes = visitedBuf[p];
+			
+			// tasks exploring branches in parallel
+			ArrayList<SearchTask> tasks = null;
+		
+			for(int c=0; c<Math.max(count, 1); c++){
+				// decode the binding
+				int s = -1, ob = -1;
+				if(count<0){
+					// nothing to bind
+				} else if(pairs){
+					int max = keyNode(hi[c]), min = keyNode(lo[c] >>> 1);
+					boolean sBigger = (lo[c] & 1)==1;
+					s = sBigger ? max : min;
+					ob = sBigger ? min : max;
+				} else{
+					s = keyNode(hi[c]);
+				}
+			
+				// first let's check if we can prune
+				// this branch according to automorphisms
+			
+				// we should only check if
+				// (1) precisely one term is bound
+				// (2) binding constant is not in partialSol (i.e., this is an automorphism we're trying)
+				// (3) we have something previous to map to
+				if(prune && single && !isBoundVar(s)){
+					if(visited>0 && automorphisms!=null && automorphisms.size()>1){
+						if(o==null){
+							o = new Orbits();
+							// only store one solution per rooted signature
+							// ... will compose orbits from individual pairs
+							partition = new HashMap<StaticArrayList<Integer>,int[]>();
+						}
+					
+						// let's check the orbits we know
+						if(prune(s,o,visitedNodes,visited)){
+							visitedNodes[visited++] = s;
+							full = true;
+							continue;
+						}
+					
+						// here we only check new automorphisms not used
+						// to compute new orbits
+						boolean skip = false;
+						for(int i=checked; i<automorphisms.size(); i++){
+							// we compute the indexes of the variables
+							// bound on entry: the automorphisms
+							// we're looking for are the identity on these
+							int[] auto = automorphisms.get(i);
+							StaticArrayList<Integer> signature = new StaticArrayList<Integer>(entry);
+							for(int j=0; j<entry; j++){
+								signature.add(-1);
+							}
+							for(int j=0; j<auto.length; j++){
+								// value must be a bnode since it's an automorphism
+								int bv = nodeVar[auto[j]];
+								if(bv>=0 && trailPos[bv]>=0 && trailPos[bv]<entry){
+									signature.set(trailPos[bv],j);
+								}
+							}
+							int[] rooted = partition.get(signature);
+							if(rooted==null){
+								partition.put(signature, auto);
+							} else{
+								o.addAndCompose(getMapping(rooted,auto));
+							
+								if(prune(s,o,visitedNodes,visited)){
+									skip = true;
+									break;
+								}
+							}
+						}
+					
+						checked = automorphisms.size()-1;
+						visitedNodes[visited++] = s;
+					
+						if(skip){
+							full = true;
+							continue;
+						}
+					} else{
+						// even if conditions for pruning are met, we need
+						// to keep track of which siblings we've visited
+						visitedNodes[visited++] = s;
+					}
+				}
+			
+				// update the state with new bindings
+				if(count>0){
+					int wiped = -1;
+					if(pairs){
+						bind(sv, s);
+						if(sv!=ov){
+							bind(ov, ob);
+						}
+						if(propagate && (wiped = forward(sv))<0){
+							wiped = forward(ov);
+						}
+					} else{
+						int v = assignment[sv]<0 ? sv : ov;
+						bind(v, s);
+						if(propagate){
+							wiped = forward(v);
+						}
+					}
+					if(wiped>=0){
+						// some unbound variable has no binding left
+						if(conflict!=null){
+							addNeighbours(conflict, wiped);
+						}
+						unbind(entry);
+						continue;
+					}
+					if(nogoods!=null){
+						int[] scope = (ownS>=0) ? nogoods.find(ownS, assignment) : null;
+						if(scope==null && ownO>=0 && ownO!=ownS){
+							scope = nogoods.find(ownO, assignment);
+						}
+						if(scope!=null){
+							// the bindings are known to fail
+							nogoodHits++;
+							for(int v:scope){
+								conflict.set(v);
+							}
+							unbind(entry);
+							continue;
+						}
+					}
+				}
+
+				if(d+1<patS.length){
+					if(pool!=null && d<splitDepth){
+						// explore branch in parallel with a
+						// copy of the state
+						if(tasks==null){
+							tasks = new ArrayList<SearchTask>();
+						}
+						SearchTask task = new SearchTask(new Search(this), d+1);
+						task.fork();
+						tasks.add(task);
+						full = true;
+					} else if(join(d+1)){
+						// recurse
+						return true;
+					} else if(conflict!=null){
+						BitSet below = conflicts[d+1];
+						if((ownS<0 || !below.get(ownS)) && (ownO<0 || !below.get(ownO))){
+							// the bindings of this depth do not explain
+							// the failure below: jump back (only a jump
+							// if this depth binds some variable)
+							if(ownS>=0 || ownO>=0){
+								backjumps++;
+							}
+							unbind(entry);
+							conflict.clear();
+							conflict.or(below);
+							return false;
+						}
+						conflict.or(below);
+					}
+				} else{
+					// last pattern ... check to see if solution leaves
+					// out the node of some variable (maps to same 
+					// term twice or maps to another term)
+					boolean hom = distinctVarNodes < vars;
+				
+					// return first such homomorphism ... ordering should
+					// pick a good one! (hopefully)
+					if(hom){
+						HashMap<BNode,Node> sol = new HashMap<BNode,Node>();
+						for(int v=0; v<vars; v++){
+							sol.put((BNode)dict.getNode(varNode[v]), dict.getNode(assignment[v]));
+						}
+						setSolution(sol);
+						return true;
+					}
+				
+					//otherwise we found an automorphism
+					full = true;
+					if(prune){
+						// don't want to add the trivial automorphism twice
+						if(!Arrays.equals(varNode, assignment)){
+							automorphisms.add(assignment.clone());
+						}
+					}
+				}
+			
+				// if solution is no good, we need to
+				// return the state to where it was
+				unbind(entry);
+			}
+			
+			if(tasks!=null){
+				// wait for all tasks (others stop quickly
+				// once one finds a solution)
+				boolean found = false;
+				for(SearchTask task:tasks){
+					found |= task.join();
+					joins += task.search.joins;
+					backjumps += task.search.backjumps;
+					nogoodHits += task.search.nogoodHits;
+				}
+				if(found){
+					return true;
+				}
+			}
+			
+			if(conflict!=null){
+				explain(conflict, p, entry, full, ownS, ownO);
+			}
+			
+			// no homomorphism found
+			return false;
+		}
+		
+		/**
+		 * Completes the conflict set of a failed depth once its bindings 
+		 * are undone and caches the bindings of the conflict set as a
+		 * nogood.
+		 */
+		private void explain(BitSet conflict, int p, int entry, boolean full, int ownS, int ownO){
+			if(full){
+				for(int i=0; i<entry; i++){
+					conflict.set(trail[i]);
+				}
+			} else{
+				addReason(conflict, p);
+			}
+			if(ownS>=0) conflict.clear(ownS);
+			if(ownO>=0) conflict.clear(ownO);
+			
+			// a nogood of all variables bound is not met again
+			// (in the static order)
+			int size = conflict.cardinality();
+			if(!full && size>0 && size<entry){
+				int[] scope = new int[size];
+				for(int v=conflict.nextSetBit(0), i=0; v>=0; v=conflict.nextSetBit(v+1)){
+					scope[i++] = v;
+				}
+				nogoods.add(scope, assignment);
+			}
+		}
+		
+		/**
+		 * Adds the variables that restrict the bindings of a pattern to a
+		 * conflict set: its bound variables and the bound neighbours of 
+		 * its unbound variables whose domains were restricted by forward
+		 * checking.
+		 */
+		private void addReason(BitSet conflict, int p){
+			for(int i=0; i<2; i++){
+				int v = (i==0) ? patS[p] : patO[p];
+				if(assignment[v]>=0){
+					conflict.set(v);
+				} else if(domStart[v]>=0){
+					addNeighbours(conflict, v);
+				}
+			}
+		}
+		
+		/**
+		 * Adds the bound neighbours of a variable (which may have restricted
+		 * its domain) to a conflict set.
+		 */
+		private void addNeighbours(BitSet conflict, int u){
+			for(int d:varPats[u]){
+				int w = (patS[d]==u) ? patO[d] : patS[d];
+				if(assignment[w]>=0){
+					conflict.set(w);
+				}
+			}
+		}
+	
+		private boolean isBoundVar(int n){
+			return nodeVar[n]>=0 && assignment[nodeVar[n]]>=0;
+		}
+	}
+	
+	/**
+	 * Searches a branch of the search tree.
+	 */
+	private class SearchTask extends RecursiveTask<Boolean> {
+		private static final long serialVersionUID = -2926408387155474624L;
+		
+		private final Search search;
+		private final int d;
+		
+		SearchTask(Search search, int d){
+			this.search = search;
+			this.d = d;
+		}
+		
+		protected Boolean compute() {
+			try{
+				return search.join(d);
+			} catch(InterruptedException e){
+				stop = true;
+				return false;
+			}
+		}
+	}
+	
+	/**
+	 * Solves an acyclic query (whose patterns between distinct variables
+	 * form a forest once patterns between the same pair of variables are
+	 * taken together) without backtracking, as per Yannakakis: semi-joins
+	 * from the leaves of each tree to its root and back (a full reducer)
+	 * leave only the nodes of each variable that extend to a solution,
+	 * which can then be bound from the root down.
+	 * 
+	 * A proper homomorphism leaves the node of some query variable out of
+	 * its image. Each tree is solved in turn, keeping its solution if the
+	 * variables bound so far still leave out some node: a variable that can
+	 * be bound to a node of no variable is bound to it; the nodes are then
+	 * bound greedily (in the same order as the search), which often maps
+	 * two variables to the same node. If no tree gives a proper solution
+	 * that way, the node of each variable that can be bound to another node
+	 * is in turn excluded from the domains of its tree, which finds a proper
+	 * homomorphism if there is one in polynomial time.
+	 */
+	private class TreeSearch {
+		// query variables in the order visited from the root of each tree 
+		// (each tree is contiguous) and the offsets of the trees
+		private final int[] order;
+		private final int[] treeStart;
+		// variable to its parent in its tree (-1 for roots), the patterns
+		// shared with its parent and its children
+		private final int[] parent;
+		private final int[][] parentPats;
+		private final int[][] children;
+		// variable to its sorted domain before reduction
+		private final int[][] initial;
+		// variable to node id bound
+		private final int[] assignment;
+		// node id to number of variables bound to it
+		private final int[] timesBound;
+		// number of variables whose node is not bound
+		private int missing;
+		// number of semi-joins [for statistics]
+		private long joins;
+		
+		TreeSearch(int[] order, int[] treeStart, int[] parent, int[][] parentPats, int[][] children, int[][] initial){
+			this.order = order;
+			this.treeStart = treeStart;
+			this.parent = parent;
+			this.parentPats = parentPats;
+			this.children = children;
+			this.initial = initial;
+			assignment = new int[vars];
+			timesBound = new int[bnode.length];
+		}
+		
+		/**
+		 * @param root The initial state of the search (with the initial map bound)
+		 * @return A proper homomorphism or null if there is none
+		 */
+		HashMap<BNode,Node> solve(Search root) throws InterruptedException{
+			for(int v=0; v<vars; v++){
+				assignment[v] = (root.assignment[v]>=0) ? root.assignment[v] : varNode[v];
+				timesBound[assignment[v]]++;
+			}
+			missing = 0;
+			
+			// domains of the variables (the trees are disjoint)
+			int[][] dom = new int[vars][];
+			boolean[] solvable = new boolean[treeStart.length-1];
+			ArrayList<int[]> undo = new ArrayList<int[]>();
+			for(int t=0; t+1<treeStart.length; t++){
+				solvable[t] = reduce(t, dom);
+				if(!solvable[t]){
+					// (the identity is a solution)
+					continue;
+				}
+				
+				// a node of no variable
+				boolean ground = false;
+				for(int i=treeStart[t]; i<treeStart[t+1] && !ground; i++){
+					int v = order[i];
+					for(int n:dom[v]){
+						if(nodeVar[n]<0){
+							update(dom, v, new int[]{ n }, undo);
+							ground = true;
+							break;
+						}
+					}
+				}
+				
+				// greedily
+				bindTree(t, dom);
+				for(int u=undo.size()-1; u>=0; u-=2){
+					dom[undo.get(u-1)[0]] = undo.get(u);
+				}
+				undo.clear();
+			}
+			
+			for(int t=0; t+1<treeStart.length && missing==0; t++){
+				if(!solvable[t]){
+					continue;
+				}
+				
+				// leaving out the node of a variable (from the leaves up):
+				// only the domains with the node change
+				long[] pairs = new long[treeStart[t+1]-treeStart[t]];
+				int count = 0;
+				for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+					int v = order[i];
+					if(dom[v].length>1){
+						for(int n:dom[v]){
+							if(pairs.length==count){
+								pairs = Arrays.copyOf(pairs, count*2);
+							}
+							pairs[count++] = CSRIndex.pack(n, v);
+						}
+					}
+				}
+				CSRIndex holders = new CSRIndex(pairs, count);
+				for(int i=treeStart[t+1]-1; i>=treeStart[t] && missing==0; i--){
+					int w = order[i];
+					if(dom[w].length>1){
+						if(exclude(dom, varNode[w], holders, undo)){
+							bindTree(t, dom);
+						}
+						// put back the domains
+						for(int u=undo.size()-1; u>=0; u-=2){
+							dom[undo.get(u-1)[0]] = undo.get(u);
+						}
+						undo.clear();
+					}
+				}
+			}
+			
+			if(missing==0){
+				return null;
+			}
+			HashMap<BNode,Node> sol = new HashMap<BNode,Node>();
+			for(int v=0; v<vars; v++){
+				sol.put((BNode)dict.getNode(varNode[v]), dict.getNode(assignment[v]));
+			}
+			return sol;
+		}
+		
+		/**
+		 * Reduces the domains of the variables of a tree such that each 
+		 * node left extends to a solution (a full reducer).
+		 * 
+		 * @param t The tree
+		 * @param dom The domains indexed by variable (those of the tree are set)
+		 * @return false if the tree has no solution
+		 */
+		private boolean reduce(int t, int[][] dom) throws InterruptedException{
+			for(int i=treeStart[t+1]-1; i>=treeStart[t]; i--){
+				int v = order[i];
+				int[] d = initial[v];
+				for(int c:children[v]){
+					d = semijoin(d, v, dom[c], parentPats[c]);
+				}
+				if(d.length==0){
+					return false;
+				}
+				dom[v] = d;
+			}
+			for(int i=treeStart[t]+1; i<treeStart[t+1]; i++){
+				int v = order[i];
+				dom[v] = semijoin(dom[v], v, dom[parent[v]], parentPats[v]);
+			}
+			return true;
+		}
+		
+		/**
+		 * Removes a node from the reduced domains with it.
+		 * 
+		 * @param holders The variables with each node in their domain
+		 * @return false if some domain is left empty
+		 */
+		private boolean exclude(int[][] dom, int n, CSRIndex holders, ArrayList<int[]> undo) throws InterruptedException{
+			int k = holders.find(n);
+			for(int i=holders.start(k); i<holders.end(k); i++){
+				int v = holders.getValue(i);
+				if(Arrays.binarySearch(dom[v], n)>=0 && !update(dom, v, without(dom[v], n), undo)){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Replaces the (reduced) domain of a variable by a subset and then
+		 * semi-joins its neighbours, and theirs in turn, until no domain
+		 * changes; on a tree, each node left then extends to a solution.
+		 * The variable and previous domain of each domain replaced are 
+		 * added to the undo list.
+		 * 
+		 * @return false if some domain is left empty
+		 */
+		private boolean update(int[][] dom, int v, int[] d, ArrayList<int[]> undo) throws InterruptedException{
+			ArrayList<Integer> queue = new ArrayList<Integer>();
+			undo.add(new int[]{ v });
+			undo.add(dom[v]);
+			dom[v] = d;
+			queue.add(v);
+			for(int q=0; q<queue.size(); q++){
+				if(dom[queue.get(q)].length==0){
+					return false;
+				}
+				int x = queue.get(q);
+				int px = parent[x];
+				for(int i=-1; i<children[x].length; i++){
+					int y = (i<0) ? px : children[x][i];
+					if(y<0){
+						continue;
+					}
+					int[] dy = semijoin(dom[y], y, dom[x], (i<0) ? parentPats[x] : parentPats[y]);
+					if(dy!=dom[y]){
+						undo.add(new int[]{ y });
+						undo.add(dom[y]);
+						dom[y] = dy;
+						queue.add(y);
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * @return The nodes of x in keep with a neighbour in other (the domain 
+		 * of the variable at the other end) for every pattern in pats
+		 */
+		private int[] semijoin(int[] keep, int x, int[] other, int[] pats) throws InterruptedException{
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			joins++;
+			
+			int d = pats[0];
+			CSRIndex index = (patS[d]==x) ? patSO[d] : patOS[d];
+			int[] kept = new int[keep.length];
+			int count = 0;
+			for(int n:keep){
+				int k = index.find(n);
+				if(k<0){
+					continue;
+				}
+				boolean supported = false;
+				for(int i=index.start(k); i<index.end(k) && !supported; i++){
+					int m = index.getValue(i);
+					supported = Arrays.binarySearch(other, m)>=0 && supports(x, n, m, pats);
+				}
+				if(supported){
+					kept[count++] = n;
+				}
+			}
+			return (count==keep.length) ? keep : Arrays.copyOf(kept, count);
+		}
+		
+		/**
+		 * Binds the variables of a tree from the root down, choosing for each
+		 * the node to try first (as per {@link Search#key(int, int, int)}) 
+		 * among those in its domain that are neighbours of the node of its
+		 * parent. The bindings are kept if the node of some variable is then 
+		 * not bound, otherwise the tree is bound to itself again.
+		 * 
+		 * @param t The tree
+		 * @param dom The domains reduced for the tree
+		 */
+		private void bindTree(int t, int[][] dom){
+			int[] previous = new int[treeStart[t+1]-treeStart[t]];
+			for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+				int v = order[i];
+				previous[i-treeStart[t]] = assignment[v];
+				unbind(v);
+			}
+			
+			for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+				int v = order[i];
+				int best = -1, seen = 0;
+				long bestKey = Long.MAX_VALUE;
+				for(int n:dom[v]){
+					if(i>treeStart[t] && !supports(v, n, assignment[parent[v]], parentPats[v])){
+						continue;
+					}
+					if(randomiseBindings){
+						// only for testing (see Search#getBindings)
+						if(random.nextInt(++seen)==0){
+							best = n;
+						}
+					} else{
+						long k = key(n, v);
+						if(k<bestKey){
+							best = n;
+							bestKey = k;
+						}
+					}
+				}
+				bind(v, best);
+			}
+			
+			if(missing==0){
+				for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+					int v = order[i];
+					unbind(v);
+					bind(v, previous[i-treeStart[t]]);
+				}
+			}
+		}
+		
+		private void bind(int v, int n){
+			assignment[v] = n;
+			if(timesBound[n]++==0 && nodeVar[n]>=0){
+				missing--;
+			}
+		}
+		
+		private void unbind(int v){
+			if(--timesBound[assignment[v]]==0 && nodeVar[assignment[v]]>=0){
+				missing++;
+			}
+		}
+		
+		/**
+		 * The same key as {@link Search#key(int, int, int)}.
+		 */
+		private long key(int n, int v){
+			long k = bnode[n] ? 1 : 0;
+			k = (k << COUNT_BITS) | (MAX_COUNT - timesBound[n]);
+			k = (k << 1) | (n==varNode[v] ? 1 : 0);
+			return (k << RANK_BITS) | rank[n];
+		}
+	}
+	
+	/**
+	 * @return true if x bound to n and the variable at the other end bound to m match all patterns
+	 */
+	private boolean supports(int x, int n, int m, int[] pats){
+		for(int d:pats){
+			if(patS[d]==x ? !patSO[d].contains(n, m) : !patSO[d].contains(m, n)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int[] without(int[] sorted, int n){
+		int[] copy = new int[sorted.length-1];
+		int c = 0;
+		for(int m:sorted){
+			if(m!=n) copy[c++] = m;
+		}
+		return copy;
+	}
+	
+	/**
+	 * Keeps the first solution found.
+	 */
+	private synchronized void setSolution(HashMap<BNode,Node> sol){
+		if(solution==null){
+			solution = sol;
+		}
+	}
+	
+	private boolean prune(int next, Orbits o, int[] visited, int count){
+		// first check if we're in an orbit previously computed
+		// it's sufficient to find an orbit for one of the bind terms
+		TreeSet<Node> orbits = o.getNonTrivialOrbit(dict.getNode(next));
 		if(orbits!=null && orbits.size()>0){
 			// if any visited node can be mapped to next
 			// no need to visit this binding
-			for(Node v:visited){
-				if(!v.equals(next) && orbits.contains(v)){
+			for(int i=0; i<count; i++){
+				if(visited[i]!=next && orbits.contains(dict.getNode(visited[i]))){
 					return true;
 				}
 			}
@@ -338,14 +2134,59 @@ public class DFSGraphLeaning extends GraphLeaning{
 		return false;
 	}
 	
-	private static HashMap<Node, Node> getMapping(ArrayList<Node> a, ArrayList<Node> b) {
+	private HashMap<Node, Node> getMapping(int[] a, int[] b) {
 		HashMap<Node,Node> map = new HashMap<Node,Node>();
 		// should be same size
-		for(int i=0; i<Math.min(a.size(),b.size()); i++){
-			map.put(a.get(i), b.get(i));
+		for(int i=0; i<Math.min(a.length,b.length); i++){
+			map.put(dict.getNode(a[i]), dict.getNode(b[i]));
 		}
 		return map;
 	}
+	
+	/**
+	 * Sorts pairs of keys (by hi then lo) in place.
+	 */
+	private static void sortPairs(long[] hi, long[] lo, int from, int to){
+		while(to-from>16){
+			// median of three as pivot
+			int m = (from+to)>>>1;
+			if(lessThan(hi, lo, m, from)) swap(hi, lo, m, from);
+			if(lessThan(hi, lo, to-1, from)) swap(hi, lo, to-1, from);
+			if(lessThan(hi, lo, to-1, m)) swap(hi, lo, to-1, m);
+			long ph = hi[m], pl = lo[m];
+			
+			int i = from, j = to-1;
+			while(i<=j){
+				while(hi[i]<ph || (hi[i]==ph && lo[i]<pl)) i++;
+				while(hi[j]>ph || (hi[j]==ph && lo[j]>pl)) j--;
+				if(i<=j){
+					swap(hi, lo, i++, j--);
+				}
+			}
+			// recurse on the smaller part
+			if(j-from < to-i){
+				sortPairs(hi, lo, from, j+1);
+				from = i;
+			} else{
+				sortPairs(hi, lo, i, to);
+				to = j+1;
+			}
+		}
+		for(int i=from+1; i<to; i++){
+			for(int j=i; j>from && lessThan(hi, lo, j, j-1); j--){
+				swap(hi, lo, j, j-1);
+			}
+		}
+	}
+	
+	private static boolean lessThan(long[] hi, long[] lo, int a, int b){
+		return hi[a]<hi[b] || (hi[a]==hi[b] && lo[a]<lo[b]);
+	}
+	
+	private static void swap(long[] hi, long[] lo, int a, int b){
+		long t = hi[a]; hi[a] = hi[b]; hi[b] = t;
+		t = lo[a]; lo[a] = lo[b]; lo[b] = t;
+	}
 
 	/**
 	 * Just an arraylist that caches hashcodes.
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -18,14 +19,20 @@ import org.semanticweb.yars.nx.NodeComparator;
 import org.semanticweb.yars.nx.Nodes;
 import org.semanticweb.yars.stats.Count;
 
+import cl.uchile.dcc.blabel.label.util.HashGraph;
+import cl.uchile.dcc.blabel.label.util.Partition;
 import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
 import cl.uchile.dcc.blabel.lean.util.Bindings;
+import cl.uchile.dcc.blabel.lean.util.CSRIndex;
 import cl.uchile.dcc.blabel.lean.util.Edge;
+import cl.uchile.dcc.blabel.lean.util.EdgeIndex;
 import cl.uchile.dcc.blabel.lean.util.NodeBindCount;
 import cl.uchile.dcc.blabel.lean.util.NodeBindCountPair;
-import cl.uchile.dcc.blabel.lean.util.NodeEdges;
+import cl.uchile.dcc.blabel.lean.util.NodeDictionary;
 import cl.uchile.dcc.blabel.lean.util.PatternSelectivityEstimate;
 import cl.uchile.dcc.blabel.lean.util.VariableSelectivityEstimate;
+import cl.uchile.dcc.blabel.lean.util.WitnessMap;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
 
 public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	protected final Collection<Node[]> data;
@@ -34,7 +41,7 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	protected TreeSet<Node[]> filteredData;
 
 	// trivial non-lean bnode map
-	protected HashMap<BNode,Node> nlbnodeMap;
+	protected WitnessMap nlbnodeMap;
 	
 	// data where subject and object are bnodes
 	protected Collection<Node[]> bnodeData;
@@ -44,18 +51,13 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 
 	public static final Logger LOG = Logger.getLogger(GraphLeaning.class.getName());
 
-	// maps node to all incoming and outgoing edges
-	protected Map<Node,NodeEdges> nodeToAllEdges;
-
-	// maps incoming/outgoing edges to node
-	protected Map<Edge,TreeSet<NodeEdges>> anyEdgeToNodes;
+	// all incoming and outgoing edges of nodes
+	// (and nodes of edges)
+	protected EdgeIndex allEdges;
 	
-	// maps node to incoming and outgoing
-	// ground edges
-	protected Map<Node,NodeEdges> nodeToGroundEdges;
-
-	// maps incoming/outgoing ground edge to node
-	protected Map<Edge,TreeSet<NodeEdges>> groundEdgeToNodes;
+	// incoming and outgoing ground edges of
+	// nodes (and nodes of ground edges)
+	protected EdgeIndex groundEdges;
 
 	// all blank nodes
 	protected TreeSet<BNode> bnodes;
@@ -65,19 +67,20 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	// (if bnode not in map, no restriction)
 	protected Map<BNode,Set<Node>> candidates;
 
-	// P-O-S index
-	protected Map<Node,Map<Node,Set<Node>>> posIndex;
+	// dictionary encoding nodes of the filtered data
+	// for the following indexes
+	protected NodeDictionary dict;
 
-	// P-S-O index
-	protected Map<Node,Map<Node,Set<Node>>> psoIndex;
+	// P-O-S index: for each predicate id, objects to subjects
+	protected CSRIndex[] posIndex;
+
+	// P-S-O index: for each predicate id, subjects to objects
+	protected CSRIndex[] psoIndex;
 
 	// blank nodes that can only be
 	// mapped to themselves based on ground edges
 	protected TreeSet<BNode> fixedBnodes;
 
-	// cardinalities for predicates
-	protected Count<Node> predCard;
-
 	// number of joins performed [for statistics]
 	protected long joins = 0;
 
@@ -88,6 +91,10 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 
 	// randomise bindings [ONLY USEFUL FOR BENCHMARKING]
 	protected boolean randomiseBindings = false;
+	
+	// pool for solving connected components of the
+	// query in parallel (null to solve the query as one)
+	protected WorkerPool componentPool = null;
 
 	public GraphLeaning(Collection<Node[]> data){
 		this(data,false);
@@ -108,6 +115,18 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		fixedBnodes = new TreeSet<BNode>();
 	}
 
+	/**
+	 * Sets a pool on which the connected components of the query (the
+	 * blank nodes connected through other non-fixed blank nodes) are 
+	 * solved independently, if supported by the leaning algorithm
+	 * (see {@link #getCoreByComponents(ArrayList, HashMap)}).
+	 * 
+	 * @param componentPool The pool or null to solve the query as one
+	 */
+	public void setComponentPool(WorkerPool componentPool){
+		this.componentPool = componentPool;
+	}
+
 	public GraphLeaningResult call() throws InterruptedException {
 		return lean();
 	}
@@ -115,29 +134,31 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	private GraphLeaningResult lean() throws InterruptedException {
 		// first we recursively remove all blank nodes where there
 		// is another term with a superset of (exact) edges
-		Collection<Node[]> inputData = data;
-		nlbnodeMap = new HashMap<BNode,Node>();
+		nlbnodeMap = new WitnessMap();
+		
+		// index exact edges (once: blank nodes removed
+		// are then removed from the index)
+		indexAllEdges(data);
+		
 		int prevNlbnodes = 0;
 		do{
 			// previous number of non lean bnodes
 			prevNlbnodes = nlbnodeMap.size();
 			
-			// index exact edges
-			indexAllEdges(inputData);
-			
 			if(bnodes.size()==0){
 				// if there are no blank nodes (remaining)
 				// we can return the lean graph
-				GraphLeaningResult glr = new GraphLeaningResult(inputData);
-				glr.setCoreMap(nlbnodeMap);
+				GraphLeaningResult glr = new GraphLeaningResult(filterData(data));
+				glr.setCoreMap(nlbnodeMap.toMap());
 				return glr;
 			}
 			
 			// removes blank nodes whose edges are a subset
 			// (or equal, if multiple) another term
-			filterTrivialNonLeanBnodes(inputData);
-			inputData = filteredData;
+			filterTrivialNonLeanBnodes();
 		} while(prevNlbnodes!=nlbnodeMap.size());
+		allEdges = null;
+		filteredData = filterData(data);
 		
 		// afterwards, for the remaining blank nodes
 		// we will build a set of candidates based on
@@ -177,8 +198,7 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 			if(!nlbnodeMap.isEmpty()){
 				// just add the non-lean blank nodes to the mapping
 				// if any and map bnodes to themselves
-				glr.coreMap.putAll(nlbnodeMap);
-				
+				glr.setCoreMap(nlbnodeMap.compose(coreMap));
 			}
 			return glr;
 		} 
@@ -201,7 +221,13 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 
 			// now find a solution (e.g., using BFS or DFS) for
 			// the query against the filtered graph
-			GraphLeaningResult glrConnected = getCore(orderedQuery,coreMap);
+			GraphLeaningResult glrConnected = null;
+			ArrayList<ArrayList<Node[]>> components = null;
+			if(componentPool!=null && (components = getComponents(orderedQuery)).size()>1){
+				glrConnected = getCoreByComponents(components,coreMap);
+			} else{
+				glrConnected = getCore(orderedQuery,coreMap);
+			}
 
 			if(glrConnected.coreMap==null){
 				// if there's no proper homomorphism
@@ -237,14 +263,14 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		// to complete the witness mapping
 		if(!nlbnodeMap.isEmpty()){
 			if(glr.coreMap==null)
-				glr.coreMap = nlbnodeMap;
+				glr.coreMap = nlbnodeMap.toMap();
 			else{
-				glr.coreMap.putAll(nlbnodeMap);
-				// may need to compute the transitive closure again
-				// since if a maps to b in non-lean bnodes and b
+				// if a maps to b in non-lean bnodes and b
 				// maps to c in connected homomorphism, we would like
-				// to map a to c
-				glr.coreMap = transitiveClosure(glr.coreMap);
+				// to map a to c (but the connected homomorphism
+				// must only be applied once: it need not be
+				// idempotent)
+				glr.coreMap = nlbnodeMap.compose(glr.coreMap);
 			}
 		}
 		
@@ -295,11 +321,12 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	}
 
 	private void indexBNodeGraph() throws InterruptedException {
-		predCard = new Count<Node>();
-		posIndex = new HashMap<Node,Map<Node,Set<Node>>>();
-		psoIndex = new HashMap<Node,Map<Node,Set<Node>>>();
+		dict = new NodeDictionary();
 		queryBnodes = new TreeSet<BNode>();
 		
+		// dictionary-encode the triples
+		int[] encoded = new int[filteredData.size()*3];
+		int t = 0;
 		for(Node[] triple:filteredData){
 			if (Thread.interrupted()) {
 				throw new InterruptedException();
@@ -311,13 +338,50 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 				queryBnodes.add((BNode)triple[2]);
 			}
 
-			indexBNodeEdge(new Node[]{triple[1],triple[2],triple[0]},posIndex);
-			indexBNodeEdge(new Node[]{triple[1],triple[0],triple[2]},psoIndex);
-			predCard.add(triple[1]);
+			encoded[t++] = dict.encode(triple[0]);
+			encoded[t++] = dict.encode(triple[1]);
+			encoded[t++] = dict.encode(triple[2]);
+		}
+		
+		// group the edges by predicate in both directions
+		int[] predCount = new int[dict.size()];
+		for(int i=1; i<encoded.length; i+=3){
+			predCount[encoded[i]]++;
 		}
+		long[][] so = new long[dict.size()][];
+		long[][] os = new long[dict.size()][];
+		int[] filled = new int[dict.size()];
+		for(int i=0; i<encoded.length; i+=3){
+			int p = encoded[i+1];
+			if(so[p]==null){
+				so[p] = new long[predCount[p]];
+				os[p] = new long[predCount[p]];
+			}
+			so[p][filled[p]] = CSRIndex.pack(encoded[i], encoded[i+2]);
+			os[p][filled[p]++] = CSRIndex.pack(encoded[i+2], encoded[i]);
+		}
+		
+		psoIndex = new CSRIndex[dict.size()];
+		posIndex = new CSRIndex[dict.size()];
+		for(int p=0; p<so.length; p++){
+			if(so[p]!=null){
+				psoIndex[p] = new CSRIndex(so[p], so[p].length);
+				posIndex[p] = new CSRIndex(os[p], os[p].length);
+			}
+		}
+	}
+	
+	/**
+	 * @param index {@link #psoIndex} or {@link #posIndex}
+	 * @param pred
+	 * @return Index for the predicate or null if the predicate has no edges
+	 */
+	protected CSRIndex getIndex(CSRIndex[] index, Node pred){
+		int p = dict.getId(pred);
+		return (p<0) ? null : index[p];
 	}
 	
-	private void filterTrivialNonLeanBnodes(Collection<Node[]> data) throws InterruptedException{
+	private void filterTrivialNonLeanBnodes() throws InterruptedException{
 		// this stores blank nodes that have the same edge set
 		// only necessary to compute the mapping
 		HashMap<BNode,TreeSet<BNode>> partition = new HashMap<BNode,TreeSet<BNode>>();
@@ -338,61 +402,46 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 				continue;
 			}
 			
-			NodeEdges edges = nodeToAllEdges.get(bnode);
+			int b = allEdges.nodeId(bnode);
+			int[] edges = allEdges.getEdges(b);
 			
-			if(edges!=null){
-				// find most selective edge
-				TreeSet<NodeEdges> min = null;
-
-				for(Edge e: edges.getEdges()){
-					TreeSet<NodeEdges> ne = anyEdgeToNodes.get(e);
-					if(min == null || ne.size() < min.size()){
-						min = ne;
-					}
-					if(ne.size()==1){
-						// node can only be mapped to itself
-						break;
-					}
-				}
-
-				// nodes other than itself that has a superset of edges
-				if(min.size()!=1){
-					// check each to make sure
-					// blank node has subset of edges
-					for(NodeEdges ne: min){
-						if(!ne.getNode().equals(bnode)){
-							ArrayList<TreeSet<Edge>> diff = diff(edges.getEdges(),ne.getEdges());
-							if(diff.get(0).isEmpty()){
-								// has a subset of edges: ne covers edges
-								if(diff.get(1).isEmpty()){
-									// the sets are equal: ne equals edges
-									// if the node in question is
-									// IRI or seen blank node,
-									// current blank node is redundant
-									if(!(ne.getNode() instanceof BNode)){
-										map.put(bnode, ne.getNode());
-										break;
-									} else {
-										// node is a blank node, we add it
-										// to the partition of bnodes with
-										// equal edges
-										part = new TreeSet<BNode>();
-										part.add(bnode);
-										part.add((BNode)ne.getNode());
-										partition.put(bnode,part);
-										partition.put((BNode)ne.getNode(),part);
-									}
-										
-								} else {
-									// ne proper superset of edges
-									// current blank node is redundant
-									map.put(bnode, ne.getNode());
-									break;
-								}
+			// find most selective edge
+			int min = allEdges.getMostSelective(edges);
+
+			// nodes other than itself that has a superset of edges
+			if(min>=0 && allEdges.liveCount(min)!=1){
+				// check each to make sure
+				// blank node has subset of edges
+				for(int n:allEdges.getNodes(min)){
+					if(n!=b && !allEdges.isRemoved(n)){
+						Node node = allEdges.getNode(n);
+						int subset = allEdges.subset(edges, allEdges.getEdges(n));
+						if(subset==EdgeIndex.EQUAL){
+							// the sets are equal: ne equals edges
+							// if the node in question is
+							// IRI or seen blank node,
+							// current blank node is redundant
+							if(!(node instanceof BNode)){
+								map.put(bnode, node);
+								break;
+							} else {
+								// node is a blank node, we add it
+								// to the partition of bnodes with
+								// equal edges
+								part = new TreeSet<BNode>();
+								part.add(bnode);
+								part.add((BNode)node);
+								partition.put(bnode,part);
+								partition.put((BNode)node,part);
 							}
+						} else if(subset==EdgeIndex.PROPER_SUBSET){
+							// ne proper superset of edges
+							// current blank node is redundant
+							map.put(bnode, node);
+							break;
 						}
 					}
-				} 
+				}
 			}
 		}
 		
@@ -415,76 +464,38 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 			}
 		}
 		
-		// now we compute the transitive closure of the
-		// map to make sure we map to the final value
-		// and not one that is non lean
+		// add to the map from earlier rounds: the map resolves 
+		// chains to the final value and not one that is non lean
 		//
 		// note we should not have cycles since all bnodes
 		// with equal edges have been mapped to a single value
-		// (... if we have cycles, this will loop forever)
-		if(!map.isEmpty()){
-			nlbnodeMap.putAll(map);
-			nlbnodeMap = transitiveClosure(nlbnodeMap);
-		}
-		
-		bnodes.removeAll(nlbnodeMap.keySet());
-		filteredData = new TreeSet<Node[]>(NodeComparator.NC);
-		for(Node[] triple:data){
-			if((!(triple[0] instanceof BNode) || !nlbnodeMap.containsKey(triple[0])) && (!(triple[2] instanceof BNode) || !nlbnodeMap.containsKey(triple[2]))){
-				filteredData.add(triple);
+		for(Map.Entry<BNode,Node> nlb:map.entrySet()){
+			if(nlbnodeMap.put(nlb.getKey(), nlb.getValue())){
+				// remove the non-lean blank node (and its
+				// edges) from the index for the next round
+				allEdges.remove(allEdges.nodeId(nlb.getKey()));
+				bnodes.remove(nlb.getKey());
+			} else{
+				LOG.warning("Found a map with cycles!!! "+nlb);
 			}
 		}
 	}
 	
 	/**
-	 * If a maps to b and b maps to c, output will map a to c.
-	 * 
-	 * NOTE: ASSUMES NO CYCLES, OTHERWISE THIS WILL NOT TERMINATE CORRECTLY!!!!
-	 * 
-	 * @param map
-	 * @return
-	 * @throws InterruptedException 
+	 * @return The triples of the data without trivial non-lean blank nodes
 	 */
-	private static HashMap<BNode,Node> transitiveClosure(HashMap<BNode,Node> map) throws InterruptedException{
-		boolean changed;
-		int iters = 0;
-		do{
-			if (Thread.interrupted()) {
-				throw new InterruptedException();
-			}
-			
-			changed = false;
-			HashMap<BNode,Node> nextMap = new HashMap<BNode,Node>();
-			
-			for(Map.Entry<BNode, Node> m: map.entrySet()){
-				if(m.getValue() instanceof BNode){
-					BNode v = (BNode) m.getValue();
-					Node mv = map.get(v);
-					
-					if(mv!=null && !mv.equals(m.getValue())){
-						nextMap.put(m.getKey(), mv);
-						changed = true;
-						continue;
-					}
-				}
-				nextMap.put(m.getKey(),m.getValue());
-			}
-			map = nextMap;
-			
-			// without cycles, this should never happen
-			iters++;
-			if(iters>map.size()){
-				LOG.warning("Found a map with cycles!!! "+map);
-				return map;
+	private TreeSet<Node[]> filterData(Collection<Node[]> data){
+		TreeSet<Node[]> filtered = new TreeSet<Node[]>(NodeComparator.NC);
+		for(Node[] triple:data){
+			if((!(triple[0] instanceof BNode) || !nlbnodeMap.containsKey(triple[0])) && (!(triple[2] instanceof BNode) || !nlbnodeMap.containsKey(triple[2]))){
+				filtered.add(triple);
 			}
-		} while(changed);
-		
-		return map;
+		}
+		return filtered;
 	}
 	
 	private void indexAllEdges(Collection<Node[]> data) throws InterruptedException{
-		nodeToAllEdges = new HashMap<Node,NodeEdges>();
-		anyEdgeToNodes = new HashMap<Edge,TreeSet<NodeEdges>>();
+		allEdges = new EdgeIndex();
 		
 		bnodes = new TreeSet<BNode>();
 
@@ -501,21 +512,21 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 				} 
 				
 				Edge inEdge = new Edge(triple[1],triple[0],false);
-				indexEdge(triple[2],inEdge,nodeToAllEdges,anyEdgeToNodes);
+				allEdges.add(triple[2],inEdge);
 
 				if(triple[2] instanceof BNode){
 					bnodes.add((BNode) triple[2]);
 				}
 				
 				Edge outEdge = new Edge(triple[1],triple[2],true);
-				indexEdge(triple[0],outEdge,nodeToAllEdges,anyEdgeToNodes);
+				allEdges.add(triple[0],outEdge);
 			}
 		}
+		allEdges.build();
 	}
 
 	private void indexGroundEdges(Collection<Node[]> data) throws InterruptedException{
-		nodeToGroundEdges = new HashMap<Node,NodeEdges>();
-		groundEdgeToNodes = new HashMap<Edge,TreeSet<NodeEdges>>();
+		groundEdges = new EdgeIndex();
 		
 		for(Node[] triple: data){
 			if (Thread.interrupted()) {
@@ -528,23 +539,24 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 				if(!(triple[0] instanceof BNode && !fixedBnodes.contains(triple[0]))){
 					// term triple[0] is ground
 					Edge edge = new Edge(triple[1],triple[0],false);
-					indexEdge(triple[2],edge,nodeToGroundEdges,groundEdgeToNodes);
+					groundEdges.add(triple[2],edge);
 				}
 				// will be used to check blank nodes
 				// with unique set of predicates
 				Edge dummyOut = new Edge(triple[1],DUMMY,false);
-				indexEdge(triple[2],dummyOut,nodeToGroundEdges,groundEdgeToNodes);
+				groundEdges.add(triple[2],dummyOut);
 
 
 				if(!(triple[2] instanceof BNode && !fixedBnodes.contains(triple[2]))){
 					// term triple[2] is ground
 					Edge edge = new Edge(triple[1],triple[2],true);
-					indexEdge(triple[0],edge,nodeToGroundEdges,groundEdgeToNodes);
+					groundEdges.add(triple[0],edge);
 				}
 				Edge dummyIn = new Edge(triple[1],DUMMY,true);
-				indexEdge(triple[0],dummyIn,nodeToGroundEdges,groundEdgeToNodes);
+				groundEdges.add(triple[0],dummyIn);
 			}
 		}
+		groundEdges.build();
 	}
 	
 	private void findGroundCandidates() throws InterruptedException{
@@ -556,38 +568,11 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 			}
 			
 			if(!fixedBnodes.contains(bnode)){
-				NodeEdges edges = nodeToGroundEdges.get(bnode);
-				if(edges!=null){
-					// find most selective edge
-					TreeSet<NodeEdges> min = null;
-
-					for(Edge e: edges.getEdges()){
-						TreeSet<NodeEdges> ne = groundEdgeToNodes.get(e);
-						if(min == null || ne.size() < min.size()){
-							min = ne;
-						}
-						if(ne.size()==1){
-							// node can only be mapped to itself
-							break;
-						}
-					}
-
+				int b = groundEdges.nodeId(bnode);
+				if(b>=0){
 					// nodes other than itself to which
 					// the bnode can be mapped
-					TreeSet<Node> cans = new TreeSet<Node>();
-					if(min.size()!=1){
-						// check each to make sure
-						// blank node has subset of edges
-						for(NodeEdges ne: min){
-							if(!ne.getNode().equals(bnode)){
-								ArrayList<TreeSet<Edge>> diff = diff(edges.getEdges(),ne.getEdges());
-								if(diff.get(0).isEmpty()){
-									// all edges contained in ne
-									cans.add(ne.getNode());
-								}
-							}
-						}
-					} 
+					TreeSet<Node> cans = findGroundCandidates(bnode, groundEdges.getEdges(b));
 
 					if(cans.isEmpty()){
 						fixedBnodes.add(bnode);
@@ -601,6 +586,33 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		}
 	}
 	
+	/**
+	 * Finds the nodes (other than the blank node itself) whose indexed
+	 * ground edges include the given edges.
+	 * 
+	 * @param bnode
+	 * @param edges Sorted ids of ground edges of the blank node (not empty)
+	 * @return The nodes to which the blank node can be mapped
+	 */
+	protected TreeSet<Node> findGroundCandidates(BNode bnode, int[] edges){
+		// find most selective edge
+		int min = groundEdges.getMostSelective(edges);
+		int b = groundEdges.nodeId(bnode);
+
+		TreeSet<Node> cans = new TreeSet<Node>();
+		if(min>=0 && groundEdges.liveCount(min)!=1){
+			// check each to make sure
+			// blank node has subset of edges
+			for(int n:groundEdges.getNodes(min)){
+				if(n!=b && groundEdges.subset(edges, groundEdges.getEdges(n))!=EdgeIndex.NOT_SUBSET){
+					// all edges contained in n
+					cans.add(groundEdges.getNode(n));
+				}
+			}
+		}
+		return cans;
+	}
+	
 	/**
 	 * Will return a list of two sets where the first set has the elements
 	 * of a not in b, and the second set has the elements of b not in a.
@@ -718,15 +730,17 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 
 			ArrayList<NodeBindCountPair> orderedBindings = new ArrayList<NodeBindCountPair>(); 
 
-			Map<Node,Set<Node>> osEdges = posIndex.get(current[1]);
-			for(Node o : osEdges.keySet()){
+			CSRIndex osEdges = getIndex(posIndex,current[1]);
+			for(int k=0; k<osEdges.keyCount(); k++){
+				Node o = dict.getNode(osEdges.getKey(k));
 				// check that o is compatible with ground data
 				if(compatibleWithGroundEdges(current[2],o)){
 					// number of times o value is already bound
 					int boundO = getIntegerCount(o,timesBound);
 					NodeBindCount nbco = new NodeBindCount(o,boundO,o.equals(current[2]));
 
-					for(Node s : osEdges.get(o)){
+					for(int i=osEdges.start(k); i<osEdges.end(k); i++){
+						Node s = dict.getNode(osEdges.getValue(i));
 						// if o and s blank nodes are the same, binding
 						// must be the same
 						if(!sameVars || s.equals(o)){
@@ -761,7 +775,8 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 				return new Bindings(mask,null);
 			}
 		} else if(bound[0]!=null && bound[2]!=null){
-			if(!getVals(bound[1],bound[0],psoIndex).contains(bound[2])){
+			CSRIndex soEdges = getIndex(psoIndex,bound[1]);
+			if(!soEdges.contains(dict.getId(bound[0]),dict.getId(bound[2]))){
 				// dead end binding
 				return new Bindings(mask,null);
 			}
@@ -769,15 +784,16 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		} else {
 			int b = (bound[0]!=null) ? 0 : 2;
 			int ub = (bound[0]!=null) ? 2 : 0;
-			Map<Node,Map<Node,Set<Node>>> index = (bound[0]!=null) ? psoIndex : posIndex;
+			CSRIndex index = getIndex((bound[0]!=null) ? psoIndex : posIndex, bound[1]);
 
 			mask.add((BNode)current[ub]);
 
-			Set<Node> vals = getVals(bound[1],bound[b],index);
+			int k = index.find(dict.getId(bound[b]));
 
 			ArrayList<NodeBindCount> newBindings = new ArrayList<NodeBindCount>();
-			if(vals!=null){
-				for(Node v:vals){
+			if(k>=0){
+				for(int i=index.start(k); i<index.end(k); i++){
+					Node v = dict.getNode(index.getValue(i));
 					// check that v is compatible with ground data
 					if(compatibleWithGroundEdges(current[ub],v)){
 						// number of times value is already bound
@@ -810,45 +826,6 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		return new Bindings(mask,bindings);
 	}
 
-	private static void indexEdge(Node n, Edge e, Map<Node, NodeEdges> nodeToGroundEdges, Map<Edge, TreeSet<NodeEdges>> groundEdgeToNodes){
-		NodeEdges edges = nodeToGroundEdges.get(n);
-
-		if(edges==null){
-			edges = new NodeEdges(n);
-			nodeToGroundEdges.put(n, edges);
-		}
-
-		edges.addEdge(e);
-
-		TreeSet<NodeEdges> nodes = groundEdgeToNodes.get(e);
-		if(nodes==null){
-			nodes = new TreeSet<NodeEdges>();
-			groundEdgeToNodes.put(e, nodes);
-		}
-		nodes.add(edges);
-	}
-
-	/**
-	 * 
-	 * @param edge is POS or PSO order
-	 * @param map to index in
-	 */
-	private boolean indexBNodeEdge(Node[] edge, Map<Node,Map<Node,Set<Node>>> map){
-		Map<Node,Set<Node>> edges = map.get(edge[0]);
-		if(edges==null){
-			edges = new HashMap<Node,Set<Node>>();
-			map.put(edge[0], edges);
-		}
-
-		Set<Node> vals = edges.get(edge[1]);
-		if(vals==null){
-			vals = new HashSet<Node>();
-			edges.put(edge[1],vals);
-		}
-
-		return vals.add(edge[2]);
-	}
-
 	private ArrayList<Node[]> orderPatterns(ArrayList<Node[]> patterns){
 		// order patterns by selectivity
 		ArrayList<PatternSelectivityEstimate> ordered = new ArrayList<PatternSelectivityEstimate>();
@@ -857,7 +834,7 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		Map<BNode,VariableSelectivityEstimate> vestimates = new HashMap<BNode,VariableSelectivityEstimate>(); 
 
 		for(Node[] pattern:patterns){
-			int pcard = predCard.get(pattern[1]);
+			int pcard = getIndex(psoIndex,pattern[1]).size();
 
 			int scard = getSelectivityEstimate((BNode)pattern[0],pattern[1],psoIndex,vestimates);
 			int ocard = getSelectivityEstimate((BNode)pattern[2],pattern[1],psoIndex,vestimates);
@@ -926,9 +903,9 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 		}
 	}
 
-	private int getSelectivityEstimate(BNode var, Node pred, Map<Node, Map<Node, Set<Node>>> index,
+	private int getSelectivityEstimate(BNode var, Node pred, CSRIndex[] index,
 			Map<BNode, VariableSelectivityEstimate> vestimates) {
-		int card = index.get(pred).size();
+		int card = getIndex(index,pred).keyCount();
 		Set<Node> cands = candidates.get(var);
 		if(cands != null){
 			card = Math.min(card,cands.size());
@@ -961,6 +938,57 @@ public abstract class GraphLeaning implements Callable<GraphLeaningResult>{
 	 * @throws Exception 
 	 */
 	protected abstract GraphLeaningResult getCore(ArrayList<Node[]> query, HashMap<BNode, Node> coreMap)  throws InterruptedException;
+	
+	/**
+	 * Gets a core where the query is split into its connected components,
+	 * to be solved on {@link #componentPool}. By default, the components
+	 * are put back together and solved as one query by
+	 * {@link #getCore(ArrayList, HashMap)}.
+	 * 
+	 * @param components The connected components of the query (at least two)
+	 * @param coreMap
+	 * @return
+	 * @throws InterruptedException
+	 */
+	protected GraphLeaningResult getCoreByComponents(ArrayList<ArrayList<Node[]>> components, HashMap<BNode, Node> coreMap)  throws InterruptedException{
+		ArrayList<Node[]> query = new ArrayList<Node[]>();
+		for(ArrayList<Node[]> component:components){
+			query.addAll(component);
+		}
+		return getCore(query, coreMap);
+	}
+	
+	/**
+	 * Splits the query into connected components (in the same way 
+	 * as {@link HashGraph#blankNodePartition()}).
+	 * 
+	 * @param query Patterns with a (non-fixed) blank node as subject and object
+	 * @return The components, each keeping the order of its patterns in the query
+	 */
+	public static ArrayList<ArrayList<Node[]>> getComponents(ArrayList<Node[]> query){
+		Partition<Node> part = new Partition<Node>();
+		for(Node[] pattern:query){
+			if(!pattern[0].equals(pattern[2])){
+				part.addPair(pattern[0], pattern[2]);
+			}
+		}
+		
+		// use the lowest bnode in the partition
+		// to map to its component
+		LinkedHashMap<Node,ArrayList<Node[]>> pivotToComponent = new LinkedHashMap<Node,ArrayList<Node[]>>();
+		for(Node[] pattern:query){
+			TreeSet<Node> bp = part.getPartition(pattern[0]);
+			Node pivot = (bp == null) ? pattern[0] : bp.first();
+			
+			ArrayList<Node[]> component = pivotToComponent.get(pivot);
+			if(component == null){
+				component = new ArrayList<Node[]>();
+				pivotToComponent.put(pivot, component);
+			}
+			component.add(pattern);
+		}
+		return new ArrayList<ArrayList<Node[]>>(pivotToComponent.values());
+	}
 
 	public static HashSet<BNode> getBNodeBindings(HashMap<BNode, Node> partialSol) {
 		HashSet<BNode> bnodes = new HashSet<BNode>();
@@ -0,0 +1,872 @@
+package cl.uchile.dcc.blabel.lean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.lean.util.CSRIndex;
+
+/**
+ * Finds a core by dynamic programming over a tree decomposition of the
+ * query, such that the cost is exponential only in the width of the
+ * decomposition rather than in the number of blank nodes.
+ *
+ * The decomposition is computed from an elimination order of the query
+ * blank nodes (connected by the patterns between them) chosen greedily
+ * by fewest fill edges (or by lowest degree). The bag of a blank node
+ * holds it and its neighbours when eliminated; the bags form a tree (a
+ * forest for a query with several components). The table of a bag holds
+ * the bindings of its blank nodes that match all patterns between them;
+ * semi-joins from the leaves to the root of the tree and back (as per
+ * Yannakakis) then leave only rows that extend to a homomorphism.
+ *
+ * A proper homomorphism leaves the node of some query blank node out of
+ * its image. Each tree is first solved by binding a blank node to a
+ * ground term if it can be, keeping the solutions of the trees while
+ * they leave out some node; otherwise, the node of each blank node is in
+ * turn removed from the tables of its tree. If a proper homomorphism is
+ * found, the data are mapped and leaned again; otherwise the data are lean.
+ * If the tables grow too large, the data are leaned by DFS instead.
+ *
+ * @author ahogan
+ *
+ */
+public class TreeDecompositionGraphLeaning extends GraphLeaning{
+
+	public static final Logger LOG = Logger.getLogger(TreeDecompositionGraphLeaning.class.getName());
+
+	public static final boolean DEFAULT_MIN_FILL = true;
+
+	// maximum number of cells in the tables of the bags; wider
+	// queries are leaned by DFS instead
+	public static final long MAX_TABLE_CELLS = 1L << 25;
+
+	// whether to eliminate by fewest fill edges (or by lowest degree)
+	private boolean minFill = DEFAULT_MIN_FILL;
+
+	private long maxTableCells = MAX_TABLE_CELLS;
+
+	// the query encoded over dictionary ids: number of variables
+	// (initially mapped and query bnodes), node of each variable
+	// and variable of each node (or -1)
+	private int vars;
+	private int[] varNode;
+	private int[] nodeVar;
+	// query patterns: variables and index of the predicate
+	private int[] patS;
+	private int[] patO;
+	private CSRIndex[] patSO;
+	private CSRIndex[] patOS;
+	// variable to the patterns it appears in
+	private int[][] varPats;
+	// variable to its sorted domain (null for initially mapped variables)
+	private int[][] domains;
+
+	// the decomposition: variables of each bag (in the order bound),
+	// the variable eliminated by each bag, parent (-1 for roots)
+	// and children of each bag
+	private int[][] bagVars;
+	private int[] bagElim;
+	private int[] bagParent;
+	private int[][] bagChildren;
+	// bags in the order visited from the root of each tree (each tree
+	// is contiguous) and the offsets of the trees
+	private int[] bagOrder;
+	private int[] treeStart;
+	// variable to the bag it was eliminated in
+	private int[] varBag;
+
+	// rows of each bag (by row, width of the bag) and which rows are left
+	private int[][] tables;
+	private int[] rowCounts;
+	private boolean[][] alive;
+	// cells in the tables so far
+	private long cells;
+
+	// variable to node id bound and number of variables bound to each node
+	private int[] assignment;
+	private int[] timesBound;
+	// number of variables whose node is not bound
+	private int missing;
+
+	// width of the decomposition [for statistics]
+	private int width;
+	// whether the tables overflowed and DFS was used [for statistics]
+	private boolean leanedByDFS = false;
+
+	public TreeDecompositionGraphLeaning(Collection<Node[]> data){
+		super(data);
+	}
+
+	/**
+	 * @param minFill set to false to eliminate by lowest degree rather than by fewest fill edges
+	 */
+	public void setMinFill(boolean minFill){
+		this.minFill = minFill;
+	}
+
+	/**
+	 * @param maxTableCells Maximum number of cells in the tables of the bags before leaning by DFS instead
+	 */
+	public void setMaxTableCells(long maxTableCells){
+		this.maxTableCells = maxTableCells;
+	}
+
+	/**
+	 * @return true if the tables grew too large and the data were leaned by DFS [for statistics]
+	 */
+	public boolean isLeanedByDFS(){
+		return leanedByDFS;
+	}
+
+	/**
+	 * Gets a proper homomorphism and leans the data it maps to again, until
+	 * there is no proper homomorphism.
+	 * @param query
+	 * @return
+	 * @throws InterruptedException
+	 */
+	protected GraphLeaningResult getCore(ArrayList<Node[]> query, HashMap<BNode,Node> initialMap) throws InterruptedException {
+		HashMap<BNode,Node> hom;
+		try{
+			hom = getHomomorphism(query, initialMap);
+		} catch(TableOverflowException e){
+			LOG.info("Tables of the tree decomposition (width "+width+") exceed "+maxTableCells+" cells; leaning by DFS");
+			leanedByDFS = true;
+			tables = null;
+			alive = null;
+			GraphLeaningResult glr = new DFSGraphLeaning(filteredData).call();
+			glr.joins+=joins;
+			return glr;
+		}
+		GraphLeaningResult glr = null;
+		if(hom==null){
+			// graph is lean, we only have automorphisms
+			glr = new GraphLeaningResult(filteredData);
+			glr.depth = 1;
+		} else{
+			// map the data per the homomorphism we found
+			// and recurse on everything
+			TreeSet<Node[]> leanerData = mapData(filteredData,hom);
+			TreeDecompositionGraphLeaning gl = new TreeDecompositionGraphLeaning(leanerData);
+			gl.setMinFill(minFill);
+			gl.setMaxTableCells(maxTableCells);
+
+			glr = gl.call();
+			leanedByDFS = gl.leanedByDFS;
+			glr.depth++;
+			if(glr.getCoreMap()==null){
+				glr.setCoreMap(hom);
+			} else {
+				glr.setCoreMap(merge(hom,glr.getCoreMap()));
+			}
+		}
+
+		glr.joins+=joins;
+		glr.setSolutionCount(1);
+
+		return glr;
+	}
+
+	private static HashMap<BNode, Node> merge(HashMap<BNode, Node> map1, Map<BNode, Node> map2) {
+		// if a-> b in map1 and b->c in map2, output a->c, etc.
+		HashMap<BNode,Node> merge = new HashMap<BNode,Node>();
+
+		for(Map.Entry<BNode,Node> me:map1.entrySet()){
+			Node f = map2.get(me.getValue());
+			if(f==null){
+				f = me.getValue();
+			}
+			merge.put(me.getKey(),f);
+		}
+		return merge;
+	}
+
+	/**
+	 * @return A proper homomorphism or null if there is none
+	 * @throws InterruptedException
+	 */
+	private HashMap<BNode,Node> getHomomorphism(ArrayList<Node[]> query, HashMap<BNode, Node> initialMap) throws InterruptedException{
+		ArrayList<BNode> varList = encode(query, initialMap);
+		decompose();
+		LOG.fine("Tree decomposition of "+(vars-(initialMap==null ? 0 : initialMap.size()))+" blank nodes with "+bagVars.length+" bags of width "+width);
+
+		tables = new int[bagVars.length][];
+		rowCounts = new int[bagVars.length];
+		alive = new boolean[bagVars.length][];
+		cells = 0;
+		for(int b=0; b<bagVars.length; b++){
+			fillTable(b);
+		}
+
+		assignment = new int[vars];
+		timesBound = new int[dict.size()];
+		for(int v=0; v<vars; v++){
+			assignment[v] = (initialMap!=null && v<initialMap.size()) ? dict.getId(initialMap.get(varList.get(v))) : varNode[v];
+			timesBound[assignment[v]]++;
+		}
+		missing = 0;
+
+		// a node of no variable
+		boolean[] solvable = new boolean[treeStart.length-1];
+		for(int t=0; t+1<treeStart.length; t++){
+			solvable[t] = reduce(t);
+			if(!solvable[t]){
+				// (the identity is a solution)
+				continue;
+			}
+			int[] ground = findGround(t);
+			if(ground!=null){
+				Arrays.fill(alive[ground[0]], false);
+				alive[ground[0]][ground[1]] = true;
+				reduceRows(t);
+				bindTree(t);
+			}
+		}
+
+		// leaving out the node of a variable that can be bound
+		// to another node (from the leaves up)
+		for(int t=0; t+1<treeStart.length && missing==0; t++){
+			if(!solvable[t]){
+				continue;
+			}
+			reduce(t);
+			ArrayList<Integer> options = new ArrayList<Integer>();
+			for(int i=treeStart[t+1]-1; i>=treeStart[t]; i--){
+				int b = bagOrder[i];
+				int w = bagElim[b];
+				int c = column(b, w), cols = bagVars[b].length;
+				for(int r=0; r<rowCounts[b]; r++){
+					if(alive[b][r] && tables[b][r*cols+c]!=varNode[w]){
+						options.add(w);
+						break;
+					}
+				}
+			}
+			for(int i=0; i<options.size() && missing==0; i++){
+				resetTree(t);
+				exclude(t, varNode[options.get(i)]);
+				if(reduceRows(t)){
+					bindTree(t);
+				}
+			}
+		}
+
+		if(missing==0){
+			return null;
+		}
+		HashMap<BNode,Node> sol = new HashMap<BNode,Node>();
+		for(int v=0; v<vars; v++){
+			sol.put(varList.get(v), dict.getNode(assignment[v]));
+		}
+		return sol;
+	}
+
+	/**
+	 * Encodes the query over the dictionary and computes the domain of each
+	 * query variable: its candidates with an edge for each of its patterns.
+	 * @return The variables: initially mapped bnodes, then query bnodes
+	 */
+	private ArrayList<BNode> encode(ArrayList<Node[]> query, HashMap<BNode, Node> initialMap){
+		ArrayList<BNode> varList = new ArrayList<BNode>();
+		HashMap<BNode,Integer> varIds = new HashMap<BNode,Integer>();
+		if(initialMap!=null){
+			for(Map.Entry<BNode, Node> e: initialMap.entrySet()){
+				addVar(e.getKey(), varList, varIds);
+				dict.encode(e.getValue());
+			}
+		}
+		patS = new int[query.size()];
+		patO = new int[query.size()];
+		patSO = new CSRIndex[query.size()];
+		patOS = new CSRIndex[query.size()];
+		for(int i=0; i<query.size(); i++){
+			Node[] pattern = query.get(i);
+			patS[i] = addVar((BNode)pattern[0], varList, varIds);
+			patO[i] = addVar((BNode)pattern[2], varList, varIds);
+			patSO[i] = getIndex(psoIndex, pattern[1]);
+			patOS[i] = getIndex(posIndex, pattern[1]);
+		}
+
+		vars = varList.size();
+		varNode = new int[vars];
+		nodeVar = new int[dict.size()];
+		Arrays.fill(nodeVar, -1);
+		for(int v=0; v<vars; v++){
+			varNode[v] = dict.getId(varList.get(v));
+			nodeVar[varNode[v]] = v;
+		}
+
+		int[] patCount = new int[vars];
+		for(int d=0; d<patS.length; d++){
+			patCount[patS[d]]++;
+			if(patO[d]!=patS[d]) patCount[patO[d]]++;
+		}
+		varPats = new int[vars][];
+		for(int v=0; v<vars; v++){
+			varPats[v] = new int[patCount[v]];
+			patCount[v] = 0;
+		}
+		for(int d=0; d<patS.length; d++){
+			varPats[patS[d]][patCount[patS[d]]++] = d;
+			if(patO[d]!=patS[d]) varPats[patO[d]][patCount[patO[d]]++] = d;
+		}
+
+		domains = new int[vars][];
+		for(int v=0; v<vars; v++){
+			if(varPats[v].length==0){
+				continue;
+			}
+			int[] cands;
+			Set<Node> cs = candidates.get(varList.get(v));
+			if(cs!=null){
+				cands = new int[cs.size()+1];
+				int c = 0;
+				cands[c++] = varNode[v];
+				for(Node n:cs){
+					int id = dict.getId(n);
+					if(id>=0 && id!=varNode[v]) cands[c++] = id;
+				}
+				cands = Arrays.copyOf(cands, c);
+				Arrays.sort(cands);
+			} else{
+				int d = varPats[v][0];
+				CSRIndex index = (patS[d]==v) ? patSO[d] : patOS[d];
+				cands = new int[index.keyCount()];
+				for(int k=0; k<cands.length; k++){
+					cands[k] = index.getKey(k);
+				}
+			}
+			int[] dom = new int[cands.length];
+			int c = 0;
+			for(int n:cands){
+				boolean edges = true;
+				for(int j=0; j<varPats[v].length && edges; j++){
+					int d = varPats[v][j];
+					if(patS[d]==patO[d]){
+						edges = patSO[d].contains(n, n);
+					} else{
+						edges = ((patS[d]==v) ? patSO[d] : patOS[d]).find(n)>=0;
+					}
+				}
+				if(edges){
+					dom[c++] = n;
+				}
+			}
+			domains[v] = Arrays.copyOf(dom, c);
+		}
+		return varList;
+	}
+
+	private static int addVar(BNode b, ArrayList<BNode> varList, HashMap<BNode,Integer> varIds){
+		Integer v = varIds.get(b);
+		if(v==null){
+			v = varList.size();
+			varList.add(b);
+			varIds.put(b, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Computes the tree decomposition of the query variables by elimination:
+	 * the bag of each variable holds it and its neighbours when eliminated
+	 * (which are then connected) and its parent is the bag of the neighbour
+	 * eliminated next.
+	 * @throws InterruptedException
+	 */
+	private void decompose() throws InterruptedException{
+		ArrayList<HashSet<Integer>> adj = new ArrayList<HashSet<Integer>>();
+		for(int v=0; v<vars; v++){
+			adj.add(new HashSet<Integer>());
+		}
+		for(int d=0; d<patS.length; d++){
+			if(patS[d]!=patO[d]){
+				adj.get(patS[d]).add(patO[d]);
+				adj.get(patO[d]).add(patS[d]);
+			}
+		}
+
+		boolean[] eliminated = new boolean[vars];
+		int[] position = new int[vars];
+		int[] score = new int[vars];
+		ArrayList<int[]> bags = new ArrayList<int[]>();
+		varBag = new int[vars];
+		Arrays.fill(varBag, -1);
+		int todo = 0;
+		for(int v=0; v<vars; v++){
+			if(varPats[v].length==0){
+				eliminated[v] = true;
+			} else{
+				score[v] = score(v, adj);
+				todo++;
+			}
+		}
+
+		width = 0;
+		for(int i=0; i<todo; i++){
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			// lowest score, ties broken by degree then variable
+			int best = -1;
+			for(int v=0; v<vars; v++){
+				if(!eliminated[v] && (best<0 || score[v]<score[best] || (score[v]==score[best] && adj.get(v).size()<adj.get(best).size()))){
+					best = v;
+				}
+			}
+
+			HashSet<Integer> nbrs = adj.get(best);
+			int[] bag = new int[nbrs.size()+1];
+			int c = 0;
+			bag[c++] = best;
+			for(int u:nbrs){
+				bag[c++] = u;
+			}
+			width = Math.max(width, nbrs.size());
+			varBag[best] = bags.size();
+			bags.add(bag);
+			position[best] = i;
+			eliminated[best] = true;
+
+			// connect the neighbours and remove the variable
+			HashSet<Integer> changed = new HashSet<Integer>(nbrs);
+			for(int u:nbrs){
+				adj.get(u).remove(best);
+				for(int w:nbrs){
+					if(u!=w && adj.get(u).add(w)){
+						changed.addAll(adj.get(u));
+					}
+				}
+			}
+			for(int u:changed){
+				if(!eliminated[u]){
+					score[u] = score(u, adj);
+				}
+			}
+		}
+
+		// the parent of a bag is the bag of the neighbour eliminated next
+		int bagCount = bags.size();
+		bagVars = bags.toArray(new int[bagCount][]);
+		bagElim = new int[bagCount];
+		bagParent = new int[bagCount];
+		int[] childCount = new int[bagCount];
+		for(int b=0; b<bagCount; b++){
+			bagElim[b] = bagVars[b][0];
+			int next = -1;
+			for(int j=1; j<bagVars[b].length; j++){
+				int u = bagVars[b][j];
+				if(next<0 || position[u]<position[next]){
+					next = u;
+				}
+			}
+			bagParent[b] = (next<0) ? -1 : varBag[next];
+			if(next>=0) childCount[bagParent[b]]++;
+		}
+		bagChildren = new int[bagCount][];
+		for(int b=0; b<bagCount; b++){
+			bagChildren[b] = new int[childCount[b]];
+			childCount[b] = 0;
+		}
+		for(int b=0; b<bagCount; b++){
+			if(bagParent[b]>=0){
+				bagChildren[bagParent[b]][childCount[bagParent[b]]++] = b;
+			}
+		}
+
+		bagOrder = new int[bagCount];
+		treeStart = new int[bagCount+1];
+		int trees = 0, size = 0;
+		for(int r=0; r<bagCount; r++){
+			if(bagParent[r]>=0){
+				continue;
+			}
+			treeStart[trees++] = size;
+			bagOrder[size++] = r;
+			for(int i=size-1; i<size; i++){
+				for(int c:bagChildren[bagOrder[i]]){
+					bagOrder[size++] = c;
+				}
+			}
+		}
+		treeStart[trees] = size;
+		treeStart = Arrays.copyOf(treeStart, trees+1);
+	}
+
+	/**
+	 * @return The number of fill edges (or the degree) of the variable
+	 */
+	private int score(int v, ArrayList<HashSet<Integer>> adj){
+		HashSet<Integer> nbrs = adj.get(v);
+		if(!minFill){
+			return nbrs.size();
+		}
+		int fill = 0;
+		for(int u:nbrs){
+			HashSet<Integer> un = adj.get(u);
+			for(int w:nbrs){
+				if(u<w && !un.contains(w)){
+					fill++;
+				}
+			}
+		}
+		return fill;
+	}
+
+	/**
+	 * Computes the rows of a bag: bindings of its variables to nodes in their
+	 * domains that match all patterns between them. Variables are bound in an
+	 * order where each variable (if possible) shares a pattern with a variable
+	 * bound before, such that the bindings are given by its neighbours.
+	 * @throws InterruptedException
+	 */
+	private void fillTable(int b) throws InterruptedException{
+		int[] bag = bagVars[b];
+		// order: the first variable has the smallest domain; then
+		// variables sharing a pattern with those ordered
+		int[] order = new int[bag.length];
+		boolean[] done = new boolean[bag.length];
+		for(int i=0; i<bag.length; i++){
+			int best = -1;
+			boolean bestLinked = false;
+			for(int j=0; j<bag.length; j++){
+				if(done[j]) continue;
+				boolean linked = false;
+				for(int k=0; k<i && !linked; k++){
+					linked = shared(bag[j], order[k])!=null;
+				}
+				if(best<0 || (linked && !bestLinked) || (linked==bestLinked && domains[bag[j]].length<domains[bag[best]].length)){
+					best = j;
+					bestLinked = linked;
+				}
+			}
+			done[best] = true;
+			order[i] = bag[best];
+		}
+		bagVars[b] = order;
+
+		// patterns between each variable and those ordered before
+		int[][][] links = new int[order.length][][];
+		for(int i=0; i<order.length; i++){
+			ArrayList<int[]> ls = new ArrayList<int[]>();
+			for(int k=0; k<i; k++){
+				for(int d:varPats[order[i]]){
+					if(patS[d]!=patO[d] && (patS[d]==order[k] || patO[d]==order[k])){
+						ls.add(new int[]{ d, k });
+					}
+				}
+			}
+			links[i] = ls.toArray(new int[ls.size()][]);
+		}
+
+		int w = order.length;
+		tables[b] = new int[w * 16];
+		rowCounts[b] = 0;
+		enumerate(b, 0, new int[w], links);
+		alive[b] = new boolean[rowCounts[b]];
+	}
+
+	/**
+	 * Binds the variable at position i of the bag (and recursively those after).
+	 */
+	private void enumerate(int b, int i, int[] row, int[][][] links) throws InterruptedException{
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		int[] order = bagVars[b];
+		if(i==order.length){
+			int w = order.length;
+			if(tables[b].length < (rowCounts[b]+1) * w){
+				cells += tables[b].length;
+				if(cells > maxTableCells){
+					throw new TableOverflowException();
+				}
+				tables[b] = Arrays.copyOf(tables[b], tables[b].length * 2);
+			}
+			System.arraycopy(row, 0, tables[b], rowCounts[b] * w, w);
+			rowCounts[b]++;
+			joins++;
+			return;
+		}
+
+		int v = order[i];
+		int[] dom = domains[v];
+		if(links[i].length==0){
+			for(int n:dom){
+				row[i] = n;
+				enumerate(b, i+1, row, links);
+			}
+			return;
+		}
+
+		// neighbours of the node bound by the first pattern
+		int d = links[i][0][0];
+		int k = links[i][0][1];
+		CSRIndex index = (patO[d]==v) ? patSO[d] : patOS[d];
+		int key = index.find(row[k]);
+		if(key<0){
+			return;
+		}
+		for(int j=index.start(key); j<index.end(key); j++){
+			int n = index.getValue(j);
+			if(Arrays.binarySearch(dom, n)<0){
+				continue;
+			}
+			boolean match = true;
+			for(int l=1; l<links[i].length && match; l++){
+				int dl = links[i][l][0];
+				int m = row[links[i][l][1]];
+				match = (patS[dl]==v) ? patSO[dl].contains(n, m) : patSO[dl].contains(m, n);
+			}
+			if(match){
+				row[i] = n;
+				enumerate(b, i+1, row, links);
+			}
+		}
+	}
+
+	/**
+	 * @return A pattern between the two variables or null if none
+	 */
+	private Integer shared(int u, int v){
+		for(int d:varPats[u]){
+			if((patS[d]==u && patO[d]==v) || (patS[d]==v && patO[d]==u)){
+				return d;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Marks all rows of the bags of a tree as alive, then reduces them.
+	 * @return false if the tree has no solution
+	 */
+	private boolean reduce(int t) throws InterruptedException{
+		resetTree(t);
+		return reduceRows(t);
+	}
+
+	private void resetTree(int t){
+		for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+			Arrays.fill(alive[bagOrder[i]], true);
+		}
+	}
+
+	/**
+	 * Removes the rows with the node from the bags of a tree.
+	 */
+	private void exclude(int t, int n){
+		for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+			int b = bagOrder[i];
+			int w = bagVars[b].length;
+			for(int r=0; r<rowCounts[b]; r++){
+				for(int c=0; c<w && alive[b][r]; c++){
+					if(tables[b][r*w+c]==n){
+						alive[b][r] = false;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Semi-joins the rows left in the bags of a tree from the leaves to the
+	 * root and back (a full reducer), leaving only rows that extend to a
+	 * solution.
+	 * @param t The tree
+	 * @return false if the tree has no solution
+	 */
+	private boolean reduceRows(int t) throws InterruptedException{
+		for(int i=treeStart[t+1]-1; i>treeStart[t]; i--){
+			int c = bagOrder[i];
+			if(!semijoin(bagParent[c], c)){
+				return false;
+			}
+		}
+		for(int i=treeStart[t]+1; i<treeStart[t+1]; i++){
+			int c = bagOrder[i];
+			semijoin(c, bagParent[c]);
+		}
+		for(int r=0; r<rowCounts[bagOrder[treeStart[t]]]; r++){
+			if(alive[bagOrder[treeStart[t]]][r]) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Keeps the rows of bag a that agree with some row of bag b on
+	 * their shared variables.
+	 * @return false if no row of a is left
+	 */
+	private boolean semijoin(int a, int b) throws InterruptedException{
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		int[] sa = sharedColumns(a, b), sb = sharedColumns(b, a);
+		HashSet<Tuple> keys = new HashSet<Tuple>();
+		int wb = bagVars[b].length;
+		for(int r=0; r<rowCounts[b]; r++){
+			if(alive[b][r]) keys.add(new Tuple(tables[b], r*wb, sb));
+		}
+		int wa = bagVars[a].length;
+		boolean left = false;
+		for(int r=0; r<rowCounts[a]; r++){
+			if(alive[a][r]){
+				joins++;
+				alive[a][r] = keys.contains(new Tuple(tables[a], r*wa, sa));
+				left |= alive[a][r];
+			}
+		}
+		return left;
+	}
+
+	/**
+	 * @return The columns of bag a with the variables shared with bag b, in the order of the variables
+	 */
+	private int[] sharedColumns(int a, int b){
+		int[] shared = bagVars[a].clone();
+		Arrays.sort(shared);
+		int c = 0;
+		for(int v:shared){
+			if(column(b, v)>=0){
+				shared[c++] = v;
+			}
+		}
+		int[] cols = new int[c];
+		for(int i=0; i<c; i++){
+			cols[i] = column(a, shared[i]);
+		}
+		return cols;
+	}
+
+	/**
+	 * @return The column of the variable in the bag or -1 if not in the bag
+	 */
+	private int column(int b, int v){
+		for(int c=0; c<bagVars[b].length; c++){
+			if(bagVars[b][c]==v){
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The bag and row (alive) binding a variable to a node of no variable, or null if none
+	 */
+	private int[] findGround(int t){
+		for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+			int b = bagOrder[i];
+			int w = bagVars[b].length;
+			for(int r=0; r<rowCounts[b]; r++){
+				if(!alive[b][r]) continue;
+				for(int c=0; c<w; c++){
+					if(nodeVar[tables[b][r*w+c]]<0){
+						return new int[]{ b, r };
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Binds the variables of a (reduced) tree from the root down, choosing
+	 * for each bag the first row left that agrees with the row of its
+	 * parent. The bindings are kept if the node of some variable is then
+	 * not bound, otherwise the tree is bound to itself again.
+	 */
+	private void bindTree(int t){
+		int[] previous = new int[vars];
+		for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+			int v = bagElim[bagOrder[i]];
+			previous[v] = assignment[v];
+			unbind(v);
+			assignment[v] = -1;
+		}
+
+		for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+			int b = bagOrder[i];
+			int w = bagVars[b].length;
+			for(int r=0; r<rowCounts[b]; r++){
+				if(!alive[b][r]) continue;
+				boolean agrees = true;
+				for(int c=0; c<w && agrees; c++){
+					int v = bagVars[b][c];
+					agrees = assignment[v]<0 || assignment[v]==tables[b][r*w+c];
+				}
+				if(agrees){
+					for(int c=0; c<w; c++){
+						int v = bagVars[b][c];
+						if(assignment[v]<0){
+							bind(v, tables[b][r*w+c]);
+						}
+					}
+					break;
+				}
+			}
+		}
+
+		if(missing==0){
+			for(int i=treeStart[t]; i<treeStart[t+1]; i++){
+				int v = bagElim[bagOrder[i]];
+				unbind(v);
+				bind(v, previous[v]);
+			}
+		}
+	}
+
+	private void bind(int v, int n){
+		assignment[v] = n;
+		if(timesBound[n]++==0 && nodeVar[n]>=0){
+			missing--;
+		}
+	}
+
+	private void unbind(int v){
+		if(--timesBound[assignment[v]]==0 && nodeVar[assignment[v]]>=0){
+			missing++;
+		}
+	}
+
+	/**
+	 * Thrown when the tables exceed the maximum number of cells.
+	 */
+	private static final class TableOverflowException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Some columns of a row of a table (for hashing).
+	 */
+	private static final class Tuple {
+		private final int[] values;
+		private final int hash;
+
+		Tuple(int[] table, int offset, int[] cols){
+			values = new int[cols.length];
+			for(int i=0; i<cols.length; i++){
+				values[i] = table[offset+cols[i]];
+			}
+			hash = Arrays.hashCode(values);
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object o){
+			return o instanceof Tuple && Arrays.equals(values, ((Tuple)o).values);
+		}
+	}
+}
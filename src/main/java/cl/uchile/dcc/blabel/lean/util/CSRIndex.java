@@ -0,0 +1,133 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.util.Arrays;
+
+/**
+ * An index from int keys to sets of int values in compressed sparse row
+ * form: sorted distinct keys, offsets into a single array of values,
+ * with the values of each key sorted and distinct. Used to index the
+ * edges of one predicate in one direction (subject to objects or object
+ * to subjects) with dictionary-encoded nodes.
+ * 
+ * The values of the key at position k are found at positions
+ * {@link #start(int)} (inclusive) to {@link #end(int)} (exclusive).
+ * 
+ * @author ahogan
+ *
+ */
+public class CSRIndex {
+	private final int[] keys;
+	private final int[] offsets;
+	private final int[] values;
+	
+	/**
+	 * Builds the index from pairs; pairs are sorted in place.
+	 * @param pairs Key-value pairs as created by {@link #pack(int, int)} (may contain duplicates)
+	 * @param length Number of pairs to read from the array
+	 */
+	public CSRIndex(long[] pairs, int length){
+		Arrays.sort(pairs, 0, length);
+		
+		int distinct = 0, distinctKeys = 0;
+		for(int i=0; i<length; i++){
+			if(i==0 || pairs[i]!=pairs[i-1]){
+				distinct++;
+				if(i==0 || key(pairs[i])!=key(pairs[i-1])){
+					distinctKeys++;
+				}
+			}
+		}
+		
+		keys = new int[distinctKeys];
+		offsets = new int[distinctKeys+1];
+		values = new int[distinct];
+		
+		int k = -1, v = 0;
+		for(int i=0; i<length; i++){
+			if(i==0 || pairs[i]!=pairs[i-1]){
+				if(i==0 || key(pairs[i])!=key(pairs[i-1])){
+					k++;
+					keys[k] = key(pairs[i]);
+					offsets[k] = v;
+				}
+				values[v++] = value(pairs[i]);
+			}
+		}
+		offsets[distinctKeys] = v;
+	}
+	
+	public static long pack(int key, int value){
+		return ((long)key << 32) | (value & 0xffffffffL);
+	}
+	
+	private static int key(long pair){
+		return (int)(pair >>> 32);
+	}
+	
+	private static int value(long pair){
+		return (int)pair;
+	}
+	
+	/**
+	 * @return Number of distinct keys
+	 */
+	public int keyCount(){
+		return keys.length;
+	}
+	
+	/**
+	 * @return Number of distinct key-value pairs
+	 */
+	public int size(){
+		return values.length;
+	}
+	
+	/**
+	 * @param k Position of the key (from 0 to {@link #keyCount()})
+	 * @return The key
+	 */
+	public int getKey(int k){
+		return keys[k];
+	}
+	
+	/**
+	 * @param key
+	 * @return The position of the key or -1 if not present
+	 */
+	public int find(int key){
+		int k = Arrays.binarySearch(keys, key);
+		return (k<0) ? -1 : k;
+	}
+	
+	/**
+	 * @param k Position of the key
+	 * @return Position of the first value of the key
+	 */
+	public int start(int k){
+		return offsets[k];
+	}
+	
+	/**
+	 * @param k Position of the key
+	 * @return Position after the last value of the key
+	 */
+	public int end(int k){
+		return offsets[k+1];
+	}
+	
+	public int getValue(int i){
+		return values[i];
+	}
+	
+	/**
+	 * @param key
+	 * @param value
+	 * @return true if the pair is indexed
+	 */
+	public boolean contains(int key, int value){
+		int k = find(key);
+		if(k<0)
+			return false;
+		return Arrays.binarySearch(values, offsets[k], offsets[k+1], value)>=0;
+	}
+}
@@ -0,0 +1,266 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.semanticweb.yars.nx.Node;
+
+/**
+ * Indexes the (incoming and outgoing) edges of nodes over int ids: each
+ * node has a sorted array of edge ids and each edge a sorted array of the
+ * ids of the nodes with it. Node ids follow the natural order of nodes.
+ *
+ * Pairs are added with {@link #add(Node, Edge)} and then the index is
+ * built with {@link #build()}. Nodes can then be removed along with the
+ * edges whose value they are: removed nodes and edges are skipped rather
+ * than rebuilding the arrays, so the index can be reused while nodes are
+ * removed.
+ *
+ * @author ahogan
+ *
+ */
+public class EdgeIndex {
+	// results of subset(a,b)
+	public static final int NOT_SUBSET = -1;
+	public static final int EQUAL = 0;
+	public static final int PROPER_SUBSET = 1;
+
+	private final HashMap<Edge,Integer> edgeIds = new HashMap<Edge,Integer>();
+	private final ArrayList<Edge> edges = new ArrayList<Edge>();
+
+	private final HashMap<Node,Integer> nodeIds = new HashMap<Node,Integer>();
+	private Node[] nodes;
+
+	// pairs of node and edge ids added (before build)
+	private long[] pairs = new long[16];
+	private int pairCount = 0;
+
+	// node id to sorted edge ids, edge id to sorted node ids
+	private int[][] nodeEdges;
+	private int[][] edgeNodes;
+
+	// node id to ids of the edges with the node as value
+	private int[][] valueEdges;
+
+	// edge id to number of nodes (not removed) with it
+	private int[] liveNodes;
+
+	private boolean[] removedNode;
+	private boolean[] removedEdge;
+
+	/**
+	 * Indexes an edge of a node (duplicates are ignored).
+	 */
+	public void add(Node n, Edge e){
+		Integer eid = edgeIds.get(e);
+		if(eid==null){
+			eid = edges.size();
+			edges.add(e);
+			edgeIds.put(e, eid);
+		}
+		Integer nid = nodeIds.get(n);
+		if(nid==null){
+			nid = nodeIds.size();
+			nodeIds.put(n, nid);
+		}
+		if(pairCount==pairs.length){
+			pairs = Arrays.copyOf(pairs, pairs.length*2);
+		}
+		pairs[pairCount++] = CSRIndex.pack(nid, eid);
+	}
+
+	/**
+	 * Builds the arrays from the pairs added; no more pairs should be added.
+	 */
+	public void build(){
+		// renumber nodes in their natural order
+		nodes = nodeIds.keySet().toArray(new Node[nodeIds.size()]);
+		Arrays.sort(nodes);
+		int[] newId = new int[nodes.length];
+		for(int n=0; n<nodes.length; n++){
+			newId[nodeIds.get(nodes[n])] = n;
+			nodeIds.put(nodes[n], n);
+		}
+
+		long[] byEdge = new long[pairCount];
+		for(int i=0; i<pairCount; i++){
+			int n = newId[(int)(pairs[i] >>> 32)];
+			int e = (int)pairs[i];
+			pairs[i] = CSRIndex.pack(n, e);
+			byEdge[i] = CSRIndex.pack(e, n);
+		}
+		nodeEdges = group(pairs, pairCount, nodes.length);
+		edgeNodes = group(byEdge, pairCount, edges.size());
+		pairs = null;
+
+		liveNodes = new int[edges.size()];
+		int[] values = new int[nodes.length];
+		for(int e=0; e<edges.size(); e++){
+			liveNodes[e] = edgeNodes[e].length;
+			Integer v = nodeIds.get(edges.get(e).value);
+			if(v!=null) values[v]++;
+		}
+		valueEdges = new int[nodes.length][];
+		for(int n=0; n<nodes.length; n++){
+			valueEdges[n] = new int[values[n]];
+			values[n] = 0;
+		}
+		for(int e=0; e<edges.size(); e++){
+			Integer v = nodeIds.get(edges.get(e).value);
+			if(v!=null) valueEdges[v][values[v]++] = e;
+		}
+
+		removedNode = new boolean[nodes.length];
+		removedEdge = new boolean[edges.size()];
+	}
+
+	/**
+	 * Groups sorted pairs by key into sorted arrays of distinct values.
+	 */
+	private static int[][] group(long[] pairs, int length, int keys){
+		Arrays.sort(pairs, 0, length);
+		int[][] groups = new int[keys][];
+		int i = 0;
+		for(int k=0; k<keys; k++){
+			int start = i, count = 0;
+			for(; i<length && (int)(pairs[i] >>> 32)==k; i++){
+				if(i==start || pairs[i]!=pairs[i-1]) count++;
+			}
+			groups[k] = new int[count];
+			count = 0;
+			for(int j=start; j<i; j++){
+				if(j==start || pairs[j]!=pairs[j-1]) groups[k][count++] = (int)pairs[j];
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @return The id of the node or -1 if it has no edges
+	 */
+	public int nodeId(Node n){
+		Integer id = nodeIds.get(n);
+		return (id==null) ? -1 : id;
+	}
+
+	public Node getNode(int n){
+		return nodes[n];
+	}
+
+	/**
+	 * @return The number of nodes
+	 */
+	public int nodeCount(){
+		return nodes.length;
+	}
+
+	/**
+	 * @return The id of the edge or -1 if no node has it
+	 */
+	public int edgeId(Edge e){
+		Integer id = edgeIds.get(e);
+		return (id==null) ? -1 : id;
+	}
+
+	public Edge getEdge(int e){
+		return edges.get(e);
+	}
+
+	/**
+	 * @return The sorted ids of the edges of the node (including removed edges)
+	 */
+	public int[] getEdges(int n){
+		return nodeEdges[n];
+	}
+
+	/**
+	 * Replaces the edges of a node (e.g., when it loses edges); the node is
+	 * still listed for the edges it had.
+	 * @param n
+	 * @param edges Sorted edge ids
+	 */
+	public void setEdges(int n, int[] edges){
+		nodeEdges[n] = edges;
+	}
+
+	/**
+	 * @return The sorted ids of the nodes with the edge (including removed nodes)
+	 */
+	public int[] getNodes(int e){
+		return edgeNodes[e];
+	}
+
+	/**
+	 * @return The number of nodes not removed with the edge
+	 */
+	public int liveCount(int e){
+		return liveNodes[e];
+	}
+
+	public boolean isRemoved(int n){
+		return removedNode[n];
+	}
+
+	public boolean isRemovedEdge(int e){
+		return removedEdge[e];
+	}
+
+	/**
+	 * Removes a node: its edges and the edges with it as value.
+	 */
+	public void remove(int n){
+		if(removedNode[n]){
+			return;
+		}
+		removedNode[n] = true;
+		for(int e:nodeEdges[n]){
+			liveNodes[e]--;
+		}
+		for(int e:valueEdges[n]){
+			removedEdge[e] = true;
+		}
+	}
+
+	/**
+	 * @return The edge of the node (not removed) with the fewest nodes, or -1 if none
+	 */
+	public int getMostSelective(int[] edges){
+		int min = -1;
+		for(int e:edges){
+			if(!removedEdge[e] && (min<0 || liveNodes[e]<liveNodes[min])){
+				min = e;
+				if(liveNodes[e]==1){
+					break;
+				}
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Compares two sorted arrays of edge ids, ignoring removed edges. Does
+	 * not allocate.
+	 *
+	 * @return {@link #EQUAL}, {@link #PROPER_SUBSET} if a is a proper subset of b, or {@link #NOT_SUBSET}
+	 */
+	public int subset(int[] a, int[] b){
+		int i = 0, j = 0;
+		boolean proper = false;
+		while(true){
+			while(i<a.length && removedEdge[a[i]]) i++;
+			while(j<b.length && removedEdge[b[j]]) j++;
+			if(i==a.length){
+				return (proper || j<b.length) ? PROPER_SUBSET : EQUAL;
+			} else if(j==b.length || a[i]<b[j]){
+				return NOT_SUBSET;
+			} else if(a[i]==b[j]){
+				i++;
+				j++;
+			} else{
+				proper = true;
+				j++;
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * An append-only table of int rows stored by column in fixed-size
+ * blocks. Blocks are kept in memory until the table exceeds its budget,
+ * at which point the blocks in memory (and every block filled afterwards)
+ * are written to a temporary file; rows are always read back in the order
+ * they were added.
+ *
+ * Rows are added with {@link #add(int[])}; once all rows are added,
+ * {@link #cursor()} reads the table block by block, so reading a spilled
+ * table only holds one block in memory.
+ *
+ * @author ahogan
+ *
+ */
+public class IntTable implements Closeable {
+	// rows per block
+	public static final int BLOCK_ROWS = 4096;
+
+	// size of buffer for reading/writing spilled blocks
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final int width;
+	private final long budget;
+	private final File tmpDir;
+
+	// full blocks held in memory
+	private final ArrayList<Block> blocks = new ArrayList<Block>();
+
+	// block being filled
+	private Block current;
+
+	private long rows = 0;
+
+	// spilled blocks
+	private File spillFile = null;
+	private DataOutputStream spillOut = null;
+
+	/**
+	 * @param width Number of columns
+	 * @param budget Approximate number of bytes of rows to hold in memory
+	 * @param tmpDir Directory for spilled blocks (null for system default)
+	 */
+	public IntTable(int width, long budget, File tmpDir){
+		this.width = width;
+		this.budget = budget;
+		this.tmpDir = tmpDir;
+		this.current = new Block(width);
+	}
+
+	/**
+	 * Adds a row (only the first {@link #width()} values are read).
+	 * @param row
+	 * @throws IOException
+	 */
+	public void add(int[] row) throws IOException{
+		if(current.size==BLOCK_ROWS){
+			blocks.add(current);
+			current = new Block(width);
+			if(spillOut!=null || memoryBytes()>budget){
+				spill();
+			}
+		}
+		for(int c=0; c<width; c++){
+			current.cols[c][current.size] = row[c];
+		}
+		current.size++;
+		rows++;
+	}
+
+	/**
+	 * @return Number of rows added
+	 */
+	public long size(){
+		return rows;
+	}
+
+	/**
+	 * @return Number of columns
+	 */
+	public int width(){
+		return width;
+	}
+
+	/**
+	 * @return true if some blocks were written to disk
+	 */
+	public boolean isSpilled(){
+		return spillFile!=null;
+	}
+
+	private long memoryBytes(){
+		return (blocks.size()+1L) * BLOCK_ROWS * width * 4L;
+	}
+
+	private void spill() throws IOException{
+		if(spillOut==null){
+			spillFile = File.createTempFile("blabel-table", ".bin", tmpDir);
+			spillFile.deleteOnExit();
+			spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE));
+		}
+		for(Block b:blocks){
+			spillOut.writeInt(b.size);
+			for(int c=0; c<width; c++){
+				for(int r=0; r<b.size; r++){
+					spillOut.writeInt(b.cols[c][r]);
+				}
+			}
+		}
+		blocks.clear();
+	}
+
+	/**
+	 * Reads the rows added so far, block by block. No more rows should
+	 * be added after calling this method.
+	 * @return A cursor over the blocks of the table
+	 * @throws IOException
+	 */
+	public Cursor cursor() throws IOException{
+		if(spillOut!=null){
+			spillOut.close();
+			spillOut = null;
+		}
+		return new Cursor();
+	}
+
+	/**
+	 * Deletes the spilled blocks, if any.
+	 */
+	public void close() throws IOException{
+		if(spillOut!=null){
+			spillOut.close();
+			spillOut = null;
+		}
+		if(spillFile!=null){
+			spillFile.delete();
+		}
+		blocks.clear();
+	}
+
+	/**
+	 * A block of rows stored by column.
+	 */
+	public static class Block {
+		private final int[][] cols;
+		private int size = 0;
+
+		private Block(int width){
+			cols = new int[width][BLOCK_ROWS];
+		}
+
+		/**
+		 * @return Number of rows in the block
+		 */
+		public int size(){
+			return size;
+		}
+
+		/**
+		 * @param col
+		 * @return The column (only the first {@link #size()} values are rows)
+		 */
+		public int[] column(int col){
+			return cols[col];
+		}
+
+		/**
+		 * @param col
+		 * @param row
+		 * @return The value at the given column and row of the block
+		 */
+		public int get(int col, int row){
+			return cols[col][row];
+		}
+	}
+
+	/**
+	 * Reads the blocks of a table in order: first those spilled, then
+	 * those in memory.
+	 */
+	public class Cursor implements Closeable {
+		private DataInputStream in = null;
+		private Block buffer = null;
+		private int next = 0;
+
+		private Cursor() throws IOException{
+			if(spillFile!=null){
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), BUFFER_SIZE));
+				buffer = new Block(width);
+			}
+		}
+
+		/**
+		 * @return The next block or null if none remain; a block read from
+		 * disk is overwritten by the next call
+		 * @throws IOException
+		 */
+		public Block next() throws IOException{
+			if(in!=null){
+				int size;
+				try{
+					size = in.readInt();
+				} catch(EOFException e){
+					size = -1;
+				}
+				if(size>=0){
+					buffer.size = size;
+					for(int c=0; c<width; c++){
+						for(int r=0; r<size; r++){
+							buffer.cols[c][r] = in.readInt();
+						}
+					}
+					return buffer;
+				}
+				in.close();
+				in = null;
+			}
+			if(next<blocks.size()){
+				return blocks.get(next++);
+			} else if(next==blocks.size()){
+				next++;
+				if(current.size>0)
+					return current;
+			}
+			return null;
+		}
+
+		public void close() throws IOException{
+			if(in!=null){
+				in.close();
+				in = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.semanticweb.yars.nx.Node;
+
+/**
+ * Encodes nodes as consecutive integer ids (from 0) so that indexes
+ * can be stored as int arrays.
+ * 
+ * @author ahogan
+ *
+ */
+public class NodeDictionary {
+	private final HashMap<Node,Integer> ids;
+	private final ArrayList<Node> nodes;
+	
+	public NodeDictionary(){
+		ids = new HashMap<Node,Integer>();
+		nodes = new ArrayList<Node>();
+	}
+	
+	/**
+	 * @param n
+	 * @return The id of the node, assigning the next id if new
+	 */
+	public int encode(Node n){
+		Integer id = ids.get(n);
+		if(id==null){
+			id = nodes.size();
+			ids.put(n, id);
+			nodes.add(n);
+		}
+		return id;
+	}
+	
+	/**
+	 * @param n
+	 * @return The id of the node or -1 if not encoded
+	 */
+	public int getId(Node n){
+		Integer id = ids.get(n);
+		return (id==null) ? -1 : id;
+	}
+	
+	public Node getNode(int id){
+		return nodes.get(id);
+	}
+	
+	public int size(){
+		return nodes.size();
+	}
+}
@@ -0,0 +1,185 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of nogoods: bindings of some variables (the scope of
+ * the nogood) to nodes that are known not to extend to a solution. Both
+ * variables and nodes are ints (e.g., dictionary ids). Nogoods are keyed
+ * on their scope, and a scope is listed with each of its variables, so
+ * the nogoods an assignment may meet when a variable is bound can be
+ * looked up directly.
+ *
+ * When full, the least recently added or met nogood is evicted. Scopes
+ * are never evicted, but no nogoods are added with a new scope once
+ * there are {@link #getMaxScopes()} of them (the number of scopes bounds
+ * the cost of a lookup).
+ *
+ * Not thread-safe.
+ *
+ * @author ahogan
+ *
+ */
+public class NogoodCache {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	public static final int DEFAULT_MAX_SCOPES = 1 << 10;
+
+	private final int capacity;
+	private final int maxScopes;
+
+	// variable to the scopes (sorted variables) it appears in
+	private final int[][][] varScopes;
+	private final int[] varScopeCount;
+	private final HashSet<Key> scopes = new HashSet<Key>();
+
+	// nogoods in least recently used order
+	private final LinkedHashMap<Key,Key> nogoods;
+
+	// re-used for lookups
+	private final Key probe = new Key();
+
+	private long hits;
+
+	public NogoodCache(int vars){
+		this(vars, DEFAULT_CAPACITY, DEFAULT_MAX_SCOPES);
+	}
+
+	/**
+	 * @param vars Number of variables
+	 * @param capacity Maximum number of nogoods
+	 * @param maxScopes Maximum number of distinct scopes
+	 */
+	public NogoodCache(int vars, final int capacity, int maxScopes){
+		this.capacity = capacity;
+		this.maxScopes = maxScopes;
+		varScopes = new int[vars][][];
+		varScopeCount = new int[vars];
+		nogoods = new LinkedHashMap<Key,Key>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key,Key> eldest){
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Adds a nogood.
+	 * @param scope The variables of the nogood (sorted)
+	 * @param assignment The nodes bound to the variables (indexed by variable)
+	 * @return false if the nogood was not added (too many scopes)
+	 */
+	public boolean add(int[] scope, int[] assignment){
+		Key s = new Key(scope, null);
+		if(!scopes.contains(s)){
+			if(scopes.size()>=maxScopes){
+				return false;
+			}
+			scopes.add(s);
+			for(int v:scope){
+				if(varScopes[v]==null){
+					varScopes[v] = new int[4][];
+				} else if(varScopes[v].length==varScopeCount[v]){
+					varScopes[v] = Arrays.copyOf(varScopes[v], varScopeCount[v]*2);
+				}
+				varScopes[v][varScopeCount[v]++] = s.vars;
+			}
+		}
+		Key k = new Key(scope, assignment);
+		nogoods.put(k, k);
+		return true;
+	}
+
+	/**
+	 * Looks for a nogood met by the assignment with the variable in its
+	 * scope (all variables of the scope must be bound).
+	 * @param v A variable just bound
+	 * @param assignment The nodes bound to the variables (indexed by variable; -1 if unbound)
+	 * @return The scope of such a nogood, or null if none
+	 */
+	public int[] find(int v, int[] assignment){
+		for(int i=0; i<varScopeCount[v]; i++){
+			int[] scope = varScopes[v][i];
+			boolean bound = true;
+			for(int j=0; j<scope.length && bound; j++){
+				bound = assignment[scope[j]]>=0;
+			}
+			if(bound){
+				probe.set(scope, assignment);
+				if(nogoods.get(probe)!=null){
+					hits++;
+					return scope;
+				}
+			}
+		}
+		return null;
+	}
+
+	public int size(){
+		return nogoods.size();
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public int getMaxScopes(){
+		return maxScopes;
+	}
+
+	/**
+	 * @return Number of times a nogood was met [for statistics]
+	 */
+	public long getHits(){
+		return hits;
+	}
+
+	/**
+	 * A scope and the nodes bound to its variables (if any).
+	 */
+	private static final class Key {
+		private int[] vars;
+		private int[] nodes;
+		private int hash;
+
+		Key(){
+		}
+
+		Key(int[] scope, int[] assignment){
+			// (the nodes are copied by set)
+			set(scope.clone(), assignment);
+		}
+
+		void set(int[] scope, int[] assignment){
+			vars = scope;
+			if(assignment==null){
+				nodes = null;
+				hash = Arrays.hashCode(scope);
+				return;
+			}
+			if(nodes==null || nodes.length!=scope.length){
+				nodes = new int[scope.length];
+			}
+			for(int i=0; i<scope.length; i++){
+				nodes[i] = assignment[scope[i]];
+			}
+			hash = 31 * Arrays.hashCode(scope) + Arrays.hashCode(nodes);
+		}
+
+		public int hashCode(){
+			return hash;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key)){
+				return false;
+			}
+			Key k = (Key)o;
+			return hash==k.hash && Arrays.equals(vars, k.vars) && Arrays.equals(nodes, k.nodes);
+		}
+	}
+}
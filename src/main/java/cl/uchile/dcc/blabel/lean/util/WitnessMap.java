@@ -0,0 +1,98 @@
+package cl.uchile.dcc.blabel.lean.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+
+/**
+ * A witness mapping built up from blank nodes mapped to other nodes, where
+ * the node mapped to may itself be mapped later (e.g., a trivially non-lean
+ * blank node is mapped to a blank node with a superset of its edges, which
+ * is found to be non-lean in a later round).
+ *
+ * Each blank node points to the node it was mapped to, as in a union-find
+ * forest: {@link #resolve(Node)} follows the chain to a node that is not
+ * mapped and compresses the path, so chains are resolved in near-constant
+ * amortised time. A mapping that would close a cycle is rejected.
+ *
+ * @author ahogan
+ *
+ */
+public class WitnessMap {
+	private final HashMap<BNode,Node> parent = new HashMap<BNode,Node>();
+
+	/**
+	 * Maps a blank node (not yet mapped) to a node.
+	 * @param b
+	 * @param n
+	 * @return false if the mapping would close a cycle (and was not added)
+	 */
+	public boolean put(BNode b, Node n){
+		if(resolve(n).equals(b)){
+			return false;
+		}
+		parent.put(b, n);
+		return true;
+	}
+
+	/**
+	 * @return The node at the end of the chain of the given node (the node
+	 * itself if not mapped)
+	 */
+	public Node resolve(Node n){
+		Node root = n;
+		Node next;
+		while((next = parent.get(root))!=null){
+			root = next;
+		}
+		// compress the path
+		while(!n.equals(root)){
+			next = parent.put((BNode)n, root);
+			n = next;
+		}
+		return root;
+	}
+
+	public boolean containsKey(Node n){
+		return parent.containsKey(n);
+	}
+
+	public Set<BNode> keySet(){
+		return parent.keySet();
+	}
+
+	public int size(){
+		return parent.size();
+	}
+
+	public boolean isEmpty(){
+		return parent.isEmpty();
+	}
+
+	/**
+	 * @return Each blank node mapped to the end of its chain
+	 */
+	public HashMap<BNode,Node> toMap(){
+		return compose(new HashMap<BNode,Node>());
+	}
+
+	/**
+	 * Composes the mapping with a mapping of the nodes at the ends of
+	 * the chains (e.g., a homomorphism of the rest of the data).
+	 *
+	 * @param then A mapping applied once to the end of each chain (nodes not in the map are mapped to themselves)
+	 * @return A copy of then with each blank node in this map mapped to the image under then of the end of its chain
+	 */
+	public HashMap<BNode,Node> compose(Map<BNode,Node> then){
+		HashMap<BNode,Node> map = new HashMap<BNode,Node>(then);
+		for(BNode b:parent.keySet().toArray(new BNode[parent.size()])){
+			Node root = resolve(b);
+			Node mapped = (root instanceof BNode) ? then.get(root) : null;
+			map.put(b, (mapped==null) ? root : mapped);
+		}
+		return map;
+	}
+}
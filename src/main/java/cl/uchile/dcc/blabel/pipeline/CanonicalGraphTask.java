@@ -0,0 +1,119 @@
+package cl.uchile.dcc.blabel.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.label.GraphLabelling;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingResult;
+import cl.uchile.dcc.blabel.label.util.GraphLabelIterator;
+import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.pipeline.CanonicalGraphTask.CanonicalGraphResult;
+
+/**
+ * Leans (optionally) and labels a single graph, mapping the canonical
+ * labels to IRIs or blank nodes with a prefix. A graph without blank
+ * nodes is returned as is.
+ *
+ * @author ahogan
+ *
+ */
+public class CanonicalGraphTask implements Callable<CanonicalGraphResult>{
+	private final Collection<Node[]> triples;
+	private final boolean lean;
+	private final GraphLabellingArgs labelArgs;
+	private final String prefix;
+	private final boolean writeBnode;
+
+	/**
+	 * @param triples The input graph
+	 * @param lean Lean the graph before labelling
+	 * @param labelArgs Arguments for labelling
+	 * @param prefix Prefix for the canonical labels (e.g., a skolem prefix)
+	 * @param writeBnode Write labels as blank nodes (otherwise IRIs)
+	 */
+	public CanonicalGraphTask(Collection<Node[]> triples, boolean lean, GraphLabellingArgs labelArgs, String prefix, boolean writeBnode){
+		this.triples = triples;
+		this.lean = lean;
+		this.labelArgs = labelArgs;
+		this.prefix = prefix;
+		this.writeBnode = writeBnode;
+	}
+
+	public CanonicalGraphResult call() throws Exception {
+		CanonicalGraphResult res = new CanonicalGraphResult();
+		if(!hasBnodes(triples)){
+			res.triples = triples;
+			return res;
+		}
+
+		Collection<Node[]> data = triples;
+		if(lean){
+			GraphLeaningResult glr = new DFSGraphLeaning(data).call();
+			res.removed = data.size() - glr.getLeanData().size();
+			data = glr.getLeanData();
+		}
+
+		GraphLabellingResult glr = new GraphLabelling(data, labelArgs).call();
+		ArrayList<Node[]> canon = new ArrayList<Node[]>(glr.getGraph().size());
+		GraphLabelIterator gli = new GraphLabelIterator(glr.getGraph().iterator(), prefix, writeBnode);
+		while(gli.hasNext()){
+			canon.add(gli.next());
+		}
+		res.triples = canon;
+		res.labelling = glr;
+		return res;
+	}
+
+	private static boolean hasBnodes(Collection<Node[]> triples){
+		for(Node[] t:triples){
+			if(t[0] instanceof BNode || t[2] instanceof BNode){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static class CanonicalGraphResult{
+		private Collection<Node[]> triples;
+		private GraphLabellingResult labelling = null;
+		private int removed = 0;
+
+		private CanonicalGraphResult(){
+			;
+		}
+
+		/**
+		 * @return The canonical graph (the input graph if it had no blank nodes)
+		 */
+		public Collection<Node[]> getGraph(){
+			return triples;
+		}
+
+		/**
+		 * @return The details of the labelling, or null if the graph had no blank nodes
+		 */
+		public GraphLabellingResult getLabellingResult(){
+			return labelling;
+		}
+
+		/**
+		 * @return true if the input graph had blank nodes
+		 */
+		public boolean hasBnodes(){
+			return labelling != null;
+		}
+
+		/**
+		 * @return The number of triples removed by leaning
+		 */
+		public int getLeanedTripleCount(){
+			return removed;
+		}
+	}
+}
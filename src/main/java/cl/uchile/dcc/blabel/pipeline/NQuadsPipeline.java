@@ -0,0 +1,445 @@
+package cl.uchile.dcc.blabel.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Nodes;
+import org.semanticweb.yars.nx.parser.Callback;
+
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.pipeline.CanonicalGraphTask.CanonicalGraphResult;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline.NQuadsPipelineResult;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool.DeadlineFuture;
+
+/**
+ * Canonicalises the named graphs in a stream of N-Quads using three stages:
+ *
+ * (1) a reader thread groups consecutive statements with the same context
+ *   into documents (statements without a context form documents of the
+ *   default graph);
+ * (2) a pool of workers (optionally) lean and label documents concurrently,
+ *   each with a timeout counted from when the worker starts on it;
+ * (3) the calling thread writes the canonical statements of each document
+ *   in input order.
+ *
+ * At most a fixed number of documents are in flight between reading and
+ * writing (the reader blocks when the limit is reached), which bounds
+ * memory use.
+ *
+ * Documents that time out or fail are written unchanged (unless
+ * configured otherwise) and counted in the result.
+ *
+ * @author ahogan
+ *
+ */
+public class NQuadsPipeline implements Callable<NQuadsPipelineResult>{
+	static final Logger LOG = Logger.getLogger(NQuadsPipeline.class.getSimpleName());
+
+	public static int TICKS = 100000;
+
+	private final Iterator<Node[]> in;
+	private final Callback out;
+	private final NQuadsPipelineArgs args;
+
+	// documents in flight in input order
+	private BlockingQueue<PendingDocument> pending;
+
+	// set if the reader fails
+	private volatile Throwable readerError = null;
+
+	public NQuadsPipeline(Iterator<Node[]> in, Callback out){
+		this(in, out, new NQuadsPipelineArgs());
+	}
+
+	public NQuadsPipeline(Iterator<Node[]> in, Callback out, NQuadsPipelineArgs args){
+		this.in = in;
+		this.out = out;
+		this.args = args;
+	}
+
+	public NQuadsPipelineResult call() throws InterruptedException {
+		long b4 = System.currentTimeMillis();
+
+		NQuadsPipelineResult res = new NQuadsPipelineResult();
+
+		pending = new ArrayBlockingQueue<PendingDocument>(args.queue);
+		WorkerPool workers = new WorkerPool(args.threads);
+
+		Thread reader = new Thread(new Reader(workers, res), "blabel-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		try{
+			write(res);
+		} finally{
+			reader.interrupt();
+			workers.shutdown();
+		}
+
+		reader.join();
+		if(readerError!=null){
+			throw new RuntimeException("Error reading input", readerError);
+		}
+
+		res.setDuration(System.currentTimeMillis() - b4);
+		return res;
+	}
+
+	/**
+	 * Writes documents in input order as they complete.
+	 * @param res
+	 * @throws InterruptedException
+	 */
+	private void write(NQuadsPipelineResult res) throws InterruptedException{
+		while(true){
+			PendingDocument pd = pending.take();
+			if(pd.doc == null){
+				return;
+			}
+
+			Collection<Node[]> output = null;
+			try{
+				CanonicalGraphResult cgr = pd.future.get();
+				output = cgr.getGraph();
+				if(cgr.hasBnodes()){
+					res.bnodeDocs++;
+				}
+				res.removed += cgr.getLeanedTripleCount();
+			} catch(CancellationException e){
+				if(pd.future.isTimedOut()){
+					res.timeouts++;
+					LOG.warning("Timeout processing document "+pd.doc.context+" with "+pd.doc.triples.size()+" statements");
+				} else{
+					res.failures++;
+					LOG.warning("Processing of document "+pd.doc.context+" was cancelled");
+				}
+			} catch(ExecutionException e){
+				res.failures++;
+				LOG.warning("Error processing document "+pd.doc.context+": "+e.getCause());
+			}
+
+			if(output == null && args.writeFailed){
+				output = pd.doc.triples;
+			}
+
+			if(output != null){
+				for(Node[] triple:output){
+					out.processStatement(pd.doc.toStatement(triple));
+					res.written++;
+				}
+			}
+
+			res.docs++;
+			if(res.docs % TICKS == 0){
+				LOG.info("Written "+res.docs+" documents and "+res.written+" statements");
+			}
+		}
+	}
+
+	/**
+	 * Groups statements into documents and submits them.
+	 */
+	private class Reader implements Runnable{
+		private final WorkerPool workers;
+		private final NQuadsPipelineResult res;
+
+		Reader(WorkerPool workers, NQuadsPipelineResult res){
+			this.workers = workers;
+			this.res = res;
+		}
+
+		public void run() {
+			try{
+				Document doc = null;
+				while(in.hasNext()){
+					Node[] stmt = in.next();
+					if(stmt.length<3){
+						LOG.warning("Not a triple or quad "+Nodes.toN3(stmt));
+						continue;
+					}
+					res.read++;
+
+					Node context = stmt.length>3 ? stmt[3] : null;
+					if(doc==null || !doc.sameContext(context)){
+						if(doc!=null){
+							submit(doc);
+						}
+						doc = new Document(context);
+					}
+					doc.add(stmt);
+				}
+				if(doc!=null){
+					submit(doc);
+				}
+				pending.put(new PendingDocument(null, null));
+			} catch(InterruptedException e){
+				// writer stopped
+			} catch(Throwable t){
+				readerError = t;
+				// stop the writer
+				pending.clear();
+				pending.offer(new PendingDocument(null, null));
+			}
+		}
+
+		private void submit(Document doc) throws InterruptedException{
+			CanonicalGraphTask task = new CanonicalGraphTask(doc.triples, args.lean, args.labelArgs, args.prefix, args.writeBnode);
+			DeadlineFuture<CanonicalGraphResult> future = workers.submit(task, args.timeout, TimeUnit.MILLISECONDS);
+
+			// blocks if too many documents in flight
+			pending.put(new PendingDocument(doc, future));
+		}
+	}
+
+	private static class Document{
+		private final Node context;
+		private final ArrayList<Node[]> triples = new ArrayList<Node[]>();
+
+		Document(Node context){
+			this.context = context;
+		}
+
+		boolean sameContext(Node c){
+			return context==null ? c==null : context.equals(c);
+		}
+
+		void add(Node[] stmt){
+			triples.add(new Node[]{ stmt[0], stmt[1], stmt[2] });
+		}
+
+		Node[] toStatement(Node[] triple){
+			if(context==null){
+				return triple;
+			}
+			return new Node[]{ triple[0], triple[1], triple[2], context };
+		}
+	}
+
+	private static class PendingDocument{
+		private final Document doc;
+		private final DeadlineFuture<CanonicalGraphResult> future;
+
+		PendingDocument(Document doc, DeadlineFuture<CanonicalGraphResult> future){
+			this.doc = doc;
+			this.future = future;
+		}
+	}
+
+	public static class NQuadsPipelineArgs{
+		public static int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+		public static long DEFAULT_TIMEOUT = 0;
+		public static int DEFAULT_QUEUE_PER_THREAD = 16;
+		public static boolean DEFAULT_LEAN = false;
+		public static boolean DEFAULT_WRITE_FAILED = true;
+
+		private int threads = DEFAULT_THREADS;
+
+		// in ms, 0 for none
+		private long timeout = DEFAULT_TIMEOUT;
+
+		// maximum documents in flight
+		private int queue = DEFAULT_QUEUE_PER_THREAD * DEFAULT_THREADS;
+
+		private boolean lean = DEFAULT_LEAN;
+
+		private boolean writeFailed = DEFAULT_WRITE_FAILED;
+
+		private GraphLabellingArgs labelArgs = new GraphLabellingArgs();
+
+		private String prefix = "";
+
+		private boolean writeBnode = false;
+
+		public NQuadsPipelineArgs(){
+
+		}
+
+		/**
+		 * Set the number of worker threads (also resets the number
+		 * of documents in flight to a default for that many threads).
+		 * @param threads
+		 */
+		public void setThreads(int threads){
+			if(threads<1){
+				throw new IllegalArgumentException("Need at least one thread, not "+threads);
+			}
+			this.threads = threads;
+			this.queue = DEFAULT_QUEUE_PER_THREAD * threads;
+		}
+
+		public int getThreads(){
+			return threads;
+		}
+
+		/**
+		 * Set the timeout for processing each document in ms
+		 * (0 for no timeout).
+		 * @param timeout
+		 */
+		public void setTimeout(long timeout){
+			this.timeout = timeout;
+		}
+
+		public long getTimeout(){
+			return timeout;
+		}
+
+		/**
+		 * Set the maximum number of documents read but not yet written.
+		 * @param queue
+		 */
+		public void setQueueSize(int queue){
+			if(queue<1){
+				throw new IllegalArgumentException("Queue size must be positive, not "+queue);
+			}
+			this.queue = queue;
+		}
+
+		public int getQueueSize(){
+			return queue;
+		}
+
+		/**
+		 * Lean documents before labelling.
+		 * @param lean
+		 */
+		public void setLean(boolean lean){
+			this.lean = lean;
+		}
+
+		public boolean getLean(){
+			return lean;
+		}
+
+		/**
+		 * If true, documents that time out or fail are written
+		 * unchanged, otherwise they are dropped.
+		 * @param writeFailed
+		 */
+		public void setWriteFailed(boolean writeFailed){
+			this.writeFailed = writeFailed;
+		}
+
+		public boolean getWriteFailed(){
+			return writeFailed;
+		}
+
+		public void setLabellingArgs(GraphLabellingArgs labelArgs){
+			this.labelArgs = labelArgs;
+		}
+
+		public GraphLabellingArgs getLabellingArgs(){
+			return labelArgs;
+		}
+
+		/**
+		 * Set the prefix added to canonical labels
+		 * (e.g., a skolem prefix).
+		 * @param prefix
+		 */
+		public void setPrefix(String prefix){
+			this.prefix = prefix;
+		}
+
+		public String getPrefix(){
+			return prefix;
+		}
+
+		/**
+		 * Write canonical labels as blank nodes (otherwise as IRIs).
+		 * @param writeBnode
+		 */
+		public void setWriteBnode(boolean writeBnode){
+			this.writeBnode = writeBnode;
+		}
+
+		public boolean getWriteBnode(){
+			return writeBnode;
+		}
+	}
+
+	public static class NQuadsPipelineResult{
+		private long read = 0;
+		private long written = 0;
+		private long docs = 0;
+		private long bnodeDocs = 0;
+		private long removed = 0;
+		private long timeouts = 0;
+		private long failures = 0;
+		private long duration = 0;
+
+		private NQuadsPipelineResult(){
+			;
+		}
+
+		private void setDuration(long duration){
+			this.duration = duration;
+		}
+
+		/**
+		 * @return Number of input statements read
+		 */
+		public long getStatementsRead(){
+			return read;
+		}
+
+		/**
+		 * @return Number of output statements written
+		 */
+		public long getStatementsWritten(){
+			return written;
+		}
+
+		/**
+		 * @return Number of documents processed
+		 */
+		public long getDocumentCount(){
+			return docs;
+		}
+
+		/**
+		 * @return Number of documents with blank nodes
+		 * that were processed successfully
+		 */
+		public long getBnodeDocumentCount(){
+			return bnodeDocs;
+		}
+
+		/**
+		 * @return Number of triples removed by leaning
+		 */
+		public long getLeanedTripleCount(){
+			return removed;
+		}
+
+		/**
+		 * @return Number of documents that timed out
+		 */
+		public long getTimeoutCount(){
+			return timeouts;
+		}
+
+		/**
+		 * @return Number of documents that failed with an exception
+		 */
+		public long getFailureCount(){
+			return failures;
+		}
+
+		/**
+		 * @return Total time in ms
+		 */
+		public long getDuration(){
+			return duration;
+		}
+	}
+}
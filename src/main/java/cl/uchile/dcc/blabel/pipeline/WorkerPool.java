@@ -0,0 +1,238 @@
+package cl.uchile.dcc.blabel.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived pool of worker threads for running tasks with deadlines.
+ *
+ * The deadline of a task starts when a worker starts running it (not when
+ * it is submitted). When the deadline is reached, a watchdog cancels the
+ * task, interrupting its worker; tasks are expected to check for
+ * interrupts (as leaning and labelling do) and the worker thread is then
+ * reused for the next task rather than discarded.
+ *
+ * Threads are daemons and idle threads time out, so a pool that is no
+ * longer used does not keep the JVM alive or hold threads.
+ *
+ * @author ahogan
+ *
+ */
+public class WorkerPool {
+	// idle time after which threads are released
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	// purge cancelled deadlines from the watchdog queue
+	// every so many tasks
+	private static final int PURGE_INTERVAL = 10000;
+
+	private static final AtomicInteger POOLS = new AtomicInteger();
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor watchdog;
+
+	private final AtomicInteger finished = new AtomicInteger();
+
+	/**
+	 * Creates a pool with a fixed number of threads and no bound on waiting tasks.
+	 * @param threads
+	 */
+	public WorkerPool(int threads){
+		this(threads, new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Creates a pool with a fixed number of threads and a bound on the
+	 * number of waiting tasks: further submissions throw a
+	 * {@link RejectedExecutionException}.
+	 * @param threads
+	 * @param queue
+	 */
+	public WorkerPool(int threads, int queue){
+		this(threads, new ArrayBlockingQueue<Runnable>(queue));
+	}
+
+	private WorkerPool(int threads, BlockingQueue<Runnable> queue){
+		if(threads<1){
+			throw new IllegalArgumentException("Need at least one thread, not "+threads);
+		}
+		String name = "blabel-pool-"+POOLS.incrementAndGet();
+		workers = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new DaemonThreadFactory(name+"-worker-"));
+		workers.allowCoreThreadTimeOut(true);
+		watchdog = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(name+"-watchdog-"));
+	}
+
+	/**
+	 * Submits a task to be run with a deadline.
+	 * @param task
+	 * @param timeout The maximum time to run the task (0 for no limit)
+	 * @param unit
+	 * @return A future that is cancelled if the deadline is reached
+	 *   (see {@link DeadlineFuture#isTimedOut()})
+	 * @throws RejectedExecutionException if the pool is bounded and full or is shut down
+	 */
+	public <E> DeadlineFuture<E> submit(Callable<E> task, long timeout, TimeUnit unit){
+		DeadlineFuture<E> future = new DeadlineFuture<E>(task, timeout, unit);
+		workers.execute(future);
+		return future;
+	}
+
+	/**
+	 * Runs a task with a deadline and waits for the result. If the
+	 * deadline is reached, waits for the task to stop before returning
+	 * (so the worker is free for the next task, e.g., for benchmarks).
+	 * @param task
+	 * @param timeout The maximum time to run the task (0 for no limit)
+	 * @param unit
+	 * @return The result of the task
+	 * @throws InterruptedException if the calling thread is interrupted (the task is cancelled)
+	 * @throws ExecutionException if the task throws an exception
+	 * @throws TimeoutException if the deadline is reached (the task is cancelled)
+	 */
+	public <E> E run(Callable<E> task, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException{
+		DeadlineFuture<E> future = submit(task, timeout, unit);
+		try{
+			return future.get();
+		} catch(CancellationException e){
+			if(future.isTimedOut()){
+				future.awaitStopped();
+				throw new TimeoutException("Task did not finish in "+timeout+" "+unit.toString().toLowerCase());
+			}
+			throw e;
+		} catch(InterruptedException e){
+			future.cancel(true);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The number of tasks running or waiting to run
+	 */
+	public int getPendingCount(){
+		return workers.getActiveCount() + workers.getQueue().size();
+	}
+
+	/**
+	 * @return The number of tasks that may be running or waiting before
+	 *   submissions are rejected
+	 */
+	public int getCapacity(){
+		long capacity = (long)workers.getMaximumPoolSize() + workers.getQueue().size() + workers.getQueue().remainingCapacity();
+		return (int)Math.min(capacity, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return The number of worker threads
+	 */
+	public int getThreads(){
+		return workers.getMaximumPoolSize();
+	}
+
+	/**
+	 * Cancels running and waiting tasks and releases the threads.
+	 */
+	public void shutdown(){
+		workers.shutdownNow();
+		watchdog.shutdownNow();
+	}
+
+	/**
+	 * Waits for workers to stop after {@link #shutdown()}.
+	 * @param timeout
+	 * @param unit
+	 * @return true if stopped, false if the timeout was reached
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException{
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * A task that is cancelled if it runs beyond its deadline.
+	 */
+	public class DeadlineFuture<E> extends FutureTask<E>{
+		private final long timeout;
+		private final TimeUnit unit;
+		private volatile boolean timedOut = false;
+		private final CountDownLatch stopped = new CountDownLatch(1);
+
+		private DeadlineFuture(Callable<E> task, long timeout, TimeUnit unit){
+			super(task);
+			this.timeout = timeout;
+			this.unit = unit;
+		}
+
+		@Override
+		public void run(){
+			ScheduledFuture<?> deadline = null;
+			if(timeout>0 && !isDone()){
+				deadline = watchdog.schedule(new Runnable(){
+					public void run() {
+						// set before cancelling so it is visible to
+						// anyone woken by the cancellation
+						timedOut = true;
+						cancel(true);
+					}
+				}, timeout, unit);
+			}
+			try{
+				super.run();
+			} finally{
+				stopped.countDown();
+				if(deadline!=null){
+					deadline.cancel(false);
+					if(finished.incrementAndGet() % PURGE_INTERVAL == 0){
+						watchdog.purge();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Waits until a worker has stopped running the task
+		 * (a cancelled task may still be running until it
+		 * notices the interrupt).
+		 * @throws InterruptedException
+		 */
+		public void awaitStopped() throws InterruptedException{
+			stopped.await();
+		}
+
+		/**
+		 * @return true if the task was cancelled because it
+		 *   reached its deadline
+		 */
+		public boolean isTimedOut(){
+			return timedOut && isCancelled();
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory{
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix){
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package cl.uchile.dcc.blabel.test;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Writes the results of an experiment as JSON Lines: one flat JSON object
+ * per line. The first record (type "env") describes the environment
+ * (JVM, OS, processors, memory, arguments); then one record (type "doc")
+ * per document/graph and phase, with timings and statistics.
+ *
+ * Each record includes the peak heap usage since the last call to
+ * {@link #startDocument()} (summed over heap memory pools, so an upper
+ * bound).
+ *
+ * Records can be read back with {@link #parse(String)}.
+ *
+ * @author ahogan
+ *
+ */
+public class RunRecorder implements Closeable {
+	public static final String TYPE = "type";
+	public static final String ENV = "env";
+	public static final String DOC = "doc";
+
+	// common keys of doc records
+	public static final String PHASE = "phase";
+	public static final String NAME = "name";
+	public static final String STATUS = "status";
+	public static final String MS = "ms";
+	public static final String PEAK_HEAP = "peakHeapBytes";
+
+	// values of status
+	public static final String OK = "OK";
+	public static final String TIMEOUT = "TIMEOUT";
+	public static final String ERROR = "ERROR";
+
+	private final BufferedWriter out;
+
+	/**
+	 * Writes the environment record.
+	 * @param os Where to write records
+	 * @param tool The name of the tool running the experiment
+	 * @param args The arguments of the tool
+	 * @throws IOException
+	 */
+	public RunRecorder(OutputStream os, String tool, String[] args) throws IOException{
+		out = new BufferedWriter(new OutputStreamWriter(os, Charsets.UTF_8));
+
+		Record env = new Record(ENV);
+		env.put("tool", tool);
+		StringBuilder sb = new StringBuilder();
+		for(String a:args){
+			if(sb.length()>0) sb.append(' ');
+			sb.append(a);
+		}
+		env.put("args", sb.toString());
+		env.put("timestamp", System.currentTimeMillis());
+		env.put("javaVersion", System.getProperty("java.version"));
+		env.put("javaVm", System.getProperty("java.vm.name"));
+		env.put("os", System.getProperty("os.name")+" "+System.getProperty("os.version"));
+		env.put("arch", System.getProperty("os.arch"));
+		env.put("processors", Runtime.getRuntime().availableProcessors());
+		env.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+		String version = RunRecorder.class.getPackage().getImplementationVersion();
+		if(version!=null)
+			env.put("version", version);
+		write(env);
+	}
+
+	/**
+	 * Resets the peak heap usage (call before processing each document).
+	 */
+	public void startDocument(){
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType()==MemoryType.HEAP && pool.isValid()){
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usage of the heap pools since the last reset
+	 */
+	public static long getPeakHeap(){
+		long peak = 0;
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType()==MemoryType.HEAP && pool.isValid()){
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Creates a record for a document, to be filled and written with {@link #write(Record)}.
+	 * @param phase E.g., LEAN, LABEL, TEST
+	 * @param name Name of the document or graph
+	 * @param status {@link #OK}, {@link #TIMEOUT} or {@link #ERROR}
+	 * @param ms Time taken in milliseconds
+	 * @return The record
+	 */
+	public Record record(String phase, String name, String status, long ms){
+		Record r = new Record(DOC);
+		r.put(PHASE, phase);
+		r.put(NAME, name);
+		r.put(STATUS, status);
+		r.put(MS, ms);
+		return r;
+	}
+
+	/**
+	 * Creates a record for a document, with the status derived from the
+	 * error (if any): {@link #OK} if null, {@link #TIMEOUT} for a
+	 * {@link TimeoutException}, otherwise {@link #ERROR} with the class
+	 * of the error under "error".
+	 * @param phase E.g., LEAN, LABEL, TEST
+	 * @param name Name of the document or graph
+	 * @param ms Time taken in milliseconds
+	 * @param error The error or null
+	 * @return The record
+	 */
+	public Record record(String phase, String name, long ms, Throwable error){
+		if(error==null){
+			return record(phase, name, OK, ms);
+		} else if(error instanceof TimeoutException){
+			return record(phase, name, TIMEOUT, ms);
+		}
+		return record(phase, name, ERROR, ms).put("error", error.getClass().getSimpleName());
+	}
+
+	/**
+	 * Writes a record (adding the peak heap usage to doc records).
+	 * @param r
+	 * @throws IOException
+	 */
+	public void write(Record r) throws IOException{
+		if(DOC.equals(r.values.get(TYPE))){
+			r.put(PEAK_HEAP, getPeakHeap());
+		}
+		out.write(r.toString());
+		out.newLine();
+		out.flush();
+	}
+
+	public void close() throws IOException{
+		out.close();
+	}
+
+	/**
+	 * A flat record of keys and values (strings, numbers or booleans).
+	 */
+	public static class Record {
+		private final LinkedHashMap<String,Object> values = new LinkedHashMap<String,Object>();
+
+		private Record(String type){
+			values.put(TYPE, type);
+		}
+
+		public Record put(String key, String value){
+			values.put(key, value);
+			return this;
+		}
+
+		public Record put(String key, long value){
+			values.put(key, value);
+			return this;
+		}
+
+		public Record put(String key, double value){
+			values.put(key, value);
+			return this;
+		}
+
+		public Record put(String key, boolean value){
+			values.put(key, value);
+			return this;
+		}
+
+		public String toString(){
+			StringBuilder sb = new StringBuilder();
+			sb.append('{');
+			boolean first = true;
+			for(Map.Entry<String,Object> e:values.entrySet()){
+				if(!first) sb.append(',');
+				first = false;
+				appendString(sb, e.getKey());
+				sb.append(':');
+				Object v = e.getValue();
+				if(v==null){
+					sb.append("null");
+				} else if(v instanceof String){
+					appendString(sb, (String)v);
+				} else{
+					sb.append(v.toString());
+				}
+			}
+			sb.append('}');
+			return sb.toString();
+		}
+	}
+
+	private static void appendString(StringBuilder sb, String s){
+		sb.append('"');
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			switch(c){
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if(c<0x20){
+					sb.append(String.format("\\u%04x", (int)c));
+				} else{
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Parses a flat JSON object as written by a {@link Record}.
+	 * @param line
+	 * @return Map from keys to values (String, Long, Double, Boolean or null)
+	 * @throws IllegalArgumentException if the line is not a flat JSON object
+	 */
+	public static Map<String,Object> parse(String line){
+		LinkedHashMap<String,Object> map = new LinkedHashMap<String,Object>();
+		int[] pos = new int[]{ skip(line, 0) };
+		expect(line, pos, '{');
+		if(peek(line, pos)=='}'){
+			return map;
+		}
+		while(true){
+			String key = parseString(line, pos);
+			expect(line, pos, ':');
+			map.put(key, parseValue(line, pos));
+			char c = peek(line, pos);
+			pos[0] = skip(line, pos[0]+1);
+			if(c=='}')
+				return map;
+			if(c!=',')
+				throw new IllegalArgumentException("Expected , or } at "+(pos[0]-1)+" in "+line);
+		}
+	}
+
+	private static Object parseValue(String s, int[] pos){
+		char c = peek(s, pos);
+		if(c=='"'){
+			return parseString(s, pos);
+		}
+		int start = pos[0];
+		while(pos[0]<s.length() && ",}".indexOf(s.charAt(pos[0]))<0 && !Character.isWhitespace(s.charAt(pos[0]))){
+			pos[0]++;
+		}
+		String tok = s.substring(start, pos[0]);
+		pos[0] = skip(s, pos[0]);
+		if(tok.equals("null")) return null;
+		if(tok.equals("true")) return Boolean.TRUE;
+		if(tok.equals("false")) return Boolean.FALSE;
+		try{
+			if(tok.indexOf('.')<0 && tok.indexOf('e')<0 && tok.indexOf('E')<0){
+				return Long.parseLong(tok);
+			}
+			return Double.parseDouble(tok);
+		} catch(NumberFormatException e){
+			throw new IllegalArgumentException("Cannot parse value "+tok+" in "+s);
+		}
+	}
+
+	private static String parseString(String s, int[] pos){
+		expect(s, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		int i = pos[0];
+		while(i<s.length()){
+			char c = s.charAt(i++);
+			if(c=='"'){
+				pos[0] = skip(s, i);
+				return sb.toString();
+			} else if(c=='\\' && i<s.length()){
+				char e = s.charAt(i++);
+				switch(e){
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					sb.append((char)Integer.parseInt(s.substring(i, i+4), 16));
+					i += 4;
+					break;
+				default: sb.append(e);
+				}
+			} else{
+				sb.append(c);
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string in "+s);
+	}
+
+	private static char peek(String s, int[] pos){
+		if(pos[0]>=s.length())
+			throw new IllegalArgumentException("Unexpected end of "+s);
+		return s.charAt(pos[0]);
+	}
+
+	private static void expect(String s, int[] pos, char c){
+		if(peek(s, pos)!=c)
+			throw new IllegalArgumentException("Expected "+c+" at "+pos[0]+" in "+s);
+		pos[0] = skip(s, pos[0]+1);
+	}
+
+	private static int skip(String s, int i){
+		while(i<s.length() && Character.isWhitespace(s.charAt(i))){
+			i++;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,288 @@
+package cl.uchile.dcc.blabel.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.Callback;
+
+/**
+ * Generates families of graphs that are hard for labelling or leaning,
+ * at any size and (where the family is random) with a seed, so that
+ * experiments can be reproduced without external benchmark files.
+ *
+ * Graph-theoretic families are written as in {@link #PRED}-labelled
+ * undirected graphs (an edge in each direction), as for the
+ * DIMACS-style benchmark files, with every vertex a blank node. RDF
+ * families use RDF vocabulary. Graphs are emitted to a {@link Callback}
+ * as they are generated.
+ *
+ * @author ahogan
+ *
+ */
+public class SyntheticGraphs {
+	public static final Resource PRED = new Resource("p");
+
+	public static final String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	public static final Resource RDF_FIRST = new Resource(RDF+"first");
+	public static final Resource RDF_REST = new Resource(RDF+"rest");
+	public static final Resource RDF_NIL = new Resource(RDF+"nil");
+	public static final Resource RDF_TYPE = new Resource(RDF+"type");
+	public static final Resource RDF_STATEMENT = new Resource(RDF+"Statement");
+	public static final Resource RDF_SUBJECT = new Resource(RDF+"subject");
+	public static final Resource RDF_PREDICATE = new Resource(RDF+"predicate");
+	public static final Resource RDF_OBJECT = new Resource(RDF+"object");
+
+	public static final Resource EX_S = new Resource("http://example.org/s");
+	public static final Resource EX_P = new Resource("http://example.org/p");
+	public static final Resource EX_O = new Resource("http://example.org/o");
+	public static final Literal EX_L = new Literal("x");
+
+	/**
+	 * The families of graphs. The meaning of the size k depends on the family.
+	 */
+	public static enum Family {
+		/** k x k grid (k^2 vertices) */
+		GRID,
+		/** complete graph on k vertices */
+		CLIQUE,
+		/** complete bipartite graph K(k,k) */
+		BIPARTITE,
+		/** Miyazaki graph: CFI construction over the circular ladder with k rungs (20k vertices); edges are twisted at random */
+		MIYAZAKI,
+		/** CFI graph over a random 3-regular base graph with k vertices (10k vertices; k rounded up to even); edges are twisted at random */
+		CFI,
+		/** random 3-regular graph on k vertices (k rounded up to even) */
+		REGULAR,
+		/** RDF list of length k whose members are all the same literal */
+		LIST,
+		/** reification of a reification ... to depth k */
+		REIFICATION
+	};
+
+	public static String FAMILY_OPTIONS;
+	static{
+		StringBuilder sb = new StringBuilder();
+		for(Family f: Family.values()){
+			sb.append(f.toString()+":"+f.ordinal()+" ");
+		}
+		FAMILY_OPTIONS = sb.toString().trim();
+	}
+
+	/**
+	 * Generates a graph into memory.
+	 * @param f The family
+	 * @param k The size
+	 * @param seed Seed for random families (ignored by others)
+	 * @return The graph
+	 */
+	public static ArrayList<Node[]> generate(Family f, int k, long seed){
+		final ArrayList<Node[]> g = new ArrayList<Node[]>();
+		generate(f, k, seed, new Callback(){
+			public void startDocument() { }
+			public void endDocument() { }
+			public void processStatement(Node[] nx) {
+				g.add(nx);
+			}
+		});
+		return g;
+	}
+
+	/**
+	 * Generates a graph, emitting triples to the callback.
+	 * @param f The family
+	 * @param k The size
+	 * @param seed Seed for random families (ignored by others)
+	 * @param out Where to write the triples
+	 */
+	public static void generate(Family f, int k, long seed, Callback out){
+		if(k<1){
+			throw new IllegalArgumentException("Size must be positive, not "+k);
+		}
+		Random r = new Random(seed);
+		switch(f){
+		case GRID: grid(k, out); break;
+		case CLIQUE: clique(k, out); break;
+		case BIPARTITE: bipartite(k, out); break;
+		case MIYAZAKI: cfi(circularLadder(Math.max(k, 3)), r, out); break;
+		case CFI: cfi(randomRegular(even(Math.max(k, 4)), 3, r), r, out); break;
+		case REGULAR: undirected(randomRegular(even(Math.max(k, 4)), 3, r), out); break;
+		case LIST: list(k, out); break;
+		case REIFICATION: reification(k, out); break;
+		}
+	}
+
+	public static void grid(int k, Callback out){
+		for(int i=0; i<k; i++){
+			for(int j=0; j<k; j++){
+				if(i+1<k)
+					edge(i*k+j, (i+1)*k+j, out);
+				if(j+1<k)
+					edge(i*k+j, i*k+j+1, out);
+			}
+		}
+	}
+
+	public static void clique(int k, Callback out){
+		for(int i=0; i<k; i++){
+			for(int j=i+1; j<k; j++){
+				edge(i, j, out);
+			}
+		}
+	}
+
+	public static void bipartite(int k, Callback out){
+		for(int i=0; i<k; i++){
+			for(int j=0; j<k; j++){
+				edge(i, k+j, out);
+			}
+		}
+	}
+
+	public static void list(int k, Callback out){
+		out.processStatement(new Node[]{ EX_S, EX_P, b(0) });
+		for(int i=0; i<k; i++){
+			out.processStatement(new Node[]{ b(i), RDF_FIRST, EX_L });
+			out.processStatement(new Node[]{ b(i), RDF_REST, i+1<k ? b(i+1) : RDF_NIL });
+		}
+	}
+
+	public static void reification(int k, Callback out){
+		for(int i=0; i<k; i++){
+			out.processStatement(new Node[]{ b(i), RDF_TYPE, RDF_STATEMENT });
+			out.processStatement(new Node[]{ b(i), RDF_SUBJECT, i==0 ? EX_S : b(i-1) });
+			out.processStatement(new Node[]{ b(i), RDF_PREDICATE, EX_P });
+			out.processStatement(new Node[]{ b(i), RDF_OBJECT, EX_O });
+		}
+	}
+
+	/**
+	 * The circular ladder (prism) graph with k rungs: a 3-regular graph
+	 * with 2k vertices.
+	 * @return adjacency lists
+	 */
+	static int[][] circularLadder(int k){
+		int[][] adj = new int[2*k][];
+		for(int i=0; i<k; i++){
+			adj[i] = new int[]{ (i+1)%k, (i+k-1)%k, k+i };
+			adj[k+i] = new int[]{ k+(i+1)%k, k+(i+k-1)%k, i };
+		}
+		return adj;
+	}
+
+	/**
+	 * A random d-regular simple graph on n vertices (n*d must be even),
+	 * by the pairing model, retrying until there are no loops or
+	 * multi-edges.
+	 * @return adjacency lists
+	 */
+	static int[][] randomRegular(int n, int d, Random r){
+		ArrayList<Integer> points = new ArrayList<Integer>(n*d);
+		while(true){
+			points.clear();
+			for(int i=0; i<n; i++){
+				for(int j=0; j<d; j++){
+					points.add(i);
+				}
+			}
+			Collections.shuffle(points, r);
+			int[][] adj = new int[n][d];
+			int[] deg = new int[n];
+			boolean ok = true;
+			for(int i=0; i<points.size() && ok; i+=2){
+				int u = points.get(i), v = points.get(i+1);
+				if(u==v){
+					ok = false;
+					break;
+				}
+				for(int j=0; j<deg[u]; j++){
+					if(adj[u][j]==v){
+						ok = false;
+						break;
+					}
+				}
+				adj[u][deg[u]++] = v;
+				adj[v][deg[v]++] = u;
+			}
+			if(ok)
+				return adj;
+		}
+	}
+
+	/**
+	 * Writes the CFI (Cai-Fürer-Immerman) construction over a 3-regular
+	 * base graph: each base vertex is replaced by a gadget with four
+	 * middle vertices (one per even subset of its three ports) and a pair
+	 * of end vertices (a, b) per port; each base edge joins the pairs of
+	 * its ports a-a and b-b or, if twisted, a-b and b-a. Each edge is
+	 * twisted with probability 1/2; over a connected base graph, two such
+	 * graphs are isomorphic if and only if they have the same parity of
+	 * twists.
+	 */
+	static void cfi(int[][] adj, Random r, Callback out){
+		int n = adj.length;
+		// vertex ids: per base vertex 10 = 4 middle + 3 ports * (a,b)
+		for(int v=0; v<n; v++){
+			int base = v*10;
+			int m = 0;
+			for(int s=0; s<8; s++){
+				if(Integer.bitCount(s)%2!=0)
+					continue;
+				for(int p=0; p<3; p++){
+					boolean a = (s & (1<<p))!=0;
+					edge(base+m, end(v, p, a), out);
+				}
+				m++;
+			}
+		}
+		for(int u=0; u<n; u++){
+			for(int p=0; p<3; p++){
+				int v = adj[u][p];
+				if(v<u)
+					continue;
+				int q = port(adj, v, u);
+				boolean twist = r.nextBoolean();
+				edge(end(u, p, true), end(v, q, !twist), out);
+				edge(end(u, p, false), end(v, q, twist), out);
+			}
+		}
+	}
+
+	private static int end(int v, int port, boolean a){
+		return v*10 + 4 + port*2 + (a ? 0 : 1);
+	}
+
+	private static int port(int[][] adj, int v, int u){
+		for(int q=0; q<adj[v].length; q++){
+			if(adj[v][q]==u)
+				return q;
+		}
+		throw new IllegalStateException(u+" not adjacent to "+v);
+	}
+
+	private static void undirected(int[][] adj, Callback out){
+		for(int u=0; u<adj.length; u++){
+			for(int v:adj[u]){
+				if(u<v)
+					edge(u, v, out);
+			}
+		}
+	}
+
+	private static int even(int k){
+		return k%2==0 ? k : k+1;
+	}
+
+	private static void edge(int u, int v, Callback out){
+		out.processStatement(new Node[]{ b(u), PRED, b(v) });
+		out.processStatement(new Node[]{ b(v), PRED, b(u) });
+	}
+
+	private static BNode b(int i){
+		return new BNode("b"+i);
+	}
+}
@@ -18,9 +18,6 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -41,6 +38,7 @@ import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning;
 import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkArgs.SaveLevel;
 import cl.uchile.dcc.blabel.test.TestFramework.TestFrameworkResult;
 
@@ -55,6 +53,11 @@ public class TestFramework implements Callable<TestFrameworkResult> {
 	
 	private static final Random RAND = new Random();
 	
+	// workers for the individual tests (separate from any pool 
+	// running the framework itself, which would otherwise 
+	// wait on itself)
+	private static final WorkerPool POOL = new WorkerPool(Runtime.getRuntime().availableProcessors());
+	
 	public static String LABEL_TEST = "lab";
 	public static String LABEL_NO_PRUNING_TEST = "lab_np";
 	
@@ -318,13 +321,7 @@ public class TestFramework implements Callable<TestFrameworkResult> {
 	}
 
 	public static <E> E run(Callable<E> gl, long timeout) throws InterruptedException, ExecutionException, TimeoutException{
-		ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<E> future = executor.submit(gl);
-        
-        E glr = future.get(timeout, TimeUnit.SECONDS);
-        executor.shutdownNow();
-        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-        return glr;
+		return POOL.run(gl, timeout, TimeUnit.SECONDS);
 	}
 	
 	public static ArrayList<Node[]> renameBnodesAndShuffle(Collection<Node[]> data){
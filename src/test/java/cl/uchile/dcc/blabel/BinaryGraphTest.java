@@ -0,0 +1,89 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.NodeComparator;
+import org.semanticweb.yars.nx.parser.Callback;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+import cl.uchile.dcc.blabel.cli.LabelRDFGraph;
+import cl.uchile.dcc.blabel.io.BinaryGraphReader;
+import cl.uchile.dcc.blabel.io.BinaryGraphWriter;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+
+public class BinaryGraphTest {
+
+	static final String GRAPH =
+			"_:a <http://ex.org/p> _:b .\n" +
+			"_:b <http://ex.org/p> _:c .\n" +
+			"_:c <http://ex.org/p> _:a .\n" +
+			"_:a <http://ex.org/name> \"año\"@es .\n" +
+			"_:b <http://ex.org/val> \"5\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n" +
+			"<http://ex.org/s> <http://ex.org/p> _:c .\n" +
+			"<http://ex.org/s> <http://ex.org/p> <http://ex.org/o> .\n" +
+			"<http://ex.org/s> <http://ex.org/q> \"x\\ny\" .\n";
+
+	@Test
+	public void testRoundtripIriLabels() throws Exception {
+		roundtrip("http://ex.org/.well-known/genid/", false);
+	}
+
+	@Test
+	public void testRoundtripBnodeLabels() throws Exception {
+		roundtrip("", true);
+	}
+
+	private static void roundtrip(String prefix, boolean bnode) throws Exception {
+		List<Node[]> in = parse(GRAPH);
+
+		final TreeSet<Node[]> expected = new TreeSet<Node[]>(NodeComparator.NC);
+		LabelRDFGraph.labelGraph(in, new Callback(){
+			public void startDocument() {}
+			public void endDocument() {}
+			public void processStatement(Node[] nx) {
+				expected.add(nx);
+			}
+		}, new GraphLabellingArgs(), prefix, bnode);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryGraphWriter w = new BinaryGraphWriter(baos, prefix, bnode);
+		LabelRDFGraph.labelGraph(in, w, new GraphLabellingArgs(), prefix, bnode);
+		w.close();
+
+		BinaryGraphReader r = new BinaryGraphReader(new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(expected.size(), r.getTripleCount());
+		TreeSet<Node[]> actual = new TreeSet<Node[]>(NodeComparator.NC);
+		while(r.hasNext()){
+			actual.add(r.next());
+		}
+		assertFalse(r.hasNext());
+		r.close();
+
+		assertEquals(expected.size(), actual.size());
+		for(Node[] t:expected){
+			assertTrue(actual.contains(t));
+		}
+	}
+
+	private static List<Node[]> parse(String nt) throws IOException {
+		NxParser nxp = new NxParser(new BufferedReader(new StringReader(nt)));
+		List<Node[]> triples = new ArrayList<Node[]>();
+		while(nxp.hasNext()){
+			triples.add(nxp.next());
+		}
+		return triples;
+	}
+}
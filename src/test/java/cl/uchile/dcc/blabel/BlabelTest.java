@@ -19,6 +19,7 @@ import org.semanticweb.yars.nx.parser.NxParser;
 import cl.uchile.dcc.blabel.cli.LabelRDFGraph;
 import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
 import cl.uchile.dcc.blabel.label.GraphLabelling;
+import cl.uchile.dcc.blabel.label.util.GroundGraphHasher;
 
 public class BlabelTest {
 
@@ -143,4 +144,65 @@ public class BlabelTest {
 		assertEquals(goldStandard, actual);
 
 	}
+
+	@Test
+	public void testGraphLabellingWithStreamedGroundTriples() throws InterruptedException, HashCollisionException {
+
+		String[] input = new String[] { "_:a <p> _:b .\n",
+				"_:b <p> <u> .\n",
+				"<u> <p> <v> .\n",
+				"<v> <q> \"w\" .\n" };
+
+		NxParser iter = new NxParser(Arrays.asList(input).iterator());
+
+		// split the graph into blank node triples and hashed ground triples
+		Collection<Node[]> stmts = new ArrayList<Node[]>();
+		Collection<Node[]> bnodeStmts = new ArrayList<Node[]>();
+		GroundGraphHasher ggh = new GroundGraphHasher(GraphLabelling.GraphLabellingArgs.DEFAULT_HASHING);
+		List<String> expected = new ArrayList<String>();
+		while (iter.hasNext()) {
+			Node[] triple = iter.next();
+			stmts.add(triple);
+			if (GroundGraphHasher.isGround(triple)) {
+				ggh.addTriple(triple);
+				expected.add(Nodes.toN3(triple));
+			} else {
+				bnodeStmts.add(triple);
+			}
+		}
+
+		final List<String> full = new ArrayList<String>();
+		final List<String> streamed = new ArrayList<String>();
+
+		LabelRDFGraph.labelGraph(stmts, new ListCallback(full), new GraphLabelling.GraphLabellingArgs(), "", true);
+		LabelRDFGraph.labelGraph(bnodeStmts, new ListCallback(streamed), new GraphLabelling.GraphLabellingArgs(), "", true, ggh.getHash());
+
+		// labels must not change if ground triples are streamed
+		streamed.addAll(expected);
+		Collections.sort(full);
+		Collections.sort(streamed);
+
+		assertEquals(full, streamed);
+	}
+
+	private static class ListCallback implements Callback {
+		private final List<String> list;
+
+		ListCallback(List<String> list) {
+			this.list = list;
+		}
+
+		@Override
+		public void startDocument() {
+		}
+
+		@Override
+		public void endDocument() {
+		}
+
+		@Override
+		public void processStatement(Node[] nx) {
+			list.add(Nodes.toN3(nx));
+		}
+	}
 }
@@ -0,0 +1,37 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cl.uchile.dcc.blabel.lean.util.CSRIndex;
+
+public class CSRIndexTest {
+
+	@Test
+	public void testIndex() {
+		long[] pairs = new long[]{
+				CSRIndex.pack(5, 2), CSRIndex.pack(1, 9), CSRIndex.pack(5, 0),
+				CSRIndex.pack(1, 9), CSRIndex.pack(3, 3), CSRIndex.pack(5, 1)
+		};
+		CSRIndex index = new CSRIndex(pairs, pairs.length);
+		
+		assertEquals(3, index.keyCount());
+		assertEquals(5, index.size());
+		
+		int k = index.find(5);
+		assertEquals(5, index.getKey(k));
+		assertEquals(3, index.end(k)-index.start(k));
+		for(int i=index.start(k); i<index.end(k); i++){
+			assertEquals(i-index.start(k), index.getValue(i));
+		}
+		
+		assertEquals(-1, index.find(2));
+		assertTrue(index.contains(1, 9));
+		assertTrue(index.contains(3, 3));
+		assertFalse(index.contains(3, 9));
+		assertFalse(index.contains(4, 0));
+	}
+}
@@ -0,0 +1,60 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+
+import cl.uchile.dcc.blabel.lean.util.Edge;
+import cl.uchile.dcc.blabel.lean.util.EdgeIndex;
+
+public class EdgeIndexTest {
+	private static final Resource P = new Resource("http://example.org/p");
+	private static final Resource Q = new Resource("http://example.org/q");
+	private static final Resource X = new Resource("http://example.org/x");
+
+	@Test
+	public void testSubset() throws Exception {
+		BNode a = new BNode("a"), b = new BNode("b"), c = new BNode("c");
+		EdgeIndex index = new EdgeIndex();
+		// a p x ; b p x ; b q x ; c q x
+		add(index, a, P, X);
+		add(index, b, P, X);
+		add(index, b, Q, X);
+		add(index, c, Q, X);
+		index.build();
+
+		int ia = index.nodeId(a), ib = index.nodeId(b), ic = index.nodeId(c), ix = index.nodeId(X);
+		assertTrue(ia<ib && ib<ic);
+		assertEquals(EdgeIndex.PROPER_SUBSET, index.subset(index.getEdges(ia), index.getEdges(ib)));
+		assertEquals(EdgeIndex.NOT_SUBSET, index.subset(index.getEdges(ib), index.getEdges(ia)));
+		assertEquals(EdgeIndex.EQUAL, index.subset(index.getEdges(ib), index.getEdges(ib)));
+
+		int px = index.edgeId(new Edge(P, X, true));
+		assertEquals(2, index.liveCount(px));
+		assertEquals(ia, index.getNodes(px)[0]);
+		assertEquals(ib, index.getNodes(px)[1]);
+		assertEquals(px, index.getMostSelective(index.getEdges(ia)));
+
+		// removing b removes its edges and the edges to b
+		index.remove(ib);
+		int qx = index.edgeId(new Edge(Q, X, true));
+		assertEquals(1, index.liveCount(px));
+		assertEquals(1, index.liveCount(qx));
+		assertTrue(index.isRemovedEdge(index.edgeId(new Edge(P, b, false))));
+		assertEquals(qx, index.getMostSelective(index.getEdges(ic)));
+
+		// x keeps the edges from a and c
+		assertEquals(EdgeIndex.PROPER_SUBSET, index.subset(new int[]{ index.edgeId(new Edge(Q, c, false)) }, index.getEdges(ix)));
+		index.remove(ia);
+		assertEquals(EdgeIndex.EQUAL, index.subset(new int[]{ index.edgeId(new Edge(Q, c, false)) }, index.getEdges(ix)));
+	}
+
+	private static void add(EdgeIndex index, Node s, Node p, Node o){
+		index.add(o, new Edge(p, s, false));
+		index.add(s, new Edge(p, o, true));
+	}
+}
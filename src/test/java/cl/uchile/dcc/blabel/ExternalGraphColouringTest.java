@@ -0,0 +1,98 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Nodes;
+import org.semanticweb.yars.nx.parser.Callback;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+import cl.uchile.dcc.blabel.label.ExternalGraphColouring;
+import cl.uchile.dcc.blabel.label.GraphColouring;
+import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.label.util.HashGraph;
+
+public class ExternalGraphColouringTest {
+
+	@Test
+	public void testExternalColouringMatchesInMemory() throws IOException, InterruptedException, HashCollisionException {
+		ArrayList<String> input = new ArrayList<String>();
+		// a path with distinguished ends
+		for (int i = 0; i < 20; i++) {
+			input.add("_:p" + i + " <next> _:p" + (i + 1) + " .");
+		}
+		input.add("<start> <first> _:p0 .");
+		input.add("_:p20 <value> \"end\" .");
+		// a tree
+		input.add("_:r <child> _:c1 .");
+		input.add("_:r <child> _:c2 .");
+		input.add("_:c1 <child> _:c3 .");
+		input.add("_:c2 <name> \"two\"@en .");
+		input.add("_:c3 <child> _:c3 .");
+		// a cycle (colouring alone cannot distinguish the nodes)
+		input.add("_:x <p> _:y .");
+		input.add("_:y <p> _:z .");
+		input.add("_:z <p> _:x .");
+		// a duplicate
+		input.add("_:x <p> _:y .");
+
+		// colour in memory
+		HashGraph hg = new HashGraph(GraphLabellingArgs.DEFAULT_HASHING);
+		NxParser nxp = new NxParser(input.iterator());
+		File triples = File.createTempFile("blabel-test", ".nt");
+		triples.deleteOnExit();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(triples), "UTF-8"));
+		while (nxp.hasNext()) {
+			Node[] t = nxp.next();
+			hg.addTriple(t);
+			bw.write(Nodes.toN3(t));
+			bw.newLine();
+		}
+		bw.close();
+		GraphColouring gc = new GraphColouring(hg);
+		gc.execute();
+
+		// colour on disk with a tiny budget to force many runs
+		ExternalGraphColouring egc = new ExternalGraphColouring(triples, GraphLabellingArgs.DEFAULT_HASHING, 256, null);
+		int iters = egc.execute();
+
+		assertEquals((int) gc.getColourIterations().get(0), iters);
+		assertEquals(hg.getBlankNodeHashes(), egc.loadColours());
+		assertEquals(hg.getBlankNodeHashes().size(), egc.getBlankNodeCount());
+
+		// labelled output is the same (modulo order)
+		List<String> expected = new ArrayList<String>();
+		for (Node[] t : GraphColouring.labelBlankNodes(egc.toHashGraph())) {
+			expected.add(Nodes.toN3(t));
+		}
+		final List<String> actual = new ArrayList<String>();
+		egc.writeLabelledGraph(new Callback() {
+			public void startDocument() {
+			}
+
+			public void endDocument() {
+			}
+
+			public void processStatement(Node[] nx) {
+				String t = Nodes.toN3(nx);
+				if (!actual.contains(t)) {
+					actual.add(t);
+				}
+			}
+		});
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+	}
+}
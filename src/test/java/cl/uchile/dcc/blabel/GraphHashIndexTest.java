@@ -0,0 +1,56 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import cl.uchile.dcc.blabel.io.GraphHashIndex;
+
+public class GraphHashIndexTest {
+
+	@Test
+	public void testPersistsAcrossResizesAndReopen() throws IOException {
+		File f = File.createTempFile("blabel-index", ".idx");
+		File ids = new File(f.getPath()+GraphHashIndex.IDS_SUFFIX);
+		f.deleteOnExit();
+		ids.deleteOnExit();
+
+		HashFunction hf = Hashing.murmur3_128();
+		int n = 1000;
+
+		// small capacity to force several resizes
+		GraphHashIndex index = new GraphHashIndex(f, 16);
+		for(int i=0; i<n; i++){
+			assertNull(index.add(hf.hashInt(i), "doc"+i));
+		}
+		assertEquals(n, index.size());
+		assertTrue(index.capacity()*GraphHashIndex.MAX_LOAD >= n);
+		// a second document with the same graph
+		assertEquals("doc7", index.add(hf.hashInt(7), "other7"));
+		index.close();
+
+		index = new GraphHashIndex(f);
+		assertEquals(n, index.size());
+		for(int i=0; i<n; i++){
+			HashCode hc = hf.hashInt(i);
+			assertTrue(index.contains(hc));
+			assertEquals("doc"+i, index.get(hc));
+			assertEquals(i==7 ? 2 : 1, index.getCount(hc));
+		}
+		assertFalse(index.contains(hf.hashInt(n)));
+		assertNull(index.get(hf.hashInt(n)));
+		assertNull(index.add(hf.hashInt(n), "doc"+n));
+		assertEquals(n+1, index.size());
+		index.close();
+	}
+}
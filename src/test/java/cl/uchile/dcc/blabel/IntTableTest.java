@@ -0,0 +1,73 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+
+import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.lean.util.IntTable;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs.Family;
+
+public class IntTableTest {
+
+	@Test
+	public void testInMemory() throws Exception {
+		checkTable(new IntTable(3, Long.MAX_VALUE, null), 3 * IntTable.BLOCK_ROWS + 7, false);
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		checkTable(new IntTable(3, 0, null), 3 * IntTable.BLOCK_ROWS + 7, true);
+	}
+
+	@Test
+	public void testBFSSpill() throws Exception {
+		// the same core must be found with partial solutions on disk
+		ArrayList<Node[]> data = SyntheticGraphs.generate(Family.GRID, 5, 0);
+		GraphLeaningResult spilled = new BFSGraphLeaning(data, 0, null).call();
+		GraphLeaningResult dfs = new DFSGraphLeaning(data).call();
+		assertEquals(dfs.getLeanData().size(), spilled.getLeanData().size());
+
+		data = SyntheticGraphs.generate(Family.CLIQUE, 6, 0);
+		spilled = new BFSGraphLeaning(data, 0, null).call();
+		GraphLeaningResult inMemory = new BFSGraphLeaning(data).call();
+		assertEquals(data.size(), spilled.getLeanData().size());
+		assertEquals(inMemory.getSolutionCount(), spilled.getSolutionCount());
+		assertEquals(inMemory.getJoins(), spilled.getJoins());
+	}
+
+	private static void checkTable(IntTable table, int rows, boolean spilled) throws Exception {
+		int[] row = new int[3];
+		for(int i=0; i<rows; i++){
+			row[0] = i; row[1] = -i; row[2] = i % 5;
+			table.add(row);
+		}
+		assertEquals(rows, table.size());
+		assertEquals(spilled, table.isSpilled());
+
+		IntTable.Cursor cursor = table.cursor();
+		int i = 0;
+		IntTable.Block block;
+		while((block = cursor.next())!=null){
+			assertTrue(block.size()>0);
+			for(int r=0; r<block.size(); r++){
+				assertEquals(i, block.get(0, r));
+				assertEquals(-i, block.get(1, r));
+				assertEquals(i % 5, block.column(2)[r]);
+				i++;
+			}
+		}
+		assertEquals(rows, i);
+		assertNull(cursor.next());
+		cursor.close();
+		table.close();
+	}
+}
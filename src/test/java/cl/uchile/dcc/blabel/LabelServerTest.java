@@ -0,0 +1,160 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import cl.uchile.dcc.blabel.cli.LabelServer;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+
+public class LabelServerTest {
+	static final int MAX_BODY = 256;
+
+	static final String TRIPLE = "_:a <http://ex.org/p> _:b .\n";
+
+	private WorkerPool pool;
+	private HttpServer server;
+
+	@Before
+	public void start() throws IOException {
+		pool = new WorkerPool(1, 1);
+		LabelServer.LabelHandler handler = new LabelServer.LabelHandler(pool, 10000, MAX_BODY, false, new GraphLabellingArgs(), "", false);
+		// more HTTP threads than requests admitted (two)
+		server = LabelServer.start(new InetSocketAddress("localhost", 0), handler, 4);
+	}
+
+	@After
+	public void stop() {
+		LabelServer.stop(server);
+		pool.shutdown();
+	}
+
+	@Test
+	public void testSmallBody() throws IOException {
+		assertEquals(200, post(body(1), false));
+	}
+
+	@Test
+	public void testOversizedBody() throws IOException {
+		assertEquals(413, post(body(100), false));
+	}
+
+	@Test
+	public void testOversizedChunkedBody() throws IOException {
+		// no Content-Length, so the body must be capped while read
+		assertEquals(413, post(body(100), true));
+	}
+
+	@Test
+	public void testFullPool() throws Exception {
+		// one task running and one waiting
+		final CountDownLatch release = new CountDownLatch(1);
+		Callable<Boolean> block = new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return release.await(60, TimeUnit.SECONDS);
+			}
+		};
+		try {
+			pool.submit(block, 0, TimeUnit.SECONDS);
+			pool.submit(block, 0, TimeUnit.SECONDS);
+			assertEquals(503, post(body(1), false));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testTooManyRequests() throws Exception {
+		// two requests that never finish sending their body
+		// take all admissions
+		Socket[] stalled = new Socket[2];
+		try {
+			for (int i = 0; i < stalled.length; i++) {
+				stalled[i] = new Socket("localhost", server.getAddress().getPort());
+				OutputStream os = stalled[i].getOutputStream();
+				os.write(("POST " + LabelServer.LABEL_PATH + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + MAX_BODY + "\r\n\r\n" + TRIPLE).getBytes("US-ASCII"));
+				os.flush();
+			}
+			// wait for both to be admitted
+			for (int i = 0; i < 200 && !status().contains("admitted\t2\n"); i++) {
+				Thread.sleep(25);
+			}
+			assertTrue(status().contains("admitted\t2\n"));
+			assertEquals(503, post(body(1), false));
+		} finally {
+			for (Socket s : stalled) {
+				if (s != null) {
+					s.close();
+				}
+			}
+		}
+	}
+
+	private String status() throws IOException {
+		URL url = new URL("http://localhost:" + server.getAddress().getPort() + LabelServer.STATUS_PATH);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		InputStream is = conn.getInputStream();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) >= 0) {
+			baos.write(b);
+		}
+		is.close();
+		conn.disconnect();
+		return baos.toString(LabelServer.ENCODING);
+	}
+
+	private static byte[] body(int triples) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < triples; i++) {
+			sb.append(TRIPLE);
+		}
+		return sb.toString().getBytes();
+	}
+
+	private int post(byte[] body, boolean chunked) throws IOException {
+		URL url = new URL("http://localhost:" + server.getAddress().getPort() + LabelServer.LABEL_PATH);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		if (chunked) {
+			conn.setChunkedStreamingMode(64);
+		} else {
+			conn.setFixedLengthStreamingMode(body.length);
+		}
+		try {
+			OutputStream os = conn.getOutputStream();
+			os.write(body);
+			os.close();
+		} catch (IOException e) {
+			// the server may answer before the whole body is sent
+		}
+		int code = conn.getResponseCode();
+		InputStream is = code < 400 ? conn.getInputStream() : conn.getErrorStream();
+		if (is != null) {
+			while (is.read() >= 0)
+				;
+			is.close();
+		}
+		conn.disconnect();
+		return code;
+	}
+}
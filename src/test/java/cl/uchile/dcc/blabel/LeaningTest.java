@@ -0,0 +1,438 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.BNode;
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.NodeComparator;
+import org.semanticweb.yars.nx.Resource;
+
+import cl.uchile.dcc.blabel.label.GraphColouring;
+import cl.uchile.dcc.blabel.lean.BFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.DFSGraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning;
+import cl.uchile.dcc.blabel.lean.GraphLeaning.GraphLeaningResult;
+import cl.uchile.dcc.blabel.lean.TreeDecompositionGraphLeaning;
+import cl.uchile.dcc.blabel.lean.util.NogoodCache;
+import cl.uchile.dcc.blabel.lean.util.WitnessMap;
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+
+public class LeaningTest {
+	private static final Resource[] PREDS = new Resource[]{ new Resource("http://example.org/p"), new Resource("http://example.org/q") };
+
+	private static final int SEEDS = 500;
+
+	@Test
+	public void testRandomisedDFSMatchesBFS() throws Exception {
+		// randomised bindings give homomorphisms that are not cores,
+		// so DFS will often fold over several rounds
+		assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				return new GraphLeaning[]{ new DFSGraphLeaning(data, true) };
+			}
+		}, false);
+	}
+
+	@Test
+	public void testQuadsMatchBFS() throws Exception {
+		// triples in one or both of two contexts: folding a
+		// blank node must remove its triples in all contexts
+		Resource[] contexts = new Resource[]{ new Resource("http://example.org/g1"), new Resource("http://example.org/g2") };
+		for(long seed=0; seed<SEEDS; seed++){
+			Random r = new Random(seed);
+			TreeSet<Node[]> triples = random(seed);
+			TreeSet<Node[]> data = new TreeSet<Node[]>(NodeComparator.NC);
+			for(Node[] t:triples){
+				int c = r.nextInt(3);
+				for(int i=0; i<contexts.length; i++){
+					if(c==i || c==contexts.length){
+						data.add(new Node[]{ t[0], t[1], t[2], contexts[i] });
+					}
+				}
+			}
+			GraphLeaningResult bfs = new BFSGraphLeaning(triples).call();
+			for(boolean randomise:new boolean[]{ true, false }){
+				GraphLeaningResult glr = new DFSGraphLeaning(data, randomise).call();
+				assertEquals("seed "+seed, bfs.getLeanData().size(), triples(glr.getLeanData()).size());
+				checkCoreMap(data, glr);
+			}
+		}
+	}
+
+	@Test
+	public void testPropagationMatchesBFS() throws Exception {
+		long[] joins = assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[2];
+				for(int i=0; i<2; i++){
+					DFSGraphLeaning dfs = new DFSGraphLeaning(data);
+					dfs.setPropagate(i==0);
+					gls[i] = dfs;
+				}
+				return gls;
+			}
+		}, false);
+		// forward checking prunes branches before they are joined
+		assertTrue(joins[0]+" vs. "+joins[1], joins[0]<joins[1]);
+	}
+
+	@Test
+	public void testDynamicOrderMatchesBFS() throws Exception {
+		assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[2];
+				for(int i=0; i<2; i++){
+					DFSGraphLeaning dfs = new DFSGraphLeaning(data);
+					dfs.setDynamicOrder(true);
+					dfs.setPropagate(i==0);
+					gls[i] = dfs;
+				}
+				return gls;
+			}
+		}, false);
+	}
+
+	@Test
+	public void testAcyclicMatchesBFS() throws Exception {
+		final ArrayList<DFSGraphLeaning> trees = new ArrayList<DFSGraphLeaning>();
+		final ArrayList<DFSGraphLeaning> searches = new ArrayList<DFSGraphLeaning>();
+		assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[2];
+				for(int i=0; i<2; i++){
+					DFSGraphLeaning dfs = new DFSGraphLeaning(data, seed%2==0);
+					dfs.setAcyclic(i==0);
+					(i==0 ? trees : searches).add(dfs);
+					gls[i] = dfs;
+				}
+				return gls;
+			}
+		}, true);
+		// forests are solved without the search unless disabled
+		long solved = 0;
+		for(DFSGraphLeaning dfs:trees){
+			solved += dfs.getTreeSearches();
+		}
+		assertTrue(solved>0);
+		for(DFSGraphLeaning dfs:searches){
+			assertEquals(0, dfs.getTreeSearches());
+		}
+	}
+
+	@Test
+	public void testBackjumpMatchesBFS() throws Exception {
+		final ArrayList<DFSGraphLeaning> dfss = new ArrayList<DFSGraphLeaning>();
+		assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[4];
+				for(int i=0; i<4; i++){
+					DFSGraphLeaning dfs = new DFSGraphLeaning(data, seed%2==0);
+					dfs.setBackjump(true);
+					dfs.setDynamicOrder(i%2==0);
+					dfs.setPropagate(i<2);
+					if(seed%2!=0){
+						// (counted only without random bindings
+						// to be deterministic)
+						dfss.add(dfs);
+					}
+					gls[i] = dfs;
+				}
+				return gls;
+			}
+		}, false);
+		long backjumps = 0, nogoodHits = 0;
+		for(DFSGraphLeaning dfs:dfss){
+			backjumps += dfs.getBackjumps();
+			nogoodHits += dfs.getNogoodHits();
+		}
+		assertTrue(backjumps>0);
+		assertTrue(nogoodHits>0);
+	}
+
+	@Test
+	public void testBackjumpReducesJoins() throws Exception {
+		// without random bindings, jumps only skip bindings that fail
+		long[] joins = assertMatchesBFS(new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[4];
+				for(int i=0; i<4; i++){
+					DFSGraphLeaning dfs = new DFSGraphLeaning(data);
+					dfs.setBackjump(i<2);
+					dfs.setPropagate(i%2==0);
+					gls[i] = dfs;
+				}
+				return gls;
+			}
+		}, false);
+		// (forward checking already avoids most failures on these
+		// small graphs)
+		assertTrue(joins[0]+" vs. "+joins[2], joins[0]<=joins[2]);
+		assertTrue(joins[1]+" vs. "+joins[3], joins[1]<joins[3]);
+	}
+
+	@Test
+	public void testNogoodCache() throws Exception {
+		NogoodCache cache = new NogoodCache(4, 2, 2);
+		int[] a = { 5, 6, -1, 7 };
+		cache.add(new int[]{ 0, 3 }, a);
+		assertArrayEquals(new int[]{ 0, 3 }, cache.find(3, a));
+		assertArrayEquals(new int[]{ 0, 3 }, cache.find(0, a));
+		assertNull(cache.find(1, a));
+		// a different binding of the scope
+		assertNull(cache.find(3, new int[]{ 5, 6, -1, 8 }));
+
+		// too many scopes
+		cache.add(new int[]{ 1 }, a);
+		assertFalse(cache.add(new int[]{ 0, 1 }, a));
+
+		// least recently used is evicted
+		cache.add(new int[]{ 1 }, new int[]{ 0, 9, 0, 0 });
+		assertEquals(2, cache.size());
+		assertNull(cache.find(3, a));
+		assertArrayEquals(new int[]{ 1 }, cache.find(1, a));
+		assertArrayEquals(new int[]{ 1 }, cache.find(1, new int[]{ 0, 9, 0, 0 }));
+	}
+
+	@Test
+	public void testTreeDecompositionMatchesBFS() throws Exception {
+		final ArrayList<TreeDecompositionGraphLeaning> tds = new ArrayList<TreeDecompositionGraphLeaning>();
+		final ArrayList<TreeDecompositionGraphLeaning> overflows = new ArrayList<TreeDecompositionGraphLeaning>();
+		Leanings leanings = new Leanings(){
+			public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+				GraphLeaning[] gls = new GraphLeaning[3];
+				for(int i=0; i<3; i++){
+					TreeDecompositionGraphLeaning td = new TreeDecompositionGraphLeaning(data);
+					td.setMinFill(i!=1);
+					if(i==2){
+						// tables overflow as soon as they grow
+						td.setMaxTableCells(0);
+						overflows.add(td);
+					} else{
+						tds.add(td);
+					}
+					gls[i] = td;
+				}
+				return gls;
+			}
+		};
+		assertMatchesBFS(leanings, false);
+		assertMatchesBFS(leanings, true);
+
+		for(TreeDecompositionGraphLeaning td:tds){
+			assertFalse(td.isLeanedByDFS());
+		}
+		int leanedByDFS = 0;
+		for(TreeDecompositionGraphLeaning td:overflows){
+			if(td.isLeanedByDFS()) leanedByDFS++;
+		}
+		assertTrue(leanedByDFS>0);
+	}
+
+	@Test
+	public void testParallelMatchesBFS() throws Exception {
+		// split low so that most searches fork tasks
+		final int[] splitDepths = { 0, 1, DFSGraphLeaning.DEFAULT_SPLIT_DEPTH, 8 };
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			assertMatchesBFS(new Leanings(){
+				public GraphLeaning[] create(TreeSet<Node[]> data, long seed){
+					GraphLeaning[] gls = new GraphLeaning[splitDepths.length+1];
+					for(int i=0; i<gls.length; i++){
+						DFSGraphLeaning dfs = new DFSGraphLeaning(data, seed%2==0, DFSGraphLeaning.DEFAULT_PRUNE, pool);
+						if(i<splitDepths.length){
+							dfs.setSplitDepth(splitDepths[i]);
+						} else{
+							// tasks copy the patterns ordered so far
+							dfs.setSplitDepth(1);
+							dfs.setDynamicOrder(true);
+						}
+						gls[i] = dfs;
+					}
+					return gls;
+				}
+			}, false);
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testComponentsMatchBFS() throws Exception {
+		// copies of a few random components: some components
+		// fold onto others
+		WorkerPool pool = new WorkerPool(4);
+		try{
+			for(long seed=0; seed<300; seed++){
+				Random r = new Random(seed);
+				TreeSet<Node[]> data = new TreeSet<Node[]>(NodeComparator.NC);
+				int components = 1 + r.nextInt(5);
+				for(int c=0; c<components; c++){
+					for(Node[] t:random(r.nextInt(3))){
+						data.add(new Node[]{ new BNode("c"+c+t[0].toString()), t[1], (t[2] instanceof BNode) ? new BNode("c"+c+t[2].toString()) : t[2] });
+					}
+				}
+				DFSGraphLeaning dfs = new DFSGraphLeaning(data, seed%2==0);
+				dfs.setComponentPool(pool);
+				GraphLeaningResult glr = dfs.call();
+				GraphLeaningResult bfs = new BFSGraphLeaning(data).call();
+				assertEquals("seed "+seed, bfs.getLeanData().size(), glr.getLeanData().size());
+				checkCoreMap(data, glr);
+			}
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testWitnessMap() throws Exception {
+		WitnessMap map = new WitnessMap();
+		BNode a = new BNode("a"), b = new BNode("b"), c = new BNode("c"), d = new BNode("d");
+		map.put(a, b);
+		map.put(b, c);
+		map.put(c, PREDS[0]);
+		assertEquals(PREDS[0], map.resolve(a));
+		assertEquals(d, map.resolve(d));
+		// would close a cycle
+		assertFalse(map.put(d, d));
+
+		map = new WitnessMap();
+		map.put(a, b);
+		map.put(b, c);
+		HashMap<BNode,Node> then = new HashMap<BNode,Node>();
+		then.put(c, d);
+		then.put(d, c);
+		HashMap<BNode,Node> composed = map.compose(then);
+		assertEquals(d, composed.get(a));
+		assertEquals(d, composed.get(b));
+		assertEquals(d, composed.get(c));
+		assertEquals(c, composed.get(d));
+	}
+
+	@Test
+	public void testWitnessMapWithAutomorphism() throws Exception {
+		// b1, b4 and b8 are trivially non-lean; the homomorphism
+		// found for the rest may swap b5 and b6, and must only be
+		// applied once to the node b8 is mapped to
+		BNode[] b = new BNode[9];
+		for(int i=0; i<b.length; i++){
+			b[i] = new BNode("b"+i);
+		}
+		int[][] edges = { {0,1,0}, {0,1,1}, {5,0,0}, {5,1,6}, {6,0,0}, {6,0,4}, {6,1,5}, {7,1,3}, {8,1,5} };
+		TreeSet<Node[]> data = new TreeSet<Node[]>(NodeComparator.NC);
+		for(int[] e:edges){
+			data.add(new Node[]{ b[e[0]], PREDS[e[1]], b[e[2]] });
+		}
+		for(int i=0; i<50; i++){
+			GraphLeaningResult glr = new DFSGraphLeaning(data, true).call();
+			assertEquals(5, glr.getLeanData().size());
+			checkCoreMap(data, glr);
+		}
+	}
+
+	/**
+	 * Creates the leanings to compare with BFS for some data.
+	 */
+	private interface Leanings {
+		GraphLeaning[] create(TreeSet<Node[]> data, long seed);
+	}
+
+	/**
+	 * Checks the leanings created for random graphs (or forests) against
+	 * BFS for each of {@link #SEEDS} seeds.
+	 * @return The joins of each leaning summed over the seeds
+	 */
+	private static long[] assertMatchesBFS(Leanings leanings, boolean forest) throws Exception {
+		long[] joins = null;
+		for(long seed=0; seed<SEEDS; seed++){
+			TreeSet<Node[]> data = forest ? randomForest(seed) : random(seed);
+			GraphLeaningResult bfs = new BFSGraphLeaning(data).call();
+			GraphLeaning[] gls = leanings.create(data, seed);
+			if(joins==null){
+				joins = new long[gls.length];
+			}
+			for(int i=0; i<gls.length; i++){
+				GraphLeaningResult glr = gls[i].call();
+				assertEquals("seed "+seed+" leaning "+i, bfs.getLeanData().size(), glr.getLeanData().size());
+				checkCoreMap(data, glr);
+				joins[i] += glr.getJoins();
+			}
+		}
+		return joins;
+	}
+
+	private static void checkCoreMap(TreeSet<Node[]> data, GraphLeaningResult glr) throws Exception {
+		HashSet<Node> bnodes = new HashSet<Node>();
+		for(Node[] t:data){
+			if(t[0] instanceof BNode) bnodes.add(t[0]);
+			if(t[2] instanceof BNode) bnodes.add(t[2]);
+		}
+		assertEquals(bnodes.size(), glr.getCoreMap().size());
+
+		// compared as triples since the lean data may keep a
+		// triple in fewer contexts than the data
+		assertEquals(0, GraphColouring.GRAPH_COMP.compare(triples(GraphLeaning.mapData(data, glr.getCoreMap())), triples(glr.getLeanData())));
+	}
+
+	private static TreeSet<Node[]> triples(Collection<Node[]> data){
+		TreeSet<Node[]> triples = new TreeSet<Node[]>(NodeComparator.NC);
+		for(Node[] t:data){
+			triples.add(t.length==3 ? t : new Node[]{ t[0], t[1], t[2] });
+		}
+		return triples;
+	}
+
+	/**
+	 * Blank nodes connected as a forest, with some patterns repeated 
+	 * between the same pair, some self-loops and some ground edges.
+	 */
+	private static TreeSet<Node[]> randomForest(long seed){
+		Random r = new Random(seed);
+		int n = 2 + r.nextInt(14);
+		TreeSet<Node[]> data = new TreeSet<Node[]>(NodeComparator.NC);
+		for(int i=1; i<n; i++){
+			int j = r.nextInt(i);
+			if(r.nextInt(6)==0){
+				// start another tree
+				continue;
+			}
+			for(int e=0; e<1+r.nextInt(2); e++){
+				BNode a = new BNode("b"+i), b = new BNode("b"+j);
+				data.add(r.nextBoolean() ? new Node[]{ a, PREDS[r.nextInt(2)], b } : new Node[]{ b, PREDS[r.nextInt(2)], a });
+			}
+		}
+		for(int i=0; i<n/3; i++){
+			BNode b = new BNode("b"+r.nextInt(n));
+			data.add(new Node[]{ b, PREDS[r.nextInt(2)], r.nextBoolean() ? b : new Literal("l"+r.nextInt(2)) });
+		}
+		return data;
+	}
+
+	private static TreeSet<Node[]> random(long seed){
+		Random r = new Random(seed);
+		int n = 4 + r.nextInt(10);
+		int e = n + r.nextInt(n);
+		TreeSet<Node[]> data = new TreeSet<Node[]>(NodeComparator.NC);
+		for(int i=0; i<e; i++){
+			data.add(new Node[]{ new BNode("b"+r.nextInt(n)), PREDS[r.nextInt(2)], new BNode("b"+r.nextInt(n)) });
+		}
+		int g = r.nextInt(n);
+		for(int i=0; i<g; i++){
+			data.add(new Node[]{ new BNode("b"+r.nextInt(n)), PREDS[r.nextInt(2)], new Literal("l"+r.nextInt(2)) });
+		}
+		return data;
+	}
+}
@@ -0,0 +1,94 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.parser.NxParser;
+import org.semanticweb.yars.nx.parser.ParseException;
+
+import cl.uchile.dcc.blabel.io.MappedNxIterator;
+import cl.uchile.dcc.blabel.io.MappedNxReader;
+import cl.uchile.dcc.blabel.io.TermDictionary;
+
+public class MappedNxReaderTest {
+
+	@Test
+	public void testMappedReaderMatchesNxParser() throws IOException, ParseException {
+		ArrayList<String> input = new ArrayList<String>();
+		input.add("# a comment");
+		input.add("<http://ex.org/s> <http://ex.org/p> <http://ex.org/o> <http://ex.org/g1> .");
+		input.add("");
+		input.add("_:b1 <http://ex.org/p> \"a \\\"quoted\\\" literal\" <http://ex.org/g1> .");
+		input.add("_:b1 <http://ex.org/p> \"hola\"@es <http://ex.org/g1> .");
+		input.add("_:b2  <http://ex.org/p> \"1\"^^<http://www.w3.org/2001/XMLSchema#integer> <http://ex.org/g2> .");
+		input.add("<http://ex.org/s> <http://ex.org/p> \"niño\" <http://ex.org/g2> .");
+		input.add("_:b2 <http://ex.org/p> _:b3 <http://ex.org/g2> .");
+		for (int i = 0; i < 20; i++) {
+			input.add("_:x" + i + " <http://ex.org/next> _:x" + (i + 1) + " <http://ex.org/g3> .");
+		}
+
+		File f = File.createTempFile("blabel-test", ".nq");
+		f.deleteOnExit();
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		for (int i = 0; i < input.size(); i++) {
+			w.write(input.get(i));
+			// no newline after the last statement
+			if (i < input.size() - 1) {
+				w.write("\n");
+			}
+		}
+		w.close();
+
+		ArrayList<Node[]> expected = new ArrayList<Node[]>();
+		NxParser nxp = new NxParser(input.iterator());
+		while (nxp.hasNext()) {
+			expected.add(nxp.next());
+		}
+
+		// small window to test remapping
+		MappedNxReader mr = new MappedNxReader(f, 128);
+		MappedNxIterator iter = new MappedNxIterator(mr, 8);
+		ArrayList<Node[]> actual = new ArrayList<Node[]>();
+		while (iter.hasNext()) {
+			actual.add(iter.next());
+		}
+		mr.close();
+
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), actual.get(i));
+		}
+
+		// contexts not read
+		mr = new MappedNxReader(f);
+		iter = new MappedNxIterator(mr, 8, 3);
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(Arrays.copyOf(expected.get(i), 3), iter.next());
+		}
+		mr.close();
+
+		// byte-level access
+		mr = new MappedNxReader(f);
+		TermDictionary dict = new TermDictionary();
+		assertTrue(mr.next());
+		byte[] g1 = mr.getTermBytes(3);
+		int g1id = mr.intern(3, dict);
+		assertTrue(mr.next());
+		assertTrue(mr.isBNode(0));
+		assertTrue(mr.termEquals(3, g1));
+		assertEquals(g1id, mr.intern(3, dict));
+		assertEquals(expected.get(1)[2], mr.getNode(2));
+		mr.close();
+	}
+}
@@ -0,0 +1,106 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.Callback;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+import cl.uchile.dcc.blabel.cli.LabelRDFGraph;
+import cl.uchile.dcc.blabel.label.GraphColouring.HashCollisionException;
+import cl.uchile.dcc.blabel.label.GraphLabelling.GraphLabellingArgs;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline.NQuadsPipelineArgs;
+import cl.uchile.dcc.blabel.pipeline.NQuadsPipeline.NQuadsPipelineResult;
+
+public class NQuadsPipelineTest {
+
+	@Test
+	public void testPipelineMatchesSequentialLabelling() throws InterruptedException, HashCollisionException {
+		ArrayList<String> input = new ArrayList<String>();
+		ArrayList<List<Node[]>> docs = new ArrayList<List<Node[]>>();
+		for (int d = 0; d < 40; d++) {
+			ArrayList<String> doc = new ArrayList<String>();
+			if (d % 5 == 0) {
+				// no blank nodes
+				doc.add("<s" + d + "> <p> <o> .");
+			} else {
+				// a cycle of length depending on d
+				int len = 1 + d % 7;
+				for (int i = 0; i < len; i++) {
+					doc.add("_:b" + i + " <p> _:b" + ((i + 1) % len) + " .");
+				}
+				doc.add("_:b0 <name> \"doc " + d + "\" .");
+			}
+			ArrayList<Node[]> triples = new ArrayList<Node[]>();
+			NxParser nxp = new NxParser(doc.iterator());
+			while (nxp.hasNext()) {
+				triples.add(nxp.next());
+			}
+			docs.add(triples);
+
+			for (String t : doc) {
+				// last document in the default graph
+				if (d == 39) {
+					input.add(t);
+				} else {
+					input.add(t.substring(0, t.length() - 1) + "<http://ex.org/g" + d + "> .");
+				}
+			}
+		}
+
+		// expected: each document labelled sequentially
+		ArrayList<Node[]> expected = new ArrayList<Node[]>();
+		for (int d = 0; d < docs.size(); d++) {
+			ListCallback cb = new ListCallback();
+			if (d % 5 == 0) {
+				cb.processStatement(docs.get(d).get(0));
+			} else {
+				LabelRDFGraph.labelGraph(docs.get(d), cb, new GraphLabellingArgs(), "", true);
+			}
+			for (Node[] t : cb.stmts) {
+				if (d == 39) {
+					expected.add(t);
+				} else {
+					expected.add(new Node[] { t[0], t[1], t[2], new Resource("http://ex.org/g" + d) });
+				}
+			}
+		}
+
+		NQuadsPipelineArgs args = new NQuadsPipelineArgs();
+		args.setThreads(4);
+		args.setQueueSize(3);
+		args.setWriteBnode(true);
+		ListCallback out = new ListCallback();
+		NQuadsPipelineResult res = new NQuadsPipeline(new NxParser(input.iterator()), out, args).call();
+
+		assertEquals(40, res.getDocumentCount());
+		assertEquals(32, res.getBnodeDocumentCount());
+		assertEquals(0, res.getTimeoutCount() + res.getFailureCount());
+		assertEquals(input.size(), res.getStatementsRead());
+		assertEquals(expected.size(), out.stmts.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), out.stmts.get(i));
+		}
+	}
+
+	private static class ListCallback implements Callback {
+		private final ArrayList<Node[]> stmts = new ArrayList<Node[]>();
+
+		public void startDocument() {
+		}
+
+		public void endDocument() {
+		}
+
+		public void processStatement(Node[] nx) {
+			stmts.add(nx);
+		}
+	}
+}
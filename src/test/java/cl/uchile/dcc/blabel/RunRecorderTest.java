@@ -0,0 +1,66 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import cl.uchile.dcc.blabel.cli.CompareRuns;
+import cl.uchile.dcc.blabel.test.RunRecorder;
+
+public class RunRecorderTest {
+
+	@Test
+	public void testRoundtrip() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		RunRecorder rec = new RunRecorder(baos, "Test", new String[]{ "-x", "1" });
+		rec.startDocument();
+		rec.write(rec.record("LABEL", "<http://ex.org/\"g\"\t1>", 12, null).put("leaves", 3).put("ratio", 0.5).put("lean", true));
+		rec.write(rec.record("LEAN", "g2", 600000, new TimeoutException()));
+		rec.close();
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(baos.toByteArray()), Charsets.UTF_8));
+		Map<String,Object> env = RunRecorder.parse(br.readLine());
+		assertEquals(RunRecorder.ENV, env.get(RunRecorder.TYPE));
+		assertEquals("-x 1", env.get("args"));
+
+		Map<String,Object> doc = RunRecorder.parse(br.readLine());
+		assertEquals(RunRecorder.DOC, doc.get(RunRecorder.TYPE));
+		assertEquals("<http://ex.org/\"g\"\t1>", doc.get(RunRecorder.NAME));
+		assertEquals(RunRecorder.OK, doc.get(RunRecorder.STATUS));
+		assertEquals(12L, doc.get(RunRecorder.MS));
+		assertEquals(3L, doc.get("leaves"));
+		assertEquals(0.5, doc.get("ratio"));
+		assertEquals(Boolean.TRUE, doc.get("lean"));
+		assertTrue(doc.get(RunRecorder.PEAK_HEAP) instanceof Long);
+
+		doc = RunRecorder.parse(br.readLine());
+		assertEquals(RunRecorder.TIMEOUT, doc.get(RunRecorder.STATUS));
+		assertEquals(null, br.readLine());
+	}
+
+	@Test
+	public void testMannWhitney() {
+		double[] a = { 10, 11, 12, 10, 11, 12, 10, 11 };
+		double[] b = { 20, 21, 19, 22, 20, 21, 19, 22 };
+		assertTrue(CompareRuns.mannWhitneyP(a, b) < 0.01);
+		assertTrue(CompareRuns.mannWhitneyP(b, a) > 0.99);
+		assertTrue(CompareRuns.mannWhitneyP(a, a) > 0.4);
+	}
+
+	@Test
+	public void testWilcoxon() {
+		double[] up = { 0.2, 0.3, 0.1, 0.25, 0.4, 0.15, 0.3, 0.2, -0.05, 0.1 };
+		assertTrue(CompareRuns.wilcoxonP(up) < 0.01);
+		assertEquals(1, CompareRuns.wilcoxonP(new double[]{ 0, 0 }), 0);
+	}
+}
@@ -0,0 +1,62 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Test;
+import org.semanticweb.yars.nx.Node;
+
+import com.google.common.hash.HashCode;
+
+import cl.uchile.dcc.blabel.cli.RunSyntheticEvaluation;
+import cl.uchile.dcc.blabel.label.GraphLabelling;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs;
+import cl.uchile.dcc.blabel.test.SyntheticGraphs.Family;
+
+public class SyntheticGraphsTest {
+
+	@Test
+	public void testSizes() {
+		assertEquals(16, bnodes(Family.GRID, 4));
+		assertEquals(4*3*2, SyntheticGraphs.generate(Family.GRID, 4, 0).size() / 2);
+		assertEquals(5, bnodes(Family.CLIQUE, 5));
+		assertEquals(5*4, SyntheticGraphs.generate(Family.CLIQUE, 5, 0).size());
+		assertEquals(6, bnodes(Family.BIPARTITE, 3));
+		assertEquals(80, bnodes(Family.MIYAZAKI, 4));
+		assertEquals(60, bnodes(Family.CFI, 5));
+		assertEquals(10, bnodes(Family.REGULAR, 10));
+		assertEquals(10*3, SyntheticGraphs.generate(Family.REGULAR, 10, 0).size());
+		assertEquals(7, bnodes(Family.LIST, 7));
+		assertEquals(7, bnodes(Family.REIFICATION, 7));
+	}
+
+	@Test
+	public void testSeeded() {
+		ArrayList<Node[]> a = SyntheticGraphs.generate(Family.REGULAR, 20, 42);
+		ArrayList<Node[]> b = SyntheticGraphs.generate(Family.REGULAR, 20, 42);
+		assertEquals(a.size(), b.size());
+		for(int i=0; i<a.size(); i++){
+			for(int j=0; j<3; j++){
+				assertEquals(a.get(i)[j], b.get(i)[j]);
+			}
+		}
+	}
+
+	@Test
+	public void testMiyazakiTwistParity() throws Exception {
+		// isomorphic iff the parity of twists is equal:
+		// expect exactly two canonical graphs over several seeds
+		HashSet<HashCode> hashes = new HashSet<HashCode>();
+		for(long seed=0; seed<6; seed++){
+			ArrayList<Node[]> g = SyntheticGraphs.generate(Family.MIYAZAKI, 3, seed);
+			hashes.add(new GraphLabelling(g).call().getUniqueGraphHash());
+		}
+		assertEquals(2, hashes.size());
+	}
+
+	private static int bnodes(Family f, int k){
+		return RunSyntheticEvaluation.countBnodes(SyntheticGraphs.generate(f, k, 0));
+	}
+}
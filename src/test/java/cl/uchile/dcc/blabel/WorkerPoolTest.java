@@ -0,0 +1,57 @@
+package cl.uchile.dcc.blabel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import cl.uchile.dcc.blabel.pipeline.WorkerPool;
+
+public class WorkerPoolTest {
+
+	@Test
+	public void testDeadlineCancelsTaskAndKeepsWorker() throws InterruptedException, ExecutionException, TimeoutException {
+		WorkerPool pool = new WorkerPool(1);
+
+		final String[] threads = new String[2];
+		try {
+			pool.run(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					threads[0] = Thread.currentThread().getName();
+					Thread.sleep(60000);
+					return true;
+				}
+			}, 100, TimeUnit.MILLISECONDS);
+			fail("expected a timeout");
+		} catch (TimeoutException e) {
+			// expected
+		}
+
+		// the deadline starts when the task starts, so a task waiting
+		// longer than its deadline behind another does not time out
+		WorkerPool.DeadlineFuture<Integer> slow = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				Thread.sleep(500);
+				return 1;
+			}
+		}, 10, TimeUnit.SECONDS);
+		int res = pool.run(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				threads[1] = Thread.currentThread().getName();
+				return 2;
+			}
+		}, 200, TimeUnit.MILLISECONDS);
+
+		assertEquals(1, slow.get().intValue());
+		assertFalse(slow.isTimedOut());
+		assertEquals(2, res);
+		assertEquals(threads[0], threads[1]);
+		pool.shutdown();
+	}
+}